@@ -83,6 +83,19 @@ create table CUSTOMER_STAT (
     constraint CUSTOMER_STAT_MEDIA_INFO_FK foreign key (MEDIA_ID) references MEDIA_INFO (MEDIA_ID),
     constraint CUSTOMER_STAT_DAY_OF_WEEK_FK foreign key (DAY_OF_WEEK_ID) references DAY_OF_WEEK (DAY_OF_WEEK_ID))
 ;
+create table CUSTOMER_SKETCH (
+    METHOD_ID number(9) not null,
+    ORIGIN_ID number(9) not null,
+    MEDIA_ID number(9) not null,
+    STATISTICS_DATE date not null,
+    DAY_OF_WEEK_ID number(1) not null,
+    SKETCH raw(1025) not null,
+    constraint CUSTOMER_SKETCH_PK primary key (METHOD_ID, ORIGIN_ID, MEDIA_ID, STATISTICS_DATE),
+    constraint CUSTOMER_SKETCH_METHOD_INFO_FK foreign key (METHOD_ID) references METHOD_INFO (METHOD_ID),
+    constraint CUSTOMER_SKETCH_ORIGIN_INFO_FK foreign key (ORIGIN_ID) references ORIGIN_INFO (ORIGIN_ID),
+    constraint CUSTOMER_SKETCH_MEDIA_INFO_FK foreign key (MEDIA_ID) references MEDIA_INFO (MEDIA_ID),
+    constraint CUSTOMER_SKETCH_DAY_OF_WEEK_FK foreign key (DAY_OF_WEEK_ID) references DAY_OF_WEEK (DAY_OF_WEEK_ID))
+;
 create table TIME_STAT (
     METHOD_ID number(9) not null,
     ORIGIN_ID number(9) not null,
@@ -117,3 +130,39 @@ create table TIME_STAT (
     constraint TIME_STAT_LAYER_INFO_FK foreign key (LAYER_ID) references LAYER_INFO (LAYER_ID),
     constraint TIME_STAT_DAY_OF_WEEK_FK foreign key (DAY_OF_WEEK_ID) references DAY_OF_WEEK (DAY_OF_WEEK_ID))
 ;
+create table TIME_STAT_MINUTE (
+    METHOD_ID number(9) not null,
+    ORIGIN_ID number(9) not null,
+    MEDIA_ID number(9) not null,
+    LAYER_ID number(9) not null,
+    PRODUCT char(20) not null,
+    STATISTICS_TIME date not null,
+    DAY_OF_WEEK_ID number(1) not null,
+    HOUR_OF_DAY number(2) not null,
+    NUM_CORRECT_CALLS number(9) default 0 not null,
+    NUM_INVALID_CALLS number(9) default 0 not null,
+    NUM_FAILED_CALLS number(9) default 0 not null,
+    TOTAL_TIME_CORRECT_CALLS number(18) default 0 not null,
+    TOTAL_TIME_INVALID_CALLS number(18) default 0 not null,
+    TOTAL_TIME_FAILED_CALLS number(18) default 0 not null,
+    NUM_10 number(9) default 0 not null,
+    NUM_20 number(9) default 0 not null,
+    NUM_50 number(9) default 0 not null,
+    NUM_100 number(9) default 0 not null,
+    NUM_200 number(9) default 0 not null,
+    NUM_500 number(9) default 0 not null,
+    NUM_1000 number(9) default 0 not null,
+    NUM_2000 number(9) default 0 not null,
+    NUM_5000 number(9) default 0 not null,
+    NUM_10000 number(9) default 0 not null,
+    NUM_20000 number(9) default 0 not null,
+    NUM_OVER_20000 number(9) default 0 not null,
+    constraint TIME_STAT_MIN_PK primary key (METHOD_ID, ORIGIN_ID, MEDIA_ID, LAYER_ID, PRODUCT, STATISTICS_TIME),
+    constraint TIME_STAT_MIN_METHOD_INFO_FK foreign key (METHOD_ID) references METHOD_INFO (METHOD_ID),
+    constraint TIME_STAT_MIN_ORIGIN_INFO_FK foreign key (ORIGIN_ID) references ORIGIN_INFO (ORIGIN_ID),
+    constraint TIME_STAT_MIN_MEDIA_INFO_FK foreign key (MEDIA_ID) references MEDIA_INFO (MEDIA_ID),
+    constraint TIME_STAT_MIN_LAYER_INFO_FK foreign key (LAYER_ID) references LAYER_INFO (LAYER_ID),
+    constraint TIME_STAT_MIN_DAY_OF_WEEK_FK foreign key (DAY_OF_WEEK_ID) references DAY_OF_WEEK (DAY_OF_WEEK_ID))
+;
+create index TIME_STAT_MIN_TIME_IX on TIME_STAT_MINUTE (STATISTICS_TIME)
+;
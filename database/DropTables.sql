@@ -1,5 +1,9 @@
+drop table TIME_STAT_MINUTE
+;
 drop table TIME_STAT
 ;
+drop table CUSTOMER_SKETCH
+;
 drop table CUSTOMER_STAT
 ;
 drop table DAY_OF_WEEK
@@ -1,13 +1,37 @@
 package se.uc.stat.basestatistics;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import se.uc.stat.dimension.Dimensions;
+import se.uc.stat.event.StatEventListener;
+import se.uc.stat.event.StatEvents;
+import se.uc.stat.utils.CircuitOpenException;
 import se.uc.stat.utils.DatabaseUtils;
+import se.uc.stat.utils.JmxUtils;
 import se.uc.stat.log.Log;
 
 /**
@@ -16,13 +40,18 @@ import se.uc.stat.log.Log;
  * All registration methods have to be constructed in the following way:
  * <pre>
  * Key key = ...;
+ * final long waitStart = System.nanoTime();
  * synchronized(cacheLock) {
- *     Info info = get(key);
- *     if (info == null) {
- *         info = new Info(key, ...);
- *         put(key, info);
+ *     lockAcquired(waitStart);
+ *     final Key admittedKey = admit(key);
+ *     if (admittedKey != null) {
+ *         Info info = get(admittedKey);
+ *         if (info == null) {
+ *             info = new Info(admittedKey, ...);
+ *             put(info);
+ *         }
+ *         info.registerXxx(...);
  *     }
- *     info.registerXxx(...);
  * }
  * allowStore();
  * </pre>
@@ -75,6 +104,84 @@ import se.uc.stat.log.Log;
  * this scenario by always introduce a time between the storage of the last
  * information object in <code>storeList</code> and the next copy of new
  * objects to <code>storeList</code>.
+ * <p/>
+ * <strong>Snapshots:</strong>
+ * A snapshot copies the information in the <code>cache</code>, that is the
+ * information not yet stored persistent, in batches of a limited number
+ * of objects. The lock on <code>cacheLock</code> is released between the
+ * batches, so registrations are never blocked for more than the copying
+ * of one batch. As a consequence the objects are not copied at exactly
+ * the same time.
+ * <p/>
+ * <strong>Parallel stores:</strong>
+ * By default the registering threads store the <code>storeList</code>.
+ * When parallel stores are set, see {@link #setParallelStores(int)}, the
+ * <code>storeList</code> is split in partitions by the hash of the key and
+ * a pool of workers stores one partition each. A worker stores its whole
+ * partition on one connection. A key is in one partition only, so two
+ * workers never update the same row. A new round, or a flush, is not
+ * started until all workers are done.
+ * <p/>
+ * <strong>Scheduling:</strong>
+ * The store rounds are scheduled by a {@link StoreSchedule}. By default a
+ * round starts a store interval after the previous round ended. With an
+ * adaptive schedule, see {@link #setAdaptiveSchedule(long, long, long)},
+ * the round starts sooner when the cache grows, the number of objects
+ * stored per registering thread follows the measured store time and the
+ * wait after failed rounds grows exponentially.
+ * <p/>
+ * <strong>Memory budget:</strong>
+ * The memory of the <code>cache</code> and the <code>storeList</code> is
+ * estimated from the number of objects and the size of the keys. When a
+ * budget is set and the estimate exceeds it, {@link #admit} applies the
+ * {@link OverflowPolicy} to registrations of keys not in the cache. Without
+ * a budget the cache grows as long as the stores fail.
+ * <p/>
+ * <strong>Spill to disk:</strong>
+ * When a spill directory is set, see {@link #setSpill(File, int)}, and a
+ * store fails because the database can not be reached (a
+ * <code>SQLTransientConnectionException</code>, which includes an open
+ * circuit breaker), all information in the <code>cache</code> is removed
+ * from the cache and written to a new segment file, so it survives a
+ * restart of the application while the database is unavailable. Other
+ * failures leave the information in the cache. The information objects
+ * are removed while the lock on <code>cacheLock</code> is held, and the
+ * segment is written after the lock is released. Since the registrations
+ * create new objects for the removed keys, the removed objects are never
+ * updated while they are written. If the segment can not be written, the
+ * information is merged back into the cache.
+ * <p/>
+ * A background thread replays the segments, including segments left by a
+ * previous run, once per store interval. The information is stored in the
+ * same way as the information in the <code>storeList</code>, at a limited
+ * rate so the backlog does not swamp the database. If a store fails with
+ * a transient error the information not yet stored is written to a new
+ * segment and the replay continues later. An object failing with another
+ * error is written to a bad segment for manual inspection, and the replay
+ * continues with the next object.
+ * <p/>
+ * <strong>Crash journal:</strong>
+ * When a journal directory is set, see {@link #setJournal(File, long)}, a
+ * background thread writes a checkpoint of the <code>cache</code> to a
+ * memory-mapped file at a fixed interval. The thread storing the last
+ * object of a successful store round, and a flush, also write a
+ * checkpoint, so the stored information is not in the journal any more.
+ * The checkpoint is copied in batches in the same way as a snapshot. The
+ * registrations never touch the journal and nothing is forced to disk, so
+ * the journal survives a crash of the JVM but not of the operating system.
+ * The checkpoint found when the journal is set is merged into the
+ * <code>cache</code>. Only the information stored in the database in the
+ * round running at a crash is stored again after the restart, so the
+ * journal may count that information twice but never loses a checkpoint.
+ * A checkpoint that does not fit in the journal empties the journal, since
+ * the previous checkpoint holds information that may be stored since.
+ * <p/>
+ * <strong>Monitoring:</strong>
+ * The collector counts the registrations, the time waiting for
+ * <code>cacheLock</code>, the stores and their times. The numbers are
+ * published over JMX when {@link #registerMBean(String)} has been called,
+ * see {@link CollectorMonitorMBean}. The store rounds and the long waits
+ * for the lock are reported to the {@link StatEventListener}, if any.
  *
  * @param <Key>   The type of the key object. 
  * @param <Info>  The type of the information object.
@@ -86,6 +193,37 @@ public abstract class BaseCollector<Key,
     /** The log object for this class. */
     private final Log log = Log.getLog(getClass());
 
+    /** The max number of objects copied per lock when taking a snapshot. */
+    private final static int SNAPSHOT_BATCH_SIZE = 256;
+
+    /** The type of the MBeans of the collectors. */
+    private final static String MBEAN_TYPE = "Collector";
+
+    /** The upper limits in milliseconds of the store time intervals. */
+    private final static long STORE_TIME_LIMITS[] =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * The estimated memory in bytes of an information object and its map
+     * entry, without the key.
+     */
+    private final static int INFO_SIZE = 200;
+
+    /** The estimated memory in bytes of a key not based on BaseKey. */
+    private final static int KEY_SIZE = 200;
+
+    /** The size in bytes of the journal file, see {@link CrashJournal}. */
+    private final static int JOURNAL_CAPACITY = 64 * 1024 * 1024;
+
+    /** The suffix of the journal file. */
+    private final static String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * The part of the store interval that must pass between two early
+     * store rounds.
+     */
+    private final static int EARLY_FLUSH_DIVISOR = 10;
+
     /**
      * Lock object used at reads and updates of <code>cache</code> and
      * <code>storeList</code>.
@@ -100,11 +238,34 @@ public abstract class BaseCollector<Key,
     private final HashMap<Key, Info> cache = new HashMap<Key, Info>();
 
     /**
-     * List of the information that is marked to be stored.
-     * All access to this map have to be done when a lock on
+     * List of the information that is marked to be stored, split in
+     * partitions by the hash of the key. There is one partition unless the
+     * stores are parallel. The partitions are replaced, never resized.
+     * All access to this list have to be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private List<ArrayList<Info>> storeList = createPartitions(1);
+
+    /**
+     * The workers storing the partitions in parallel or <code>null</code>
+     * if the registering threads store the information. All access must be
+     * done when a lock on <code>cacheLock</code> is held.
+     */
+    private ExecutorService storeWorkers = null;
+
+    /**
+     * The number of workers storing a partition of the current round.
+     * <code>cacheLock</code> is notified when the last worker is done.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private int numActiveWorkers = 0;
+
+    /**
+     * The number of objects removed from the <code>storeList</code> and not
+     * yet stored or failed. All access must be done when a lock on
      * <code>cacheLock</code> is held.
      */
-    private final ArrayList<Info> storeList = new ArrayList<Info>();
+    private int numInFlight = 0;
 
     /**
      * The next time a store should be initiated. The copy is done the first
@@ -124,16 +285,127 @@ public abstract class BaseCollector<Key,
     private final long storeInterval;
 
     /**
-     * The maximum number of objects a single thread may have to store
-     * before it is released.
+     * The schedule of the store rounds. All access must be done when a lock
+     * on <code>cacheLock</code> is held.
      */
-    private final int maxNumberOfStores;
+    private final StoreSchedule schedule;
     
     /** The SQL to perform update. */
     private final String updateSql;
     
     /** The SQL to perform insert. */
     private final String insertSql;
+
+    /** The number of registrations. */
+    private final AtomicLong numRegistrations = new AtomicLong();
+    /** The time in nanoseconds the registrations waited for the lock. */
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    /** The number of information objects stored. */
+    private final AtomicLong numStores = new AtomicLong();
+    /** The number of failed stores. */
+    private final AtomicLong numFailedStores = new AtomicLong();
+    /** The number of corrected double stores. */
+    private final AtomicLong numDoubleStores = new AtomicLong();
+    /** The total time in nanoseconds of the stores. */
+    private final AtomicLong storeNanos = new AtomicLong();
+    /** The number of stores per time interval. */
+    private final AtomicLongArray storeTimes =
+            new AtomicLongArray(STORE_TIME_LIMITS.length + 1);
+
+    /**
+     * The name of the registered MBean or <code>null</code> if not
+     * registered. All access must be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private String mbeanName = null;
+
+    /**
+     * The memory budget in bytes or <code>0</code> if unlimited.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private long memoryBudget = 0;
+
+    /**
+     * The policy applied when the memory budget is exceeded.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.FLUSH;
+
+    /**
+     * The estimated memory in bytes of the objects in <code>cache</code>.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private long cacheMemory = 0;
+
+    /**
+     * The time of the last early store round.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private long lastEarlyFlush = 0;
+
+    /** The number of registrations dropped due to the memory budget. */
+    private final AtomicLong numDropped = new AtomicLong();
+    /** The number of registrations folded into an overflow key. */
+    private final AtomicLong numFolded = new AtomicLong();
+    /** The number of early store rounds due to the memory budget. */
+    private final AtomicLong numEarlyFlushes = new AtomicLong();
+
+    /**
+     * The segments the cache is spilled to or <code>null</code> if the
+     * cache is not spilled. All access must be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private SpillSegments spill = null;
+
+    /**
+     * Lock object held while the spill is set, so that the replayer of the
+     * previous directory has ended before the next replayer is started.
+     */
+    private final Object spillLock = new Object();
+
+    /**
+     * The thread replaying the spilled information or <code>null</code> if
+     * not started. All access must be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private Replayer replayer = null;
+
+    /** The number of information objects spilled to disk. */
+    private final AtomicLong numSpilled = new AtomicLong();
+    /** The number of spilled information objects stored in the database. */
+    private final AtomicLong numReplayed = new AtomicLong();
+
+    /**
+     * The journal the cache is checkpointed to or <code>null</code> if the
+     * cache is not journaled. All access must be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private CrashJournal journal = null;
+
+    /**
+     * The thread writing the checkpoints or <code>null</code> if not
+     * started. All access must be done when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private Checkpointer checkpointer = null;
+
+    /**
+     * Incremented each time information is removed from the cache without
+     * being stored, so that a checkpoint copied before is not written.
+     * All access must be done when a lock on <code>cacheLock</code> is held.
+     */
+    private long cacheEpoch = 0;
+
+    /**
+     * The buffer the checkpoints are serialized to. It is reused to avoid
+     * garbage. All access must be done when a lock on this is held.
+     */
+    private final CheckpointBuffer checkpointBuffer = new CheckpointBuffer();
+
+    /** The number of checkpoints written to the journal. */
+    private final AtomicLong numCheckpoints = new AtomicLong();
+    /** The number of information objects recovered from the journal. */
+    private final AtomicLong numRecovered = new AtomicLong();
     
     /**
      * Create this instance.
@@ -155,7 +427,7 @@ public abstract class BaseCollector<Key,
             String updateSql, String insertSql) {
         this.storeInterval = storeInterval;
         nextStore = System.currentTimeMillis() + storeInterval;
-        this.maxNumberOfStores = maxNumberOfStorages;
+        schedule = new StoreSchedule(storeInterval, maxNumberOfStorages);
         this.updateSql = updateSql;
         this.insertSql = insertSql;
     }
@@ -187,8 +459,204 @@ public abstract class BaseCollector<Key,
      */
     protected final void put(Info info) {
         cache.put(info.getKey(), info);
+        cacheMemory += getEstimatedSize(info.getKey());
+    }
+
+    /**
+     * Remove the statistics information object for the given key.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held.
+     * 
+     * @param key The key to remove the information object for.
+     */
+    private void remove(Key key) {
+        if (cache.remove(key) != null) {
+            cacheMemory -= getEstimatedSize(key);
+        }
+    }
+
+    /**
+     * Get the estimated memory of an information object in the cache.
+     * 
+     * @param key The key of the object.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    private int getEstimatedSize(Key key) {
+        if (key instanceof BaseKey) {
+            return getInformationSize() + ((BaseKey)key).getEstimatedSize();
+        }
+        return getInformationSize() + KEY_SIZE;
+    }
+
+    /**
+     * Get the estimated memory in bytes of an information object and its
+     * map entry, without the key. Sub classes whose information holds more
+     * than a few numbers override this method.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    protected int getInformationSize() {
+        return INFO_SIZE;
+    }
+
+    /**
+     * Get the estimated memory of the cache and the store list. The objects
+     * in the store list share the keys with the objects in the cache.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    private long getEstimatedMemory() {
+        return cacheMemory + (long)storeListSize() * INFO_SIZE;
+    }
+
+    /**
+     * Method called by the sub class inside the synchronization block of a
+     * registration to apply the memory budget before the information
+     * object of the key is looked up.
+     * <p/>
+     * Note the constraints regarding calling this method specified in the
+     * class documentation for this class.
+     * 
+     * @param key The key of the registration.
+     * 
+     * @return The key to register the call on, which is <code>key</code>,
+     *         or the overflow key if the call is folded, or
+     *         <code>null</code> if the call should be dropped.
+     */
+    protected final Key admit(Key key) {
+        if (memoryBudget == 0 || getEstimatedMemory() < memoryBudget ||
+                cache.containsKey(key)) {
+            return key;
+        }
+        switch (overflowPolicy) {
+        case DROP:
+            numDropped.incrementAndGet();
+            return null;
+        case FOLD:
+            final Key overflowKey = getOverflowKey(key);
+            if (overflowKey == null) {
+                numDropped.incrementAndGet();
+                return null;
+            }
+            numFolded.incrementAndGet();
+            return overflowKey;
+        default:
+            final long time = System.currentTimeMillis();
+            if (storeListSize() == 0 && time < nextStore &&
+                    !schedule.isBackingOff() &&
+                    time - lastEarlyFlush >=
+                    storeInterval / EARLY_FLUSH_DIVISOR) {
+                nextStore = time;
+                lastEarlyFlush = time;
+                numEarlyFlushes.incrementAndGet();
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Get the key the calls of a key are folded into when the memory budget
+     * is exceeded and the policy is {@link OverflowPolicy#FOLD}. The default
+     * is no overflow key.
+     * 
+     * @param key The key of the registration.
+     * 
+     * @return The overflow key or <code>null</code> to drop the call.
+     */
+    protected Key getOverflowKey(Key key) {
+        return null;
+    }
+
+    /**
+     * Set the memory budget of this collector.
+     * 
+     * @param budget The estimated memory in bytes the cache may use before
+     *               the policy is applied, or <code>0</code> for unlimited.
+     *               Must not be negative.
+     * @param policy The policy applied when the budget is exceeded.
+     *               Must not be <code>null</code>.
+     *               
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public final void setMemoryBudget(long budget, OverflowPolicy policy) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget must not be negative");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        synchronized(cacheLock) {
+            memoryBudget = budget;
+            overflowPolicy = policy;
+        }
+    }
+
+    /**
+     * Make the schedule of the store rounds adaptive, see
+     * {@link StoreSchedule}. The time to store one object is measured, the
+     * number of objects stored per registering thread is sized to a target
+     * time, the next round starts sooner when the cache grows and the wait
+     * after failed rounds doubles, with a random part, up to a maximum.
+     * 
+     * @param targetTime  The target time in milliseconds a registering
+     *                    thread spends storing, or <code>0</code> for the
+     *                    fixed schedule given to the constructor.
+     *                    Must not be negative.
+     * @param minInterval The minimum time in milliseconds between the
+     *                    store rounds. Must not be negative.
+     * @param maxBackoff  The maximum time in milliseconds to wait after
+     *                    failed rounds. At least the store interval is
+     *                    waited.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public final void setAdaptiveSchedule(long targetTime, long minInterval,
+            long maxBackoff) {
+        synchronized(cacheLock) {
+            schedule.setAdaptive(targetTime, minInterval, maxBackoff);
+        }
     }
     
+    /**
+     * Method called by the sub class as the first statement
+     * <strong>inside</strong> the synchronization block of a registration
+     * to count the registration and the time waiting for the lock.
+     * <p/>
+     * Note the constraints regarding calling this method specified in the
+     * class documentation for this class.
+     * 
+     * @param waitStart The value of <code>System.nanoTime()</code> before
+     *                  the lock was requested.
+     */
+    protected final void lockAcquired(long waitStart) {
+        final long wait = System.nanoTime() - waitStart;
+        numRegistrations.incrementAndGet();
+        lockWaitNanos.addAndGet(wait);
+        if (wait >= StatEvents.getLockWaitThreshold()) {
+            final StatEventListener listener = StatEvents.getListener();
+            if (listener != null) {
+                listener.lockContended(getName(), wait);
+            }
+        }
+    }
+
+    /**
+     * Get the name of this collector used in the events, normally the name
+     * of the table. The default is the name of the class.
+     * 
+     * @return The name. This method never returns <code>null</code>.
+     */
+    protected String getName() {
+        return getClass().getSimpleName();
+    }
+
     /**
      * Method called by the sub class <strong>outside</strong> the
      * synchronization block to allow this implementation to store
@@ -199,24 +667,38 @@ public abstract class BaseCollector<Key,
      */
     protected final void allowStore() {
         final long time = System.currentTimeMillis();
+        final int batchSize;
+        final List<ArrayList<Info>> partitions;
         synchronized(cacheLock) {
-            if (time < nextStore) {
+            if (time < nextStore &&
+                    time < schedule.getEarlyStore(cache.size())) {
+                return;
+            }
+            if (numActiveWorkers > 0) {
+                // The workers are storing the current round.
                 return;
             }
-            if (storeList.size() == 0) {
+            if (storeListSize() == 0) {
                 copyToStoreList();
-                if (storeList.size() == 0) {
-                    nextStore = time + storeInterval;
+                if (storeListSize() == 0) {
+                    nextStore = schedule.roundEnded(time, 0);
                     return;
                 }
             }
+            batchSize = schedule.getBatchSize();
+            partitions = storeList;
+            if (storeWorkers != null) {
+                startWorkers(null);
+                return;
+            }
         }
-        performStores(maxNumberOfStores);
+        performStores(batchSize, partitions.get(0));
     }
 
     /**
      * Copy information from the <code>cache</code> to the
-     * <code>storeList</code>.
+     * <code>storeList</code>. Each object is added to the partition given
+     * by the hash of its key, so a key is never stored by two workers.
      * <p/>
      * This method should only be called when the <code>storeList</code>
      * is empty (even if the method internally also clear the list).
@@ -225,12 +707,164 @@ public abstract class BaseCollector<Key,
      * <code>cacheLock</code> is held.
      */
     private void copyToStoreList() {
-        storeList.clear();
+        clearStoreList();
+        final int numPartitions = storeList.size();
         for (Info info : cache.values()) {
-            storeList.add(info.createClone());
+            storeList.get((info.getKey().hashCode() & Integer.MAX_VALUE) %
+                    numPartitions).add(info.createClone());
+        }
+    }
+
+    /**
+     * Remove all information from the <code>storeList</code>.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held.
+     */
+    private void clearStoreList() {
+        for (ArrayList<Info> partition : storeList) {
+            partition.clear();
+        }
+    }
+
+    /**
+     * Get the number of objects in the <code>storeList</code>.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held.
+     * 
+     * @return The number of objects in all partitions.
+     */
+    private int storeListSize() {
+        int size = 0;
+        for (ArrayList<Info> partition : storeList) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    /**
+     * Create empty partitions of the <code>storeList</code>.
+     * 
+     * @param numPartitions The number of partitions.
+     * 
+     * @return The partitions. This method never returns <code>null</code>.
+     */
+    private List<ArrayList<Info>> createPartitions(int numPartitions) {
+        final List<ArrayList<Info>> partitions =
+                new ArrayList<ArrayList<Info>>(numPartitions);
+        for (int index = 0; index < numPartitions; index++) {
+            partitions.add(new ArrayList<Info>());
+        }
+        return partitions;
+    }
+
+    /**
+     * Start one worker per partition of the <code>storeList</code>.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held and the workers are set.
+     * 
+     * @param done Counted down by each worker when it is done, or
+     *             <code>null</code>.
+     */
+    private void startWorkers(CountDownLatch done) {
+        for (ArrayList<Info> partition : storeList) {
+            numActiveWorkers++;
+            try {
+                storeWorkers.execute(new PartitionStore(partition, done));
+            } catch (RejectedExecutionException e) {
+                numActiveWorkers--;
+                if (done != null) {
+                    done.countDown();
+                }
+                log.error("The partition could not be stored", e, null);
+            }
+        }
+    }
+
+    /**
+     * Set the number of workers storing the information in parallel. The
+     * <code>storeList</code> of a round is split in one partition per
+     * worker by the hash of the key, and each worker stores its whole
+     * partition on its own connection. Since a key is only in one
+     * partition, the workers never update the same row. The registering
+     * threads never store when the stores are parallel.
+     * 
+     * @param numWorkers The number of workers, or <code>0</code> or
+     *                   <code>1</code> to let the registering threads store
+     *                   the information as by default. Must not be
+     *                   negative.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public final void setParallelStores(int numWorkers) {
+        if (numWorkers < 0) {
+            throw new IllegalArgumentException(
+                    "numWorkers must not be negative");
+        }
+        final ExecutorService previous;
+        synchronized(cacheLock) {
+            previous = storeWorkers;
+            storeWorkers = null;
+            final List<ArrayList<Info>> newStoreList =
+                    createPartitions(Math.max(numWorkers, 1));
+            // Move the information not yet stored. The workers of the
+            // previous partitions find them empty and stop.
+            for (ArrayList<Info> partition : storeList) {
+                for (Info info : partition) {
+                    newStoreList.get((info.getKey().hashCode() &
+                            Integer.MAX_VALUE) % newStoreList.size()).add(info);
+                }
+                partition.clear();
+            }
+            storeList = newStoreList;
+            if (numWorkers > 1) {
+                storeWorkers = Executors.newFixedThreadPool(numWorkers,
+                        new WorkerFactory());
+            }
+        }
+        if (previous != null) {
+            previous.shutdown();
         }
     }
     
+    /**
+     * Take a snapshot of the information that has not yet been stored
+     * persistent. Together with the stored information, the snapshot
+     * gives the current statistics.
+     * <p/>
+     * An object that is being stored when the snapshot is taken may be
+     * part of both the snapshot and the persistent store.
+     * 
+     * @return Immutable copies of the information objects in the cache.
+     *         The list can not be modified.
+     *         This method never returns <code>null</code>.
+     */
+    public final List<Snapshot> snapshot() {
+        final List<Info> infos;
+        synchronized(cacheLock) {
+            infos = new ArrayList<Info>(cache.values());
+        }
+        final List<Snapshot> result = new ArrayList<Snapshot>(infos.size());
+        for (int start = 0; start < infos.size();
+                start += SNAPSHOT_BATCH_SIZE) {
+            final int end = Math.min(start + SNAPSHOT_BATCH_SIZE,
+                    infos.size());
+            synchronized(cacheLock) {
+                for (int index = start; index < end; index++) {
+                    final Info info = infos.get(index);
+                    // Objects removed after a store are empty.
+                    if (cache.get(info.getKey()) == info) {
+                        result.add(info.createSnapshot());
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
     /**
      * <strong>Not allowed for other usage than to flush the cache when
      * the application shuts down</strong>. If used frequently, the performance
@@ -249,31 +883,66 @@ public abstract class BaseCollector<Key,
      */
     public final void flush() {
         int size;
+        final int numberToStore;
+        final List<ArrayList<Info>> partitions;
+        CountDownLatch done = null;
         synchronized(cacheLock) {
-            storeList.clear();
+            // The workers store from the storeList, it must not be
+            // replaced while they are running.
+            while (numActiveWorkers > 0) {
+                try {
+                    cacheLock.wait();
+                } catch (InterruptedException e) {
+                    log.warning("The flush was interrupted before the " +
+                            "workers were done, nothing is stored", e, null);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
             copyToStoreList();
             nextStore = System.currentTimeMillis() + storeInterval;
-            size = storeList.size();
+            size = storeListSize();
+            // A number of stores that are expected to fit with good margin
+            // within the store interval, see StoreSchedule.
+            numberToStore = schedule.getFlushBatchSize();
+            partitions = storeList;
+            if (storeWorkers != null && size > 0) {
+                done = new CountDownLatch(partitions.size());
+                startWorkers(done);
+            }
+        }
+        if (done != null) {
+            awaitWorkers(done);
+            checkpoint();
+            return;
         }
-        // This calculation is done to get a number of stores that are
-        // expected to fit with good margin within the store interval.
-        // One database operation is expected to take 10 ms and a maximum
-        // of 3 database operation per object means max 30 ms per object.
-        // This gives a factor 10 margin from that calculation.
         // The reason to update nextStore in each loop is to prevent the
         // normal automatic storing to be trigged to start while the flush
         // performs.
-        int numberToStore = (int)(storeInterval / 300);
-        if (numberToStore < 1) {
-            numberToStore = 1;
-        }
         while (size > 0) {
-            performStores(numberToStore);
+            performStores(numberToStore, partitions.get(0));
             synchronized(cacheLock) {
                 nextStore = System.currentTimeMillis() + storeInterval;
-                size = storeList.size();
+                size = storeListSize();
             }
         }
+        checkpoint();
+    }
+
+    /**
+     * Wait until the workers storing a flush are done.
+     * 
+     * @param done The latch counted down by the workers.
+     *             Must not be <code>null</code>.
+     */
+    private void awaitWorkers(CountDownLatch done) {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            log.warning("The flush was interrupted before all information " +
+                    "was stored", e, null);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -283,56 +952,82 @@ public abstract class BaseCollector<Key,
      * if it should be updated.
      * 
      * @param maxStores The maximum number of information objects to store.
+     * @param partition The partition of the <code>storeList</code> to
+     *                  store. Must not be <code>null</code>.
      * 
      * @return <code>true</code> if all expected information objects are stored.
      *         <code>false</code> if the store sequence ended with a failure.
      */
-    private boolean performStores(int maxStores) {
+    private boolean performStores(int maxStores, ArrayList<Info> partition) {
+        final StatEventListener listener = StatEvents.getListener();
+        final long roundStart = listener == null ? 0 : System.nanoTime();
+        int numStored = 0;
+        int numFailed = 0;
+        boolean inFlight = false;
         Connection connection = null;
         try {
             for (int storeNumber = 0; storeNumber < maxStores; storeNumber++) {
                 Info infoToStore;
                 synchronized(cacheLock) {
                     // Get the last object in list. Handle empty list.
-                    if (storeList.size() == 0) {
-                        nextStore = System.currentTimeMillis() + storeInterval;
+                    // The thread emptying the list has set nextStore, also
+                    // when the round failed.
+                    if (partition.size() == 0) {
                         return true;
                     }
-                    infoToStore = storeList.remove(storeList.size() - 1);
-                    if (storeList.size() == 0) {
-                        nextStore = System.currentTimeMillis() + storeInterval;
+                    infoToStore = partition.remove(partition.size() - 1);
+                    numInFlight++;
+                    inFlight = true;
+                    if (storeListSize() == 0) {
+                        nextStore = schedule.roundEnded(
+                                System.currentTimeMillis(), cache.size());
                     }
                 }
                 boolean successfulStore = false;
-                
+                final long storeStart = System.nanoTime();
                 try {
                     if (connection == null) {
                         connection = DatabaseUtils.getConnection();
                     }
-                    if (updateInformation(connection, infoToStore)) {
-                        successfulStore = true;
-                    } else if (insertInformation(connection, infoToStore)) {
-                        successfulStore = true;
-                    } else if (updateInformation(connection, infoToStore)) {
-                        successfulStore = true;
-                    }
+                    successfulStore = storeInformation(connection,
+                            infoToStore);
                 } catch (SQLException e) {
-                    Dimensions.clear();
-                    DatabaseUtils.reportDatabaseError();;
-                    log.warning("Error when storing information in the " +
-                            "database. This should not happens, but if it " +
-                            "is not repeated it is not a problem.", e, null);
+                    registerStoreTime(storeStart);
+                    numFailedStores.incrementAndGet();
+                    numFailed++;
+                    handleDatabaseError(e);
+                    if (!(e instanceof CircuitOpenException)) {
+                        log.warning("Error when storing information in the " +
+                                "database. This should not happens, but if " +
+                                "it is not repeated it is not a problem.",
+                                e, null);
+                    }
+                    final SpillSegments segments;
+                    final List<Info> spilled;
                     synchronized(cacheLock) {
                         // Stop storing and wait for an interval.
                         // This is to protect the application from
                         // spending time with trying to store in a database
                         // that is not available.
-                        nextStore = System.currentTimeMillis() + storeInterval;
-                        storeList.clear();
-                        return false;
+                        nextStore = schedule.roundFailed(
+                                System.currentTimeMillis());
+                        partition.clear();
+                        clearStoreList();
+                        numInFlight--;
+                        inFlight = false;
+                        segments = spill;
+                        spilled = isUnreachable(e) ? removeSpilled() : null;
+                    }
+                    if (spilled != null) {
+                        writeSpilled(segments, spilled);
                     }
+                    return false;
                 }
+                registerStoreTime(storeStart);
+                final long storeTime = System.nanoTime() - storeStart;
                 if (!successfulStore) {
+                    numFailedStores.incrementAndGet();
+                    numFailed++;
                     log.warning("For some reason, the information could " +
                             "not be stored (neither updated nor created). " +
                             "This should not happens, but if it is not " +
@@ -342,15 +1037,27 @@ public abstract class BaseCollector<Key,
                         // This is to protect the application from
                         // spending time with trying to store in a database
                         // that is not available.
-                        nextStore = System.currentTimeMillis() + storeInterval;
-                        storeList.clear();
+                        nextStore = schedule.roundFailed(
+                                System.currentTimeMillis());
+                        partition.clear();
+                        clearStoreList();
+                        numInFlight--;
+                        inFlight = false;
                         return false;
                     }
                 }
+                numStores.incrementAndGet();
+                numStored++;
+                DatabaseUtils.reportDatabaseSuccess();
+                Checkpointer roundCheckpointer = null;
                 synchronized(cacheLock) {
                     // Update after successful store
+                    numInFlight--;
+                    inFlight = false;
+                    schedule.registerStore(storeTime);
                     Info cachedInfo = cache.get(infoToStore.getKey());
                     if (cachedInfo == null) {
+                        numDoubleStores.incrementAndGet();
                         // May happen when a double store has been performed,
                         // because a call to the flush method has been done.
                         cachedInfo = infoToStore.createClone();
@@ -360,44 +1067,663 @@ public abstract class BaseCollector<Key,
                                     "did not give zero result which is a " +
                                     "programming error.", null, null);
                         }
-                        cache.put(cachedInfo.getKey(), cachedInfo);
+                        put(cachedInfo);
                     }
                     final boolean removeFromCache =
                             cachedInfo.subtract(infoToStore);
                     if (removeFromCache) {
-                        cache.remove(infoToStore.getKey());
+                        remove(infoToStore.getKey());
                     }
+                    if (storeListSize() == 0 && numInFlight == 0) {
+                        roundCheckpointer = checkpointer;
+                    }
+                }
+                if (roundCheckpointer != null) {
+                    // Remove the stored information from the journal, on
+                    // the thread of the journal, not the thread storing.
+                    roundCheckpointer.request();
                 }
             }
             return true;
         } finally {
+            if (inFlight) {
+                // The store ended with an unexpected exception.
+                synchronized(cacheLock) {
+                    numInFlight--;
+                }
+            }
             try {
                 DatabaseUtils.close(connection, null, null);
             } catch (SQLException e) {
                 log.error("Closing the connection generated an exception",
                         e, null);
             }
+            if (listener != null && (numStored > 0 || numFailed > 0)) {
+                listener.storeRound(getName(), numStored, numFailed,
+                        System.nanoTime() - roundStart);
+            }
         }
     }
     
     /**
-     * Insert the statistics information in the persistent store.
-     * <p/>
-     * This method <strong>have to</strong>:
-     * <ul>
-     * <li>Insert the information in the persistent store and return
-     *     <code>true</code> if the information is successfully inserted.</li>
-     * <li>Have to return <code>false</code> if the key is already in the
-     *     persistent store (which may occur in clustered environments when
-     *     the key may have been created by another instance).</li>
-     * <li>Have to throw exception if it fails to create the key for other
-     *     reasons than specified above.</li>
-     * </ul>
+     * Store an information object in the database. If an update is not
+     * possible it is created, and if that fails due to a duplicate key
+     * the update is tried again. Sub classes whose information can not be
+     * stored by one update or insert statement override this method.
      * 
-     * @param connection The database connection to use.
-     *                   This parameter is never <code>null</code>.
-     * @param info       The information to create.
-     *                   This parameter is never <code>null</code>.
+     * @param connection The connection to use. Must not be <code>null</code>.
+     * @param info       The information to store.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return <code>true</code> if the information was stored.
+     * 
+     * @throws SQLException if there is an error communicating with the
+     *         database.
+     */
+    protected boolean storeInformation(Connection connection, Info info)
+            throws SQLException {
+        return updateInformation(connection, info) ||
+                insertInformation(connection, info) ||
+                updateInformation(connection, info);
+    }
+
+    /**
+     * Handle an error from the database. The error is reported to the
+     * circuit breaker of the database. The dimensions are reread only if
+     * the error is not transient, since a lost connection does not make
+     * the cached dimensions invalid.
+     * 
+     * @param e The error. Must not be <code>null</code>.
+     */
+    private static void handleDatabaseError(SQLException e) {
+        if (!DatabaseUtils.isTransient(e)) {
+            Dimensions.clear();
+        }
+        DatabaseUtils.reportDatabaseError(e);
+    }
+
+    /**
+     * Check if a store failed because the database can not be reached,
+     * which is when the cache is spilled.
+     * 
+     * @param e The error. Must not be <code>null</code>.
+     * 
+     * @return <code>true</code> if the database can not be reached or
+     *         the circuit breaker of the database is open.
+     */
+    private static boolean isUnreachable(SQLException e) {
+        if (e instanceof SQLTransientConnectionException ||
+                e instanceof SQLNonTransientConnectionException ||
+                e instanceof SQLRecoverableException) {
+            return true;
+        }
+        // Connection exceptions.
+        final String sqlState = e.getSQLState();
+        return sqlState != null && sqlState.startsWith("08");
+    }
+
+    /**
+     * Remove all information from the cache to be spilled, if the cache is
+     * spilled. The objects are written by
+     * {@link #writeSpilled(SpillSegments, List)} after the lock is
+     * released.
+     * <p/>
+     * Note that this method must only be called when a lock on
+     * <code>cacheLock</code> is held.
+     * 
+     * @return The removed information or <code>null</code> if the cache is
+     *         not spilled or is empty.
+     */
+    private List<Info> removeSpilled() {
+        if (spill == null || cache.isEmpty()) {
+            return null;
+        }
+        final List<Info> spilled = new ArrayList<Info>(cache.values());
+        cache.clear();
+        cacheMemory = 0;
+        cacheEpoch++;
+        if (journal != null) {
+            // The spilled information must not be recovered after a crash.
+            journal.clear();
+        }
+        return spilled;
+    }
+
+    /**
+     * Write the information removed by {@link #removeSpilled()} to a new
+     * segment. If the segment can not be written, the information is
+     * merged back into the cache.
+     * 
+     * @param segments The segments to write to.
+     *                 Must not be <code>null</code>.
+     * @param spilled  The removed information.
+     *                 Must not be <code>null</code>.
+     */
+    private void writeSpilled(SpillSegments segments, List<Info> spilled) {
+        try {
+            segments.write(spilled);
+        } catch (IOException e) {
+            log.error("The information could not be spilled to " +
+                    segments.getDirectory() + " and is kept in memory",
+                    e, null);
+            synchronized(cacheLock) {
+                for (Info info : spilled) {
+                    final Info cachedInfo = cache.get(info.getKey());
+                    if (cachedInfo == null) {
+                        put(info);
+                    } else {
+                        cachedInfo.add(info);
+                    }
+                }
+            }
+            return;
+        }
+        numSpilled.addAndGet(spilled.size());
+        log.info(spilled.size() + " information objects spilled to " +
+                segments.getDirectory(), null, null);
+    }
+
+    /**
+     * Set the directory the cache is spilled to when the database is
+     * unavailable, and start the thread replaying the spilled information.
+     * The segments are written to a sub directory with the name of this
+     * collector.
+     * 
+     * The thread replaying the previous directory, if any, is stopped and
+     * this method waits until it has ended, so that two collectors with
+     * the same name never replay the same directory at the same time.
+     * 
+     * @param directory  The directory or <code>null</code> to stop spilling
+     *                   and replaying. Segments already written are kept
+     *                   and replayed when a directory is set again.
+     * @param replayRate The maximum number of information objects stored
+     *                   per second when the spilled information is
+     *                   replayed. Must be positive if
+     *                   <code>directory</code> is set, ignored otherwise.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IllegalStateException if <code>directory</code> is set and
+     *         this collector does not support spilling, see
+     *         {@link #supportsSpill()}.
+     * @throws IOException if the directory could not be created.
+     */
+    public final void setSpill(File directory, int replayRate)
+            throws IOException {
+        if (directory != null && replayRate <= 0) {
+            throw new IllegalArgumentException(
+                    "replayRate must be positive");
+        }
+        if (directory != null && !supportsSpill()) {
+            throw new IllegalStateException(getClass().getName() +
+                    " does not support spilling");
+        }
+        synchronized(spillLock) {
+            final Replayer previous;
+            synchronized(cacheLock) {
+                previous = replayer;
+                replayer = null;
+                spill = null;
+            }
+            if (previous != null) {
+                previous.stop();
+            }
+            if (directory == null) {
+                return;
+            }
+            final SpillSegments newSpill =
+                    new SpillSegments(new File(directory, getName()));
+            synchronized(cacheLock) {
+                spill = newSpill;
+                replayer = new Replayer(spill, replayRate);
+                final Thread thread = new Thread(replayer,
+                        "stat-replay-" + getName());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Check if this collector can spill its cache to disk and keep a crash
+     * journal. Sub classes that return <code>true</code> must override
+     * {@link #readInformation(DataInput)}, and their information must
+     * write its key in {@link BaseInformation#write(java.io.DataOutput)}.
+     * 
+     * @return <code>true</code> if spilling is supported. This
+     *         implementation returns <code>false</code>.
+     */
+    protected boolean supportsSpill() {
+        return false;
+    }
+
+    /**
+     * Read an information object written by
+     * {@link BaseInformation#write(java.io.DataOutput)}. Only called if
+     * {@link #supportsSpill()} returns <code>true</code>.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @return The information. This method never returns <code>null</code>.
+     * 
+     * @throws IOException if the information could not be read.
+     */
+    protected Info readInformation(DataInput in) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() +
+                " can not read spilled information");
+    }
+
+    /**
+     * Replay the spilled information in the order it was written.
+     * 
+     * @param segments   The segments to replay.
+     *                   Must not be <code>null</code>.
+     * @param replayRate The maximum number of information objects stored
+     *                   per second.
+     *                   
+     * @throws InterruptedException if the thread was interrupted. The
+     *         information not stored is kept on disk.
+     */
+    /* package */ void replay(SpillSegments segments, int replayRate)
+            throws InterruptedException {
+        for (File segment : segments.list()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final List<Info> infos = new ArrayList<Info>();
+            try {
+                final DataInputStream in = segments.open(segment);
+                try {
+                    while (segments.hasNext(in)) {
+                        infos.add(readInformation(in));
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.error("The segment " + segment + " could not be read " +
+                        "and is not replayed", e, null);
+                segments.markBad(segment);
+                continue;
+            } catch (IllegalArgumentException e) {
+                log.error("The segment " + segment + " is invalid " +
+                        "and is not replayed", e, null);
+                segments.markBad(segment);
+                continue;
+            }
+            // The number of objects stored or quarantined.
+            int numStored = 0;
+            final List<Info> bad = new ArrayList<Info>();
+            final long replayNanos = 1000000000L / replayRate;
+            long nextTime = System.nanoTime();
+            Connection connection = null;
+            try {
+                connection = DatabaseUtils.getConnection();
+                while (numStored < infos.size()) {
+                    if (Thread.interrupted()) {
+                        // Stopped while no sleep was needed.
+                        throw new InterruptedException();
+                    }
+                    final Info info = infos.get(numStored);
+                    try {
+                        if (storeInformation(connection, info)) {
+                            numReplayed.incrementAndGet();
+                            DatabaseUtils.reportDatabaseSuccess();
+                        } else {
+                            log.error("Spilled information could neither " +
+                                    "be updated nor created and is " +
+                                    "quarantined", null, null);
+                            bad.add(info);
+                        }
+                    } catch (SQLException e) {
+                        if (DatabaseUtils.isTransient(e)) {
+                            throw e;
+                        }
+                        handleDatabaseError(e);
+                        log.error("Spilled information could not be " +
+                                "stored and is quarantined", e, null);
+                        bad.add(info);
+                    }
+                    numStored++;
+                    // Keep the average rate also when the rate is higher
+                    // than one object per millisecond.
+                    nextTime += replayNanos;
+                    final long wait = nextTime - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                    } else if (wait < -1000000000L) {
+                        // Do not catch up after slow stores.
+                        nextTime = System.nanoTime();
+                    }
+                }
+            } catch (SQLException e) {
+                handleDatabaseError(e);
+                log.warning("The spilled information could not be " +
+                        "stored, the replay continues later", e, null);
+                quarantine(segments, bad);
+                keepRemaining(segments, segment, infos, numStored);
+                return;
+            } catch (InterruptedException e) {
+                quarantine(segments, bad);
+                keepRemaining(segments, segment, infos, numStored);
+                throw e;
+            } finally {
+                try {
+                    DatabaseUtils.close(connection, null, null);
+                } catch (SQLException e) {
+                    log.error("Closing the connection generated an " +
+                            "exception", e, null);
+                }
+            }
+            quarantine(segments, bad);
+            segment.delete();
+        }
+    }
+
+    /**
+     * Write the spilled information that could not be stored to a bad
+     * segment, so that it does not block the replay of the information
+     * after it.
+     * 
+     * @param segments The segments. Must not be <code>null</code>.
+     * @param bad      The information that could not be stored.
+     *                 Must not be <code>null</code>.
+     */
+    private void quarantine(SpillSegments segments, List<Info> bad) {
+        if (bad.isEmpty()) {
+            return;
+        }
+        try {
+            segments.writeBad(bad);
+        } catch (IOException e) {
+            log.error(bad.size() + " information objects that could not " +
+                    "be stored are lost", e, null);
+        }
+    }
+
+    /**
+     * Replace a segment by a segment with the information not yet stored.
+     * 
+     * @param segments  The segments. Must not be <code>null</code>.
+     * @param segment   The segment being replayed.
+     *                  Must not be <code>null</code>.
+     * @param infos     The information of the segment.
+     *                  Must not be <code>null</code>.
+     * @param numStored The number of objects at the start of
+     *                  <code>infos</code> already stored or quarantined.
+     */
+    private void keepRemaining(SpillSegments segments, File segment,
+            List<Info> infos, int numStored) {
+        if (numStored == 0) {
+            return;
+        }
+        try {
+            segments.write(infos.subList(numStored, infos.size()));
+            segment.delete();
+        } catch (IOException e) {
+            log.error("The segment " + segment + " could not be replaced. " +
+                    numStored + " information objects will be stored " +
+                    "again", e, null);
+        }
+    }
+
+    /**
+     * Set the directory of the crash journal of the cache and start the
+     * thread writing the checkpoints. The journal is a file with the name of
+     * this collector. The checkpoint in the file, if any, is merged into
+     * the cache, so the journal should be set before the statistics are
+     * stored at startup.
+     * 
+     * @param directory The directory or <code>null</code> to stop the
+     *                  journal. The current journal is emptied, so that its
+     *                  information is not recovered again.
+     * @param interval  The time in milliseconds between the checkpoints.
+     *                  Must be positive.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IllegalStateException if <code>directory</code> is set and
+     *         this collector does not support a journal, see
+     *         {@link #supportsSpill()}.
+     * @throws IOException if the journal could not be opened.
+     */
+    public final void setJournal(File directory, long interval)
+            throws IOException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (directory != null && !supportsSpill()) {
+            throw new IllegalStateException(getClass().getName() +
+                    " does not support a journal");
+        }
+        // The lock on checkpointBuffer waits for a checkpoint being written
+        // to the file, which may be mapped again below.
+        synchronized(checkpointBuffer) {
+            synchronized(cacheLock) {
+                if (checkpointer != null) {
+                    checkpointer.stop();
+                    checkpointer = null;
+                }
+                if (journal != null) {
+                    journal.clear();
+                    journal = null;
+                }
+            }
+        }
+        if (directory == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("The directory " + directory +
+                    " could not be created");
+        }
+        final File file = new File(directory, getName() + JOURNAL_SUFFIX);
+        final CrashJournal newJournal =
+                new CrashJournal(file, JOURNAL_CAPACITY);
+        final List<Info> recovered = recover(newJournal, file);
+        synchronized(cacheLock) {
+            for (Info info : recovered) {
+                final Info cachedInfo = cache.get(info.getKey());
+                if (cachedInfo == null) {
+                    put(info);
+                } else {
+                    cachedInfo.add(info);
+                }
+            }
+            journal = newJournal;
+            checkpointer = new Checkpointer(interval);
+            final Thread thread = new Thread(checkpointer,
+                    "stat-journal-" + getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        numRecovered.addAndGet(recovered.size());
+        if (!recovered.isEmpty()) {
+            log.info(recovered.size() + " information objects recovered " +
+                    "from " + file, null, null);
+        }
+        // Replace the recovered checkpoint so it is never merged twice.
+        checkpoint();
+    }
+
+    /**
+     * Read the information of the checkpoint in a journal.
+     * 
+     * @param journal The journal. Must not be <code>null</code>.
+     * @param file    The file of the journal, used in the log.
+     *                Must not be <code>null</code>.
+     * 
+     * @return The information. If the checkpoint could not be read, the
+     *         list is empty. This method never returns <code>null</code>.
+     */
+    private List<Info> recover(CrashJournal journal, File file) {
+        final List<Info> infos = new ArrayList<Info>();
+        final byte data[] = journal.read();
+        if (data == null) {
+            return infos;
+        }
+        final DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            while (in.readByte() != 0) {
+                infos.add(readInformation(in));
+            }
+        } catch (IOException e) {
+            log.error("The journal " + file + " could not be read " +
+                    "and is not recovered", e, null);
+            infos.clear();
+        } catch (IllegalArgumentException e) {
+            log.error("The journal " + file + " is invalid " +
+                    "and is not recovered", e, null);
+            infos.clear();
+        }
+        return infos;
+    }
+
+    /**
+     * Write a checkpoint of the cache to the journal, if any. The cache is
+     * copied in batches, so registrations are never blocked for more than
+     * the copying of one batch. The checkpoint is written to the journal
+     * without the lock and published only if no information was removed
+     * from the cache without being stored meanwhile.
+     */
+    /* package */ void checkpoint() {
+        synchronized(checkpointBuffer) {
+            final CrashJournal current;
+            final long epoch;
+            final List<Info> infos;
+            synchronized(cacheLock) {
+                if (journal == null) {
+                    return;
+                }
+                current = journal;
+                epoch = cacheEpoch;
+                infos = new ArrayList<Info>(cache.values());
+            }
+            checkpointBuffer.reset();
+            final DataOutputStream out =
+                    new DataOutputStream(checkpointBuffer);
+            try {
+                for (int start = 0; start < infos.size();
+                        start += SNAPSHOT_BATCH_SIZE) {
+                    final int end = Math.min(start + SNAPSHOT_BATCH_SIZE,
+                            infos.size());
+                    synchronized(cacheLock) {
+                        for (int index = start; index < end; index++) {
+                            final Info info = infos.get(index);
+                            // Objects removed after a store are empty.
+                            if (cache.get(info.getKey()) == info) {
+                                out.writeByte(1);
+                                info.write(out);
+                            }
+                        }
+                    }
+                }
+                out.writeByte(0);
+                out.flush();
+            } catch (IOException e) {
+                log.error("The checkpoint could not be serialized", e, null);
+                return;
+            }
+            if (checkpointBuffer.size() > current.getMaxSize()) {
+                synchronized(cacheLock) {
+                    if (journal == current) {
+                        // The previous checkpoint may hold information that
+                        // is stored since, it must not be recovered.
+                        current.clear();
+                    }
+                }
+                log.warning("The checkpoint of " + checkpointBuffer.size() +
+                        " bytes does not fit in the journal, the journal " +
+                        "is emptied", null, null);
+                return;
+            }
+            current.prepare(checkpointBuffer.getBuffer(),
+                    checkpointBuffer.size());
+            synchronized(cacheLock) {
+                if (journal != current || cacheEpoch != epoch) {
+                    // Replaced or spilled while the checkpoint was copied.
+                    return;
+                }
+                current.publish();
+            }
+            numCheckpoints.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register the time of a store.
+     * 
+     * @param storeStart The value of <code>System.nanoTime()</code> when the
+     *                   store started.
+     */
+    private void registerStoreTime(long storeStart) {
+        final long nanos = System.nanoTime() - storeStart;
+        storeNanos.addAndGet(nanos);
+        final long millis = nanos / 1000000;
+        int interval = 0;
+        while (interval < STORE_TIME_LIMITS.length &&
+                millis > STORE_TIME_LIMITS[interval]) {
+            interval++;
+        }
+        storeTimes.incrementAndGet(interval);
+    }
+
+    /**
+     * Register the MBean of this collector. A previously registered MBean
+     * of this collector is unregistered first.
+     * 
+     * @param name The name of the MBean, for example the name of the table.
+     *             Must not be <code>null</code>.
+     *             
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public final void registerMBean(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        unregisterMBean();
+        if (JmxUtils.register(new Monitor(), CollectorMonitorMBean.class,
+                MBEAN_TYPE, name)) {
+            synchronized(cacheLock) {
+                mbeanName = name;
+            }
+        }
+    }
+
+    /**
+     * Unregister the MBean of this collector if it is registered.
+     */
+    public final void unregisterMBean() {
+        final String name;
+        synchronized(cacheLock) {
+            name = mbeanName;
+            mbeanName = null;
+        }
+        if (name != null) {
+            JmxUtils.unregister(MBEAN_TYPE, name);
+        }
+    }
+
+    /**
+     * Insert the statistics information in the persistent store.
+     * <p/>
+     * This method <strong>have to</strong>:
+     * <ul>
+     * <li>Insert the information in the persistent store and return
+     *     <code>true</code> if the information is successfully inserted.</li>
+     * <li>Have to return <code>false</code> if the key is already in the
+     *     persistent store (which may occur in clustered environments when
+     *     the key may have been created by another instance).</li>
+     * <li>Have to throw exception if it fails to create the key for other
+     *     reasons than specified above.</li>
+     * </ul>
+     * 
+     * @param connection The database connection to use.
+     *                   This parameter is never <code>null</code>.
+     * @param info       The information to create.
+     *                   This parameter is never <code>null</code>.
      *             
      * @return <code>true</code> if the information is correctly inserted.
      *         <code>false</code> if the information fails due to duplicate
@@ -528,7 +1854,7 @@ public abstract class BaseCollector<Key,
      */
     /* package */ int getStoreListSize() {
         synchronized(cacheLock) {
-            return storeList.size();
+            return storeListSize();
         }
     }
 
@@ -544,4 +1870,471 @@ public abstract class BaseCollector<Key,
             return nextStore;
         }
     }
+
+    /**
+     * Get the estimated memory of the cache and the store list.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    /* package */ long getMemory() {
+        synchronized(cacheLock) {
+            return getEstimatedMemory();
+        }
+    }
+
+    /**
+     * The thread replaying the spilled information once per store interval.
+     */
+    private class Replayer implements Runnable {
+        /** The segments to replay. */
+        private final SpillSegments segments;
+        /** The maximum number of information objects stored per second. */
+        private final int replayRate;
+        /** <code>false</code> when the thread should stop. */
+        private volatile boolean running = true;
+        /** The thread running this replayer. */
+        private volatile Thread thread = null;
+
+        /**
+         * Create this class.
+         * 
+         * @param segments   The segments to replay.
+         *                   Must not be <code>null</code>.
+         * @param replayRate The maximum number of information objects
+         *                   stored per second.
+         */
+        private Replayer(SpillSegments segments, int replayRate) {
+            this.segments = segments;
+            this.replayRate = replayRate;
+        }
+
+        /**
+         * Stop the thread and wait until it has ended. The information not
+         * yet stored is kept on disk.
+         */
+        private void stop() {
+            running = false;
+            final Thread current = thread;
+            if (current == null || current == Thread.currentThread()) {
+                return;
+            }
+            current.interrupt();
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (running) {
+                    replay(segments, replayRate);
+                    Thread.sleep(storeInterval);
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            } catch (RuntimeException e) {
+                log.error("The replay of the spilled information stopped",
+                        e, null);
+            }
+        }
+    }
+
+    /**
+     * The task of a worker storing a partition of the
+     * <code>storeList</code>. The whole partition is stored on one
+     * connection.
+     */
+    private class PartitionStore implements Runnable {
+        /** The partition to store. */
+        private final ArrayList<Info> partition;
+        /** Counted down when done or <code>null</code>. */
+        private final CountDownLatch done;
+
+        /**
+         * Create this class.
+         * 
+         * @param partition The partition to store.
+         *                  Must not be <code>null</code>.
+         * @param done      Counted down when done or <code>null</code>.
+         */
+        private PartitionStore(ArrayList<Info> partition,
+                CountDownLatch done) {
+            this.partition = partition;
+            this.done = done;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            try {
+                // Nothing is added to the partition while the worker runs.
+                performStores(Integer.MAX_VALUE, partition);
+            } catch (RuntimeException e) {
+                log.error("The store of a partition failed", e, null);
+            } finally {
+                synchronized(cacheLock) {
+                    numActiveWorkers--;
+                    if (numActiveWorkers == 0) {
+                        cacheLock.notifyAll();
+                    }
+                }
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * The factory of the daemon threads of the store workers.
+     */
+    private class WorkerFactory implements ThreadFactory {
+        /** The number of threads created. */
+        private final AtomicInteger numThreads = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "stat-store-" +
+                    getName() + "-" + numThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The thread writing a checkpoint of the cache once per interval and
+     * when a round of stores has ended.
+     */
+    private class Checkpointer implements Runnable {
+        /** The time in milliseconds between the checkpoints. */
+        private final long interval;
+        /** <code>false</code> when the thread should stop. */
+        private volatile boolean running = true;
+        /** The thread running this checkpointer. */
+        private volatile Thread thread = null;
+        /**
+         * <code>true</code> if a checkpoint is requested. All access must be
+         * done when a lock on this is held.
+         */
+        private boolean requested = false;
+
+        /**
+         * Create this class.
+         * 
+         * @param interval The time in milliseconds between the checkpoints.
+         */
+        private Checkpointer(long interval) {
+            this.interval = interval;
+        }
+
+        /**
+         * Stop the thread.
+         */
+        private void stop() {
+            running = false;
+            final Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+
+        /**
+         * Write a checkpoint now instead of at the end of the interval.
+         */
+        private synchronized void request() {
+            requested = true;
+            notify();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (running) {
+                    synchronized(this) {
+                        if (!requested) {
+                            wait(interval);
+                        }
+                        requested = false;
+                    }
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            } catch (RuntimeException e) {
+                log.error("The checkpoints of the journal stopped", e, null);
+            }
+        }
+    }
+
+    /**
+     * A byte array output stream giving access to its buffer, so a
+     * checkpoint is written to the journal without a copy.
+     */
+    private static class CheckpointBuffer extends ByteArrayOutputStream {
+        /**
+         * Get the buffer. The first {@link #size()} bytes are valid.
+         * 
+         * @return The buffer. This method never returns <code>null</code>.
+         */
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * The MBean of this collector.
+     */
+    private class Monitor implements CollectorMonitorMBean {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getCacheSize() {
+            return BaseCollector.this.getCacheSize();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getStoreListSize() {
+            return BaseCollector.this.getStoreListSize();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNextStore() {
+            return BaseCollector.this.getNextStore();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumRegistrations() {
+            return numRegistrations.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getLockWaitTime() {
+            return lockWaitNanos.get() / 1000000;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumStores() {
+            return numStores.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumFailedStores() {
+            return numFailedStores.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumDoubleStores() {
+            return numDoubleStores.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getTotalStoreTime() {
+            return storeNanos.get() / 1000000;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long[] getStoreTimeLimits() {
+            return STORE_TIME_LIMITS.clone();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long[] getStoreTimeHistogram() {
+            final long histogram[] = new long[storeTimes.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = storeTimes.get(i);
+            }
+            return histogram;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getEstimatedMemory() {
+            return getMemory();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getMemoryBudget() {
+            synchronized(cacheLock) {
+                return memoryBudget;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getOverflowPolicy() {
+            synchronized(cacheLock) {
+                return overflowPolicy.name();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumDroppedRegistrations() {
+            return numDropped.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumFoldedRegistrations() {
+            return numFolded.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumEarlyFlushes() {
+            return numEarlyFlushes.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumSpilled() {
+            return numSpilled.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumReplayed() {
+            return numReplayed.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumSpillSegments() {
+            final SpillSegments segments;
+            synchronized(cacheLock) {
+                segments = spill;
+            }
+            return segments == null ? 0 : segments.list().length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumCheckpoints() {
+            return numCheckpoints.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumRecovered() {
+            return numRecovered.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isAdaptiveSchedule() {
+            synchronized(cacheLock) {
+                return schedule.isAdaptive();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getAverageStoreTime() {
+            synchronized(cacheLock) {
+                return schedule.getStoreNanos() / 1000;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumFailedRoundsInRow() {
+            synchronized(cacheLock) {
+                return schedule.getNumFailures();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getNumStoreWorkers() {
+            synchronized(cacheLock) {
+                return storeWorkers == null ? 0 : storeList.size();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() {
+            BaseCollector.this.flush();
+        }
+    }
 }
@@ -1,5 +1,11 @@
 package se.uc.stat.basestatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * The parts of the collected statistics information that are common for
  * both customer and time statistics.
@@ -41,6 +47,38 @@ public abstract class BaseInformation<Key, Info> {
         this.dayOfWeek = dayOfWeek;
     }
 
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the information could not be read.
+     * @throws IllegalArgumentException if the day of the week is invalid.
+     */
+    protected BaseInformation(DataInput in) throws IOException {
+        this(in.readByte());
+        numCorrectCalls = in.readInt();
+        numInvalidCalls = in.readInt();
+        numFailedCalls = in.readInt();
+    }
+
+    /**
+     * Write the numbers of this object in a compact binary format. Sub
+     * classes write the key before calling this method and their own
+     * numbers after it.
+     * 
+     * @param out The output to write to. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the information could not be written.
+     */
+    protected void write(DataOutput out) throws IOException {
+        out.writeByte(dayOfWeek);
+        out.writeInt(numCorrectCalls);
+        out.writeInt(numInvalidCalls);
+        out.writeInt(numFailedCalls);
+    }
+
     /**
      * Get the day of the week.
      * 
@@ -145,10 +183,60 @@ public abstract class BaseInformation<Key, Info> {
      */
     protected abstract boolean subtract(Info other);
 
+    /**
+     * Update this instance by adding the numbers in <code>other</code>.
+     * Sub classes adding numbers have to call this method.
+     * 
+     * @param other The instance with the numbers to add to this instance.
+     */
+    protected void baseAdd(BaseInformation<Key, Info> other) {
+        numCorrectCalls += other.numCorrectCalls;
+        numInvalidCalls += other.numInvalidCalls;
+        numFailedCalls += other.numFailedCalls;
+    }
+
+    /**
+     * Update this instance by adding the numbers in <code>other</code>.
+     * This method is used to merge information recovered after a crash
+     * into the cache (this instance).
+     * 
+     * @param other The instance with the numbers to add to this instance.
+     */
+    protected abstract void add(Info other);
+
     /**
      * Create a clone of this object.
      * 
      * @return A clone of this object.
      */
     protected abstract Info createClone();
+
+    /**
+     * Create an immutable snapshot of this object.
+     * 
+     * @return The snapshot. This method never returns <code>null</code>.
+     */
+    /* package */ final Snapshot createSnapshot() {
+        final Map<String, String> dimensions =
+                new LinkedHashMap<String, String>();
+        final Object key = getKey();
+        if (key instanceof BaseKey) {
+            ((BaseKey)key).putDimensions(dimensions);
+        }
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        putValues(values);
+        return new Snapshot(dimensions, values);
+    }
+
+    /**
+     * Add the numbers of this object to the values of a snapshot. Sub
+     * classes adding numbers have to call this method.
+     * 
+     * @param values The values to add to. Must not be <code>null</code>.
+     */
+    protected void putValues(Map<String, Long> values) {
+        values.put("numCorrectCalls", new Long(numCorrectCalls));
+        values.put("numInvalidCalls", new Long(numInvalidCalls));
+        values.put("numFailedCalls", new Long(numFailedCalls));
+    }
 }
@@ -1,6 +1,10 @@
 package se.uc.stat.basestatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Map;
 
 /**
  * The base class for customer and time statistics keys holding the common
@@ -9,6 +13,15 @@ import java.io.Serializable;
  * @author Anders Persson (konx40)
  */
 public abstract class BaseKey implements Serializable {
+    /** The name used for the values folded into an overflow key. */
+    public final static String OTHERS = "(\u00f6vriga)";
+
+    /** The estimated memory in bytes of a key without its attributes. */
+    private final static int OBJECT_SIZE = 40;
+
+    /** The estimated memory in bytes of a string without its characters. */
+    private final static int STRING_SIZE = 40;
+
     /** The service name. */
     private final String service;
 
@@ -47,6 +60,87 @@ public abstract class BaseKey implements Serializable {
         this.media = media;
     }
     
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the key could not be read.
+     */
+    protected BaseKey(DataInput in) throws IOException {
+        this(readString(in), readString(in), readString(in), readString(in),
+                readString(in));
+    }
+
+    /**
+     * Write this key in a compact binary format. Sub classes adding
+     * attributes have to call this method first.
+     * 
+     * @param out The output to write to. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the key could not be written.
+     */
+    protected void write(DataOutput out) throws IOException {
+        writeString(out, service);
+        writeString(out, method);
+        writeString(out, origin);
+        writeString(out, product);
+        writeString(out, media);
+    }
+
+    /**
+     * Write a string that may be <code>null</code>.
+     * 
+     * @param out The output to write to. Must not be <code>null</code>.
+     * @param s   The string. May be <code>null</code>.
+     * 
+     * @throws IOException if the string could not be written.
+     */
+    protected static void writeString(DataOutput out, String s)
+            throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @return The string or <code>null</code>.
+     * 
+     * @throws IOException if the string could not be read.
+     */
+    protected static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Get the estimated memory used by this key including the attributes.
+     * Strings shared with other keys are counted in every key.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    public int getEstimatedSize() {
+        return OBJECT_SIZE + getEstimatedSize(service) +
+                getEstimatedSize(method) + getEstimatedSize(origin) +
+                getEstimatedSize(product) + getEstimatedSize(media);
+    }
+
+    /**
+     * Get the estimated memory used by a string.
+     * 
+     * @param s The string. May be <code>null</code>.
+     * 
+     * @return The estimated memory in bytes.
+     */
+    protected static int getEstimatedSize(String s) {
+        return s == null ? 0 : STRING_SIZE + 2 * s.length();
+    }
+
     /**
      * Get the service.
      * 
@@ -106,6 +200,21 @@ public abstract class BaseKey implements Serializable {
         sb.append(", media=").append(getMedia());
     }
     
+    /**
+     * Add the attributes of this key to the dimensions of a snapshot. Sub
+     * classes adding attributes have to call this method.
+     * 
+     * @param dimensions The dimensions to add to.
+     *                   Must not be <code>null</code>.
+     */
+    protected void putDimensions(Map<String, String> dimensions) {
+        dimensions.put("service", getService());
+        dimensions.put("method", getMethod());
+        dimensions.put("origin", getOrigin());
+        dimensions.put("product", getProduct());
+        dimensions.put("media", getMedia());
+    }
+    
     /**
      * Compare the attributes of this base class to another instance.
      * 
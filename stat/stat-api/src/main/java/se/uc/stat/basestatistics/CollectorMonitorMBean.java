@@ -0,0 +1,218 @@
+package se.uc.stat.basestatistics;
+
+/**
+ * Management interface of a collector, registered as
+ * <code>se.uc.stat:type=Collector,name=&lt;table&gt;</code>. The counters
+ * are counted from the start of the application.
+ * <p/>
+ * A cache size or store list size that keeps growing means that the
+ * statistics are registered faster than they are stored, for example
+ * because the database is slow.
+ */
+public interface CollectorMonitorMBean {
+    /**
+     * Get the number of information objects not yet stored persistent.
+     *
+     * @return The size of the cache.
+     */
+    int getCacheSize();
+
+    /**
+     * Get the number of information objects waiting to be stored in the
+     * current store round.
+     *
+     * @return The size of the store list.
+     */
+    int getStoreListSize();
+
+    /**
+     * Get the time the next store round starts.
+     *
+     * @return The time in milliseconds since 1970.
+     */
+    long getNextStore();
+
+    /**
+     * Get the number of registrations.
+     *
+     * @return The number of registrations.
+     */
+    long getNumRegistrations();
+
+    /**
+     * Get the total time the registrations have waited for the lock of the
+     * cache.
+     *
+     * @return The time in milliseconds.
+     */
+    long getLockWaitTime();
+
+    /**
+     * Get the number of information objects stored.
+     *
+     * @return The number of successful stores.
+     */
+    long getNumStores();
+
+    /**
+     * Get the number of failed stores. After a failure the store round is
+     * ended and the information is stored in the next round.
+     *
+     * @return The number of failed stores.
+     */
+    long getNumFailedStores();
+
+    /**
+     * Get the number of information objects stored twice, which is
+     * corrected by the next store of the object.
+     *
+     * @return The number of corrections of double stores.
+     */
+    long getNumDoubleStores();
+
+    /**
+     * Get the total time of the stores, including the failed stores.
+     *
+     * @return The time in milliseconds.
+     */
+    long getTotalStoreTime();
+
+    /**
+     * Get the upper limits of the intervals of
+     * {@link #getStoreTimeHistogram()}. The last interval has no upper
+     * limit.
+     *
+     * @return The limits in milliseconds.
+     */
+    long[] getStoreTimeLimits();
+
+    /**
+     * Get the number of stores per time interval, see
+     * {@link #getStoreTimeLimits()}.
+     *
+     * @return The number of stores per interval. The array is one longer
+     *         than the limits.
+     */
+    long[] getStoreTimeHistogram();
+
+    /**
+     * Get the estimated memory used by the cache and the store list.
+     *
+     * @return The estimated memory in bytes.
+     */
+    long getEstimatedMemory();
+
+    /**
+     * Get the memory budget, see {@link OverflowPolicy}.
+     *
+     * @return The budget in bytes or <code>0</code> if unlimited.
+     */
+    long getMemoryBudget();
+
+    /**
+     * Get the policy applied when the memory budget is exceeded.
+     *
+     * @return The name of the {@link OverflowPolicy}.
+     */
+    String getOverflowPolicy();
+
+    /**
+     * Get the number of registrations dropped because the memory budget was
+     * exceeded.
+     *
+     * @return The number of dropped registrations.
+     */
+    long getNumDroppedRegistrations();
+
+    /**
+     * Get the number of registrations folded into an overflow key because
+     * the memory budget was exceeded.
+     *
+     * @return The number of folded registrations.
+     */
+    long getNumFoldedRegistrations();
+
+    /**
+     * Get the number of store rounds started early because the memory
+     * budget was exceeded.
+     *
+     * @return The number of early store rounds.
+     */
+    long getNumEarlyFlushes();
+
+    /**
+     * Get the number of information objects spilled to disk because the
+     * database was unavailable.
+     *
+     * @return The number of spilled objects.
+     */
+    long getNumSpilled();
+
+    /**
+     * Get the number of spilled information objects that have been stored
+     * in the database.
+     *
+     * @return The number of replayed objects.
+     */
+    long getNumReplayed();
+
+    /**
+     * Get the number of segments on disk waiting to be replayed.
+     *
+     * @return The number of segments or <code>0</code> if the cache is not
+     *         spilled.
+     */
+    int getNumSpillSegments();
+
+    /**
+     * Get the number of checkpoints written to the crash journal.
+     *
+     * @return The number of checkpoints.
+     */
+    long getNumCheckpoints();
+
+    /**
+     * Get the number of information objects recovered from the crash
+     * journal.
+     *
+     * @return The number of recovered objects.
+     */
+    long getNumRecovered();
+
+    /**
+     * Check if the store rounds are scheduled adaptively.
+     *
+     * @return <code>true</code> if adaptive.
+     */
+    boolean isAdaptiveSchedule();
+
+    /**
+     * Get the average time to store one information object, as measured by
+     * the adaptive schedule.
+     *
+     * @return The time in microseconds or <code>0</code> if not measured.
+     */
+    long getAverageStoreTime();
+
+    /**
+     * Get the number of failed store rounds in a row. The adaptive schedule
+     * waits longer after each of them.
+     *
+     * @return The number of failed rounds since the last successful store.
+     */
+    int getNumFailedRoundsInRow();
+
+    /**
+     * Get the number of workers storing the information in parallel.
+     *
+     * @return The number of workers or <code>0</code> if the registering
+     *         threads store the information.
+     */
+    int getNumStoreWorkers();
+
+    /**
+     * Store all information in the cache persistent now. The method
+     * returns when the information is stored.
+     */
+    void flush();
+}
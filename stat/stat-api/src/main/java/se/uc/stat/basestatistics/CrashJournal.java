@@ -0,0 +1,223 @@
+package se.uc.stat.basestatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A memory-mapped file holding the latest checkpoint of the cache of a
+ * collector. The pages of a mapped file belong to the operating system, so
+ * a checkpoint survives a crash or a kill of the JVM without any call to
+ * <code>fsync</code>. It does not survive a crash of the operating system.
+ * <p/>
+ * The file has a header and two slots. A checkpoint is prepared in the slot
+ * not holding the latest checkpoint and then published, so a checkpoint
+ * interrupted by a crash never destroys the previous one. A slot holds the
+ * generation, the length and the CRC-32 of the data followed by the data.
+ * The generation is cleared before the data is written and set when the
+ * checkpoint is published.
+ * <p/>
+ * The methods are not thread safe, except that {@link #clear()} may be
+ * called while a checkpoint is prepared. The caller must then not publish
+ * the prepared checkpoint.
+ */
+/* package */ class CrashJournal {
+    /** The first four bytes of a journal, "STAJ". */
+    private final static int MAGIC = 0x5354414A;
+    /** The version of the format. */
+    private final static int VERSION = 1;
+    /** The size of the header of the file. */
+    private final static int HEADER_SIZE = 16;
+    /** The size of the header of a slot. */
+    private final static int SLOT_HEADER_SIZE = 16;
+
+    /** The mapped file. */
+    private final MappedByteBuffer buffer;
+    /** The size of a slot including its header. */
+    private final int slotSize;
+    /** The generation of the latest checkpoint published. */
+    private long generation = 0;
+    /** The slot of the latest checkpoint, <code>-1</code> if none. */
+    private volatile int slot = -1;
+    /** The slot of the prepared checkpoint, <code>-1</code> if none. */
+    private int prepared = -1;
+
+    /**
+     * Create this class. The file is created if it does not exist. A file
+     * of another size or format is replaced by an empty journal.
+     *
+     * @param file     The file. Must not be <code>null</code>.
+     * @param capacity The size of the file in bytes. Must be larger than
+     *                 the headers.
+     *
+     * @throws IOException if the file could not be mapped.
+     */
+    /* package */ CrashJournal(File file, int capacity) throws IOException {
+        slotSize = (capacity - HEADER_SIZE) / 2;
+        if (slotSize <= SLOT_HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity is too small");
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final boolean valid = raf.length() == capacity;
+            raf.setLength(capacity);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    capacity);
+            if (!valid || buffer.getInt(0) != MAGIC ||
+                    buffer.getInt(4) != VERSION) {
+                buffer.putLong(HEADER_SIZE, 0);
+                buffer.putLong(HEADER_SIZE + slotSize, 0);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(0, MAGIC);
+            }
+        } finally {
+            // The mapping stays valid when the file is closed.
+            raf.close();
+        }
+        for (int i = 0; i < 2; i++) {
+            final long slotGeneration = buffer.getLong(getOffset(i));
+            if (slotGeneration > generation && isValid(i)) {
+                generation = slotGeneration;
+                slot = i;
+            }
+        }
+    }
+
+    /**
+     * Get the maximum size of the data of a checkpoint.
+     *
+     * @return The size in bytes.
+     */
+    /* package */ int getMaxSize() {
+        return slotSize - SLOT_HEADER_SIZE;
+    }
+
+    /**
+     * Read the latest checkpoint.
+     *
+     * @return The data of the checkpoint or <code>null</code> if there is
+     *         no valid checkpoint.
+     */
+    /* package */ byte[] read() {
+        final int current = slot;
+        if (current < 0) {
+            return null;
+        }
+        final int offset = getOffset(current);
+        final byte data[] = new byte[buffer.getInt(offset + 8)];
+        readData(offset, data);
+        return data;
+    }
+
+    /**
+     * Write a checkpoint to the slot not holding the latest checkpoint. The
+     * checkpoint is not read until it is published by {@link #publish()}.
+     *
+     * @param data   The data of the checkpoint.
+     *               Must not be <code>null</code>.
+     * @param length The number of bytes of <code>data</code> to write.
+     *               Must not be larger than {@link #getMaxSize()}.
+     */
+    /* package */ void prepare(byte data[], int length) {
+        if (length > getMaxSize()) {
+            throw new IllegalArgumentException("The checkpoint of " + length +
+                    " bytes does not fit in the journal");
+        }
+        final int newSlot = slot == 0 ? 1 : 0;
+        final int offset = getOffset(newSlot);
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        buffer.putLong(offset, 0);
+        // A duplicate has its own position, clear may use the buffer.
+        final ByteBuffer target = buffer.duplicate();
+        target.position(offset + SLOT_HEADER_SIZE);
+        target.put(data, 0, length);
+        buffer.putInt(offset + 8, length);
+        buffer.putInt(offset + 12, (int)crc.getValue());
+        prepared = newSlot;
+    }
+
+    /**
+     * Publish the checkpoint written by {@link #prepare(byte[], int)},
+     * replacing the previous one.
+     *
+     * @throws IllegalStateException if no checkpoint is prepared.
+     */
+    /* package */ void publish() {
+        if (prepared < 0) {
+            throw new IllegalStateException("No checkpoint is prepared");
+        }
+        generation++;
+        buffer.putLong(getOffset(prepared), generation);
+        slot = prepared;
+        prepared = -1;
+    }
+
+    /**
+     * Write a checkpoint replacing the previous one.
+     *
+     * @param data   The data of the checkpoint.
+     *               Must not be <code>null</code>.
+     * @param length The number of bytes of <code>data</code> to write.
+     *               Must not be larger than {@link #getMaxSize()}.
+     */
+    /* package */ void write(byte data[], int length) {
+        prepare(data, length);
+        publish();
+    }
+
+    /**
+     * Remove the latest checkpoint, so nothing is read from the journal.
+     */
+    /* package */ void clear() {
+        buffer.putLong(getOffset(0), 0);
+        buffer.putLong(getOffset(1), 0);
+        slot = -1;
+    }
+
+    /**
+     * Check if a slot holds a complete checkpoint.
+     *
+     * @param index The index of the slot.
+     *
+     * @return <code>true</code> if the length and CRC-32 are valid.
+     */
+    private boolean isValid(int index) {
+        final int offset = getOffset(index);
+        final int length = buffer.getInt(offset + 8);
+        if (length < 0 || length > getMaxSize()) {
+            return false;
+        }
+        final byte data[] = new byte[length];
+        readData(offset, data);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int)crc.getValue() == buffer.getInt(offset + 12);
+    }
+
+    /**
+     * Read the data of a slot.
+     *
+     * @param offset The offset of the slot.
+     * @param data   The array to read to, as long as the data.
+     */
+    private void readData(int offset, byte data[]) {
+        buffer.position(offset + SLOT_HEADER_SIZE);
+        buffer.get(data);
+    }
+
+    /**
+     * Get the offset of a slot.
+     *
+     * @param index The index of the slot.
+     *
+     * @return The offset in the file.
+     */
+    private int getOffset(int index) {
+        return HEADER_SIZE + index * slotSize;
+    }
+}
@@ -0,0 +1,27 @@
+package se.uc.stat.basestatistics;
+
+/**
+ * What a collector does with a registration of a new key when the
+ * estimated memory of its cache exceeds the memory budget, see
+ * {@link BaseCollector#setMemoryBudget(long, OverflowPolicy)}.
+ * Registrations of keys already in the cache are never affected.
+ */
+public enum OverflowPolicy {
+    /**
+     * Register the key and start the next store round now instead of
+     * waiting for the store interval. At most one early store round is
+     * started per tenth of the store interval, so a database that is down
+     * is not called at every registration.
+     */
+    FLUSH,
+
+    /** Do not register the call. The dropped calls are counted. */
+    DROP,
+
+    /**
+     * Register the call on an overflow key, for example with the origin,
+     * product and media replaced by {@link BaseKey#OTHERS}. The call is
+     * dropped if the collector has no overflow key.
+     */
+    FOLD
+}
@@ -0,0 +1,66 @@
+package se.uc.stat.basestatistics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable copy of one statistics information object that has not yet
+ * been stored persistent. The dimensions identify the row (for example
+ * <code>service</code>, <code>method</code> and <code>time</code>) and the
+ * values are the numbers to add to the stored row with the same
+ * dimensions (for example <code>numCorrectCalls</code>).
+ */
+public final class Snapshot {
+    /** The dimensions in a fixed order. */
+    private final Map<String, String> dimensions;
+    /** The values in a fixed order. */
+    private final Map<String, Long> values;
+
+    /**
+     * Create this class.
+     *
+     * @param dimensions The dimensions. A copy is made.
+     *                   Must not be <code>null</code>.
+     * @param values     The values. A copy is made.
+     *                   Must not be <code>null</code>.
+     */
+    /* package */ Snapshot(Map<String, String> dimensions,
+            Map<String, Long> values) {
+        this.dimensions = Collections.unmodifiableMap(
+                new LinkedHashMap<String, String>(dimensions));
+        this.values = Collections.unmodifiableMap(
+                new LinkedHashMap<String, Long>(values));
+    }
+
+    /**
+     * Get the dimensions. A dimension without value has the value
+     * <code>null</code>.
+     *
+     * @return The dimensions. The map can not be modified.
+     *         This method never returns <code>null</code>.
+     */
+    public Map<String, String> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Get the values.
+     *
+     * @return The values. The map can not be modified.
+     *         This method never returns <code>null</code>.
+     */
+    public Map<String, Long> getValues() {
+        return values;
+    }
+
+    /**
+     * Get the string representation of this instance.
+     *
+     * @return The string representation of this instance.
+     */
+    @Override
+    public String toString() {
+        return dimensions + "=" + values;
+    }
+}
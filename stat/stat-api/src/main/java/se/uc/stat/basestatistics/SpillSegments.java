@@ -0,0 +1,241 @@
+package se.uc.stat.basestatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The segment files of a collector holding the information spilled to
+ * local disk while the database is unavailable. A segment is written once
+ * to a temporary file that is renamed when it is complete, so a segment is
+ * never read while it is written and a crash never leaves a partial
+ * segment.
+ * <p/>
+ * The format of a segment is the magic number, the version and the
+ * records, each preceded by the byte <code>1</code>, followed by the byte
+ * <code>0</code>. A record is written by
+ * {@link BaseInformation#write(java.io.DataOutput)}.
+ * <p/>
+ * The names of the segments sort in the order they were written.
+ * <p/>
+ * Segments that could not be read, and records that could not be stored,
+ * are kept in files with the suffix <code>.bad</code> for manual
+ * inspection. They are never read again.
+ */
+/* package */ class SpillSegments {
+    /** The first four bytes of a segment, "STAT". */
+    private final static int MAGIC = 0x53544154;
+    /** The version of the format. */
+    private final static int VERSION = 1;
+    /** The suffix of the segments. */
+    private final static String SUFFIX = ".seg";
+    /** The suffix of segments being written. */
+    private final static String TEMP_SUFFIX = ".tmp";
+    /** The suffix of segments that could not be read. */
+    private final static String BAD_SUFFIX = ".bad";
+
+    /** The directory of the segments. */
+    private final File directory;
+
+    /**
+     * The sequence number of the last segment written. All access must be
+     * done when a lock on this is held.
+     */
+    private int sequence = 0;
+
+    /**
+     * Create this class. Segments left being written by a crash are
+     * deleted.
+     *
+     * @param directory The directory of the segments. It is created if it
+     *                  does not exist. Must not be <code>null</code>.
+     *
+     * @throws IOException if the directory could not be created.
+     */
+    /* package */ SpillSegments(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("The directory " + directory +
+                    " could not be created");
+        }
+        this.directory = directory;
+        final File files[] = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the directory of the segments.
+     *
+     * @return The directory. This method never returns <code>null</code>.
+     */
+    /* package */ File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the complete segments in the order they were written.
+     *
+     * @return The segments. This method never returns <code>null</code>.
+     */
+    /* package */ File[] list() {
+        final File files[] = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int numSegments = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[numSegments++] = file;
+            }
+        }
+        final File segments[] = Arrays.copyOf(files, numSegments);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Write a new segment.
+     *
+     * @param infos The information to write. Must not be <code>null</code>.
+     *
+     * @throws IOException if the segment could not be written. Nothing is
+     *         left on disk in that case.
+     */
+    /* package */ void write(Collection<? extends BaseInformation<?, ?>> infos)
+            throws IOException {
+        write(infos, SUFFIX);
+    }
+
+    /**
+     * Write records that could not be stored to a new bad segment, kept for
+     * manual inspection without being read again.
+     *
+     * @param infos The information to write. Must not be <code>null</code>.
+     *
+     * @throws IOException if the segment could not be written. Nothing is
+     *         left on disk in that case.
+     */
+    /* package */ void writeBad(
+            Collection<? extends BaseInformation<?, ?>> infos)
+            throws IOException {
+        write(infos, BAD_SUFFIX);
+    }
+
+    /**
+     * Write a new segment.
+     *
+     * @param infos  The information to write. Must not be <code>null</code>.
+     * @param suffix The suffix of the segment. Must not be <code>null</code>.
+     *
+     * @throws IOException if the segment could not be written. Nothing is
+     *         left on disk in that case.
+     */
+    private void write(Collection<? extends BaseInformation<?, ?>> infos,
+            String suffix) throws IOException {
+        final String name;
+        synchronized(this) {
+            sequence++;
+            name = String.format("%013d-%06d", new Long(
+                    System.currentTimeMillis()), new Integer(sequence));
+        }
+        final File temp = new File(directory, name + TEMP_SUFFIX);
+        boolean written = false;
+        try {
+            final FileOutputStream file = new FileOutputStream(temp);
+            try {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(file));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (BaseInformation<?, ?> info : infos) {
+                    out.writeByte(1);
+                    info.write(out);
+                }
+                out.writeByte(0);
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+            if (!temp.renameTo(new File(directory, name + suffix))) {
+                throw new IOException("The segment " + temp +
+                        " could not be renamed");
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Open a segment for reading. The caller reads the records with
+     * {@link #hasNext(DataInputStream)} and the collector, and closes the
+     * stream.
+     *
+     * @param segment The segment. Must not be <code>null</code>.
+     *
+     * @return The stream positioned at the first record.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws IOException if the segment could not be opened or is not
+     *         a segment.
+     */
+    /* package */ DataInputStream open(File segment) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment)));
+        boolean valid = false;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(segment + " is not a segment");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(segment + " has the unknown version " +
+                        version);
+            }
+            valid = true;
+            return in;
+        } finally {
+            if (!valid) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Check if there is one more record in a segment.
+     *
+     * @param in The stream returned by {@link #open(File)}.
+     *
+     * @return <code>true</code> if there is one more record.
+     *
+     * @throws IOException if the segment could not be read.
+     */
+    /* package */ boolean hasNext(DataInputStream in) throws IOException {
+        return in.readByte() != 0;
+    }
+
+    /**
+     * Keep a segment that could not be read for manual inspection, without
+     * reading it again.
+     *
+     * @param segment The segment. Must not be <code>null</code>.
+     */
+    /* package */ void markBad(File segment) {
+        segment.renameTo(new File(directory, segment.getName() + BAD_SUFFIX));
+    }
+}
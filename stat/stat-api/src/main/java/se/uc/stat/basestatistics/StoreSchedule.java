@@ -0,0 +1,273 @@
+package se.uc.stat.basestatistics;
+
+import java.util.Random;
+
+/**
+ * The schedule of the store rounds of a collector. By default the schedule
+ * is fixed: a store round starts a store interval after the previous round
+ * ended, also after a failure, and each registering thread stores a fixed
+ * number of objects.
+ * <p/>
+ * An adaptive schedule measures the time to store one object and
+ * <ul>
+ * <li>sizes the number of objects stored per thread to a target time,</li>
+ * <li>starts the next round sooner when the cache grows, so that the
+ *     estimated time to store the whole cache plus the wait is the store
+ *     interval, but never sooner than a minimum interval,</li>
+ * <li>waits exponentially longer after each failed round in a row, with
+ *     a random part so that the servers do not retry at the same time.
+ *     The wait is never shorter than the store interval.</li>
+ * </ul>
+ * The methods are not thread safe.
+ */
+/* package */ class StoreSchedule {
+    /** The maximum number of objects stored per thread. */
+    private final static int MAX_BATCH_SIZE = 1000;
+
+    /** The weight of a new store time in the average, as a divisor. */
+    private final static int AVERAGE_DIVISOR = 8;
+
+    /** The maximum number of doublings of the wait after failures. */
+    private final static int MAX_DOUBLINGS = 16;
+
+    /**
+     * The part of the store interval a batch of the flush may take. The
+     * rounds are kept away from the flush while it performs.
+     */
+    private final static int FLUSH_DIVISOR = 10;
+
+    /**
+     * The time in milliseconds of a store assumed by the fixed schedule of
+     * the flush, with margin for three database operations.
+     */
+    private final static int FIXED_FLUSH_STORE_TIME = 30;
+
+    /** The time in milliseconds between the store rounds. */
+    private final long storeInterval;
+
+    /** The number of objects stored per thread by the fixed schedule. */
+    private final int maxNumberOfStores;
+
+    /** The random numbers of the jitter. */
+    private final Random random = new Random();
+
+    /** <code>true</code> if the schedule is adaptive. */
+    private boolean adaptive = false;
+
+    /** The target time in nanoseconds a thread stores objects. */
+    private long targetNanos = 0;
+
+    /** The minimum time in milliseconds between the store rounds. */
+    private long minInterval = 0;
+
+    /** The maximum time in milliseconds to wait after failures. */
+    private long maxBackoff = 0;
+
+    /**
+     * The average time in nanoseconds to store an object or
+     * <code>0</code> if not measured.
+     */
+    private long storeNanos = 0;
+
+    /** The number of failed rounds in a row. */
+    private int numFailures = 0;
+
+    /** The time the last successful round ended. */
+    private long roundEnd = System.currentTimeMillis();
+
+    /**
+     * Create a fixed schedule.
+     *
+     * @param storeInterval     The time in milliseconds between the store
+     *                          rounds.
+     * @param maxNumberOfStores The number of objects stored per thread.
+     */
+    /* package */ StoreSchedule(long storeInterval, int maxNumberOfStores) {
+        this.storeInterval = storeInterval;
+        this.maxNumberOfStores = maxNumberOfStores;
+    }
+
+    /**
+     * Make this schedule adaptive or fixed.
+     *
+     * @param targetTime  The target time in milliseconds a thread stores
+     *                    objects, or <code>0</code> for a fixed schedule.
+     *                    Must not be negative.
+     * @param minInterval The minimum time in milliseconds between the store
+     *                    rounds. Must not be negative.
+     * @param maxBackoff  The maximum time in milliseconds to wait after
+     *                    failures. A value less than the store interval
+     *                    means the store interval.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ void setAdaptive(long targetTime, long minInterval,
+            long maxBackoff) {
+        if (targetTime < 0) {
+            throw new IllegalArgumentException(
+                    "targetTime must not be negative");
+        }
+        if (minInterval < 0) {
+            throw new IllegalArgumentException(
+                    "minInterval must not be negative");
+        }
+        adaptive = targetTime > 0;
+        targetNanos = targetTime * 1000000;
+        this.minInterval = Math.min(minInterval, storeInterval);
+        this.maxBackoff = Math.max(maxBackoff, storeInterval);
+    }
+
+    /**
+     * Check if this schedule is adaptive.
+     *
+     * @return <code>true</code> if adaptive.
+     */
+    /* package */ boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Register the time of a successful store of one object.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    /* package */ void registerStore(long nanos) {
+        numFailures = 0;
+        if (storeNanos == 0) {
+            storeNanos = Math.max(nanos, 1);
+        } else {
+            storeNanos = Math.max(storeNanos +
+                    (nanos - storeNanos) / AVERAGE_DIVISOR, 1);
+        }
+    }
+
+    /**
+     * Get the average time to store an object.
+     *
+     * @return The time in nanoseconds or <code>0</code> if not measured.
+     */
+    /* package */ long getStoreNanos() {
+        return storeNanos;
+    }
+
+    /**
+     * Get the number of failed rounds in a row.
+     *
+     * @return The number of failures since the last successful store.
+     */
+    /* package */ int getNumFailures() {
+        return numFailures;
+    }
+
+    /**
+     * Check if the rounds are postponed due to failures.
+     *
+     * @return <code>true</code> if the last round failed.
+     */
+    /* package */ boolean isBackingOff() {
+        return numFailures > 0;
+    }
+
+    /**
+     * Get the number of objects a registering thread stores.
+     *
+     * @return The number of objects, at least <code>1</code>.
+     */
+    /* package */ int getBatchSize() {
+        if (!adaptive || storeNanos == 0) {
+            return maxNumberOfStores;
+        }
+        return getBatchSize(targetNanos);
+    }
+
+    /**
+     * Get the number of objects stored by the flush between the updates of
+     * the next round.
+     *
+     * @return The number of objects, at least <code>1</code>.
+     */
+    /* package */ int getFlushBatchSize() {
+        if (!adaptive || storeNanos == 0) {
+            return (int)Math.max(
+                    storeInterval / FLUSH_DIVISOR / FIXED_FLUSH_STORE_TIME, 1);
+        }
+        return getBatchSize(storeInterval * 1000000 / FLUSH_DIVISOR);
+    }
+
+    /**
+     * Register that a round ended successfully.
+     *
+     * @param time      The current time.
+     * @param cacheSize The number of objects in the cache.
+     *
+     * @return The time the next round starts.
+     */
+    /* package */ long roundEnded(long time, int cacheSize) {
+        roundEnd = time;
+        return time + getInterval(cacheSize);
+    }
+
+    /**
+     * Register that a round failed. With an adaptive schedule the next
+     * round starts at a random time between the store interval and the
+     * backoff, which doubles with each failed round in a row.
+     *
+     * @param time The current time.
+     *
+     * @return The time the next round starts.
+     */
+    /* package */ long roundFailed(long time) {
+        if (!adaptive) {
+            return time + storeInterval;
+        }
+        numFailures++;
+        final long wait = Math.min(storeInterval <<
+                Math.min(numFailures - 1, MAX_DOUBLINGS), maxBackoff);
+        return time + storeInterval +
+                (long)(random.nextDouble() * (wait - storeInterval));
+    }
+
+    /**
+     * Get the earliest time the next round may start because the cache has
+     * grown since the last round ended.
+     *
+     * @param cacheSize The number of objects in the cache.
+     *
+     * @return The time or <code>Long.MAX_VALUE</code> if the round is not
+     *         started early.
+     */
+    /* package */ long getEarlyStore(int cacheSize) {
+        if (!adaptive || numFailures > 0 || storeNanos == 0) {
+            return Long.MAX_VALUE;
+        }
+        return roundEnd + getInterval(cacheSize);
+    }
+
+    /**
+     * Get the time between the end of a round and the start of the next.
+     *
+     * @param cacheSize The number of objects in the cache.
+     *
+     * @return The time in milliseconds.
+     */
+    private long getInterval(int cacheSize) {
+        if (!adaptive) {
+            return storeInterval;
+        }
+        final long storeTime = cacheSize * storeNanos / 1000000;
+        return Math.max(storeInterval - storeTime, minInterval);
+    }
+
+    /**
+     * Get the number of objects stored within a time.
+     *
+     * @param nanos The time in nanoseconds.
+     *
+     * @return The number of objects, at least <code>1</code> and at most
+     *         <code>MAX_BATCH_SIZE</code>.
+     */
+    private int getBatchSize(long nanos) {
+        return (int)Math.max(Math.min(nanos / storeNanos, MAX_BATCH_SIZE), 1);
+    }
+}
@@ -1,11 +1,14 @@
 package se.uc.stat.customerstatistics;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
 
 import se.uc.stat.basestatistics.BaseCollector;
+import se.uc.stat.basestatistics.BaseKey;
 import se.uc.stat.dimension.BaseDimension;
 import se.uc.stat.dimension.Dimensions;
 import se.uc.stat.dimension.MethodKey;
@@ -33,6 +36,9 @@ import se.uc.stat.utils.TimeUtils;
      */
     private final static int MAX_NUMBER_OF_STORAGES = 3;
     
+    /** The name of the table. */
+    /* package */ final static String TABLE_NAME = "CUSTOMER_STAT";
+    
     /**
      * The SQL to update the record in the database table.
      * 
@@ -74,6 +80,13 @@ import se.uc.stat.utils.TimeUtils;
     		"NUM_CORRECT_CALLS, NUM_INVALID_CALLS, NUM_FAILED_CALLS) " +
     		"values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
     
+    /** The limiter of the number of customers per method and day. */
+    private final CustomerLimiter limiter = new CustomerLimiter();
+    
+    /** The sketches of the distinct customers per method and day. */
+    private final CustomerSketchCollector sketches =
+            new CustomerSketchCollector();
+    
     /**
      * Package constructor to prevent instantiation outside of the package.
      */
@@ -81,6 +94,72 @@ import se.uc.stat.utils.TimeUtils;
         super(STORE_INTERVAL, MAX_NUMBER_OF_STORAGES, UPDATE_SQL, INSERT_SQL);
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getName() {
+        return TABLE_NAME;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean supportsSpill() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CustomerInformation readInformation(DataInput in)
+            throws IOException {
+        return new CustomerInformation(in);
+    }
+    
+    /**
+     * Get the overflow key, which keeps the service, method and date and
+     * replaces origin, product and media with {@link BaseKey#OTHERS} and
+     * the customer with {@link CustomerLimiter#OTHER_CUSTOMERS}.
+     * 
+     * @param key The key of the registration.
+     * 
+     * @return The overflow key. This method never returns <code>null</code>.
+     */
+    @Override
+    protected CustomerStatisticsKey getOverflowKey(CustomerStatisticsKey key) {
+        return new CustomerStatisticsKey(key.getService(), key.getMethod(),
+                BaseKey.OTHERS, BaseKey.OTHERS, BaseKey.OTHERS,
+                CustomerLimiter.OTHER_CUSTOMERS, key.getDate());
+    }
+    
+    /**
+     * Set the max number of customers registered per method. The customers
+     * calling a method the most are registered and the calls of other
+     * customers are registered on the customer
+     * {@link CustomerLimiter#OTHER_CUSTOMERS}.
+     * 
+     * @param maxCustomers The max number of customers or <code>0</code> to
+     *                     register all customers. Must not be negative.
+     *                     
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ void setMaxCustomersPerMethod(int maxCustomers) {
+        limiter.setMaxCustomers(maxCustomers);
+    }
+    
+    /**
+     * Get the collector of the sketches of the distinct customers.
+     * 
+     * @return The collector. This method never returns <code>null</code>.
+     */
+    /* package */ CustomerSketchCollector getSketches() {
+        return sketches;
+    }
+    
     /**
      * Register a correct service call in the customer statistics.
      * 
@@ -110,16 +189,24 @@ import se.uc.stat.utils.TimeUtils;
             String origin, String product, String media, String customer) {
         final TimeRepresentation date = TimeUtils.getTimeRepresentation(
                 System.currentTimeMillis());
+        sketches.register(service, method, origin, media,
+                prepareCustomer(customer), date);
         final CustomerStatisticsKey key = new CustomerStatisticsKey(service,
-                method, origin, product, media, customer,
+                method, origin, product, media,
+                limiter.getCustomer(service, method, customer, date.getDate()),
                 new Date(date.getDate()));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            CustomerInformation info = get(key);
-            if (info == null) {
-                info = new CustomerInformation(key, date.getDayOfWeek());
-                put(info);
+            lockAcquired(waitStart);
+            final CustomerStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                CustomerInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new CustomerInformation(admittedKey, date.getDayOfWeek());
+                    put(info);
+                }
+                info.registerCorrectCall();
             }
-            info.registerCorrectCall();
         }
         allowStore();
     }
@@ -155,16 +242,24 @@ import se.uc.stat.utils.TimeUtils;
             String origin, String product, String media, String customer) {
         final TimeRepresentation date = TimeUtils.getTimeRepresentation(
                 System.currentTimeMillis());
+        sketches.register(service, method, origin, media,
+                prepareCustomer(customer), date);
         final CustomerStatisticsKey key = new CustomerStatisticsKey(service,
-                method, origin, product, media, customer,
+                method, origin, product, media,
+                limiter.getCustomer(service, method, customer, date.getDate()),
                 new Date(date.getDate()));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            CustomerInformation info = get(key);
-            if (info == null) {
-                info = new CustomerInformation(key, date.getDayOfWeek());
-                put(info);
+            lockAcquired(waitStart);
+            final CustomerStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                CustomerInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new CustomerInformation(admittedKey, date.getDayOfWeek());
+                    put(info);
+                }
+                info.registerInvalidCall();
             }
-            info.registerInvalidCall();
         }
         allowStore();
     }
@@ -200,16 +295,24 @@ import se.uc.stat.utils.TimeUtils;
             String origin, String product, String media, String customer) {
         final TimeRepresentation date = TimeUtils.getTimeRepresentation(
                 System.currentTimeMillis());
+        sketches.register(service, method, origin, media,
+                prepareCustomer(customer), date);
         final CustomerStatisticsKey key = new CustomerStatisticsKey(service,
-                method, origin, product, media, customer,
+                method, origin, product, media,
+                limiter.getCustomer(service, method, customer, date.getDate()),
                 new Date(date.getDate()));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            CustomerInformation info = get(key);
-            if (info == null) {
-                info = new CustomerInformation(key, date.getDayOfWeek());
-                put(info);
+            lockAcquired(waitStart);
+            final CustomerStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                CustomerInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new CustomerInformation(admittedKey, date.getDayOfWeek());
+                    put(info);
+                }
+                info.registerFailedCall();
             }
-            info.registerFailedCall();
         }
         allowStore();
     }
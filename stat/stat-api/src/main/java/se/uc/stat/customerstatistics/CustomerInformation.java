@@ -1,5 +1,9 @@
 package se.uc.stat.customerstatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import se.uc.stat.basestatistics.BaseInformation;
 
 /**
@@ -35,6 +39,43 @@ import se.uc.stat.basestatistics.BaseInformation;
         this.key = key;
     }
     
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the information could not be read.
+     * @throws IllegalArgumentException if the information is invalid.
+     */
+    /* package */ CustomerInformation(DataInput in) throws IOException {
+        this(new CustomerStatisticsKey(in), in);
+    }
+
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)} when the key has been read.
+     * 
+     * @param key The key for this information.
+     * @param in  The input to read the numbers from.
+     * 
+     * @throws IOException if the information could not be read.
+     */
+    private CustomerInformation(CustomerStatisticsKey key, DataInput in)
+            throws IOException {
+        super(in);
+        this.key = key;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        key.write(out);
+        super.write(out);
+    }
+    
     /**
      * Register a correct call.
      */
@@ -86,6 +127,14 @@ import se.uc.stat.basestatistics.BaseInformation;
         return baseSubtract(other);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void add(CustomerInformation other) {
+        baseAdd(other);
+    }
+
     /**
      * Create a clone of this object.
      * 
@@ -0,0 +1,450 @@
+package se.uc.stat.customerstatistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.uc.stat.dimension.MethodKey;
+
+/**
+ * Class limiting the number of customers registered per method.
+ * <p/>
+ * When a limit is set, the calls of the customers calling a method the
+ * most, the heavy hitters, are registered with their own name. The calls
+ * of all other customers are registered on the customer
+ * {@link #OTHER_CUSTOMERS}. This keeps the size of the cache and the number
+ * of rows in the database bounded even if a client calls with random
+ * customers.
+ * <p/>
+ * <strong>Internal implementation details</strong>
+ * The calls are counted with the space-saving algorithm. Per method at
+ * most the limit of customers are admitted, that is registered with their
+ * own name, and twice the limit of other customers have a counter. A
+ * customer without a counter takes over the counter with the lowest count,
+ * and the count of the counter becomes the error of the new customer.
+ * A customer guaranteed to have made more calls (count minus error) than
+ * the admitted customer with the fewest calls takes its place, and the
+ * evicted customer gets a counter among the others. The calls a customer
+ * made before it was admitted stay on {@link #OTHER_CUSTOMERS}. Random
+ * customers calling once are never guaranteed <code>MIN_CALLS</code> calls
+ * and can neither use up the limit nor evict a customer.
+ * <p/>
+ * The counts are halved each new day, so that the heavy hitters of the
+ * previous day are admitted on their first call but a customer that stops
+ * calling is eventually evicted.
+ * <p/>
+ * A call of an admitted customer costs a lookup in a concurrent map and an
+ * atomic increment. Only the calls of the other customers take the lock of
+ * the method. When no limit is set a call costs the read of a volatile
+ * field.
+ */
+/* package */ class CustomerLimiter {
+    /** The customer registering the calls of the customers not admitted. */
+    /* package */ final static String OTHER_CUSTOMERS = "(\u00f6vriga)";
+
+    /** The number of calls needed before a customer is admitted. */
+    private final static int MIN_CALLS = 2;
+
+    /** The key used for the <code>null</code> customer. */
+    private final static Object NULL_CUSTOMER = new Object();
+
+    /**
+     * The max number of customers per method or <code>0</code> if the
+     * number of customers is not limited.
+     */
+    private volatile int maxCustomers = 0;
+
+    /** The customers of each method. */
+    private final ConcurrentMap<MethodKey, MethodCustomers> methods =
+            new ConcurrentHashMap<MethodKey, MethodCustomers>();
+
+    /**
+     * Set the max number of customers per method. The customers already
+     * admitted are forgotten.
+     *
+     * @param maxCustomers The max number of customers or <code>0</code> to
+     *                     register all customers. Must not be negative.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ void setMaxCustomers(int maxCustomers) {
+        if (maxCustomers < 0) {
+            throw new IllegalArgumentException(
+                    "maxCustomers must not be negative");
+        }
+        this.maxCustomers = maxCustomers;
+        methods.clear();
+    }
+
+    /**
+     * Get the max number of customers per method.
+     *
+     * @return The max number of customers or <code>0</code> if the number
+     *         of customers is not limited.
+     */
+    /* package */ int getMaxCustomers() {
+        return maxCustomers;
+    }
+
+    /**
+     * Count a call and get the customer to register the call on.
+     *
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param customer The customer performing the call.
+     *                 May be <code>null</code>.
+     * @param date     The date of the call in milliseconds with hours,
+     *                 minutes, seconds and milliseconds set to 0.
+     *
+     * @return <code>customer</code> if the customer is admitted or the
+     *         number of customers is not limited, otherwise
+     *         {@link #OTHER_CUSTOMERS}.
+     */
+    /* package */ String getCustomer(String service, String method,
+            String customer, long date) {
+        final int max = maxCustomers;
+        if (max == 0) {
+            return customer;
+        }
+        final MethodKey methodKey = new MethodKey(service, method);
+        MethodCustomers customers = methods.get(methodKey);
+        if (customers == null) {
+            final MethodCustomers created = new MethodCustomers(max);
+            customers = methods.putIfAbsent(methodKey, created);
+            if (customers == null) {
+                customers = created;
+            }
+        }
+        if (customers.register(
+                customer == null ? NULL_CUSTOMER : customer, date)) {
+            return customer;
+        }
+        return OTHER_CUSTOMERS;
+    }
+
+    /**
+     * Class holding the admitted customers and the counters of the other
+     * customers of one method.
+     * <p/>
+     * This class is thread safe.
+     */
+    private static class MethodCustomers {
+        /** The max number of admitted customers. */
+        private final int maxCustomers;
+        /**
+         * The counters of the customers that are not admitted, as a heap
+         * with the lowest count first. Must only be accessed when holding
+         * a lock on this object.
+         */
+        private final Counter[] heap;
+        /**
+         * The number of counters in <code>heap</code>. Must only be
+         * accessed when holding a lock on this object.
+         */
+        private int numCounters = 0;
+        /**
+         * The counters in <code>heap</code> by customer. Must only be
+         * accessed when holding a lock on this object.
+         */
+        private final Map<Object, Counter> counters =
+                new HashMap<Object, Counter>();
+        /**
+         * The admitted customers of the current day. Replaced when the day
+         * changes. Changed only when holding a lock on this object.
+         */
+        private volatile Admitted admitted =
+                new Admitted(Long.MIN_VALUE);
+        /**
+         * A count not higher than the count of any admitted customer.
+         * Must only be accessed when holding a lock on this object.
+         */
+        private long minAdmitted = 0;
+
+        /**
+         * Create this class.
+         *
+         * @param maxCustomers The max number of admitted customers.
+         *                     Must be at least 1.
+         */
+        /* package */ MethodCustomers(int maxCustomers) {
+            this.maxCustomers = maxCustomers;
+            heap = new Counter[2 * maxCustomers];
+        }
+
+        /**
+         * Count a call of a customer.
+         *
+         * @param customer The customer. Must not be <code>null</code>.
+         * @param date     The date of the call.
+         *
+         * @return <code>true</code> if the customer is admitted.
+         */
+        /* package */ boolean register(Object customer, long date) {
+            final Admitted current = admitted;
+            if (current.date == date) {
+                final AtomicLong count = current.counts.get(customer);
+                if (count != null) {
+                    count.incrementAndGet();
+                    return true;
+                }
+            }
+            synchronized (this) {
+                if (date > admitted.date) {
+                    newDay(date);
+                }
+                final AtomicLong count = admitted.counts.get(customer);
+                if (count != null) {
+                    count.incrementAndGet();
+                    return true;
+                }
+                final Counter counter = count(customer);
+                final long guaranteed = counter.count - counter.error;
+                if (guaranteed < MIN_CALLS) {
+                    return false;
+                }
+                if (admitted.counts.size() < maxCustomers) {
+                    admit(counter);
+                    return true;
+                }
+                if (guaranteed <= minAdmitted) {
+                    return false;
+                }
+                final Object evicted = getEvicted(guaranteed);
+                if (evicted == null) {
+                    return false;
+                }
+                admit(counter);
+                evict(evicted);
+                return true;
+            }
+        }
+
+        /**
+         * Start a new day. The admitted customers are kept and all counts
+         * are halved. Must only be called when holding a lock on this
+         * object.
+         *
+         * @param date The new date.
+         */
+        private void newDay(long date) {
+            final Admitted next = new Admitted(date);
+            for (Map.Entry<Object, AtomicLong> entry :
+                    admitted.counts.entrySet()) {
+                next.counts.put(entry.getKey(),
+                        new AtomicLong(entry.getValue().get() / 2));
+            }
+            // Halving keeps the order of the counts, so the heap is kept.
+            for (int i = 0; i < numCounters; i++) {
+                heap[i].count /= 2;
+                heap[i].error /= 2;
+            }
+            minAdmitted /= 2;
+            admitted = next;
+        }
+
+        /**
+         * Get the admitted customer with the fewest calls if it has made
+         * fewer calls than <code>guaranteed</code>. Must only be called
+         * when holding a lock on this object.
+         *
+         * @param guaranteed The number of calls the customer to admit is
+         *                   guaranteed to have made.
+         *
+         * @return The customer to evict or <code>null</code> if no
+         *         customer is to be evicted.
+         */
+        private Object getEvicted(long guaranteed) {
+            Object lowest = null;
+            long lowestCount = Long.MAX_VALUE;
+            for (Map.Entry<Object, AtomicLong> entry :
+                    admitted.counts.entrySet()) {
+                final long count = entry.getValue().get();
+                if (count < lowestCount) {
+                    lowest = entry.getKey();
+                    lowestCount = count;
+                }
+            }
+            minAdmitted = lowestCount;
+            return lowestCount < guaranteed ? lowest : null;
+        }
+
+        /**
+         * Evict an admitted customer. The customer gets a counter, which
+         * there is room for since a customer has just been admitted. Must
+         * only be called when holding a lock on this object.
+         *
+         * @param customer The customer. Must not be <code>null</code>.
+         */
+        private void evict(Object customer) {
+            final AtomicLong count = admitted.counts.remove(customer);
+            final Counter counter = new Counter(customer, count.get(), 0);
+            add(counter);
+            counters.put(customer, counter);
+        }
+
+        /**
+         * Admit a customer. Its counter is removed. Must only be called
+         * when holding a lock on this object.
+         *
+         * @param counter The counter of the customer.
+         *                Must not be <code>null</code>.
+         */
+        private void admit(Counter counter) {
+            counters.remove(counter.customer);
+            numCounters--;
+            final Counter last = heap[numCounters];
+            heap[numCounters] = null;
+            if (last != counter) {
+                heap[counter.index] = last;
+                last.index = counter.index;
+                siftUp(last.index);
+                siftDown(last.index);
+            }
+            admitted.counts.put(counter.customer,
+                    new AtomicLong(counter.count));
+        }
+
+        /**
+         * Increase the counter of a customer. If the customer has no
+         * counter and all counters are used, the counter with the lowest
+         * count is taken over. Must only be called when holding a lock on
+         * this object.
+         *
+         * @param customer The customer. Must not be <code>null</code>.
+         *
+         * @return The counter of the customer.
+         *         This method never returns <code>null</code>.
+         */
+        private Counter count(Object customer) {
+            Counter counter = counters.get(customer);
+            if (counter != null) {
+                counter.count++;
+                siftDown(counter.index);
+            } else if (numCounters < heap.length) {
+                counter = new Counter(customer, 1, 0);
+                add(counter);
+                counters.put(customer, counter);
+            } else {
+                counter = heap[0];
+                counters.remove(counter.customer);
+                counter.customer = customer;
+                counter.error = counter.count;
+                counter.count++;
+                siftDown(0);
+                counters.put(customer, counter);
+            }
+            return counter;
+        }
+
+        /**
+         * Add a counter to the heap. Must only be called when holding a
+         * lock on this object and when the heap is not full.
+         *
+         * @param counter The counter. Must not be <code>null</code>.
+         */
+        private void add(Counter counter) {
+            counter.index = numCounters;
+            heap[numCounters++] = counter;
+            siftUp(counter.index);
+        }
+
+        /**
+         * Move a counter towards the root of the heap until its parent has
+         * a lower or equal count.
+         *
+         * @param index The index of the counter.
+         */
+        private void siftUp(int index) {
+            final Counter counter = heap[index];
+            while (index > 0) {
+                final int parent = (index - 1) / 2;
+                if (heap[parent].count <= counter.count) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                heap[index].index = index;
+                index = parent;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+
+        /**
+         * Move a counter towards the leaves of the heap until its children
+         * have higher or equal counts.
+         *
+         * @param index The index of the counter.
+         */
+        private void siftDown(int index) {
+            final Counter counter = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= numCounters) {
+                    break;
+                }
+                if (child + 1 < numCounters &&
+                        heap[child + 1].count < heap[child].count) {
+                    child++;
+                }
+                if (counter.count <= heap[child].count) {
+                    break;
+                }
+                heap[index] = heap[child];
+                heap[index].index = index;
+                index = child;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+    }
+
+    /**
+     * Class holding the admitted customers of one day.
+     */
+    private static class Admitted {
+        /** The date. */
+        private final long date;
+        /** The number of calls of the admitted customers. */
+        private final ConcurrentMap<Object, AtomicLong> counts =
+                new ConcurrentHashMap<Object, AtomicLong>();
+
+        /**
+         * Create this class.
+         *
+         * @param date The date.
+         */
+        /* package */ Admitted(long date) {
+            this.date = date;
+        }
+    }
+
+    /**
+     * Class holding the estimated number of calls of one customer.
+     */
+    private static class Counter {
+        /** The customer. */
+        private Object customer;
+        /** The estimated number of calls. */
+        private long count;
+        /** The max overestimation of <code>count</code>. */
+        private long error;
+        /** The index of the counter in the heap. */
+        private int index;
+
+        /**
+         * Create this class.
+         *
+         * @param customer The customer. Must not be <code>null</code>.
+         * @param count    The estimated number of calls.
+         * @param error    The max overestimation of <code>count</code>.
+         */
+        /* package */ Counter(Object customer, long count, long error) {
+            this.customer = customer;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package se.uc.stat.customerstatistics;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import se.uc.stat.basestatistics.BaseCollector;
+import se.uc.stat.basestatistics.BaseKey;
+import se.uc.stat.dimension.Dimensions;
+import se.uc.stat.dimension.MethodKey;
+import se.uc.stat.log.Log;
+import se.uc.stat.utils.DatabaseUtils;
+import se.uc.stat.utils.HyperLogLog;
+import se.uc.stat.utils.TimeRepresentation;
+
+/**
+ * Class collecting sketches of the distinct customers calling each method
+ * per origin, media and day. The sketches are stored in the table
+ * <code>CUSTOMER_SKETCH</code> and can be merged into the number of
+ * distinct customers of any range of days and any grouping.
+ * <p/>
+ * <strong>Internal implementation details</strong>
+ * The sketches are collected, stored, spilled and journaled by
+ * {@link BaseCollector} like the other statistics, see
+ * {@link CustomerSketchInformation} for how a sketch is subtracted. A
+ * sketch is stored by merging it with the sketch in the database within a
+ * transaction where the row is locked by <code>select ... for update</code>,
+ * since the merge can not be done by an update statement.
+ * <p/>
+ * The customer is hashed before the lock is taken, so the lock is only
+ * held for a lookup in the cache and the update of one register of the
+ * sketch.
+ */
+/* package */ class CustomerSketchCollector extends BaseCollector<
+        CustomerStatisticsKey, CustomerSketchInformation> {
+    /** The name of the table, used as the name of this collector. */
+    /* package */ final static String TABLE_NAME = "CUSTOMER_SKETCH";
+
+    /**
+     * The time interval for storing sketches. This is the time in
+     * milliseconds between the last sketch is stored and the next start to
+     * store sketches.
+     */
+    private final static long STORE_INTERVAL = 60 * 1000;
+
+    /**
+     * The maximum number of sketches a single thread may have to store
+     * before it is released.
+     */
+    private final static int MAX_NUMBER_OF_STORAGES = 3;
+
+    /**
+     * The SQL to read and lock the stored sketch.
+     *
+     * param 1: Method id (reference to METHOD_INFO).
+     * param 2: Origin id (reference to ORIGIN_INFO).
+     * param 3: Media id (reference to MEDIA_INFO).
+     * param 4: Date with hours, minutes, seconds and milliseconds set to 0.
+     */
+    private final static String SELECT_SQL = "select SKETCH " +
+            "from CUSTOMER_SKETCH " +
+            "where METHOD_ID = ? and ORIGIN_ID = ? and MEDIA_ID = ? " +
+            "and STATISTICS_DATE = ? for update";
+
+    /**
+     * The SQL to update the stored sketch.
+     *
+     * param 1: The merged sketch.
+     * param 2: Method id (reference to METHOD_INFO).
+     * param 3: Origin id (reference to ORIGIN_INFO).
+     * param 4: Media id (reference to MEDIA_INFO).
+     * param 5: Date with hours, minutes, seconds and milliseconds set to 0.
+     */
+    private final static String UPDATE_SQL = "update CUSTOMER_SKETCH " +
+            "set SKETCH = ? " +
+            "where METHOD_ID = ? and ORIGIN_ID = ? and MEDIA_ID = ? " +
+            "and STATISTICS_DATE = ?";
+
+    /**
+     * The SQL to insert the sketch.
+     *
+     * param 1: Method id (reference to METHOD_INFO).
+     * param 2: Origin id (reference to ORIGIN_INFO).
+     * param 3: Media id (reference to MEDIA_INFO).
+     * param 4: Date with hours, minutes, seconds and milliseconds set to 0.
+     * param 5: Day of week id (reference to DAY_OF_WEEK).
+     * param 6: The sketch.
+     */
+    private final static String INSERT_SQL = "insert into CUSTOMER_SKETCH" +
+            "(METHOD_ID, ORIGIN_ID, MEDIA_ID, STATISTICS_DATE, " +
+            "DAY_OF_WEEK_ID, SKETCH) values(?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The estimated memory in bytes of a sketch and its map entry, without
+     * the key.
+     */
+    private final static int INFORMATION_SIZE = 200 + HyperLogLog.MAX_BYTES;
+
+    /** The log object for this class. */
+    private final Log log = Log.getLog(getClass());
+
+    /**
+     * Package constructor to prevent instantiation outside of the package.
+     */
+    /* package */ CustomerSketchCollector() {
+        super(STORE_INTERVAL, MAX_NUMBER_OF_STORAGES, UPDATE_SQL, INSERT_SQL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getName() {
+        return TABLE_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean supportsSpill() {
+        return true;
+    }
+
+    /**
+     * Get the estimated memory of a sketch, which includes the registers of
+     * the sketch.
+     *
+     * @return The estimated memory in bytes.
+     */
+    @Override
+    protected int getInformationSize() {
+        return INFORMATION_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CustomerSketchInformation readInformation(DataInput in)
+            throws IOException {
+        return new CustomerSketchInformation(in);
+    }
+
+    /**
+     * Get the overflow key, which keeps the method and date and replaces
+     * origin and media with {@link BaseKey#OTHERS}.
+     *
+     * @param key The key of the registration.
+     *
+     * @return The overflow key. This method never returns <code>null</code>.
+     */
+    @Override
+    protected CustomerStatisticsKey getOverflowKey(
+            CustomerStatisticsKey key) {
+        return new CustomerStatisticsKey(key.getService(), key.getMethod(),
+                BaseKey.OTHERS, null, BaseKey.OTHERS, null, key.getDate());
+    }
+
+    /**
+     * Register a call of a customer.
+     *
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param origin   The origin for the call. May be <code>null</code>.
+     * @param media    The delivery media. May be <code>null</code>.
+     * @param customer The customer performing the call.
+     *                 <code>null</code> is ignored.
+     * @param date     The time of the call. Must not be <code>null</code>.
+     */
+    /* package */ void register(String service, String method, String origin,
+            String media, String customer, TimeRepresentation date) {
+        if (customer == null) {
+            return;
+        }
+        final CustomerStatisticsKey key = new CustomerStatisticsKey(service,
+                method, origin, null, media, null, new Date(date.getDate()));
+        final long hash = HyperLogLog.hash(customer);
+        final long waitStart = System.nanoTime();
+        synchronized(cacheLock) {
+            lockAcquired(waitStart);
+            final CustomerStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                CustomerSketchInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new CustomerSketchInformation(admittedKey,
+                            date.getDayOfWeek());
+                    put(info);
+                }
+                info.addHash(hash);
+            }
+        }
+        allowStore();
+    }
+
+    /**
+     * Merge a sketch with the sketch stored in the database within a
+     * transaction. If there is no stored sketch it is created, and if
+     * another instance creates it first the stored sketch is merged again.
+     *
+     * @param connection The connection to use. Must not be <code>null</code>.
+     * @param info       The sketch to store. Must not be <code>null</code>.
+     *
+     * @return <code>true</code> if the sketch was stored.
+     *
+     * @throws SQLException if there is an error communicating with the
+     *         database.
+     */
+    @Override
+    protected boolean storeInformation(Connection connection,
+            CustomerSketchInformation info) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            final boolean stored = update(connection, info) ||
+                    insert(connection, info) || update(connection, info);
+            connection.commit();
+            return stored;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                // Do not hide the error of the store.
+                log.error("Rolling back the customer sketch generated an " +
+                        "exception", rollbackException, null);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Merge a sketch with the sketch stored in the database, if any.
+     *
+     * @param connection The database connection to use.
+     * @param info       The sketch to store.
+     *
+     * @return <code>true</code> if the stored sketch was updated.
+     *         <code>false</code> if there is no stored sketch.
+     *
+     * @throws SQLException if the update fails.
+     */
+    private boolean update(Connection connection,
+            CustomerSketchInformation info) throws SQLException {
+        final CustomerSketchInformation merged = info.createClone();
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            statement = connection.prepareStatement(SELECT_SQL);
+            setKey(statement, 1, info.getKey());
+            result = statement.executeQuery();
+            if (!result.next()) {
+                return false;
+            }
+            merged.getSketch().merge(readSketch(result.getBytes(1)));
+        } finally {
+            DatabaseUtils.close(null, statement, result);
+        }
+        try {
+            statement = connection.prepareStatement(UPDATE_SQL);
+            populateUpdate(statement, merged);
+            return statement.executeUpdate() == 1;
+        } finally {
+            DatabaseUtils.close(null, statement, null);
+        }
+    }
+
+    /**
+     * Insert a sketch in the database.
+     *
+     * @param connection The database connection to use.
+     * @param info       The sketch to store.
+     *
+     * @return <code>true</code> if the sketch was inserted.
+     *         <code>false</code> if the sketch already exists.
+     *
+     * @throws SQLException if the insert fails for other reasons than that
+     *         the sketch already exists.
+     */
+    private boolean insert(Connection connection,
+            CustomerSketchInformation info) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(INSERT_SQL);
+            populateInsert(statement, info);
+            return statement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            if (e.getErrorCode() != 1) {
+                // This is not a unique constraint, rethrow it
+                throw e;
+            }
+            return false;
+        } finally {
+            DatabaseUtils.close(null, statement, null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void populateInsert(PreparedStatement ps,
+            CustomerSketchInformation info) throws SQLException {
+        setKey(ps, 1, info.getKey());
+        ps.setInt(5, info.getDayOfWeek());
+        ps.setBytes(6, info.getSketch().toBytes());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void populateUpdate(PreparedStatement ps,
+            CustomerSketchInformation info) throws SQLException {
+        ps.setBytes(1, info.getSketch().toBytes());
+        setKey(ps, 2, info.getKey());
+    }
+
+    /**
+     * Set the method id, origin id, media id and date of a key.
+     *
+     * @param ps    The statement. Must not be <code>null</code>.
+     * @param index The index of the method id parameter.
+     * @param key   The key. Must not be <code>null</code>.
+     *
+     * @throws SQLException if the parameters could not be set.
+     */
+    private static void setKey(PreparedStatement ps, int index,
+            CustomerStatisticsKey key) throws SQLException {
+        ps.setInt(index, Dimensions.getMethodDimension().getId(
+                new MethodKey(key.getService(), key.getMethod())));
+        ps.setInt(index + 1,
+                Dimensions.getOriginDimension().getId(key.getOrigin()));
+        ps.setInt(index + 2,
+                Dimensions.getMediaDimension().getId(key.getMedia()));
+        ps.setTimestamp(index + 3, new Timestamp(key.getDate().getTime()));
+    }
+
+    /**
+     * Read a stored sketch. An invalid sketch is logged and replaced by an
+     * empty sketch.
+     *
+     * @param bytes The stored sketch. May be <code>null</code>.
+     *
+     * @return The sketch. This method never returns <code>null</code>.
+     */
+    private HyperLogLog readSketch(byte bytes[]) {
+        if (bytes != null) {
+            try {
+                return new HyperLogLog(bytes);
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid customer sketch in the database", e, null);
+            }
+        }
+        return new HyperLogLog();
+    }
+}
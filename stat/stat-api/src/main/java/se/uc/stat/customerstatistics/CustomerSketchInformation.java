@@ -0,0 +1,196 @@
+package se.uc.stat.customerstatistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+import se.uc.stat.basestatistics.BaseInformation;
+import se.uc.stat.utils.HyperLogLog;
+
+/**
+ * The sketch of the distinct customers calling a method per origin, media
+ * and day.
+ * <p/>
+ * A sketch can not be subtracted like the numbers of the other information.
+ * Instead the number of calls added to the sketch is subtracted, and the
+ * sketch is kept as it is while calls are added after it was copied to be
+ * stored. Since a merge of a sketch is idempotent, storing the calls of the
+ * sketch again gives the same result as storing them once.
+ * <p/>
+ * Note that these methods are not thread safe and require synchronization
+ * when they are called.
+ */
+/* package */ class CustomerSketchInformation extends
+        BaseInformation<CustomerStatisticsKey, CustomerSketchInformation> {
+    /** The key with product and customer set to <code>null</code>. */
+    private final CustomerStatisticsKey key;
+    /** The sketch of the customers. */
+    private final HyperLogLog sketch;
+    /** The number of calls added to the sketch and not yet stored. */
+    private long numCalls = 0;
+
+    /**
+     * Create this class.
+     *
+     * @param key       The key for this information.
+     *                  Must not be <code>null</code>.
+     * @param dayOfWeek The day of the week. Have to be between 0 and 6
+     *                  where 0 is Monday and 6 is Sunday.
+     *
+     * @throws IllegalArgumentException if <code>dayOfWeek</code>
+     *         or <code>key</code> is invalid.
+     */
+    /* package */ CustomerSketchInformation(CustomerStatisticsKey key,
+            int dayOfWeek) {
+        this(key, dayOfWeek, new HyperLogLog());
+    }
+
+    /**
+     * Create this class.
+     *
+     * @param key       The key for this information.
+     *                  Must not be <code>null</code>.
+     * @param dayOfWeek The day of the week.
+     * @param sketch    The sketch. Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if <code>dayOfWeek</code>
+     *         or <code>key</code> is invalid.
+     */
+    private CustomerSketchInformation(CustomerStatisticsKey key,
+            int dayOfWeek, HyperLogLog sketch) {
+        super(dayOfWeek);
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null.");
+        }
+        this.key = key;
+        this.sketch = sketch;
+    }
+
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from. Must not be <code>null</code>.
+     *
+     * @throws IOException if the information could not be read.
+     * @throws IllegalArgumentException if the information is invalid.
+     */
+    /* package */ CustomerSketchInformation(DataInput in) throws IOException {
+        this(new CustomerStatisticsKey(in), in);
+    }
+
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)} when the key has been read.
+     *
+     * @param key The key for this information.
+     * @param in  The input to read the numbers from.
+     *
+     * @throws IOException if the information could not be read.
+     */
+    private CustomerSketchInformation(CustomerStatisticsKey key,
+            DataInput in) throws IOException {
+        super(in);
+        this.key = key;
+        numCalls = in.readLong();
+        final byte bytes[] = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        sketch = new HyperLogLog(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        key.write(out);
+        super.write(out);
+        out.writeLong(numCalls);
+        final byte bytes[] = sketch.toBytes();
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Add the hash of a customer calling.
+     *
+     * @param hash The hash of the customer, see
+     *             {@link HyperLogLog#hash(String)}.
+     */
+    /* package */ void addHash(long hash) {
+        sketch.addHash(hash);
+        numCalls++;
+    }
+
+    /**
+     * Get the sketch.
+     *
+     * @return The sketch. This method never returns <code>null</code>.
+     */
+    /* package */ HyperLogLog getSketch() {
+        return sketch;
+    }
+
+    /**
+     * Get the key for this information.
+     *
+     * @return The key for this information.
+     *         This method never returns <code>null</code>.
+     */
+    @Override
+    public CustomerStatisticsKey getKey() {
+        return key;
+    }
+
+    /**
+     * Update this instance by subtracting the number of calls in
+     * <code>other</code>. The sketch is not changed.
+     *
+     * @param other The instance with the calls to subtract from this
+     *              instance.
+     *
+     * @return <code>true</code> if no calls are left.
+     */
+    @Override
+    protected boolean subtract(CustomerSketchInformation other) {
+        numCalls -= other.numCalls;
+        return baseSubtract(other) && numCalls == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void add(CustomerSketchInformation other) {
+        baseAdd(other);
+        numCalls += other.numCalls;
+        sketch.merge(other.sketch);
+    }
+
+    /**
+     * Create a clone of this object. The sketch is copied, so the clone is
+     * not changed by calls added to this object.
+     *
+     * @return A clone of this object.
+     */
+    @Override
+    protected CustomerSketchInformation createClone() {
+        final HyperLogLog copy = new HyperLogLog();
+        copy.merge(sketch);
+        final CustomerSketchInformation clone = new CustomerSketchInformation(
+                key, getDayOfWeek(), copy);
+        clone.numCalls = numCalls;
+        return clone;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void putValues(Map<String, Long> values) {
+        super.putValues(values);
+        values.put("numCalls", new Long(numCalls));
+        values.put("numDistinctCustomers", new Long(sketch.estimate()));
+    }
+}
@@ -1,10 +1,15 @@
 package se.uc.stat.customerstatistics;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
+import se.uc.stat.basestatistics.OverflowPolicy;
+import se.uc.stat.basestatistics.Snapshot;
 import se.uc.stat.timestatistics.StatisticsInfo;
 import se.uc.stat.timestatistics.TimeStatistics;
 import se.uc.stat.utils.DatabaseUtils;
@@ -18,8 +23,16 @@ import se.uc.stat.log.Log;
 public class CustomerStatistics {
     /** The collector instance to use. */
     private final static CustomerCollector collector = new CustomerCollector();
+    /** The collector of the sketches of the distinct customers. */
+    private final static CustomerSketchCollector sketches =
+            collector.getSketches();
     /** The log instance for this class. */
     private final static Log log = Log.getLog(CustomerStatistics.class);
+
+    static {
+        collector.registerMBean(CustomerCollector.TABLE_NAME);
+        sketches.registerMBean(CustomerSketchCollector.TABLE_NAME);
+    }
     
     /**
      * Private constructor to prevent instantiation.
@@ -146,6 +159,161 @@ public class CustomerStatistics {
         }
     }
 
+    /**
+     * Limit the number of customers registered per method and day.
+     * <p/>
+     * When the number of customers is limited, only the customers calling a
+     * method the most are registered with their own customer. A customer
+     * that starts calling more than one of them takes its place. The calls
+     * of all other customers are registered on the customer
+     * <code>(&ouml;vriga)</code>. This keeps the memory used and the number
+     * of rows stored bounded even if a client calls with random customers.
+     * The calls of a frequent customer before it is found to be frequent
+     * are also registered on <code>(&ouml;vriga)</code>.
+     * <p/>
+     * The limit does not affect the number of distinct customers per method
+     * and day, which is estimated from all customers.
+     * <p/>
+     * The number of customers is not limited by default.
+     * 
+     * @param maxCustomers The max number of customers per method
+     *                     or <code>0</code> to register all customers.
+     *                     Must not be negative.
+     *                     
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setMaxCustomersPerMethod(int maxCustomers) {
+        collector.setMaxCustomersPerMethod(maxCustomers);
+    }
+
+    /**
+     * Set the memory budget of the cache of the customer statistics. The
+     * memory is estimated from the number of rows not yet stored and the
+     * size of their keys. When the estimate exceeds the budget the policy
+     * is applied to the calls of new keys, see {@link OverflowPolicy}.
+     * <p/>
+     * The budget applies to the customer statistics and to the sketches of
+     * the distinct customers separately. The memory is not limited by
+     * default.
+     * 
+     * @param budget The budget in bytes or <code>0</code> for unlimited.
+     *               Must not be negative.
+     * @param policy The policy applied when the budget is exceeded.
+     *               Must not be <code>null</code>.
+     *               
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setMemoryBudget(long budget, OverflowPolicy policy) {
+        collector.setMemoryBudget(budget, policy);
+        sketches.setMemoryBudget(budget, policy);
+    }
+
+    /**
+     * Make the schedule of the store rounds of the customer statistics
+     * adaptive. The time to store a row is measured and
+     * <ul>
+     * <li>the rows stored by each calling thread are limited to a target
+     *     time,</li>
+     * <li>the next round starts sooner when many rows are waiting, but
+     *     never sooner than the minimum interval,</li>
+     * <li>the wait after failed rounds doubles, with a random part, up to
+     *     the maximum.</li>
+     * </ul>
+     * The schedule applies to the customer statistics and to the sketches
+     * of the distinct customers separately. It is fixed by default.
+     * 
+     * @param targetTime  The target time in milliseconds a calling thread
+     *                    spends storing rows, or <code>0</code> for the
+     *                    fixed schedule. Must not be negative.
+     * @param minInterval The minimum time in milliseconds between the
+     *                    store rounds. Must not be negative.
+     * @param maxBackoff  The maximum time in milliseconds to wait after
+     *                    failed rounds.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setAdaptiveSchedule(long targetTime,
+            long minInterval, long maxBackoff) {
+        collector.setAdaptiveSchedule(targetTime, minInterval, maxBackoff);
+        sketches.setAdaptiveSchedule(targetTime, minInterval, maxBackoff);
+    }
+
+    /**
+     * Set the directory the cache of the customer statistics is spilled to
+     * when the database is unavailable. The spilled information is stored
+     * in the database by a background thread when the database is
+     * available again, also after a restart of the application.
+     * <p/>
+     * The sketches of the distinct customers are spilled to a sub directory
+     * of their own. The caches are not spilled by default.
+     * 
+     * @param directory  The directory or <code>null</code> to stop
+     *                   spilling. A sub directory named as the table is
+     *                   used.
+     * @param replayRate The maximum number of rows stored per second when
+     *                   the spilled information is replayed. Must be
+     *                   positive if <code>directory</code> is set.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IOException if the directory could not be created.
+     */
+    public static void setSpill(File directory, int replayRate)
+            throws IOException {
+        collector.setSpill(directory, replayRate);
+        sketches.setSpill(directory, replayRate);
+    }
+
+    /**
+     * Set the directory of the crash journal of the customer statistics.
+     * A checkpoint of the rows not yet stored is kept in a memory-mapped
+     * file that survives a crash of the application, and is recovered when
+     * this method is called after the restart. Rows stored after the last
+     * checkpoint before a crash may be counted twice.
+     * <p/>
+     * The sketches of the distinct customers have a journal of their own.
+     * The caches are not journaled by default.
+     * 
+     * @param directory The directory or <code>null</code> to stop the
+     *                  journal. A file named as the table is used.
+     * @param interval  The time in milliseconds between the checkpoints.
+     *                  Must be positive.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IOException if the journal could not be opened.
+     */
+    public static void setJournal(File directory, long interval)
+            throws IOException {
+        collector.setJournal(directory, interval);
+        sketches.setJournal(directory, interval);
+    }
+
+    /**
+     * Set the number of workers storing the rows of the customer statistics
+     * in parallel. The rows of a store round are split in one partition per
+     * worker by their primary key, and each worker stores its partition on
+     * its own connection, so the workers never lock the same row. The
+     * calling threads never store rows when the stores are parallel.
+     * <p/>
+     * The customer statistics and the sketches of the distinct customers
+     * have separate workers. The stores are not parallel by default.
+     * 
+     * @param numWorkers The number of workers, or <code>0</code> to let the
+     *                   calling threads store the rows.
+     *                   Must not be negative.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setParallelStores(int numWorkers) {
+        collector.setParallelStores(numWorkers);
+        sketches.setParallelStores(numWorkers);
+    }
+
     /**
      * Perform a flush of the cache. This means that all information in the
      * cache is stored in the persistent store.
@@ -161,6 +329,20 @@ public class CustomerStatistics {
      */
     public static void flush() {
         collector.flush();
+        sketches.flush();
+    }
+
+    /**
+     * Get the customer statistics registered in this application that are
+     * not yet stored persistent. Add them to the stored statistics to get
+     * the current statistics. The registrations are not blocked while the
+     * snapshot is taken.
+     * 
+     * @return Immutable copies of the statistics not yet stored.
+     *         This method never returns <code>null</code>.
+     */
+    public static List<Snapshot> snapshot() {
+        return collector.snapshot();
     }
     
     /**
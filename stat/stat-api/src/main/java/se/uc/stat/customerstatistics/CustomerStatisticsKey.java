@@ -1,6 +1,11 @@
 package se.uc.stat.customerstatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 
 import se.uc.stat.basestatistics.BaseKey;
 
@@ -10,6 +15,9 @@ import se.uc.stat.basestatistics.BaseKey;
  * @author Anders Persson (konx40)
  */
 /* package */ class CustomerStatisticsKey extends BaseKey {
+    /** The estimated memory in bytes of the date. */
+    private final static int DATE_SIZE = 24;
+
     /** The customer. */
     private final String customer;
 
@@ -56,6 +64,30 @@ import se.uc.stat.basestatistics.BaseKey;
         return customer;
     }
     
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the key could not be read.
+     */
+    /* package */ CustomerStatisticsKey(DataInput in) throws IOException {
+        super(in);
+        customer = readString(in);
+        date = new Date(in.readLong());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        super.write(out);
+        writeString(out, customer);
+        out.writeLong(date.getTime());
+    }
+    
     /**
      * Get the date.
      * 
@@ -65,6 +97,29 @@ import se.uc.stat.basestatistics.BaseKey;
         return date;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getEstimatedSize() {
+        return super.getEstimatedSize() + getEstimatedSize(customer) +
+                DATE_SIZE;
+    }
+    
+    /**
+     * Add the attributes of this key to the dimensions of a snapshot.
+     * The date is given as <code>yyyy-MM-dd</code>.
+     * 
+     * @param dimensions The dimensions to add to.
+     *                   Must not be <code>null</code>.
+     */
+    @Override
+    protected void putDimensions(Map<String, String> dimensions) {
+        super.putDimensions(dimensions);
+        dimensions.put("customer", getCustomer());
+        dimensions.put("date", new SimpleDateFormat("yyyy-MM-dd").format(date));
+    }
+    
     /**
      * Get the string representation of this instance.
      * 
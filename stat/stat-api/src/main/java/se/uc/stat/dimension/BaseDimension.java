@@ -7,6 +7,8 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import se.uc.stat.event.StatEventListener;
+import se.uc.stat.event.StatEvents;
 import se.uc.stat.utils.DatabaseUtils;
 
 /**
@@ -50,6 +52,18 @@ public abstract class BaseDimension<Key> {
      * <code>false</code> if the ids map is up-to-date.
      */
     private boolean readIds = true;
+
+    /** The number of lookups. Access only when holding <code>lock</code>. */
+    private long numLookups = 0;
+    /** The number of reads. Access only when holding <code>lock</code>. */
+    private long numReads = 0;
+    /**
+     * The total time of the reads in nanoseconds.
+     * Access only when holding <code>lock</code>.
+     */
+    private long readNanos = 0;
+    /** The number of inserts. Access only when holding <code>lock</code>. */
+    private long numInserts = 0;
     
     /**
      * Create this class.
@@ -81,12 +95,14 @@ public abstract class BaseDimension<Key> {
     public int getId(Key key) throws SQLException {
         final Key processedKey = preprocessKey(key);
         synchronized(lock) {
+            numLookups++;
             ensureRead();
             Integer id = ids.get(processedKey);
             if (id != null) {
                 return id.intValue();
             }
             storeKey(processedKey);
+            numInserts++;
             readIds = true;
             ensureRead();
             id = ids.get(processedKey);
@@ -111,19 +127,43 @@ public abstract class BaseDimension<Key> {
     }
     
     /**
-     * Ensure the map is read from the database if necessary.
+     * Ensure the map is read from the database if necessary. The current
+     * map is kept until the new map has been read, so a failed read does
+     * not throw away the dimension.
      *            
      * @throws SQLException if there is an exception reading from the
      *         persistent store.
      */
     private void ensureRead() throws SQLException {
         if (readIds) {
+            final long start = System.nanoTime();
+            final Map<Key, Integer> readMap = new HashMap<Key, Integer>();
+            numReads++;
+            try {
+                populateMap(readMap);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
             ids.clear();
-            populateMap();
+            ids.putAll(readMap);
             readIds = false;
+            final StatEventListener listener = StatEvents.getListener();
+            if (listener != null) {
+                listener.dimensionRead(getClass().getSimpleName(), ids.size(),
+                        System.nanoTime() - start);
+            }
         }
     }
 
+    /**
+     * Create the MBean of this dimension.
+     * 
+     * @return The MBean. This method never returns <code>null</code>.
+     */
+    /* package */ final DimensionMonitorMBean createMonitor() {
+        return new Monitor();
+    }
+
     /**
      * Perform a preprocess of the key. This means the possibility to
      * validate the key and to update the key with for example a shorter name.
@@ -167,14 +207,16 @@ public abstract class BaseDimension<Key> {
             throws SQLException;
     
     /**
-     * Populate the dimension map from the persistent store.
+     * Populate a dimension map from the persistent store.
      * This method should read all instances in the persistent store
-     * and update the <code>ids</code> map with all the key-value pairs.
+     * and update the map with all the key-value pairs.
+     * 
+     * @param map The map to populate. Must not be <code>null</code>.
      *            
      * @throws SQLException if there is an exception reading from the
      *         persistent store.
      */
-    private void populateMap() throws SQLException {
+    private void populateMap(Map<Key, Integer> map) throws SQLException {
         Connection connection = null;
         PreparedStatement statement = null;
         ResultSet result = null;
@@ -185,7 +227,7 @@ public abstract class BaseDimension<Key> {
             while (result.next()) {
                 final int id = result.getInt(1);
                 final Key key = extractKey(result);
-                ids.put(key, new Integer(id));
+                map.put(key, new Integer(id));
             }
         } finally {
             DatabaseUtils.close(connection, statement, result);
@@ -235,4 +277,67 @@ public abstract class BaseDimension<Key> {
             DatabaseUtils.close(connection, statement, null);
         }
     }
+
+    /**
+     * The MBean of this dimension.
+     */
+    private class Monitor implements DimensionMonitorMBean {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getSize() {
+            synchronized(lock) {
+                return ids.size();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumLookups() {
+            synchronized(lock) {
+                return numLookups;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumReads() {
+            synchronized(lock) {
+                return numReads;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getTotalReadTime() {
+            synchronized(lock) {
+                return readNanos / 1000000;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getNumInserts() {
+            synchronized(lock) {
+                return numInserts;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void reload() {
+            clear();
+        }
+    }
 }
@@ -0,0 +1,52 @@
+package se.uc.stat.dimension;
+
+/**
+ * Management interface of a dimension, registered as
+ * <code>se.uc.stat:type=Dimension,name=&lt;dimension&gt;</code>. The
+ * counters are counted from the start of the application.
+ * <p/>
+ * A number of reads that keeps growing means that the dimension is cleared
+ * often, normally because the stores of the statistics fail.
+ */
+public interface DimensionMonitorMBean {
+    /**
+     * Get the number of keys in the dimension read from the database.
+     *
+     * @return The number of keys.
+     */
+    int getSize();
+
+    /**
+     * Get the number of lookups of ids.
+     *
+     * @return The number of lookups.
+     */
+    long getNumLookups();
+
+    /**
+     * Get the number of times the dimension has been read from the
+     * database.
+     *
+     * @return The number of reads.
+     */
+    long getNumReads();
+
+    /**
+     * Get the total time of the reads from the database.
+     *
+     * @return The time in milliseconds.
+     */
+    long getTotalReadTime();
+
+    /**
+     * Get the number of keys inserted in the database.
+     *
+     * @return The number of inserts.
+     */
+    long getNumInserts();
+
+    /**
+     * Mark the dimension to be reread from the database at the next lookup.
+     */
+    void reload();
+}
@@ -1,7 +1,10 @@
 package se.uc.stat.dimension;
 
+import se.uc.stat.utils.JmxUtils;
+
 /**
- * Class holding references to the dimensions.
+ * Class holding references to the dimensions. The dimensions are published
+ * over JMX, see {@link DimensionMonitorMBean}.
  * 
  * @author Anders Persson (konx40)
  */
@@ -18,6 +21,20 @@ public class Dimensions {
     
     /** The layer dimension instance. */
     private static final LayerDimension layerDimension = new LayerDimension();
+
+    /** The type of the MBeans of the dimensions. */
+    private static final String MBEAN_TYPE = "Dimension";
+
+    static {
+        JmxUtils.register(mediaDimension.createMonitor(),
+                DimensionMonitorMBean.class, MBEAN_TYPE, "Media");
+        JmxUtils.register(methodDimension.createMonitor(),
+                DimensionMonitorMBean.class, MBEAN_TYPE, "Method");
+        JmxUtils.register(originDimension.createMonitor(),
+                DimensionMonitorMBean.class, MBEAN_TYPE, "Origin");
+        JmxUtils.register(layerDimension.createMonitor(),
+                DimensionMonitorMBean.class, MBEAN_TYPE, "Layer");
+    }
     
     /**
      * Private constructor to prevent instantiation.
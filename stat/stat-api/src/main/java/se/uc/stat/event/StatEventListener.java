@@ -0,0 +1,52 @@
+package se.uc.stat.event;
+
+/**
+ * Listener of the internal events of the statistics, for example to
+ * publish them as JDK Flight Recorder events and correlate the cost of the
+ * statistics with the latency of the application. Set the listener with
+ * {@link StatEvents#setListener(StatEventListener)}.
+ * <p/>
+ * A JFR implementation on Java 11 or later defines one
+ * <code>jdk.jfr.Event</code> class per method, sets its fields and calls
+ * <code>commit()</code> if <code>shouldCommit()</code> returns
+ * <code>true</code>.
+ * <p/>
+ * The methods are called by the thread doing the work, some of them while
+ * internal locks are held. They must be fast, must not throw exceptions and
+ * must not call the statistics.
+ */
+public interface StatEventListener {
+    /**
+     * Called when a store round of a collector has ended, either after a
+     * flush or when a registration stored the information that was due.
+     *
+     * @param collector The name of the collector, normally the table.
+     *                  Never <code>null</code>.
+     * @param numStored The number of information objects stored.
+     * @param numFailed The number of failed stores. A failure ends the
+     *                  round, so this is <code>0</code> or <code>1</code>.
+     * @param duration  The duration of the round in nanoseconds.
+     */
+    void storeRound(String collector, int numStored, int numFailed,
+            long duration);
+
+    /**
+     * Called when a dimension has been read from the database.
+     *
+     * @param dimension The name of the dimension. Never <code>null</code>.
+     * @param size      The number of keys read.
+     * @param duration  The duration of the read in nanoseconds.
+     */
+    void dimensionRead(String dimension, int size, long duration);
+
+    /**
+     * Called when a registration has waited for the lock of the cache of a
+     * collector for at least the threshold, see
+     * {@link StatEvents#setLockWaitThreshold(long)}.
+     *
+     * @param collector The name of the collector, normally the table.
+     *                  Never <code>null</code>.
+     * @param waitTime  The time waited in nanoseconds.
+     */
+    void lockContended(String collector, long waitTime);
+}
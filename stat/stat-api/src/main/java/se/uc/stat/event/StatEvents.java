@@ -0,0 +1,73 @@
+package se.uc.stat.event;
+
+/**
+ * Holder of the {@link StatEventListener}. No events are created when no
+ * listener is set, which is the default, so the cost is one read of a
+ * volatile field per event.
+ */
+public class StatEvents {
+    /** The default lock wait threshold in nanoseconds. */
+    public final static long DEFAULT_LOCK_WAIT_THRESHOLD = 1000000;
+
+    /** The listener or <code>null</code> if the events are not listened to. */
+    private static volatile StatEventListener listener = null;
+
+    /** The minimum lock wait in nanoseconds reported as contention. */
+    private static volatile long lockWaitThreshold =
+            DEFAULT_LOCK_WAIT_THRESHOLD;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private StatEvents() {
+        // Nothing to do.
+    }
+
+    /**
+     * Set the listener.
+     *
+     * @param newListener The listener or <code>null</code> to stop
+     *                    listening.
+     */
+    public static void setListener(StatEventListener newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * Get the listener.
+     *
+     * @return The listener or <code>null</code> if the events are not
+     *         listened to.
+     */
+    public static StatEventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set the minimum time a registration must wait for the lock of a cache
+     * to be reported as contention. The default is
+     * {@link #DEFAULT_LOCK_WAIT_THRESHOLD}.
+     *
+     * @param threshold The threshold in nanoseconds. Must not be negative.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setLockWaitThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException(
+                    "threshold must not be negative");
+        }
+        lockWaitThreshold = threshold;
+    }
+
+    /**
+     * Get the minimum time a registration must wait for the lock of a cache
+     * to be reported as contention.
+     *
+     * @return The threshold in nanoseconds.
+     */
+    public static long getLockWaitThreshold() {
+        return lockWaitThreshold;
+    }
+}
@@ -0,0 +1,280 @@
+package se.uc.stat.snapshot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import se.uc.stat.basestatistics.Snapshot;
+import se.uc.stat.customerstatistics.CustomerStatistics;
+import se.uc.stat.log.Log;
+import se.uc.stat.timestatistics.TimeMetrics;
+import se.uc.stat.timestatistics.TimeStatistics;
+
+/**
+ * Small HTTP server publishing the statistics of this application that are
+ * not yet stored persistent as JSON. The web admin, or a service collecting
+ * the snapshots of several nodes, adds them to the stored statistics to get
+ * the current statistics without waiting for the next store.
+ * <p/>
+ * <code>GET /snapshot/time</code> returns the time statistics per hour and
+ * <code>GET /snapshot/customer</code> the customer statistics. The response
+ * is an object with <code>node</code> (the host name), <code>time</code>
+ * (milliseconds since 1970) and <code>rows</code>, an array with one
+ * object per row holding the dimensions as strings and the values as
+ * numbers, for example:
+ * <pre>
+ * {"node":"host1","time":1300000000000,"rows":[
+ * {"service":"S","method":"M",...,"time":"2011-03-13 08:00",
+ * "numCorrectCalls":12,...}]}
+ * </pre>
+ * <code>GET /metrics</code> returns the cumulative time statistics in the
+ * OpenMetrics text format if they are collected, see
+ * {@link TimeStatistics#setMetricsEnabled(boolean)}, and 404 otherwise.
+ * <p/>
+ * The server is not started by default. It binds to the loopback
+ * interface unless another address is given and has no authentication.
+ */
+public class SnapshotServer {
+    /** The log instance for this class. */
+    private final static Log log = Log.getLog(SnapshotServer.class);
+    /** The character encoding of the responses. */
+    private final static String ENCODING = "UTF-8";
+
+    /**
+     * The running server or <code>null</code> if not started.
+     * All access must be done when a lock on the class is held.
+     */
+    private static HttpServer server = null;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SnapshotServer() {
+        // Nothing to do.
+    }
+
+    /**
+     * Start the server on the loopback interface. A running server is
+     * stopped first.
+     *
+     * @param port The port to listen to.
+     *
+     * @throws IOException if the server could not be started.
+     */
+    public static void start(int port) throws IOException {
+        start(null, port);
+    }
+
+    /**
+     * Start the server. A running server is stopped first.
+     * <p/>
+     * The server must be stopped with {@link #stop()} when the application
+     * shuts down.
+     *
+     * @param address The address to bind to or <code>null</code> for the
+     *                loopback interface.
+     * @param port    The port to listen to.
+     *
+     * @throws IOException if the server could not be started.
+     */
+    public static synchronized void start(String address, int port)
+            throws IOException {
+        stop();
+        final HttpServer newServer = HttpServer.create(new InetSocketAddress(
+                InetAddress.getByName(address), port), 0);
+        newServer.createContext("/snapshot/time", new Handler(false));
+        newServer.createContext("/snapshot/customer", new Handler(true));
+        newServer.createContext("/metrics", new MetricsHandler());
+        newServer.start();
+        server = newServer;
+        log.info("Snapshot server started on port " + port, null, null);
+    }
+
+    /**
+     * Stop the server if it is running.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            log.info("Snapshot server stopped", null, null);
+        }
+    }
+
+    /**
+     * Write snapshots as JSON.
+     *
+     * @param writer    The writer to write to.
+     *                  Must not be <code>null</code>.
+     * @param node      The name of this node. Must not be <code>null</code>.
+     * @param time      The time of the snapshot.
+     * @param snapshots The snapshots. Must not be <code>null</code>.
+     *
+     * @throws IOException if the JSON could not be written.
+     */
+    /* package */ static void writeJson(Writer writer, String node, long time,
+            List<Snapshot> snapshots) throws IOException {
+        writer.write("{\"node\":");
+        writeJsonString(writer, node);
+        writer.write(",\"time\":");
+        writer.write(Long.toString(time));
+        writer.write(",\"rows\":[");
+        boolean firstRow = true;
+        for (Snapshot snapshot : snapshots) {
+            writer.write(firstRow ? "\n{" : ",\n{");
+            firstRow = false;
+            boolean first = true;
+            for (Map.Entry<String, String> entry :
+                    snapshot.getDimensions().entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeJsonString(writer, entry.getKey());
+                writer.write(':');
+                writeJsonString(writer, entry.getValue());
+            }
+            for (Map.Entry<String, Long> entry :
+                    snapshot.getValues().entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeJsonString(writer, entry.getKey());
+                writer.write(':');
+                writer.write(entry.getValue().toString());
+            }
+            writer.write('}');
+        }
+        writer.write("]}\n");
+    }
+
+    /**
+     * Write a JSON string.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     * @param value  The value. <code>null</code> is written as
+     *               <code>null</code>.
+     *
+     * @throws IOException if the JSON could not be written.
+     */
+    private static void writeJsonString(Writer writer, String value)
+            throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int pos = 0; pos < value.length(); pos++) {
+            final char c = value.charAt(pos);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < ' ') {
+                final String hex = Integer.toHexString(c);
+                writer.write("\\u");
+                for (int i = hex.length(); i < 4; i++) {
+                    writer.write('0');
+                }
+                writer.write(hex);
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Handler of the snapshot requests.
+     */
+    private static class Handler implements HttpHandler {
+        /**
+         * <code>true</code> for the customer statistics,
+         * <code>false</code> for the time statistics.
+         */
+        private final boolean customer;
+
+        /**
+         * Create this class.
+         *
+         * @param customer <code>true</code> for the customer statistics,
+         *                 <code>false</code> for the time statistics.
+         */
+        private Handler(boolean customer) {
+            this.customer = customer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                final long time = System.currentTimeMillis();
+                final List<Snapshot> snapshots = customer ?
+                        CustomerStatistics.snapshot() :
+                        TimeStatistics.snapshot();
+                exchange.getResponseHeaders().set("Content-Type",
+                        "application/json; charset=" + ENCODING);
+                exchange.sendResponseHeaders(200, 0);
+                final OutputStream out = exchange.getResponseBody();
+                final Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(out, ENCODING));
+                writeJson(writer, InetAddress.getLocalHost().getHostName(),
+                        time, snapshots);
+                writer.flush();
+            } catch (IOException e) {
+                log.warning("Could not send the snapshot", e, null);
+                throw e;
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Handler of the metrics requests.
+     */
+    private static class MetricsHandler implements HttpHandler {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                final TimeMetrics metrics = TimeStatistics.getMetrics();
+                if (metrics == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type",
+                        TimeMetrics.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, 0);
+                metrics.write(exchange.getResponseBody());
+            } catch (IOException e) {
+                log.warning("Could not send the metrics", e, null);
+                throw e;
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
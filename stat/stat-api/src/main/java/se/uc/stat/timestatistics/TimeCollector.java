@@ -1,25 +1,49 @@
 package se.uc.stat.timestatistics;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Date;
 import java.sql.Timestamp;
 
 import se.uc.stat.basestatistics.BaseCollector;
+import se.uc.stat.basestatistics.BaseKey;
 import se.uc.stat.dimension.BaseDimension;
 import se.uc.stat.dimension.Dimensions;
 import se.uc.stat.dimension.MethodKey;
+import se.uc.stat.log.Log;
+import se.uc.stat.utils.CircuitOpenException;
 import se.uc.stat.utils.DatabaseUtils;
 import se.uc.stat.utils.TimeRepresentation;
 import se.uc.stat.utils.TimeUtils;
 
 /**
  * Class collecting time statistics.
+ * <p/>
+ * The statistics are collected per hour in the table
+ * <code>TIME_STAT</code>, or per bucket of a number of minutes in the table
+ * <code>TIME_STAT_MINUTE</code>. The bucket of a call is calculated from the
+ * cached {@link TimeRepresentation} of the hour, so a call costs the same
+ * with both resolutions. The rows of the fine grained table are deleted
+ * when they are older than the retention time, at most once per
+ * <code>PURGE_INTERVAL</code>. The rows are deleted by a daemon thread, so
+ * the thread registering a call never waits for the deletion.
  * 
  * @author Anders Persson (konx40)
  */
 /* package */ class TimeCollector extends BaseCollector<
         TimeStatisticsKey, TimeInformation> {
+    /** The name of the table with the statistics per hour. */
+    /* package */ final static String TABLE_NAME = "TIME_STAT";
+
+    /** The name of the table with the statistics per bucket of minutes. */
+    /* package */ final static String MINUTE_TABLE_NAME = "TIME_STAT_MINUTE";
+
+    /** The log instance for this class. */
+    private final static Log log = Log.getLog(TimeCollector.class);
+
     /**
      * The time interval for storing information. This is the time in
      * milliseconds between the last information object is stored and the
@@ -33,8 +57,12 @@ import se.uc.stat.utils.TimeUtils;
      */
     private final static int MAX_NUMBER_OF_STORAGES = 3;
     
+    /** The time in milliseconds between deletions of old rows. */
+    private final static long PURGE_INTERVAL = 60 * 60 * 1000;
+    
     /**
-     * The SQL to update the record in the database table.
+     * The SQL to update the record in the database table. The table name is
+     * appended to <code>"update "</code>.
      * 
      * param 1: Number of correct calls to add.
      * param 2: Number of invalid calls to add.
@@ -59,9 +87,9 @@ import se.uc.stat.utils.TimeUtils;
      * param 21: Media id to search for (reference to MEDIA_INFO).
      * param 22: Layer id to search for (reference to LAYER_INFO).
      * param 23: Product.
-     * param 24: Date and hour with minutes, seconds and milliseconds set to 0.
+     * param 24: The start of the hour or bucket.
      */
-    private final static String UPDATE_SQL = "update TIME_STAT set " +
+    private final static String UPDATE_SQL = " set " +
             "NUM_CORRECT_CALLS = NUM_CORRECT_CALLS + ?, " +
             "NUM_INVALID_CALLS = NUM_INVALID_CALLS + ?, " +
             "NUM_FAILED_CALLS = NUM_FAILED_CALLS + ?, " +
@@ -85,14 +113,15 @@ import se.uc.stat.utils.TimeUtils;
             "PRODUCT = ? and STATISTICS_TIME = ?";
     
     /**
-     * The SQL to insert the record in the database table.
+     * The SQL to insert the record in the database table. The table name is
+     * appended to <code>"insert into "</code>.
      * 
      * param 1: Method id (reference to METHOD_INFO).
      * param 2: Origin id (reference to ORIGIN_INFO).
      * param 3: Media id (reference to MEDIA_INFO).
      * param 4: Layer id (reference to LAYER_INFO).
      * param 5: Product.
-     * param 6: Date and hour with minutes, seconds and milliseconds set to 0.
+     * param 6: The start of the hour or bucket.
      * param 7: Day of week id (reference to DAY_OF_WEEK).
      * param 8: The hour of the day.
      * param 9: Number of correct calls.
@@ -114,7 +143,7 @@ import se.uc.stat.utils.TimeUtils;
      * param 25: The number of calls in interval to 20000 ms
      * param 26: The number of calls in interval over 20000 ms
      */
-    private final static String INSERT_SQL = "insert into TIME_STAT(METHOD_ID," +
+    private final static String INSERT_SQL = "(METHOD_ID," +
             "ORIGIN_ID, MEDIA_ID, LAYER_ID, PRODUCT, STATISTICS_TIME," +
             "DAY_OF_WEEK_ID, HOUR_OF_DAY, NUM_CORRECT_CALLS, " +
             "NUM_INVALID_CALLS, NUM_FAILED_CALLS, TOTAL_TIME_CORRECT_CALLS, " +
@@ -124,11 +153,143 @@ import se.uc.stat.utils.TimeUtils;
             "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
             "?, ?, ?, ?, ?, ?, ?, ?)";
     
+    /**
+     * The SQL to delete old rows. The table name is appended to
+     * <code>"delete from "</code>.
+     * 
+     * param 1: The time before which the rows are deleted.
+     */
+    private final static String PURGE_SQL = " where STATISTICS_TIME < ?";
+    
+    /** The name of the table. */
+    private final String tableName;
+    
+    /**
+     * The length of the buckets in milliseconds or <code>0</code> if the
+     * statistics are collected per hour.
+     */
+    private final long bucketLength;
+    
+    /**
+     * The time in milliseconds the rows are kept or <code>0</code> if they
+     * are kept forever.
+     */
+    private final long retention;
+    
+    /**
+     * The next time old rows should be deleted. Only updated when a lock on
+     * <code>purgeLock</code> is held.
+     */
+    private volatile long nextPurge = 0;
+    
+    /**
+     * <code>true</code> while old rows are deleted. Access only when
+     * holding a lock on <code>purgeLock</code>.
+     */
+    private boolean purging = false;
+    
+    /** Lock object used when deciding to delete old rows. */
+    private final Object purgeLock = new Object();
+    
     /**
      * Package constructor to prevent instantiation outside of the package.
+     * The statistics are collected per hour and are kept forever.
      */
     /* package */ TimeCollector() {
-        super(STORE_INTERVAL, MAX_NUMBER_OF_STORAGES, UPDATE_SQL, INSERT_SQL);
+        this(TABLE_NAME, 0, 0);
+    }
+    
+    /**
+     * Package constructor to prevent instantiation outside of the package.
+     * 
+     * @param tableName     The name of the table. Must not be
+     *                      <code>null</code>.
+     * @param bucketMinutes The length of the buckets in minutes or
+     *                      <code>0</code> to collect per hour. Must divide
+     *                      60.
+     * @param retention     The time in milliseconds the rows are kept or
+     *                      <code>0</code> to keep them forever.
+     *                      
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ TimeCollector(String tableName, int bucketMinutes,
+            long retention) {
+        super(STORE_INTERVAL, MAX_NUMBER_OF_STORAGES,
+                "update " + tableName + UPDATE_SQL,
+                "insert into " + tableName + INSERT_SQL);
+        if (tableName == null) {
+            throw new IllegalArgumentException("tableName must not be null");
+        }
+        if (bucketMinutes < 0 || bucketMinutes >= 60 ||
+                (bucketMinutes > 0 && 60 % bucketMinutes != 0)) {
+            throw new IllegalArgumentException(
+                    "bucketMinutes must be 0 or divide 60");
+        }
+        if (retention < 0) {
+            throw new IllegalArgumentException(
+                    "retention must not be negative");
+        }
+        this.tableName = tableName;
+        this.bucketLength = bucketMinutes * 60L * 1000;
+        this.retention = retention;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getName() {
+        return tableName;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean supportsSpill() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TimeInformation readInformation(DataInput in)
+            throws IOException {
+        return new TimeInformation(in);
+    }
+    
+    /**
+     * Get the overflow key, which keeps the service, method, layer and time
+     * and replaces origin, product and media with {@link BaseKey#OTHERS}.
+     * 
+     * @param key The key of the registration.
+     * 
+     * @return The overflow key. This method never returns <code>null</code>.
+     */
+    @Override
+    protected TimeStatisticsKey getOverflowKey(TimeStatisticsKey key) {
+        return new TimeStatisticsKey(key.getService(), key.getMethod(),
+                BaseKey.OTHERS, BaseKey.OTHERS, BaseKey.OTHERS, key.getLayer(),
+                key.getTime());
+    }
+    
+    /**
+     * Get the start of the hour or bucket of a time.
+     * 
+     * @param date The representation of the time.
+     *             Must not be <code>null</code>.
+     * @param time The time.
+     * 
+     * @return The start of the hour or bucket.
+     */
+    /* package */ long getStatisticsTime(TimeRepresentation date, long time) {
+        final long dateHour = date.getDateHour();
+        if (bucketLength == 0) {
+            return dateHour;
+        }
+        return dateHour + (time - dateHour) / bucketLength * bucketLength;
     }
     
     /**
@@ -159,21 +320,27 @@ import se.uc.stat.utils.TimeUtils;
     /* package */ void registerCorrectServiceCall(String service, String method,
             String origin, String product, String media, String layer,
             long callTime) {
-        final TimeRepresentation date = TimeUtils.getTimeRepresentation(
-                System.currentTimeMillis());
+        final long time = System.currentTimeMillis();
+        final TimeRepresentation date = TimeUtils.getTimeRepresentation(time);
         final TimeStatisticsKey key = new TimeStatisticsKey(service,
                 method, origin, product, media, layer,
-                new Date(date.getDateHour()));
+                new Date(getStatisticsTime(date, time)));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            TimeInformation info = get(key);
-            if (info == null) {
-                info = new TimeInformation(key, date.getDayOfWeek(),
-                        date.getHourOfDay());
-                put(info);
+            lockAcquired(waitStart);
+            final TimeStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                TimeInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new TimeInformation(admittedKey, date.getDayOfWeek(),
+                            date.getHourOfDay());
+                    put(info);
+                }
+                info.registerCorrectCall(callTime);
             }
-            info.registerCorrectCall(callTime);
         }
         allowStore();
+        purgeIfDue(time);
     }
 
     /**
@@ -206,21 +373,27 @@ import se.uc.stat.utils.TimeUtils;
     /* package */ void registerInvalidServiceCall(String service, String method,
             String origin, String product, String media, String layer,
             long callTime) {
-        final TimeRepresentation date = TimeUtils.getTimeRepresentation(
-                System.currentTimeMillis());
+        final long time = System.currentTimeMillis();
+        final TimeRepresentation date = TimeUtils.getTimeRepresentation(time);
         final TimeStatisticsKey key = new TimeStatisticsKey(service,
                 method, origin, product, media, layer,
-                new Date(date.getDateHour()));
+                new Date(getStatisticsTime(date, time)));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            TimeInformation info = get(key);
-            if (info == null) {
-                info = new TimeInformation(key, date.getDayOfWeek(),
-                        date.getHourOfDay());
-                put(info);
+            lockAcquired(waitStart);
+            final TimeStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                TimeInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new TimeInformation(admittedKey, date.getDayOfWeek(),
+                            date.getHourOfDay());
+                    put(info);
+                }
+                info.registerInvalidCall(callTime);
             }
-            info.registerInvalidCall(callTime);
         }
         allowStore();
+        purgeIfDue(time);
     }
 
     /**
@@ -253,21 +426,97 @@ import se.uc.stat.utils.TimeUtils;
     /* package */ void registerFailedServiceCall(String service, String method,
             String origin, String product, String media, String layer,
             long callTime) {
-        final TimeRepresentation date = TimeUtils.getTimeRepresentation(
-                System.currentTimeMillis());
+        final long time = System.currentTimeMillis();
+        final TimeRepresentation date = TimeUtils.getTimeRepresentation(time);
         final TimeStatisticsKey key = new TimeStatisticsKey(service,
                 method, origin, product, media, layer,
-                new Date(date.getDateHour()));
+                new Date(getStatisticsTime(date, time)));
+        final long waitStart = System.nanoTime();
         synchronized(cacheLock) {
-            TimeInformation info = get(key);
-            if (info == null) {
-                info = new TimeInformation(key, date.getDayOfWeek(),
-                        date.getHourOfDay());
-                put(info);
+            lockAcquired(waitStart);
+            final TimeStatisticsKey admittedKey = admit(key);
+            if (admittedKey != null) {
+                TimeInformation info = get(admittedKey);
+                if (info == null) {
+                    info = new TimeInformation(admittedKey, date.getDayOfWeek(),
+                            date.getHourOfDay());
+                    put(info);
+                }
+                info.registerFailedCall(callTime);
             }
-            info.registerFailedCall(callTime);
         }
         allowStore();
+        purgeIfDue(time);
+    }
+
+    /**
+     * Start a thread deleting the rows older than the retention time if
+     * they have not been deleted the last <code>PURGE_INTERVAL</code> and
+     * are not being deleted.
+     * 
+     * @param time The current time.
+     */
+    private void purgeIfDue(final long time) {
+        if (retention == 0 || time < nextPurge) {
+            return;
+        }
+        synchronized(purgeLock) {
+            if (time < nextPurge || purging) {
+                return;
+            }
+            nextPurge = time + PURGE_INTERVAL;
+            purging = true;
+        }
+        final Thread thread = new Thread(new Runnable() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                try {
+                    purge(time);
+                } finally {
+                    synchronized(purgeLock) {
+                        purging = false;
+                    }
+                }
+            }
+        }, "stat-purge-" + tableName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Delete the rows older than the retention time. A failure is reported
+     * to {@link DatabaseUtils} and logged, and the rows are deleted at the
+     * next interval.
+     * 
+     * @param time The time the deletion was started.
+     */
+    private void purge(long time) {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = DatabaseUtils.getConnection();
+            statement = connection.prepareStatement(
+                    "delete from " + tableName + PURGE_SQL);
+            statement.setTimestamp(1, new Timestamp(time - retention));
+            statement.executeUpdate();
+            DatabaseUtils.reportDatabaseSuccess();
+        } catch (SQLException e) {
+            DatabaseUtils.reportDatabaseError(e);
+            if (!(e instanceof CircuitOpenException)) {
+                log.warning("Error when deleting old rows in " + tableName +
+                        ". They are deleted at the next interval.", e, null);
+            }
+        } finally {
+            try {
+                DatabaseUtils.close(connection, statement, null);
+            } catch (SQLException e) {
+                log.error("Closing the connection generated an exception",
+                        e, null);
+            }
+        }
     }
 
     /**
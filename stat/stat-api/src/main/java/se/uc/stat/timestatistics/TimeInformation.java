@@ -1,5 +1,10 @@
 package se.uc.stat.timestatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
 import se.uc.stat.basestatistics.BaseInformation;
 
 /**
@@ -90,6 +95,81 @@ import se.uc.stat.basestatistics.BaseInformation;
         this.key = key;
     }
 
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the information could not be read.
+     * @throws IllegalArgumentException if the information is invalid.
+     */
+    /* package */ TimeInformation(DataInput in) throws IOException {
+        this(new TimeStatisticsKey(in), in);
+    }
+
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)} when the key has been read.
+     * 
+     * @param key The key for this information.
+     * @param in  The input to read the numbers from.
+     * 
+     * @throws IOException if the information could not be read.
+     * @throws IllegalArgumentException if <code>hourOfDay</code> is
+     *         invalid.
+     */
+    private TimeInformation(TimeStatisticsKey key, DataInput in)
+            throws IOException {
+        super(in);
+        this.key = key;
+        hourOfDay = in.readByte();
+        if (hourOfDay < 0 || hourOfDay > 23) {
+            throw new IllegalArgumentException("hourOfDay is invalid (" +
+                    hourOfDay + ")");
+        }
+        totalTimeCorrectCalls = in.readLong();
+        totalTimeInvalidCalls = in.readLong();
+        totalTimeFailedCalls = in.readLong();
+        num10 = in.readInt();
+        num20 = in.readInt();
+        num50 = in.readInt();
+        num100 = in.readInt();
+        num200 = in.readInt();
+        num500 = in.readInt();
+        num1000 = in.readInt();
+        num2000 = in.readInt();
+        num5000 = in.readInt();
+        num10000 = in.readInt();
+        num20000 = in.readInt();
+        numOver20000 = in.readInt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        key.write(out);
+        super.write(out);
+        out.writeByte(hourOfDay);
+        out.writeLong(totalTimeCorrectCalls);
+        out.writeLong(totalTimeInvalidCalls);
+        out.writeLong(totalTimeFailedCalls);
+        out.writeInt(num10);
+        out.writeInt(num20);
+        out.writeInt(num50);
+        out.writeInt(num100);
+        out.writeInt(num200);
+        out.writeInt(num500);
+        out.writeInt(num1000);
+        out.writeInt(num2000);
+        out.writeInt(num5000);
+        out.writeInt(num10000);
+        out.writeInt(num20000);
+        out.writeInt(numOver20000);
+    }
+
     /**
      * Register a correct call.
      * 
@@ -373,6 +453,55 @@ import se.uc.stat.basestatistics.BaseInformation;
         return onlyZeroes;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void add(TimeInformation other) {
+        baseAdd(other);
+        totalTimeCorrectCalls += other.totalTimeCorrectCalls;
+        totalTimeInvalidCalls += other.totalTimeInvalidCalls;
+        totalTimeFailedCalls += other.totalTimeFailedCalls;
+        num10 += other.num10;
+        num20 += other.num20;
+        num50 += other.num50;
+        num100 += other.num100;
+        num200 += other.num200;
+        num500 += other.num500;
+        num1000 += other.num1000;
+        num2000 += other.num2000;
+        num5000 += other.num5000;
+        num10000 += other.num10000;
+        num20000 += other.num20000;
+        numOver20000 += other.numOver20000;
+    }
+    
+    /**
+     * Add the numbers of this object to the values of a snapshot.
+     * The names are the same as in the web admin.
+     * 
+     * @param values The values to add to. Must not be <code>null</code>.
+     */
+    @Override
+    protected void putValues(Map<String, Long> values) {
+        super.putValues(values);
+        values.put("totalTimeCorrectCalls", new Long(totalTimeCorrectCalls));
+        values.put("totalTimeInvalidCalls", new Long(totalTimeInvalidCalls));
+        values.put("totalTimeFailedCalls", new Long(totalTimeFailedCalls));
+        values.put("numMax10ms", new Long(num10));
+        values.put("numMax20ms", new Long(num20));
+        values.put("numMax50ms", new Long(num50));
+        values.put("numMax100ms", new Long(num100));
+        values.put("numMax200ms", new Long(num200));
+        values.put("numMax500ms", new Long(num500));
+        values.put("numMax1000ms", new Long(num1000));
+        values.put("numMax2000ms", new Long(num2000));
+        values.put("numMax5000ms", new Long(num5000));
+        values.put("numMax10000ms", new Long(num10000));
+        values.put("numMax20000ms", new Long(num20000));
+        values.put("numOver20000ms", new Long(numOver20000));
+    }
+    
     /**
      * Create a clone of this object.
      * 
@@ -0,0 +1,444 @@
+package se.uc.stat.timestatistics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cumulative time statistics of this application in the OpenMetrics text
+ * format, for monitoring systems that scrape their metrics. The counters are
+ * counted from the time the metrics are enabled, see
+ * {@link TimeStatistics#setMetricsEnabled(boolean)}, and are never reset by
+ * the stores of the statistics.
+ * <p/>
+ * Each combination of service, method, origin, product, media and layer is
+ * one series with the metrics:
+ * <ul>
+ * <li><code>stat_calls_total</code>: the number of calls with the label
+ *     <code>result</code> set to <code>correct</code>, <code>invalid</code>
+ *     or <code>failed</code>.</li>
+ * <li><code>stat_call_duration_seconds</code>: a histogram of the call
+ *     times with the same buckets as the <code>NUM_*</code> columns of
+ *     <code>TIME_STAT</code>.</li>
+ * </ul>
+ * The labels of a series are encoded once when the series is created and
+ * the text is rendered into a buffer kept between the scrapes, so a scrape
+ * does not allocate anything per series.
+ * <p/>
+ * The methods are thread safe.
+ */
+public final class TimeMetrics {
+    /** The content type of the text written. */
+    public final static String CONTENT_TYPE =
+            "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /** The time of all keys, the series have no time. */
+    private final static Date NO_TIME = new Date(0);
+
+    /** The upper limits of the buckets in milliseconds. */
+    private final static long BUCKET_LIMITS[] =
+            {10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+
+    /** The index of the correct calls in the counters. */
+    private final static int CORRECT = 0;
+    /** The index of the invalid calls in the counters. */
+    private final static int INVALID = 1;
+    /** The index of the failed calls in the counters. */
+    private final static int FAILED = 2;
+
+    /** The values of the <code>result</code> label per counter. */
+    private final static byte RESULTS[][] = {
+        utf8(",result=\"correct\"} "),
+        utf8(",result=\"invalid\"} "),
+        utf8(",result=\"failed\"} ")};
+
+    /** The <code>le</code> labels of the buckets, the last is infinite. */
+    private final static byte BUCKETS[][] = createBucketLabels();
+
+    /** The text before the series of the calls. */
+    private final static byte CALLS_HEADER[] = utf8(
+            "# TYPE stat_calls counter\n" +
+            "# HELP stat_calls The number of service calls.\n");
+    /** The text before the series of the call times. */
+    private final static byte DURATION_HEADER[] = utf8(
+            "# TYPE stat_call_duration_seconds histogram\n" +
+            "# UNIT stat_call_duration_seconds seconds\n" +
+            "# HELP stat_call_duration_seconds The time of the service " +
+            "calls.\n");
+    /** The name of the call counters. */
+    private final static byte CALLS[] = utf8("stat_calls_total{");
+    /** The name of the buckets. */
+    private final static byte BUCKET[] =
+            utf8("stat_call_duration_seconds_bucket{");
+    /** The name of the number of calls in the histogram. */
+    private final static byte COUNT[] =
+            utf8("stat_call_duration_seconds_count{");
+    /** The name of the total time in the histogram. */
+    private final static byte SUM[] = utf8("stat_call_duration_seconds_sum{");
+    /** The end of the labels without extra label. */
+    private final static byte END_LABELS[] = utf8("} ");
+    /** The end of the text. */
+    private final static byte EOF[] = utf8("# EOF\n");
+
+    /** The series per key. Access only when holding a lock on this. */
+    private final Map<TimeStatisticsKey, Series> seriesMap =
+            new HashMap<TimeStatisticsKey, Series>();
+    /**
+     * The series in the order they were created.
+     * Access only when holding a lock on this.
+     */
+    private final List<Series> seriesList = new ArrayList<Series>();
+
+    /** Lock held during a scrape to protect <code>buffer</code>. */
+    private final Object scrapeLock = new Object();
+    /**
+     * The buffer the text is rendered in. Access only when holding a lock on
+     * <code>scrapeLock</code>.
+     */
+    private byte buffer[] = new byte[8192];
+    /**
+     * The length of the text in <code>buffer</code>. Access only when
+     * holding a lock on <code>scrapeLock</code>.
+     */
+    private int length = 0;
+
+    /**
+     * Create this class.
+     */
+    /* package */ TimeMetrics() {
+        // Nothing to do.
+    }
+
+    /**
+     * Register a correct call.
+     *
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param origin   The origin for the call. May be <code>null</code>.
+     * @param product  The product requested. May be <code>null</code>.
+     * @param media    The delivery media. May be <code>null</code>.
+     * @param layer    The layer. May be <code>null</code>.
+     * @param callTime The time in milliseconds the call took.
+     */
+    /* package */ void registerCorrectCall(String service, String method,
+            String origin, String product, String media, String layer,
+            long callTime) {
+        register(CORRECT, service, method, origin, product, media, layer,
+                callTime);
+    }
+
+    /**
+     * Register an invalid call.
+     *
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param origin   The origin for the call. May be <code>null</code>.
+     * @param product  The product requested. May be <code>null</code>.
+     * @param media    The delivery media. May be <code>null</code>.
+     * @param layer    The layer. May be <code>null</code>.
+     * @param callTime The time in milliseconds the call took.
+     */
+    /* package */ void registerInvalidCall(String service, String method,
+            String origin, String product, String media, String layer,
+            long callTime) {
+        register(INVALID, service, method, origin, product, media, layer,
+                callTime);
+    }
+
+    /**
+     * Register a failed call.
+     *
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param origin   The origin for the call. May be <code>null</code>.
+     * @param product  The product requested. May be <code>null</code>.
+     * @param media    The delivery media. May be <code>null</code>.
+     * @param layer    The layer. May be <code>null</code>.
+     * @param callTime The time in milliseconds the call took.
+     */
+    /* package */ void registerFailedCall(String service, String method,
+            String origin, String product, String media, String layer,
+            long callTime) {
+        register(FAILED, service, method, origin, product, media, layer,
+                callTime);
+    }
+
+    /**
+     * Register a call.
+     *
+     * @param result   The index of the counter of the result.
+     * @param service  The service called. May be <code>null</code>.
+     * @param method   The method called. May be <code>null</code>.
+     * @param origin   The origin for the call. May be <code>null</code>.
+     * @param product  The product requested. May be <code>null</code>.
+     * @param media    The delivery media. May be <code>null</code>.
+     * @param layer    The layer. May be <code>null</code>.
+     * @param callTime The time in milliseconds the call took.
+     */
+    private void register(int result, String service, String method,
+            String origin, String product, String media, String layer,
+            long callTime) {
+        final TimeStatisticsKey key = new TimeStatisticsKey(service, method,
+                origin, product, media, layer, NO_TIME);
+        final int bucket = getBucket(callTime);
+        synchronized(this) {
+            Series series = seriesMap.get(key);
+            if (series == null) {
+                series = new Series(key);
+                seriesMap.put(key, series);
+                seriesList.add(series);
+            }
+            series.calls[result]++;
+            series.buckets[bucket]++;
+            series.totalTime += callTime;
+        }
+    }
+
+    /**
+     * Get the number of series.
+     *
+     * @return The number of series.
+     */
+    public synchronized int getNumSeries() {
+        return seriesList.size();
+    }
+
+    /**
+     * Write the metrics in the OpenMetrics text format, see
+     * {@link #CONTENT_TYPE}. The registrations are only blocked while the
+     * text is rendered in memory, not while it is written.
+     *
+     * @param out The stream to write to. It is not closed.
+     *            Must not be <code>null</code>.
+     *
+     * @throws IOException if the text could not be written.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        synchronized(scrapeLock) {
+            length = 0;
+            synchronized(this) {
+                render();
+            }
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Render all series in <code>buffer</code>. The caller must hold a lock
+     * on this and on <code>scrapeLock</code>.
+     */
+    private void render() {
+        append(CALLS_HEADER);
+        for (int i = 0; i < seriesList.size(); i++) {
+            final Series series = seriesList.get(i);
+            for (int result = 0; result < RESULTS.length; result++) {
+                append(CALLS);
+                append(series.labels);
+                append(RESULTS[result]);
+                appendLong(series.calls[result]);
+                appendByte('\n');
+            }
+        }
+        append(DURATION_HEADER);
+        for (int i = 0; i < seriesList.size(); i++) {
+            final Series series = seriesList.get(i);
+            long count = 0;
+            for (int bucket = 0; bucket < BUCKETS.length; bucket++) {
+                count += series.buckets[bucket];
+                append(BUCKET);
+                append(series.labels);
+                append(BUCKETS[bucket]);
+                appendLong(count);
+                appendByte('\n');
+            }
+            append(COUNT);
+            append(series.labels);
+            append(END_LABELS);
+            appendLong(count);
+            appendByte('\n');
+            append(SUM);
+            append(series.labels);
+            append(END_LABELS);
+            appendLong(series.totalTime / 1000);
+            appendByte('.');
+            final long millis = series.totalTime % 1000;
+            appendByte((char)('0' + millis / 100));
+            appendByte((char)('0' + millis / 10 % 10));
+            appendByte((char)('0' + millis % 10));
+            appendByte('\n');
+        }
+        append(EOF);
+    }
+
+    /**
+     * Append bytes to <code>buffer</code>.
+     *
+     * @param bytes The bytes to append.
+     */
+    private void append(byte bytes[]) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Append an ASCII character to <code>buffer</code>.
+     *
+     * @param c The character to append.
+     */
+    private void appendByte(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte)c;
+    }
+
+    /**
+     * Append a non negative number to <code>buffer</code> without creating
+     * a string.
+     *
+     * @param value The number to append.
+     */
+    private void appendLong(long value) {
+        ensureCapacity(20);
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        long rest = value;
+        for (int pos = length + digits - 1; pos >= length; pos--) {
+            buffer[pos] = (byte)('0' + rest % 10);
+            rest /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Ensure that <code>buffer</code> has room for more bytes. The buffer
+     * only grows, so it is allocated once when the number of series is
+     * stable.
+     *
+     * @param extra The number of bytes to append.
+     */
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            final byte newBuffer[] =
+                    new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Get the bucket of a call time.
+     *
+     * @param callTime The time in milliseconds the call took.
+     *
+     * @return The index of the bucket.
+     */
+    private static int getBucket(long callTime) {
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length &&
+                callTime > BUCKET_LIMITS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Create the <code>le</code> labels of the buckets in seconds.
+     *
+     * @return The labels. This method never returns <code>null</code>.
+     */
+    private static byte[][] createBucketLabels() {
+        final byte labels[][] = new byte[BUCKET_LIMITS.length + 1][];
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            final long limit = BUCKET_LIMITS[i];
+            final String millis = Long.toString(1000 + limit % 1000);
+            labels[i] = utf8(",le=\"" + limit / 1000 + "." +
+                    millis.substring(1) + "\"} ");
+        }
+        labels[BUCKET_LIMITS.length] = utf8(",le=\"+Inf\"} ");
+        return labels;
+    }
+
+    /**
+     * Encode a text as UTF-8.
+     *
+     * @param text The text. Must not be <code>null</code>.
+     *
+     * @return The bytes. This method never returns <code>null</code>.
+     */
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Append a label to the label set.
+     *
+     * @param sb    The label set to append to.
+     * @param name  The name of the label.
+     * @param value The value of the label. <code>null</code> is written as
+     *              an empty string.
+     */
+    private static void appendLabel(StringBuilder sb, String name,
+            String value) {
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(name).append("=\"");
+        if (value != null) {
+            for (int pos = 0; pos < value.length(); pos++) {
+                final char c = value.charAt(pos);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * The counters of one series.
+     */
+    private static class Series {
+        /** The labels of the series encoded as UTF-8. */
+        private final byte labels[];
+        /** The number of calls per result. */
+        private final long calls[] = new long[RESULTS.length];
+        /** The number of calls per bucket, not cumulative. */
+        private final long buckets[] = new long[BUCKETS.length];
+        /** The total time of the calls in milliseconds. */
+        private long totalTime = 0;
+
+        /**
+         * Create this class.
+         *
+         * @param key The key of the series. Must not be <code>null</code>.
+         */
+        private Series(TimeStatisticsKey key) {
+            final StringBuilder sb = new StringBuilder();
+            appendLabel(sb, "service", key.getService());
+            appendLabel(sb, "method", key.getMethod());
+            appendLabel(sb, "origin", key.getOrigin());
+            appendLabel(sb, "product", key.getProduct());
+            appendLabel(sb, "media", key.getMedia());
+            appendLabel(sb, "layer", key.getLayer());
+            labels = utf8(sb.toString());
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package se.uc.stat.timestatistics;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
+import se.uc.stat.basestatistics.OverflowPolicy;
+import se.uc.stat.basestatistics.Snapshot;
+import se.uc.stat.log.Log;
 import se.uc.stat.utils.DatabaseUtils;
 
 /**
@@ -16,6 +22,98 @@ public class TimeStatistics {
     /** The collector instance to use. */
     private final static TimeCollector collector = new TimeCollector();
     
+    /** The log instance for this class. */
+    private final static Log log = Log.getLog(TimeStatistics.class);
+    
+    /** The time in milliseconds the fine grained statistics are kept. */
+    private final static long FINE_GRAIN_RETENTION = 7L * 24 * 60 * 60 * 1000;
+    
+    /**
+     * The collector of the fine grained statistics or <code>null</code> if
+     * they are not collected.
+     */
+    private static volatile TimeCollector fineCollector = null;
+    
+    /**
+     * Lock object used when the fine grained collector, the metrics or the
+     * memory budget are changed.
+     */
+    private final static Object fineLock = new Object();
+
+    /**
+     * The cumulative metrics or <code>null</code> if they are not
+     * collected.
+     */
+    private static volatile TimeMetrics metrics = null;
+
+    /**
+     * The memory budget of each collector in bytes or <code>0</code> if
+     * unlimited. Access only when holding a lock on <code>fineLock</code>.
+     */
+    private static long memoryBudget = 0;
+
+    /**
+     * The policy applied when the memory budget is exceeded. Access only
+     * when holding a lock on <code>fineLock</code>.
+     */
+    private static OverflowPolicy overflowPolicy = OverflowPolicy.FLUSH;
+
+    /**
+     * The target time of the adaptive schedule or <code>0</code> if the
+     * schedule is fixed. Access only when holding a lock on
+     * <code>fineLock</code>.
+     */
+    private static long scheduleTargetTime = 0;
+
+    /**
+     * The minimum interval of the adaptive schedule. Access only when
+     * holding a lock on <code>fineLock</code>.
+     */
+    private static long scheduleMinInterval = 0;
+
+    /**
+     * The maximum backoff of the adaptive schedule. Access only when
+     * holding a lock on <code>fineLock</code>.
+     */
+    private static long scheduleMaxBackoff = 0;
+
+    /**
+     * The directory the caches are spilled to or <code>null</code> if they
+     * are not spilled. Access only when holding a lock on
+     * <code>fineLock</code>.
+     */
+    private static File spillDirectory = null;
+
+    /**
+     * The maximum number of rows replayed per second. Access only when
+     * holding a lock on <code>fineLock</code>.
+     */
+    private static int replayRate = 1;
+
+    /**
+     * The directory of the crash journals or <code>null</code> if the
+     * caches are not journaled. Access only when holding a lock on
+     * <code>fineLock</code>.
+     */
+    private static File journalDirectory = null;
+
+    /**
+     * The time in milliseconds between the checkpoints of the journals.
+     * Access only when holding a lock on <code>fineLock</code>.
+     */
+    private static long journalInterval = 1;
+
+    /**
+     * The number of workers storing in parallel, <code>0</code> if the
+     * stores are not parallel. Access only when holding a lock on
+     * <code>fineLock</code>.
+     */
+    private static int numStoreWorkers = 0;
+
+    static {
+        collector.registerMBean(TimeCollector.TABLE_NAME);
+    }
+    
     /**
      * Private constructor to prevent instantiation.
      */
@@ -75,6 +173,16 @@ public class TimeStatistics {
             String layer, long callTime) {
         collector.registerCorrectServiceCall(service, method, origin, product, 
                 media, layer, callTime);
+        final TimeCollector fine = fineCollector;
+        if (fine != null) {
+            fine.registerCorrectServiceCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
+        final TimeMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.registerCorrectCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
     }
 
     /**
@@ -109,6 +217,16 @@ public class TimeStatistics {
             String layer, long callTime) {
         collector.registerInvalidServiceCall(service, method, origin, product, 
                 media, layer, callTime);
+        final TimeCollector fine = fineCollector;
+        if (fine != null) {
+            fine.registerInvalidServiceCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
+        final TimeMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.registerInvalidCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
     }
 
     /**
@@ -143,6 +261,16 @@ public class TimeStatistics {
             String layer, long callTime) {
         collector.registerFailedServiceCall(service, method, origin, product, 
                 media, layer, callTime);
+        final TimeCollector fine = fineCollector;
+        if (fine != null) {
+            fine.registerFailedServiceCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
+        final TimeMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.registerFailedCall(service, method, origin, product,
+                    media, layer, callTime);
+        }
     }
 
     /**
@@ -160,8 +288,288 @@ public class TimeStatistics {
      */
     public static void flush() {
         collector.flush();
+        final TimeCollector fine = fineCollector;
+        if (fine != null) {
+            fine.flush();
+        }
+    }
+
+    /**
+     * Get the time statistics per hour registered in this application that
+     * are not yet stored persistent. Add them to the stored statistics to
+     * get the current statistics. The registrations are not blocked while
+     * the snapshot is taken.
+     * 
+     * @return Immutable copies of the statistics not yet stored.
+     *         This method never returns <code>null</code>.
+     */
+    public static List<Snapshot> snapshot() {
+        return collector.snapshot();
+    }
+
+    /**
+     * Collect the time statistics also per bucket of a number of minutes,
+     * in the table <code>TIME_STAT_MINUTE</code>. A short incident is
+     * smeared out over the whole hour in the statistics per hour but is
+     * visible in the statistics per bucket. The hourly statistics are
+     * always collected.
+     * <p/>
+     * The fine grained statistics are deleted automatically after seven
+     * days. They are not collected by default.
+     * <p/>
+     * Each call is registered both per hour and per bucket by the calling
+     * thread, in two collectors with separate locks. The registration of a
+     * call therefore takes about twice as long, see
+     * <code>TimeStatisticsTest.testFineGrainCost</code>, which is in the
+     * order of a microsecond. The rows per hour are not derived from the
+     * rows per bucket when they are stored, since the rows per hour would
+     * then be missing in {@link #snapshot()} until the buckets are stored
+     * and would wait for the buckets while they are spilled.
+     * <p/>
+     * When the length of the buckets is changed, the statistics collected
+     * with the previous length are stored before this method returns.
+     * 
+     * @param minutes The length of the buckets in minutes, for example 1,
+     *                5 or 15, or <code>0</code> to stop collecting the fine
+     *                grained statistics. Must divide 60.
+     *                
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setFineGrain(int minutes) {
+        // The lock is held while the previous collector is flushed, so that
+        // the spill directory and the journal shared by the table are never
+        // used by both collectors. The registrations do not take the lock.
+        synchronized(fineLock) {
+            final TimeCollector previous = fineCollector;
+            fineCollector = minutes == 0 ? null : new TimeCollector(
+                    TimeCollector.MINUTE_TABLE_NAME, minutes,
+                    FINE_GRAIN_RETENTION);
+            if (previous != null) {
+                previous.unregisterMBean();
+                previous.flush();
+                previous.setParallelStores(0);
+                try {
+                    // Stop the replay of the spill directory and empty the
+                    // journal before the next collector uses them.
+                    previous.setSpill(null, 0);
+                    previous.setJournal(null, 1);
+                } catch (IOException e) {
+                    // Not thrown when the spill and the journal are stopped.
+                }
+            }
+            if (fineCollector == null) {
+                return;
+            }
+            fineCollector.setMemoryBudget(memoryBudget, overflowPolicy);
+            fineCollector.setAdaptiveSchedule(scheduleTargetTime,
+                    scheduleMinInterval, scheduleMaxBackoff);
+            fineCollector.setParallelStores(numStoreWorkers);
+            fineCollector.registerMBean(TimeCollector.MINUTE_TABLE_NAME);
+            if (spillDirectory != null) {
+                try {
+                    fineCollector.setSpill(spillDirectory, replayRate);
+                } catch (IOException e) {
+                    log.warning("The fine grained statistics are not " +
+                            "spilled", e, null);
+                }
+            }
+            if (journalDirectory != null) {
+                try {
+                    fineCollector.setJournal(journalDirectory,
+                            journalInterval);
+                } catch (IOException e) {
+                    log.warning("The fine grained statistics are not " +
+                            "journaled", e, null);
+                }
+            }
+        }
     }
     
+    /**
+     * Set the memory budget of the cache of the time statistics. The budget
+     * applies to the statistics per hour and to the fine grained statistics
+     * separately. The memory is estimated from the number of rows not yet
+     * stored and the size of their keys. When the estimate exceeds the
+     * budget the policy is applied to the calls of new keys, see
+     * {@link OverflowPolicy}.
+     * <p/>
+     * The memory is not limited by default.
+     * 
+     * @param budget The budget in bytes or <code>0</code> for unlimited.
+     *               Must not be negative.
+     * @param policy The policy applied when the budget is exceeded.
+     *               Must not be <code>null</code>.
+     *               
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setMemoryBudget(long budget, OverflowPolicy policy) {
+        synchronized(fineLock) {
+            collector.setMemoryBudget(budget, policy);
+            if (fineCollector != null) {
+                fineCollector.setMemoryBudget(budget, policy);
+            }
+            memoryBudget = budget;
+            overflowPolicy = policy;
+        }
+    }
+
+    /**
+     * Make the schedule of the store rounds of the time statistics
+     * adaptive. The time to store a row is measured and
+     * <ul>
+     * <li>the rows stored by each calling thread are limited to a target
+     *     time,</li>
+     * <li>the next round starts sooner when many rows are waiting, but
+     *     never sooner than the minimum interval,</li>
+     * <li>the wait after failed rounds doubles, with a random part, up to
+     *     the maximum.</li>
+     * </ul>
+     * The schedule applies to the statistics per hour and to the fine
+     * grained statistics separately. It is fixed by default.
+     * 
+     * @param targetTime  The target time in milliseconds a calling thread
+     *                    spends storing rows, or <code>0</code> for the
+     *                    fixed schedule. Must not be negative.
+     * @param minInterval The minimum time in milliseconds between the
+     *                    store rounds. Must not be negative.
+     * @param maxBackoff  The maximum time in milliseconds to wait after
+     *                    failed rounds.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setAdaptiveSchedule(long targetTime,
+            long minInterval, long maxBackoff) {
+        synchronized(fineLock) {
+            collector.setAdaptiveSchedule(targetTime, minInterval,
+                    maxBackoff);
+            if (fineCollector != null) {
+                fineCollector.setAdaptiveSchedule(targetTime, minInterval,
+                        maxBackoff);
+            }
+            scheduleTargetTime = targetTime;
+            scheduleMinInterval = minInterval;
+            scheduleMaxBackoff = maxBackoff;
+        }
+    }
+
+    /**
+     * Set the directory the caches of the time statistics are spilled to
+     * when the database is unavailable. The spilled information is stored
+     * in the database by a background thread when the database is
+     * available again, also after a restart of the application.
+     * <p/>
+     * The caches are not spilled by default.
+     * 
+     * @param directory  The directory or <code>null</code> to stop
+     *                   spilling. A sub directory named as the table is
+     *                   used.
+     * @param rate       The maximum number of rows stored per second when
+     *                   the spilled information is replayed. Must be
+     *                   positive if <code>directory</code> is set.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IOException if the directory could not be created.
+     */
+    public static void setSpill(File directory, int rate)
+            throws IOException {
+        synchronized(fineLock) {
+            collector.setSpill(directory, rate);
+            if (fineCollector != null) {
+                fineCollector.setSpill(directory, rate);
+            }
+            spillDirectory = directory;
+            replayRate = rate;
+        }
+    }
+
+    /**
+     * Set the directory of the crash journals of the time statistics.
+     * A checkpoint of the rows not yet stored is kept in a memory-mapped
+     * file that survives a crash of the application, and is recovered when
+     * this method is called after the restart. Rows stored after the last
+     * checkpoint before a crash may be counted twice.
+     * <p/>
+     * The caches are not journaled by default.
+     * 
+     * @param directory The directory or <code>null</code> to stop the
+     *                  journals. A file named as the table is used.
+     * @param interval  The time in milliseconds between the checkpoints.
+     *                  Must be positive.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws IOException if a journal could not be opened.
+     */
+    public static void setJournal(File directory, long interval)
+            throws IOException {
+        synchronized(fineLock) {
+            collector.setJournal(directory, interval);
+            if (fineCollector != null) {
+                fineCollector.setJournal(directory, interval);
+            }
+            journalDirectory = directory;
+            journalInterval = interval;
+        }
+    }
+
+    /**
+     * Set the number of workers storing the rows of the time statistics
+     * in parallel. The rows of a store round are split in one partition per
+     * worker by their primary key, and each worker stores its partition on
+     * its own connection, so the workers never lock the same row. The
+     * calling threads never store rows when the stores are parallel.
+     * <p/>
+     * The statistics per hour and the fine grained statistics have
+     * separate workers. The stores are not parallel by default.
+     * 
+     * @param numWorkers The number of workers, or <code>0</code> to let the
+     *                   calling threads store the rows.
+     *                   Must not be negative.
+     *                   
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static void setParallelStores(int numWorkers) {
+        synchronized(fineLock) {
+            collector.setParallelStores(numWorkers);
+            if (fineCollector != null) {
+                fineCollector.setParallelStores(numWorkers);
+            }
+            numStoreWorkers = numWorkers;
+        }
+    }
+
+    /**
+     * Set if the cumulative metrics of the service calls are collected, see
+     * {@link TimeMetrics}. They are not collected by default. When the
+     * metrics are disabled the counters are discarded.
+     * 
+     * @param enabled <code>true</code> to collect the metrics.
+     */
+    public static void setMetricsEnabled(boolean enabled) {
+        synchronized(fineLock) {
+            if (!enabled) {
+                metrics = null;
+            } else if (metrics == null) {
+                metrics = new TimeMetrics();
+            }
+        }
+    }
+
+    /**
+     * Get the cumulative metrics of the service calls.
+     * 
+     * @return The metrics or <code>null</code> if they are not collected,
+     *         see {@link #setMetricsEnabled(boolean)}.
+     */
+    public static TimeMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Perform a health check of the application. Call the database.
      * 
@@ -1,6 +1,11 @@
 package se.uc.stat.timestatistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 
 import se.uc.stat.basestatistics.BaseKey;
 
@@ -10,6 +15,9 @@ import se.uc.stat.basestatistics.BaseKey;
  * @author Anders Persson (konx40)
  */
 /* package */ class TimeStatisticsKey extends BaseKey {
+    /** The estimated memory in bytes of the time. */
+    private final static int DATE_SIZE = 24;
+
     /** The layer. */
     private final String layer;
 
@@ -46,6 +54,30 @@ import se.uc.stat.basestatistics.BaseKey;
         this.time = time;
     }
     
+    /**
+     * Create this class from the binary format written by
+     * {@link #write(DataOutput)}.
+     * 
+     * @param in The input to read from. Must not be <code>null</code>.
+     * 
+     * @throws IOException if the key could not be read.
+     */
+    /* package */ TimeStatisticsKey(DataInput in) throws IOException {
+        super(in);
+        layer = readString(in);
+        time = new Date(in.readLong());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        super.write(out);
+        writeString(out, layer);
+        out.writeLong(time.getTime());
+    }
+    
     /**
      * Get the layer.
      * 
@@ -64,6 +96,29 @@ import se.uc.stat.basestatistics.BaseKey;
         return time;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getEstimatedSize() {
+        return super.getEstimatedSize() + getEstimatedSize(layer) + DATE_SIZE;
+    }
+    
+    /**
+     * Add the attributes of this key to the dimensions of a snapshot.
+     * The time is given as <code>yyyy-MM-dd HH:mm</code>.
+     * 
+     * @param dimensions The dimensions to add to.
+     *                   Must not be <code>null</code>.
+     */
+    @Override
+    protected void putDimensions(Map<String, String> dimensions) {
+        super.putDimensions(dimensions);
+        dimensions.put("layer", getLayer());
+        dimensions.put("time",
+                new SimpleDateFormat("yyyy-MM-dd HH:mm").format(time));
+    }
+    
     /**
      * Get the string representation of this instance.
      * 
@@ -0,0 +1,268 @@
+package se.uc.stat.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.uc.stat.log.Log;
+
+/**
+ * A circuit breaker protecting a resource, for example the database, that
+ * fails repeatedly.
+ * <ul>
+ * <li><strong>Closed:</strong> all requests are let through. A number of
+ *     failures in a row opens the circuit.</li>
+ * <li><strong>Open:</strong> all requests are rejected without calling the
+ *     resource. When the open time has passed the circuit is half open.</li>
+ * <li><strong>Half open:</strong> one request, the probe, is let through
+ *     and the others are rejected. If the probe succeeds the circuit is
+ *     closed and if it fails the circuit is opened again. If no result of
+ *     the probe is reported within the open time, another probe is let
+ *     through.</li>
+ * </ul>
+ * The methods are thread safe. A request in the closed state costs the
+ * read of a volatile field.
+ */
+public class CircuitBreaker implements CircuitBreakerMBean {
+    /** The states of the circuit. */
+    public enum State {
+        /** All requests are let through. */
+        CLOSED,
+        /** All requests are rejected. */
+        OPEN,
+        /** One request at a time is let through to probe the resource. */
+        HALF_OPEN
+    }
+
+    /** The default number of failures in a row that opens the circuit. */
+    public final static int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /** The default time in milliseconds the circuit is open. */
+    public final static long DEFAULT_OPEN_TIME = 30 * 1000;
+
+    /** Log object for this class. */
+    private static final Log log = Log.getLog(CircuitBreaker.class);
+
+    /** The name of the protected resource, used in the log. */
+    private final String name;
+
+    /**
+     * The state of the circuit. Updated only when holding a lock on this.
+     */
+    private volatile State state = State.CLOSED;
+
+    /**
+     * The number of failures in a row. Updated only when holding a lock on
+     * this.
+     */
+    private volatile int numFailures = 0;
+
+    /**
+     * The number of failures in a row that opens the circuit. Access only
+     * when holding a lock on this.
+     */
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    /**
+     * The time in milliseconds the circuit is open. Access only when
+     * holding a lock on this.
+     */
+    private long openTime = DEFAULT_OPEN_TIME;
+
+    /**
+     * The time the circuit was opened or the last probe was let through.
+     * Access only when holding a lock on this.
+     */
+    private long stateChange = 0;
+
+    /** The number of times the circuit has been opened. */
+    private final AtomicLong numOpened = new AtomicLong();
+
+    /** The number of rejected requests. */
+    private final AtomicLong numRejected = new AtomicLong();
+
+    /**
+     * Create this class. The circuit is closed.
+     *
+     * @param name The name of the protected resource, used in the log.
+     *             Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public CircuitBreaker(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Set when the circuit is opened and for how long.
+     *
+     * @param failureThreshold The number of failures in a row that opens
+     *                         the circuit. Must be positive.
+     * @param openTime         The time in milliseconds the circuit is open
+     *                         before a probe is let through.
+     *                         Must not be negative.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public synchronized void configure(int failureThreshold, long openTime) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException(
+                    "failureThreshold must be positive");
+        }
+        if (openTime < 0) {
+            throw new IllegalArgumentException(
+                    "openTime must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Ask if a request may call the resource. The result of a request let
+     * through should be reported by {@link #recordSuccess()} or
+     * {@link #recordFailure()}.
+     *
+     * @return {@link State#CLOSED} if the request is let through,
+     *         {@link State#HALF_OPEN} if the request is let through as the
+     *         probe or {@link State#OPEN} if the request is rejected.
+     *         This method never returns <code>null</code>.
+     */
+    public State acquire() {
+        if (state == State.CLOSED) {
+            return State.CLOSED;
+        }
+        synchronized(this) {
+            final long time = System.currentTimeMillis();
+            switch (state) {
+            case CLOSED:
+                return State.CLOSED;
+            case OPEN:
+                if (time - stateChange >= openTime) {
+                    state = State.HALF_OPEN;
+                    stateChange = time;
+                    return State.HALF_OPEN;
+                }
+                break;
+            default:
+                if (time - stateChange >= openTime) {
+                    // The previous probe never reported its result.
+                    stateChange = time;
+                    return State.HALF_OPEN;
+                }
+                break;
+            }
+        }
+        numRejected.incrementAndGet();
+        return State.OPEN;
+    }
+
+    /**
+     * Report that a request succeeded. The circuit is closed.
+     */
+    public void recordSuccess() {
+        if (state == State.CLOSED && numFailures == 0) {
+            return;
+        }
+        synchronized(this) {
+            if (state != State.CLOSED) {
+                log.info("The circuit of " + name + " is closed", null,
+                        null);
+            }
+            state = State.CLOSED;
+            numFailures = 0;
+        }
+    }
+
+    /**
+     * Report that a request failed. The circuit is opened if the number of
+     * failures in a row reaches the threshold or if the request was the
+     * probe.
+     *
+     * @return <code>true</code> if this failure opened the circuit.
+     */
+    public synchronized boolean recordFailure() {
+        if (state == State.OPEN) {
+            return false;
+        }
+        numFailures++;
+        if (state == State.CLOSED && numFailures < failureThreshold) {
+            return false;
+        }
+        state = State.OPEN;
+        stateChange = System.currentTimeMillis();
+        numOpened.incrementAndGet();
+        log.warning("The circuit of " + name + " is opened after " +
+                numFailures + " failures in a row. No requests are made " +
+                "for " + openTime + " ms", null, null);
+        return true;
+    }
+
+    /**
+     * Get the state of the circuit.
+     *
+     * @return The state. This method never returns <code>null</code>.
+     */
+    public State getCurrentState() {
+        return state;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getState() {
+        return state.name();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumConsecutiveFailures() {
+        return numFailures;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getNumOpened() {
+        return numOpened.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        state = State.CLOSED;
+        numFailures = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package se.uc.stat.utils;
+
+/**
+ * Management interface of the circuit breaker of the database, registered
+ * as <code>se.uc.stat:type=CircuitBreaker,name=Database</code>, see
+ * {@link CircuitBreaker}.
+ */
+public interface CircuitBreakerMBean {
+    /**
+     * Get the state of the circuit.
+     *
+     * @return The name of the {@link CircuitBreaker.State}.
+     */
+    String getState();
+
+    /**
+     * Get the number of failures in a row.
+     *
+     * @return The number of failures since the last success.
+     */
+    int getNumConsecutiveFailures();
+
+    /**
+     * Get the number of failures in a row that opens the circuit.
+     *
+     * @return The threshold.
+     */
+    int getFailureThreshold();
+
+    /**
+     * Get the time the circuit is open before a probe is let through.
+     *
+     * @return The time in milliseconds.
+     */
+    long getOpenTime();
+
+    /**
+     * Get the number of times the circuit has been opened.
+     *
+     * @return The number of times.
+     */
+    long getNumOpened();
+
+    /**
+     * Get the number of requests rejected because the circuit was open.
+     *
+     * @return The number of rejected requests.
+     */
+    long getNumRejected();
+
+    /**
+     * Close the circuit now.
+     */
+    void reset();
+}
@@ -0,0 +1,21 @@
+package se.uc.stat.utils;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of connecting to the database when the circuit breaker of
+ * the database is open, see {@link CircuitBreaker}. The exception is
+ * transient and is not counted as a failure of the database.
+ */
+public class CircuitOpenException extends SQLTransientConnectionException {
+    /** The serial version of this class. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create this exception.
+     */
+    public CircuitOpenException() {
+        super("The database is not called since it has failed " +
+                "repeatedly (the circuit breaker is open)");
+    }
+}
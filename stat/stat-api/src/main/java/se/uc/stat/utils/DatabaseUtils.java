@@ -4,6 +4,9 @@ import se.uc.stat.log.Log;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
 import java.util.Arrays;
 
@@ -13,6 +16,13 @@ import javax.naming.NamingException;
 
 /**
  * Utilities for database handling.
+ * <p/>
+ * The connections are protected by a {@link CircuitBreaker} shared by all
+ * users of the database. When the database has failed repeatedly the
+ * connections are refused with a {@link CircuitOpenException} without
+ * calling the database, until a probe finds the database available again.
+ * The probe is a validation of a new connection. The breaker is published
+ * over JMX, see {@link CircuitBreakerMBean}.
  * 
  * @author Anders Persson (konx40)
  */
@@ -22,6 +32,13 @@ public class DatabaseUtils {
 
     /** Lock object. */
     private static final Object lock = new Object();
+
+    /** The circuit breaker of the database. */
+    private static final CircuitBreaker circuitBreaker =
+            new CircuitBreaker("the stat database");
+
+    /** The time in seconds a probe of the database may take. */
+    private static final int PROBE_TIMEOUT = 5;
     
     /** The datasource to the stat database. */
     private static DataSource dataSource = null;
@@ -42,6 +59,8 @@ public class DatabaseUtils {
      */
     static {
         Arrays.fill(SPACES, ' ');
+        JmxUtils.register(circuitBreaker, CircuitBreakerMBean.class,
+                "CircuitBreaker", "Database");
     }
     
     /**
@@ -72,14 +91,73 @@ public class DatabaseUtils {
     }
     
     /**
-     * Get a connection to the database.
+     * Get the circuit breaker of the database.
+     * 
+     * @return The circuit breaker. This method never returns
+     *         <code>null</code>.
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Get a connection to the database. When the circuit breaker is half
+     * open, the connection is validated before it is returned.
      * 
      * @return A connection to the database.
      *         This method never returns <code>null</code>.
      *         
+     * @throws CircuitOpenException if the circuit breaker is open.
      * @throws SQLException if the connection can not be retrieved.
      */
     public static Connection getConnection() throws SQLException {
+        final CircuitBreaker.State state = circuitBreaker.acquire();
+        if (state == CircuitBreaker.State.OPEN) {
+            throw new CircuitOpenException();
+        }
+        if (state == CircuitBreaker.State.CLOSED) {
+            return openConnection();
+        }
+        // A failed probe is reported as any other error, so that the data
+        // source is looked up again when the circuit is opened.
+        final Connection connection;
+        try {
+            connection = openConnection();
+        } catch (SQLException e) {
+            reportDatabaseError(e);
+            throw e;
+        }
+        SQLException error;
+        try {
+            if (connection.isValid(PROBE_TIMEOUT)) {
+                circuitBreaker.recordSuccess();
+                return connection;
+            }
+            error = new SQLTransientConnectionException(
+                    "The database did not answer the probe");
+        } catch (SQLException e) {
+            error = e;
+        }
+        reportDatabaseError(error);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("Closing the connection of a failed probe generated " +
+                    "an exception", e, null);
+        }
+        throw error;
+    }
+
+    /**
+     * Get a connection from the data source, looking up the data source if
+     * necessary.
+     * 
+     * @return A connection to the database.
+     *         This method never returns <code>null</code>.
+     *         
+     * @throws SQLException if the connection can not be retrieved.
+     */
+    private static Connection openConnection() throws SQLException {
         if (dataSource == null && !isTestDataSource) {
             synchronized(lock) {
                 try {
@@ -89,8 +167,10 @@ public class DatabaseUtils {
                     log.error("Could not retrieve the data source jdbc/stat " +
                             "from the initial context (local naming directory.",
                             e, null);
+                    // Unable to establish the connection, counted by the
+                    // circuit breaker.
                     throw new SQLException("Could not retrieve the data source",
-                            e);
+                            "08001", e);
                 }
             }
         }
@@ -100,16 +180,57 @@ public class DatabaseUtils {
     /**
      * This method is called to report a database error to allow this class
      * to perform actions (for example release cached objects and retrieve
-     * new ones).
+     * new ones). Only transient errors, see {@link #isTransient}, are
+     * counted by the circuit breaker. Other errors, for example a
+     * constraint violation, say nothing about the health of the database
+     * and are counted neither as failures nor as successes. The data
+     * source is looked up again only when the circuit is opened, so a
+     * transient error does not cause a lookup.
+     * 
+     * @param e The error. Errors thrown because the circuit is open are
+     *          ignored. Must not be <code>null</code>.
      */
-    public static void reportDatabaseError() {
-        if (!isTestDataSource) {
+    public static void reportDatabaseError(SQLException e) {
+        if (isTestDataSource || e instanceof CircuitOpenException ||
+                !isTransient(e)) {
+            return;
+        }
+        if (circuitBreaker.recordFailure()) {
             synchronized(lock) {
                 dataSource = null;
             }
         }
     }
 
+    /**
+     * This method is called to report a successful use of the database.
+     * The circuit breaker is closed if it was half open and the count of
+     * failures in a row is reset.
+     */
+    public static void reportDatabaseSuccess() {
+        circuitBreaker.recordSuccess();
+    }
+
+    /**
+     * Check if an error is transient, that is if the same operation may
+     * succeed later without any change, for example when the connection
+     * to the database was lost. The cached dimensions are kept at such
+     * errors.
+     * 
+     * @param e The error. Must not be <code>null</code>.
+     * 
+     * @return <code>true</code> if the error is transient.
+     */
+    public static boolean isTransient(SQLException e) {
+        if (e instanceof SQLTransientException ||
+                e instanceof SQLRecoverableException) {
+            return true;
+        }
+        // Connection exceptions.
+        final String sqlState = e.getSQLState();
+        return sqlState != null && sqlState.startsWith("08");
+    }
+
     /**
      * Close the connection, statement and resultset (if they are not
      * <code>null</code>).
@@ -0,0 +1,101 @@
+package se.uc.stat.utils;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import se.uc.stat.log.Log;
+
+/**
+ * Utilities for registration of MBeans in the platform MBean server.
+ * The MBeans are named <code>se.uc.stat:type=&lt;type&gt;,name=&lt;name&gt;</code>.
+ * A failing registration is logged and never stops the statistics.
+ */
+public class JmxUtils {
+    /** Log object for this class. */
+    private static final Log log = Log.getLog(JmxUtils.class);
+
+    /** The domain of the MBeans. */
+    public static final String DOMAIN = "se.uc.stat";
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private JmxUtils() {
+        // Nothing to do.
+    }
+
+    /**
+     * Register an MBean. An MBean already registered with the same name is
+     * replaced.
+     *
+     * @param <T>            The type of the management interface.
+     * @param implementation The implementation of the interface.
+     *                       Must not be <code>null</code>.
+     * @param mbeanInterface The management interface.
+     *                       Must not be <code>null</code>.
+     * @param type           The type of the MBean.
+     *                       Must not be <code>null</code>.
+     * @param name           The name of the MBean.
+     *                       Must not be <code>null</code>.
+     *
+     * @return <code>true</code> if the MBean was registered.
+     */
+    public static <T> boolean register(T implementation,
+            Class<T> mbeanInterface, String type, String name) {
+        try {
+            final MBeanServer server =
+                    ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = getObjectName(type, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(implementation,
+                    mbeanInterface), objectName);
+            return true;
+        } catch (JMException e) {
+            log.warning("The MBean " + type + " " + name +
+                    " could not be registered", e, null);
+            return false;
+        }
+    }
+
+    /**
+     * Unregister an MBean. Nothing happens if it is not registered.
+     *
+     * @param type The type of the MBean. Must not be <code>null</code>.
+     * @param name The name of the MBean. Must not be <code>null</code>.
+     */
+    public static void unregister(String type, String name) {
+        try {
+            final MBeanServer server =
+                    ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = getObjectName(type, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.warning("The MBean " + type + " " + name +
+                    " could not be unregistered", e, null);
+        }
+    }
+
+    /**
+     * Get the name of an MBean.
+     *
+     * @param type The type of the MBean. Must not be <code>null</code>.
+     * @param name The name of the MBean. Must not be <code>null</code> and
+     *             must not contain any of the characters <code>,=:*?"</code>.
+     *
+     * @return The name. This method never returns <code>null</code>.
+     *
+     * @throws JMException if the name is invalid.
+     */
+    public static ObjectName getObjectName(String type, String name)
+            throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+    }
+}
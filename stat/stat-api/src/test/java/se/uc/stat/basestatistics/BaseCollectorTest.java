@@ -1,13 +1,28 @@
 package se.uc.stat.basestatistics;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Test;
 
+import se.uc.stat.event.StatEventListener;
+import se.uc.stat.event.StatEvents;
 import se.uc.stat.utils.AbstractTestBase;
+import se.uc.stat.utils.JmxUtils;
 
 /**
  * Test class for BaseCollector.
@@ -566,6 +581,207 @@ public class BaseCollectorTest extends AbstractTestBase {
                 0, collector.getNumSequences());
     }
 
+    /**
+     * Test the flush method with parallel stores, no failures.
+     */
+    @Test
+    public void testFlushParallel() {
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 2);
+        collector.setParallelStores(3);
+        addCorrectTestData(collector);
+        collector.flush();
+        assertEquals("The cache is not empty after flush",
+                0, collector.getCacheSize());
+        assertEquals("The storeList is not empty after flush",
+                0, collector.getStoreListSize());
+        assertEquals("The number of sequences are not correct after flush",
+                0, collector.getNumSequences());
+        collector.setParallelStores(0);
+    }
+
+    /**
+     * Test that a snapshot holds copies of the information in the cache
+     * that are not changed by later registrations.
+     */
+    @Test
+    public void testSnapshot() {
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 10);
+        assertEquals("Snapshot of empty cache not empty",
+                0, collector.snapshot().size());
+        final BaseKeyImpl key = new BaseKeyImpl("s1", "m1", null, "p1", "me1");
+        final BaseInformationImpl info = new BaseInformationImpl(key, 3);
+        info.registerCorrectCalls(3);
+        info.registerFailedCalls(1);
+        collector.put(info);
+        final List<Snapshot> snapshots = collector.snapshot();
+        assertEquals("Invalid snapshot size", 1, snapshots.size());
+        final Snapshot snapshot = snapshots.get(0);
+        assertEquals("Invalid service", "s1",
+                snapshot.getDimensions().get("service"));
+        assertNull("Invalid origin", snapshot.getDimensions().get("origin"));
+        assertEquals("Invalid correct calls", new Long(3),
+                snapshot.getValues().get("numCorrectCalls"));
+        assertEquals("Invalid failed calls", new Long(1),
+                snapshot.getValues().get("numFailedCalls"));
+        info.registerCorrectCalls(2);
+        assertEquals("Snapshot changed by registration", new Long(3),
+                snapshot.getValues().get("numCorrectCalls"));
+        assertEquals("Invalid second snapshot", new Long(5),
+                collector.snapshot().get(0).getValues().get(
+                "numCorrectCalls"));
+        try {
+            snapshot.getValues().put("numCorrectCalls", new Long(0));
+            fail("Snapshot could be modified");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        assertEquals("The cache changed by the snapshot",
+                1, collector.getCacheSize());
+    }
+
+    /**
+     * Test the registration of the MBean and that it reports the cache.
+     * 
+     * @throws JMException if the test fails.
+     */
+    @Test
+    public void testMBean() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name =
+                JmxUtils.getObjectName("Collector", "TEST_STAT");
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 10);
+        collector.registerMBean("TEST_STAT");
+        try {
+            assertTrue("MBean not registered", server.isRegistered(name));
+            assertEquals("Invalid initial cache size", new Integer(0),
+                    server.getAttribute(name, "CacheSize"));
+            collector.put(new BaseInformationImpl(
+                    new BaseKeyImpl("s1", "m1", "o1", "p1", "me1"), 3));
+            assertEquals("Invalid cache size", new Integer(1),
+                    server.getAttribute(name, "CacheSize"));
+            assertEquals("Invalid number of stores", new Long(0),
+                    server.getAttribute(name, "NumStores"));
+            final long limits[] =
+                    (long[]) server.getAttribute(name, "StoreTimeLimits");
+            final long histogram[] =
+                    (long[]) server.getAttribute(name, "StoreTimeHistogram");
+            assertEquals("Invalid histogram length",
+                    limits.length + 1, histogram.length);
+        } finally {
+            collector.unregisterMBean();
+        }
+        assertFalse("MBean not unregistered", server.isRegistered(name));
+    }
+
+    /**
+     * Test the memory budget and the overflow policies.
+     */
+    @Test
+    public void testMemoryBudget() {
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 10);
+        final BaseKeyImpl key1 = new BaseKeyImpl("s1", "m1", "o1", "p1", "me1");
+        final BaseKeyImpl key2 = new BaseKeyImpl("s1", "m1", "o1", "p1", "me2");
+        assertSame("Key not admitted without budget", key2,
+                collector.admit(key2));
+        collector.put(new BaseInformationImpl(key1, 3));
+        final long memory = collector.getMemory();
+        assertTrue("Invalid memory " + memory,
+                memory > key1.getEstimatedSize());
+
+        collector.setMemoryBudget(memory + 1, OverflowPolicy.DROP);
+        assertSame("Key not admitted within budget", key2,
+                collector.admit(key2));
+        collector.setMemoryBudget(memory, OverflowPolicy.DROP);
+        assertSame("Existing key not admitted", key1, collector.admit(key1));
+        assertNull("New key admitted", collector.admit(key2));
+
+        // The collector has no overflow key, so the call is dropped.
+        collector.setMemoryBudget(memory, OverflowPolicy.FOLD);
+        assertNull("New key folded", collector.admit(key2));
+
+        collector.setMemoryBudget(memory, OverflowPolicy.FLUSH);
+        final long time = System.currentTimeMillis();
+        assertSame("New key not admitted", key2, collector.admit(key2));
+        assertTrue("Store not started early",
+                collector.getNextStore() <= time + 1000);
+        try {
+            collector.setMemoryBudget(-1, OverflowPolicy.DROP);
+            fail("Negative budget accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test that a long wait for the lock is reported to the event listener
+     * and that a short wait is not.
+     */
+    @Test
+    public void testLockContendedEvent() {
+        final List<String> events = new ArrayList<String>();
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 10);
+        StatEvents.setListener(new StatEventListener() {
+            @Override
+            public void storeRound(String name, int numStored,
+                    int numFailed, long duration) {
+                events.add("store " + name);
+            }
+
+            @Override
+            public void dimensionRead(String dimension, int size,
+                    long duration) {
+                events.add("dimension " + dimension);
+            }
+
+            @Override
+            public void lockContended(String name, long waitTime) {
+                events.add("lock " + name);
+            }
+        });
+        try {
+            collector.lockAcquired(System.nanoTime());
+            assertEquals("Short wait reported", 0, events.size());
+            collector.lockAcquired(System.nanoTime() -
+                    2 * StatEvents.DEFAULT_LOCK_WAIT_THRESHOLD);
+            assertEquals("Invalid events", "[lock BaseCollectorImpl]",
+                    events.toString());
+        } finally {
+            StatEvents.setListener(null);
+        }
+    }
+
+    /**
+     * Test that a collector not supporting spilling can neither spill nor
+     * keep a journal.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testSpillNotSupported() throws IOException {
+        final BaseCollectorImpl collector =
+                new BaseCollectorImpl(STORE_INTERVAL, 10);
+        final File directory = new File(System.getProperty("java.io.tmpdir"));
+        try {
+            collector.setSpill(directory, 1);
+            fail("Spill set");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        try {
+            collector.setJournal(directory, 1000);
+            fail("Journal set");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        collector.setSpill(null, 0);
+        collector.setJournal(null, 1000);
+    }
+
     /**
      * Assert that the <code>nextStore</code> time is within the expected interval.
      * 
@@ -1,7 +1,10 @@
 package se.uc.stat.basestatistics;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 
 /**
  * Class publishing some of the methods with package visibility to be able to
@@ -49,4 +52,19 @@ public class BaseCollectorUtils {
             Connection connection, Info info) throws SQLException {
         return collector.updateInformation(connection, info);
     }
+
+    /**
+     * Write a spill segment as a collector does when the database is not
+     * reachable.
+     * 
+     * @param directory The directory of the segments of the table.
+     * @param infos     The information to write.
+     * 
+     * @throws IOException if the segment could not be written.
+     */
+    public static void writeSpill(File directory,
+            Collection<? extends BaseInformation<?, ?>> infos)
+            throws IOException {
+        new SpillSegments(directory).write(infos);
+    }
 }
@@ -79,6 +79,14 @@ package se.uc.stat.basestatistics;
         return baseSubtract(other);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void add(BaseInformationImpl other) {
+        baseAdd(other);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,151 @@
+package se.uc.stat.basestatistics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the CrashJournal class.
+ */
+public class CrashJournalTest {
+    /** The capacity of the journals in the test. */
+    private final static int CAPACITY = 1024;
+
+    /** The file of the journal. */
+    private File file;
+
+    /**
+     * Create the name of the file.
+     */
+    @Before
+    public void setUp() {
+        file = new File(System.getProperty("java.io.tmpdir"),
+                "stat-journal-test-" + System.nanoTime());
+    }
+
+    /**
+     * Delete the file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test writing and recovering checkpoints.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        CrashJournal journal = new CrashJournal(file, CAPACITY);
+        assertNull("Checkpoint in new journal", journal.read());
+        assertEquals("Invalid max size", 488, journal.getMaxSize());
+        journal.write(new byte[] {1, 2, 3, 4}, 3);
+        assertArrayEquals("Invalid checkpoint", new byte[] {1, 2, 3},
+                journal.read());
+        journal.write(new byte[] {5}, 1);
+        assertArrayEquals("Invalid second checkpoint", new byte[] {5},
+                journal.read());
+
+        journal = new CrashJournal(file, CAPACITY);
+        assertArrayEquals("Invalid recovered checkpoint", new byte[] {5},
+                journal.read());
+        journal.write(new byte[] {6, 7}, 2);
+        journal = new CrashJournal(file, CAPACITY);
+        assertArrayEquals("Invalid checkpoint after recovery",
+                new byte[] {6, 7}, journal.read());
+
+        try {
+            journal.write(new byte[journal.getMaxSize() + 1],
+                    journal.getMaxSize() + 1);
+            fail("Too large checkpoint written");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test that a prepared checkpoint is read only when published and that
+     * a cleared journal holds no checkpoint.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testPrepareClear() throws IOException {
+        final CrashJournal journal = new CrashJournal(file, CAPACITY);
+        journal.write(new byte[] {1}, 1);
+        journal.prepare(new byte[] {2, 3}, 2);
+        assertArrayEquals("Prepared checkpoint read", new byte[] {1},
+                journal.read());
+        assertArrayEquals("Prepared checkpoint recovered", new byte[] {1},
+                new CrashJournal(file, CAPACITY).read());
+        journal.publish();
+        assertArrayEquals("Published checkpoint not read",
+                new byte[] {2, 3}, journal.read());
+        try {
+            journal.publish();
+            fail("Checkpoint published twice");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        journal.prepare(new byte[] {4}, 1);
+        journal.clear();
+        assertNull("Checkpoint in cleared journal", journal.read());
+        assertNull("Checkpoint recovered from cleared journal",
+                new CrashJournal(file, CAPACITY).read());
+        journal.write(new byte[] {5}, 1);
+        assertArrayEquals("Checkpoint after clear not recovered",
+                new byte[] {5}, new CrashJournal(file, CAPACITY).read());
+    }
+
+    /**
+     * Test that a damaged checkpoint falls back to the previous one.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testDamagedCheckpoint() throws IOException {
+        final CrashJournal journal = new CrashJournal(file, CAPACITY);
+        journal.write(new byte[] {1, 2}, 2);
+        journal.write(new byte[] {3, 4}, 2);
+        // The second checkpoint is in the second slot.
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(16 + (CAPACITY - 16) / 2 + 16);
+            raf.write(9);
+        } finally {
+            raf.close();
+        }
+        assertArrayEquals("Damaged checkpoint not ignored",
+                new byte[] {1, 2}, new CrashJournal(file, CAPACITY).read());
+    }
+
+    /**
+     * Test that a file that is not a journal is replaced.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testInvalidFile() throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[CAPACITY]);
+        } finally {
+            out.close();
+        }
+        assertNull("Checkpoint in invalid file",
+                new CrashJournal(file, CAPACITY).read());
+    }
+}
@@ -0,0 +1,113 @@
+package se.uc.stat.basestatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the SpillSegments class.
+ */
+public class SpillSegmentsTest {
+    /** The directory of the segments. */
+    private File directory;
+
+    /**
+     * Create an empty directory.
+     */
+    @Before
+    public void setUp() {
+        directory = new File(System.getProperty("java.io.tmpdir"),
+                "stat-spill-test-" + System.nanoTime());
+    }
+
+    /**
+     * Delete the directory.
+     */
+    @After
+    public void tearDown() {
+        final File files[] = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test writing, listing and reading segments.
+     * 
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        final File temp = new File(directory, "0000000000000-000001.tmp");
+        assertTrue("Directory not created", directory.mkdirs());
+        new FileOutputStream(temp).close();
+        final SpillSegments segments = new SpillSegments(directory);
+        assertFalse("Partial segment not deleted", temp.exists());
+        assertEquals("Segments in empty directory", 0,
+                segments.list().length);
+
+        final List<BaseInformationImpl> infos =
+                new ArrayList<BaseInformationImpl>();
+        infos.add(new BaseInformationImpl(
+                new BaseKeyImpl("s1", "m1", "o1", "p1", "me1"), 3));
+        infos.add(new BaseInformationImpl(
+                new BaseKeyImpl("s1", "m1", "o1", "p1", "me2"), 4));
+        segments.write(infos);
+        segments.write(infos.subList(0, 1));
+        final File list[] = segments.list();
+        assertEquals("Invalid number of segments", 2, list.length);
+        assertTrue("Segments not in order",
+                list[0].getName().compareTo(list[1].getName()) < 0);
+
+        final DataInputStream in = segments.open(list[0]);
+        try {
+            assertTrue("First record missing", segments.hasNext(in));
+            assertEquals("Invalid dayOfWeek", 3, in.readByte());
+            in.skipBytes(12);
+            assertTrue("Second record missing", segments.hasNext(in));
+            assertEquals("Invalid dayOfWeek", 4, in.readByte());
+            in.skipBytes(12);
+            assertFalse("Too many records", segments.hasNext(in));
+        } finally {
+            in.close();
+        }
+
+        segments.markBad(list[1]);
+        assertEquals("Bad segment listed", 1, segments.list().length);
+
+        segments.writeBad(infos);
+        assertEquals("Quarantined records listed", 1,
+                segments.list().length);
+        assertEquals("Quarantined records not kept", 3,
+                directory.listFiles().length);
+    }
+
+    /**
+     * Test that a file that is not a segment is not read.
+     * 
+     * @throws IOException if the test fails.
+     */
+    @Test(expected = IOException.class)
+    public void testOpenInvalid() throws IOException {
+        final SpillSegments segments = new SpillSegments(directory);
+        final File file = new File(directory, "0000000000000-000001.seg");
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        segments.open(file);
+    }
+}
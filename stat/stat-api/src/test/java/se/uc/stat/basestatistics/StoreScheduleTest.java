@@ -0,0 +1,95 @@
+package se.uc.stat.basestatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the StoreSchedule class.
+ */
+public class StoreScheduleTest {
+    /** The store interval used in the tests. */
+    private final static long INTERVAL = 60000;
+
+    /**
+     * Test the fixed schedule.
+     */
+    @Test
+    public void testFixed() {
+        final StoreSchedule schedule = new StoreSchedule(INTERVAL, 3);
+        schedule.registerStore(5000000);
+        assertEquals("Invalid batch size", 3, schedule.getBatchSize());
+        assertEquals("Invalid flush batch size", 200,
+                schedule.getFlushBatchSize());
+        assertEquals("Invalid next store", 1000 + INTERVAL,
+                schedule.roundEnded(1000, 100000));
+        assertEquals("Invalid next store after failure", 1000 + INTERVAL,
+                schedule.roundFailed(1000));
+        assertEquals("Invalid next store after failures", 1000 + INTERVAL,
+                schedule.roundFailed(1000));
+        assertFalse("Fixed schedule backing off", schedule.isBackingOff());
+        assertEquals("Fixed schedule starts early", Long.MAX_VALUE,
+                schedule.getEarlyStore(100000));
+    }
+
+    /**
+     * Test the batch sizes and intervals of the adaptive schedule.
+     */
+    @Test
+    public void testAdaptive() {
+        final StoreSchedule schedule = new StoreSchedule(INTERVAL, 3);
+        schedule.setAdaptive(50, 1000, 10 * INTERVAL);
+        assertTrue("Schedule not adaptive", schedule.isAdaptive());
+        assertEquals("Batch size before measurement", 3,
+                schedule.getBatchSize());
+        assertEquals("Early store before measurement", Long.MAX_VALUE,
+                schedule.getEarlyStore(100000));
+
+        schedule.registerStore(10000000);
+        assertEquals("Invalid batch size", 5, schedule.getBatchSize());
+        assertEquals("Invalid flush batch size", 600,
+                schedule.getFlushBatchSize());
+        schedule.registerStore(2000000);
+        assertEquals("Invalid average", 9000000, schedule.getStoreNanos());
+
+        // 1000 objects take 9 seconds to store.
+        assertEquals("Invalid next store", 1000 + INTERVAL - 9000,
+                schedule.roundEnded(1000, 1000));
+        assertEquals("Invalid early store", 1000 + 1000,
+                schedule.getEarlyStore(1000000));
+        assertEquals("Invalid early store of small cache", 1000 + INTERVAL,
+                schedule.getEarlyStore(0));
+
+        schedule.setAdaptive(0, 0, 0);
+        assertFalse("Schedule still adaptive", schedule.isAdaptive());
+        assertEquals("Invalid fixed batch size", 3, schedule.getBatchSize());
+    }
+
+    /**
+     * Test the exponential backoff after failed rounds.
+     */
+    @Test
+    public void testBackoff() {
+        final StoreSchedule schedule = new StoreSchedule(INTERVAL, 3);
+        schedule.setAdaptive(50, 1000, 4 * INTERVAL);
+        long wait = INTERVAL;
+        for (int failure = 1; failure <= 5; failure++) {
+            final long next = schedule.roundFailed(0);
+            assertEquals("Invalid number of failures", failure,
+                    schedule.getNumFailures());
+            assertTrue("Wait too short after failure " + failure,
+                    next >= INTERVAL);
+            assertTrue("Wait too long after failure " + failure,
+                    next <= wait);
+            wait = Math.min(2 * wait, 4 * INTERVAL);
+        }
+        assertTrue("Not backing off", schedule.isBackingOff());
+        assertEquals("Early store while backing off", Long.MAX_VALUE,
+                schedule.getEarlyStore(1000000));
+        schedule.registerStore(1000000);
+        assertFalse("Backing off after successful store",
+                schedule.isBackingOff());
+    }
+}
@@ -0,0 +1,151 @@
+package se.uc.stat.customerstatistics;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the class CustomerLimiter.
+ */
+public class CustomerLimiterTest {
+    /** The date used in the tests. */
+    private final static long DATE = 1296000000000L;
+    /** The date after <code>DATE</code>. */
+    private final static long NEXT_DATE = DATE + 24L * 60 * 60 * 1000;
+
+    /**
+     * Test that all customers are registered when there is no limit.
+     */
+    @Test
+    public void testNoLimit() {
+        final CustomerLimiter limiter = new CustomerLimiter();
+        assertEquals("Invalid default limit", 0, limiter.getMaxCustomers());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("Customer " + i + " not registered", "c" + i,
+                    limiter.getCustomer("s", "m", "c" + i, DATE));
+        }
+        assertEquals("Null customer not registered", null,
+                limiter.getCustomer("s", "m", null, DATE));
+    }
+
+    /**
+     * Test that frequent customers are admitted and that random customers
+     * are registered on the other customers.
+     */
+    @Test
+    public void testFrequentAndRandomCustomers() {
+        final CustomerLimiter limiter = new CustomerLimiter();
+        limiter.setMaxCustomers(3);
+        for (int i = 0; i < 10000; i++) {
+            final String customer = (i % 2 == 0) ? "frequent" : "random" + i;
+            final String result =
+                    limiter.getCustomer("s", "m", customer, DATE);
+            if (customer.equals("frequent")) {
+                if (i > 2) {
+                    assertEquals("Frequent customer not admitted, call " + i,
+                            customer, result);
+                }
+            } else {
+                assertEquals("Random customer admitted, call " + i,
+                        CustomerLimiter.OTHER_CUSTOMERS, result);
+            }
+        }
+    }
+
+    /**
+     * Test that the number of customers is bounded per method and day and
+     * that the frequent customers are admitted again the next day.
+     */
+    @Test
+    public void testBounded() {
+        final CustomerLimiter limiter = new CustomerLimiter();
+        limiter.setMaxCustomers(5);
+        final Set<String> registered = new HashSet<String>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 8; i++) {
+                registered.add(limiter.getCustomer("s", "m", "c" + i, DATE));
+            }
+        }
+        assertEquals("Invalid number of customers", 6, registered.size());
+        assertTrue("Other customers not used",
+                registered.contains(CustomerLimiter.OTHER_CUSTOMERS));
+        // Another method has its own customers.
+        assertEquals("Customer not admitted for other method", "c0",
+                getAdmitted(limiter, "m2", "c0", DATE));
+        // The frequent customers of the previous day are admitted on
+        // their first call the next day.
+        final Set<String> nextDay = new HashSet<String>();
+        for (int i = 7; i >= 0; i--) {
+            nextDay.add(limiter.getCustomer("s", "m", "c" + i, NEXT_DATE));
+        }
+        assertEquals("Invalid number of customers next day", 6,
+                nextDay.size());
+    }
+
+    /**
+     * Test that a customer calling often after the limit is reached evicts
+     * the admitted customer with the fewest calls.
+     */
+    @Test
+    public void testLateHeavyHitter() {
+        final CustomerLimiter limiter = new CustomerLimiter();
+        limiter.setMaxCustomers(2);
+        for (int i = 0; i < 5; i++) {
+            limiter.getCustomer("s", "m", "early", DATE);
+        }
+        assertEquals("Light customer not admitted", "light",
+                getAdmitted(limiter, "m", "light", DATE));
+        for (int i = 0; i < 20; i++) {
+            limiter.getCustomer("s", "m", "random" + i, DATE);
+        }
+        // The heavy customer takes over a counter of the random customers
+        // and is admitted when it has more calls than the light customer.
+        for (int i = 0; i < 10; i++) {
+            limiter.getCustomer("s", "m", "heavy", DATE);
+        }
+        assertEquals("Heavy customer not admitted", "heavy",
+                limiter.getCustomer("s", "m", "heavy", DATE));
+        assertEquals("Light customer not evicted",
+                CustomerLimiter.OTHER_CUSTOMERS,
+                limiter.getCustomer("s", "m", "light", DATE));
+        assertEquals("Early customer evicted", "early",
+                limiter.getCustomer("s", "m", "early", DATE));
+    }
+
+    /**
+     * Test that a negative limit is rejected.
+     */
+    @Test
+    public void testNegativeLimit() {
+        try {
+            new CustomerLimiter().setMaxCustomers(-1);
+            fail("Negative limit accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Call the limiter until the customer is admitted.
+     *
+     * @param limiter  The limiter. Must not be <code>null</code>.
+     * @param method   The method.
+     * @param customer The customer.
+     * @param date     The date.
+     *
+     * @return The customer returned by the limiter the last call.
+     */
+    private String getAdmitted(CustomerLimiter limiter, String method,
+            String customer, long date) {
+        String result = null;
+        for (int i = 0; i < 3; i++) {
+            result = limiter.getCustomer("s", method, customer, date);
+        }
+        return result;
+    }
+}
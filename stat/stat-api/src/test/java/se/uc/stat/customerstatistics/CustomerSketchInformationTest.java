@@ -0,0 +1,78 @@
+package se.uc.stat.customerstatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.Test;
+
+import se.uc.stat.utils.AbstractTestBase;
+import se.uc.stat.utils.HyperLogLog;
+
+/**
+ * Test the CustomerSketchInformation class.
+ */
+public class CustomerSketchInformationTest extends AbstractTestBase {
+    /** Testkey to use. */
+    private static final CustomerStatisticsKey KEY = new CustomerStatisticsKey(
+            "s", "m", "o", null, "me", null, new Date(1300000000000L));
+
+    /**
+     * Test that the calls added after a clone is taken are kept when the
+     * clone is subtracted, and that the sketch keeps all customers.
+     */
+    @Test
+    public void testSubtract() {
+        final CustomerSketchInformation info =
+                new CustomerSketchInformation(KEY, 3);
+        info.addHash(HyperLogLog.hash("c1"));
+        info.addHash(HyperLogLog.hash("c2"));
+        final CustomerSketchInformation stored = info.createClone();
+        info.addHash(HyperLogLog.hash("c3"));
+        assertEquals("Clone changed", 2, stored.getSketch().estimate());
+        assertFalse("Calls added after the clone lost",
+                info.subtract(stored));
+        assertEquals("Sketch changed by subtract", 3,
+                info.getSketch().estimate());
+        final CustomerSketchInformation second = info.createClone();
+        assertTrue("Calls left after the second subtract",
+                info.subtract(second));
+        assertTrue("Calls left after subtracting itself",
+                second.subtract(second.createClone()));
+    }
+
+    /**
+     * Test that an object written in the binary format is read with the
+     * same key, calls and sketch.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        final CustomerSketchInformation info =
+                new CustomerSketchInformation(KEY, 5);
+        for (int i = 0; i < 100; i++) {
+            info.addHash(HyperLogLog.hash("c" + (i % 10)));
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        info.write(out);
+        out.close();
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        final CustomerSketchInformation read =
+                new CustomerSketchInformation(in);
+        assertEquals("Not all bytes read", -1, in.read());
+        assertEquals("Invalid key", KEY, read.getKey());
+        assertEquals("Invalid dayOfWeek", 5, read.getDayOfWeek());
+        assertEquals("Invalid estimate", 10, read.getSketch().estimate());
+        assertTrue("Invalid number of calls", read.subtract(info));
+    }
+}
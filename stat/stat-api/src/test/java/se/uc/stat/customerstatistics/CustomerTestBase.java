@@ -31,8 +31,8 @@ public class CustomerTestBase extends AbstractTestBase {
     protected final static String MEDIA_PREFIX = "statTestMedia";
 
     /**
-     * Delete all records in the CUSTOMER_STAT table coupled to the
-     * service {@link #SERVICE} or method {@link #METHOD}.
+     * Delete all records in the CUSTOMER_STAT and CUSTOMER_SKETCH tables
+     * coupled to the service {@link #SERVICE} or method {@link #METHOD}.
      * Delete all records in the METHOD_INFO table coupled to the
      * service {@link #SERVICE} or method {@link #METHOD}.
      * Delete all records in the ORIGIN_INFO table starting with
@@ -48,6 +48,11 @@ public class CustomerTestBase extends AbstractTestBase {
                 "where SERVICE_NAME = '" + SERVICE + "' or " +
                 "METHOD_NAME = '" + METHOD + "')";
         updateInDb(SQL);
+        SQL = "delete CUSTOMER_SKETCH where METHOD_ID in " +
+                "(select METHOD_ID from METHOD_INFO " +
+                "where SERVICE_NAME = '" + SERVICE + "' or " +
+                "METHOD_NAME = '" + METHOD + "')";
+        updateInDb(SQL);
         SQL = "delete METHOD_INFO " +
                 "where SERVICE_NAME = '" + SERVICE + "' or " +
                 "METHOD_NAME = '" + METHOD + "'";
@@ -0,0 +1,96 @@
+package se.uc.stat.snapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.uc.stat.basestatistics.Snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the class SnapshotServer.
+ */
+public class SnapshotServerTest {
+    /** The port used by the tests. */
+    private final static int PORT = 18432;
+
+    /**
+     * Test the JSON of an empty snapshot.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWriteJson() throws IOException {
+        final StringWriter writer = new StringWriter();
+        SnapshotServer.writeJson(writer, "node\"1", 17,
+                new ArrayList<Snapshot>());
+        assertEquals("Invalid JSON", "{\"node\":\"node\\\"1\",\"time\":17," +
+                "\"rows\":[]}\n", writer.toString());
+    }
+
+    /**
+     * Test that the server answers on the loopback interface and that it
+     * can be restarted and stopped.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testServer() throws IOException {
+        SnapshotServer.start(PORT);
+        try {
+            // Starting again replaces the running server.
+            SnapshotServer.start(PORT);
+            final HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + PORT + "/snapshot/time")
+                    .openConnection();
+            assertEquals("Invalid status", 200,
+                    connection.getResponseCode());
+            final String json = read(connection.getInputStream());
+            assertTrue("Invalid JSON " + json, json.startsWith("{\"node\":") &&
+                    json.indexOf("\"rows\":[") > 0);
+            // The metrics are not collected by default.
+            final HttpURLConnection metrics = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + PORT + "/metrics")
+                    .openConnection();
+            assertEquals("Invalid metrics status", 404,
+                    metrics.getResponseCode());
+        } finally {
+            SnapshotServer.stop();
+        }
+        SnapshotServer.stop();
+    }
+
+    /**
+     * Read a stream as UTF-8.
+     *
+     * @param in The stream. It is closed.
+     *
+     * @return The content of the stream.
+     *
+     * @throws IOException if the stream could not be read.
+     */
+    private String read(InputStream in) throws IOException {
+        try {
+            final List<Byte> bytes = new ArrayList<Byte>();
+            int b;
+            while ((b = in.read()) >= 0) {
+                bytes.add(new Byte((byte)b));
+            }
+            final byte array[] = new byte[bytes.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = bytes.get(i).byteValue();
+            }
+            return new String(array, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -301,4 +301,37 @@ public class TimeCollectorTest extends TimeTestBase {
                 getConnection(), info));
         cleanCustomerStatDb();
     }
+
+    /**
+     * Test the method getStatisticsTime and the validation of the bucket
+     * length.
+     * 
+     * @throws ParseException if the test fails due to invalid test data.
+     */
+    @Test
+    public void testGetStatisticsTime() throws ParseException {
+        final SimpleDateFormat formatter =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        final long time = formatter.parse("2011-01-25 09:12:35.123").getTime();
+        final TimeRepresentation date = TimeUtils.getTimeRepresentation(time);
+        assertEquals("Hour", formatter.parse("2011-01-25 09:00:00.000"),
+                new Date(new TimeCollector().getStatisticsTime(date, time)));
+        assertEquals("1 minute", formatter.parse("2011-01-25 09:12:00.000"),
+                new Date(new TimeCollector(TimeCollector.MINUTE_TABLE_NAME,
+                1, 0).getStatisticsTime(date, time)));
+        assertEquals("5 minutes", formatter.parse("2011-01-25 09:10:00.000"),
+                new Date(new TimeCollector(TimeCollector.MINUTE_TABLE_NAME,
+                5, 0).getStatisticsTime(date, time)));
+        assertEquals("15 minutes", formatter.parse("2011-01-25 09:00:00.000"),
+                new Date(new TimeCollector(TimeCollector.MINUTE_TABLE_NAME,
+                15, 0).getStatisticsTime(date, time)));
+        for (int minutes : new int[] {-1, 7, 60}) {
+            try {
+                new TimeCollector(TimeCollector.MINUTE_TABLE_NAME, minutes, 0);
+                fail(minutes + " minutes accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
 }
@@ -6,6 +6,11 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Date;
 
 import org.junit.Test;
@@ -682,7 +687,36 @@ public class TimeInformationTest extends AbstractTestBase {
         return result;
     }
 
-    
+    /**
+     * Test that an object written in the binary format is read with the
+     * same key and numbers.
+     * 
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        final TimeStatisticsKey key = new TimeStatisticsKey(
+                "s", null, "o", "p", "me", null, new Date(1300000000000L));
+        final TimeInformation info = new TimeInformation(key, 5, 13);
+        info.registerCorrectCall(7);
+        info.registerInvalidCall(150);
+        info.registerFailedCall(25000);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        info.write(out);
+        out.close();
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        final TimeInformation read = new TimeInformation(in);
+        assertEquals("Not all bytes read", -1, in.read());
+        assertEquals("Invalid key", key, read.getKey());
+        assertEquals("Invalid dayOfWeek", 5, read.getDayOfWeek());
+        assertEquals("Invalid hourOfDay", 13, read.getHourOfDay());
+        assertEquals("Invalid total time", 150,
+                read.getTotalTimeInvalidCalls());
+        assertTrue("Invalid numbers", read.subtract(info));
+    }
+
     /**
      * Assert that the createClone method works.
      * 
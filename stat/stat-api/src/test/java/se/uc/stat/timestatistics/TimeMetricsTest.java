@@ -0,0 +1,92 @@
+package se.uc.stat.timestatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import se.uc.stat.utils.AbstractTestBase;
+
+/**
+ * Test the TimeMetrics class.
+ */
+public class TimeMetricsTest extends AbstractTestBase {
+    /**
+     * Test the text of the metrics.
+     * 
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testWrite() throws IOException {
+        final TimeMetrics metrics = new TimeMetrics();
+        assertEquals("Invalid empty metrics",
+                "# TYPE stat_calls counter\n" +
+                "# HELP stat_calls The number of service calls.\n" +
+                "# TYPE stat_call_duration_seconds histogram\n" +
+                "# UNIT stat_call_duration_seconds seconds\n" +
+                "# HELP stat_call_duration_seconds The time of the service " +
+                "calls.\n" +
+                "# EOF\n", write(metrics));
+
+        metrics.registerCorrectCall("s", "m", null, "p", "me", "l", 5);
+        metrics.registerCorrectCall("s", "m", null, "p", "me", "l", 15);
+        metrics.registerFailedCall("s", "m", null, "p", "me", "l", 30000);
+        metrics.registerInvalidCall("s\"2", "m", null, null, null, null, 10);
+        assertEquals("Invalid number of series", 2, metrics.getNumSeries());
+
+        final String text = write(metrics);
+        final String labels = "service=\"s\",method=\"m\",origin=\"\"," +
+                "product=\"p\",media=\"me\",layer=\"l\"";
+        assertContains(text, "stat_calls_total{" + labels +
+                ",result=\"correct\"} 2\n");
+        assertContains(text, "stat_calls_total{" + labels +
+                ",result=\"failed\"} 1\n");
+        assertContains(text, "stat_calls_total{" + labels +
+                ",result=\"invalid\"} 0\n");
+        assertContains(text, "stat_call_duration_seconds_bucket{" + labels +
+                ",le=\"0.010\"} 1\n");
+        assertContains(text, "stat_call_duration_seconds_bucket{" + labels +
+                ",le=\"0.020\"} 2\n");
+        assertContains(text, "stat_call_duration_seconds_bucket{" + labels +
+                ",le=\"20.000\"} 2\n");
+        assertContains(text, "stat_call_duration_seconds_bucket{" + labels +
+                ",le=\"+Inf\"} 3\n");
+        assertContains(text, "stat_call_duration_seconds_count{" + labels +
+                "} 3\n");
+        assertContains(text, "stat_call_duration_seconds_sum{" + labels +
+                "} 30.020\n");
+        assertContains(text, "stat_calls_total{service=\"s\\\"2\"");
+        assertTrue("Invalid end", text.endsWith("# EOF\n"));
+
+        // The buffer is reused by the next scrape.
+        assertEquals("Invalid second scrape", text, write(metrics));
+    }
+
+    /**
+     * Write the metrics to a string.
+     * 
+     * @param metrics The metrics to write.
+     * 
+     * @return The text.
+     * 
+     * @throws IOException if the test fails.
+     */
+    private String write(TimeMetrics metrics) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.write(out);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Assert that the text contains a part.
+     * 
+     * @param text The text.
+     * @param part The expected part.
+     */
+    private void assertContains(String text, String part) {
+        assertTrue("Missing " + part + " in " + text, text.indexOf(part) >= 0);
+    }
+}
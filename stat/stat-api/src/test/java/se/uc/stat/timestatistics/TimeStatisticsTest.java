@@ -1,15 +1,20 @@
 package se.uc.stat.timestatistics;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 
 import org.junit.Test;
 
+import se.uc.stat.basestatistics.BaseCollectorUtils;
 import se.uc.stat.utils.TimeRepresentation;
 import se.uc.stat.utils.TimeSource;
 import se.uc.stat.utils.TimeUtils;
@@ -26,6 +31,10 @@ public class TimeStatisticsTest extends TimeTestBase {
     private static final int NUM_THREADS = 10;
     /** The run time in milliseconds. */
     private static final long RUN_TIME = 10000;
+    /** The number of rounds of the benchmark. */
+    private static final int BENCHMARK_ROUNDS = 5;
+    /** The number of calls registered per round of the benchmark. */
+    private static final int BENCHMARK_CALLS = 100000;
     
     /** Test keys. Note that the time is not of interest. */
     private final ArrayList<TimeStatisticsKey> keys =
@@ -46,6 +55,127 @@ public class TimeStatisticsTest extends TimeTestBase {
         TimeStatistics.healthCheck();
     }
     
+    /**
+     * Test that changing the length of the fine grained buckets while
+     * spilled statistics are pending leaves one thread replaying the
+     * spill directory of the table.
+     * 
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testFineGrainWithPendingSpill() throws IOException {
+        final File directory = new File(System.getProperty("java.io.tmpdir"),
+                "statTestSpill" + System.nanoTime());
+        final TimeRepresentation time =
+                TimeUtils.getTimeRepresentation(System.currentTimeMillis());
+        final TimeInformation info = new TimeInformation(
+                new TimeStatisticsKey(SERVICE, METHOD, ORIGIN_PREFIX + "1",
+                        "p1", MEDIA_PREFIX + "1", LAYER_PREFIX + "1",
+                        new Date(time.getDateHour())),
+                time.getDayOfWeek(), time.getHourOfDay());
+        info.registerCorrectCall(10);
+        BaseCollectorUtils.writeSpill(
+                new File(directory, TimeCollector.MINUTE_TABLE_NAME),
+                Collections.singletonList(info));
+        try {
+            TimeStatistics.setSpill(directory, 1);
+            TimeStatistics.setFineGrain(5);
+            TimeStatistics.setFineGrain(1);
+            assertEquals(1, countThreads(
+                    "stat-replay-" + TimeCollector.MINUTE_TABLE_NAME));
+            TimeStatistics.setFineGrain(0);
+            assertEquals(0, countThreads(
+                    "stat-replay-" + TimeCollector.MINUTE_TABLE_NAME));
+        } finally {
+            TimeStatistics.setFineGrain(0);
+            TimeStatistics.setSpill(null, 0);
+            delete(directory);
+        }
+    }
+
+    /**
+     * Benchmark the cost a calling thread pays for the fine grained
+     * statistics, which are registered in a second collector. The best
+     * time of a few rounds of registrations in the collector per hour is
+     * compared with the registrations in both collectors. The calls are
+     * not stored within the rounds since the store interval is longer.
+     */
+    @Test
+    public void testFineGrainCost() {
+        final TimeCollector hourCollector = new TimeCollector();
+        final TimeCollector minuteCollector = new TimeCollector(
+                TimeCollector.MINUTE_TABLE_NAME, 1, 60 * 60 * 1000);
+        long hourTime = Long.MAX_VALUE;
+        long bothTime = Long.MAX_VALUE;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            registerCalls(hourCollector, null);
+            hourTime = Math.min(hourTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            registerCalls(hourCollector, minuteCollector);
+            bothTime = Math.min(bothTime, System.nanoTime() - start);
+        }
+        // The fine grained statistics double the registrations, allow for
+        // the noise of a shared build machine.
+        assertTrue("Fine grained registrations too slow: " +
+                bothTime / BENCHMARK_CALLS + " ns per call compared with " +
+                hourTime / BENCHMARK_CALLS + " ns per call",
+                bothTime < 4 * hourTime);
+    }
+
+    /**
+     * Register the calls of a benchmark round.
+     * 
+     * @param hourCollector   The collector per hour.
+     * @param minuteCollector The collector per minute or <code>null</code>
+     *                        if the fine grained statistics are off.
+     */
+    private static void registerCalls(TimeCollector hourCollector,
+            TimeCollector minuteCollector) {
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            final String origin = ORIGIN_PREFIX + (i % 20);
+            hourCollector.registerCorrectServiceCall(SERVICE, METHOD, origin,
+                    "p1", MEDIA_PREFIX + "1", LAYER_PREFIX + "1", i % 500);
+            if (minuteCollector != null) {
+                minuteCollector.registerCorrectServiceCall(SERVICE, METHOD,
+                        origin, "p1", MEDIA_PREFIX + "1", LAYER_PREFIX + "1",
+                        i % 500);
+            }
+        }
+    }
+
+    /**
+     * Count the live threads with a name.
+     * 
+     * @param name The name of the threads.
+     * 
+     * @return The number of live threads named <code>name</code>.
+     */
+    private static int countThreads(String name) {
+        int result = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && name.equals(thread.getName())) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Delete a file or a directory with its content.
+     * 
+     * @param file The file to delete.
+     */
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
     /**
      * Perform a test using the number of threads specified by
      * <code>NUM_THREADS</code> running for <code>RUN_TIME</code> milliseconds.
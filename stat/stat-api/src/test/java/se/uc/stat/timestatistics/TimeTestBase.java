@@ -33,8 +33,8 @@ public class TimeTestBase extends AbstractTestBase {
     protected final static String LAYER_PREFIX = "statTestLayer";
 
     /**
-     * Delete all records in the TIME_STAT table coupled to the
-     * service {@link #SERVICE} or method {@link #METHOD}.
+     * Delete all records in the TIME_STAT and TIME_STAT_MINUTE tables
+     * coupled to the service {@link #SERVICE} or method {@link #METHOD}.
      * Delete all records in the METHOD_INFO table coupled to the
      * service {@link #SERVICE} or method {@link #METHOD}.
      * Delete all records in the ORIGIN_INFO table starting with
@@ -52,6 +52,11 @@ public class TimeTestBase extends AbstractTestBase {
                 "where SERVICE_NAME = '" + SERVICE + "' or " +
                 "METHOD_NAME = '" + METHOD + "')";
         updateInDb(SQL);
+        SQL = "delete TIME_STAT_MINUTE where METHOD_ID in " +
+                "(select METHOD_ID from METHOD_INFO " +
+                "where SERVICE_NAME = '" + SERVICE + "' or " +
+                "METHOD_NAME = '" + METHOD + "')";
+        updateInDb(SQL);
         SQL = "delete METHOD_INFO " +
                 "where SERVICE_NAME = '" + SERVICE + "' or " +
                 "METHOD_NAME = '" + METHOD + "'";
@@ -0,0 +1,69 @@
+package se.uc.stat.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the CircuitBreaker class.
+ */
+public class CircuitBreakerTest {
+    /**
+     * Test that the circuit is opened after the threshold and closed by a
+     * successful probe.
+     *
+     * @throws InterruptedException if the test fails.
+     */
+    @Test
+    public void testOpenAndClose() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker("test");
+        breaker.configure(3, 100);
+        assertEquals("Invalid initial state", CircuitBreaker.State.CLOSED,
+                breaker.acquire());
+        assertFalse("Opened after one failure", breaker.recordFailure());
+        breaker.recordSuccess();
+        assertFalse("Opened after one failure", breaker.recordFailure());
+        assertFalse("Opened after two failures", breaker.recordFailure());
+        assertTrue("Not opened after three failures",
+                breaker.recordFailure());
+        assertFalse("Opened twice", breaker.recordFailure());
+        assertEquals("Request not rejected", CircuitBreaker.State.OPEN,
+                breaker.acquire());
+        assertEquals("Invalid number of rejected", 1,
+                breaker.getNumRejected());
+
+        Thread.sleep(150);
+        assertEquals("Probe not let through",
+                CircuitBreaker.State.HALF_OPEN, breaker.acquire());
+        assertEquals("Second request let through while probing",
+                CircuitBreaker.State.OPEN, breaker.acquire());
+        breaker.recordSuccess();
+        assertEquals("Not closed after successful probe",
+                CircuitBreaker.State.CLOSED, breaker.acquire());
+        assertEquals("Failures not reset", 0,
+                breaker.getNumConsecutiveFailures());
+        assertEquals("Invalid number of opened", 1, breaker.getNumOpened());
+    }
+
+    /**
+     * Test that a failed probe opens the circuit again.
+     *
+     * @throws InterruptedException if the test fails.
+     */
+    @Test
+    public void testFailedProbe() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker("test");
+        breaker.configure(1, 100);
+        assertTrue("Not opened", breaker.recordFailure());
+        Thread.sleep(150);
+        assertEquals("Probe not let through",
+                CircuitBreaker.State.HALF_OPEN, breaker.acquire());
+        assertTrue("Not opened by failed probe", breaker.recordFailure());
+        assertEquals("Request let through after failed probe",
+                CircuitBreaker.State.OPEN, breaker.acquire());
+        breaker.reset();
+        assertEquals("Not closed by reset", "CLOSED", breaker.getState());
+    }
+}
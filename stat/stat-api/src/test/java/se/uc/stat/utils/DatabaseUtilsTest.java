@@ -1,9 +1,13 @@
 package se.uc.stat.utils;
 
+import java.sql.SQLException;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test class for DatabaseUtils.
@@ -25,6 +29,21 @@ public class DatabaseUtilsTest extends AbstractTestBase {
         assertNull("null string", DatabaseUtils.pad(null, 10));
         assertEquals("Truncate string", "tes", DatabaseUtils.pad("test", 3));
     }
+
+    /**
+     * Test the classification of transient errors.
+     */
+    @Test
+    public void testIsTransient() {
+        assertTrue("Open circuit not transient",
+                DatabaseUtils.isTransient(new CircuitOpenException()));
+        assertTrue("Connection error not transient",
+                DatabaseUtils.isTransient(new SQLException("", "08006")));
+        assertFalse("Constraint error transient",
+                DatabaseUtils.isTransient(new SQLException("", "23505")));
+        assertFalse("Unknown error transient",
+                DatabaseUtils.isTransient(new SQLException("")));
+    }
     
     /**
      * Perform a call to the pad method and evaluate the result.
@@ -0,0 +1,127 @@
+package se.uc.stat.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the class HyperLogLog.
+ */
+public class HyperLogLogTest {
+    /**
+     * Test that the estimate is within 10% of the number of distinct
+     * values, both for small and large numbers.
+     */
+    @Test
+    public void testEstimate() {
+        final HyperLogLog sketch = new HyperLogLog();
+        assertTrue("New sketch not empty", sketch.isEmpty());
+        assertEquals("Invalid estimate of empty sketch", 0, sketch.estimate());
+        int added = 0;
+        for (int count : new int[] {10, 100, 1000, 10000, 100000}) {
+            while (added < count) {
+                // Every value is added twice.
+                sketch.add("5560" + added);
+                sketch.add("5560" + added);
+                added++;
+            }
+            assertEstimate("Count " + count, count, sketch.estimate());
+        }
+        sketch.add(null);
+        assertEstimate("After null", added, sketch.estimate());
+    }
+
+    /**
+     * Test that a merged sketch is equal to the sketch of all values and
+     * that a merge is idempotent.
+     */
+    @Test
+    public void testMerge() {
+        final HyperLogLog sketch1 = new HyperLogLog();
+        final HyperLogLog sketch2 = new HyperLogLog();
+        final HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            // The sketches overlap by half.
+            if (i < 15000) {
+                sketch1.add("c" + i);
+            }
+            if (i >= 5000) {
+                sketch2.add("c" + i);
+            }
+            all.add("c" + i);
+        }
+        sketch1.merge(sketch2);
+        assertEquals("Merged sketch differs", all, sketch1);
+        sketch1.merge(sketch2);
+        assertEquals("Merge not idempotent", all, sketch1);
+        assertEstimate("Merged", 20000, sketch1.estimate());
+        try {
+            sketch1.merge(null);
+            fail("null merged");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Test the sparse and dense binary formats.
+     */
+    @Test
+    public void testBytes() {
+        final HyperLogLog sketch = new HyperLogLog();
+        assertEquals("Invalid empty format", 1, sketch.toBytes().length);
+        assertEquals("Empty sketch differs", sketch,
+                new HyperLogLog(sketch.toBytes()));
+        for (int i = 0; i < 100; i++) {
+            sketch.add("c" + i);
+        }
+        byte bytes[] = sketch.toBytes();
+        assertEquals("Not sparse", HyperLogLog.SPARSE, bytes[0]);
+        assertTrue("Sparse format too long", bytes.length < 301);
+        assertEquals("Sparse sketch differs", sketch, new HyperLogLog(bytes));
+        for (int i = 100; i < 10000; i++) {
+            sketch.add("c" + i);
+        }
+        bytes = sketch.toBytes();
+        assertEquals("Not dense", HyperLogLog.DENSE, bytes[0]);
+        assertEquals("Invalid dense length", HyperLogLog.MAX_BYTES,
+                bytes.length);
+        assertEquals("Dense sketch differs", sketch, new HyperLogLog(bytes));
+        assertInvalid("Null", null);
+        assertInvalid("Empty", new byte[0]);
+        assertInvalid("Unknown format", new byte[] {3});
+        assertInvalid("Truncated", new byte[] {HyperLogLog.SPARSE, 0, 1});
+        assertInvalid("Invalid index",
+                new byte[] {HyperLogLog.SPARSE, 4, 0, 1});
+    }
+
+    /**
+     * Assert that an estimate is within 10% of the expected number.
+     *
+     * @param testCase The test case.
+     * @param expected The expected number.
+     * @param estimate The estimate.
+     */
+    private void assertEstimate(String testCase, long expected,
+            long estimate) {
+        assertTrue(testCase + ": estimate " + estimate + ", expected " +
+                expected, Math.abs(estimate - expected) <= expected / 10);
+    }
+
+    /**
+     * Assert that a binary format is rejected.
+     *
+     * @param testCase The test case.
+     * @param bytes    The binary format.
+     */
+    private void assertInvalid(String testCase, byte bytes[]) {
+        try {
+            new HyperLogLog(bytes);
+            fail(testCase + " accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
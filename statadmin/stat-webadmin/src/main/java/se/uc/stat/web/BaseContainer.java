@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import se.uc.stat.web.statistics.QueryMonitor;
 import se.uc.stat.web.statistics.StatisticsResult;
 import se.uc.stat.web.types.ColumnInfo;
 import se.uc.stat.web.types.DayOfWeek;
@@ -62,6 +63,8 @@ public abstract class BaseContainer {
      * <code>null</code> if it has not been initialized.
      */
     private GUIForm guiForm = null;
+    /** The monitor following the queries of the search result. */
+    private final QueryMonitor queryMonitor = new QueryMonitor();
     
     /**
      * Create this class.
@@ -312,6 +315,26 @@ public abstract class BaseContainer {
         return guiForm;
     }
     
+    /**
+     * Get the parameters to the request.
+     * 
+     * @return The parameters to the request.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ Map<String, String[]> getRequestParameters() {
+        return requestParameters;
+    }
+
+    /**
+     * Get the monitor following the queries of the search result. It is used
+     * to follow the progress of the search and to cancel it.
+     * 
+     * @return The query monitor. This method never returns <code>null</code>.
+     */
+    public QueryMonitor getQueryMonitor() {
+        return queryMonitor;
+    }
+
     /**
      * Get the search result for this request.
      * 
@@ -321,4 +344,19 @@ public abstract class BaseContainer {
      * @throws SQLException if the database could not be accessed.
      */
     public abstract StatisticsResult getStatisticsResult() throws SQLException;
+
+    /**
+     * Create a new search result for this request. Unlike
+     * {@link #getStatisticsResult()} the result is not cached.
+     * 
+     * @param execute <code>true</code> to run the query.
+     *                <code>false</code> if the result is only used to
+     *                build queries, for example when exporting.
+     * 
+     * @return The search result. This method never returns <code>null</code>.
+     *         
+     * @throws SQLException if the database could not be accessed.
+     */
+    public abstract StatisticsResult createStatisticsResult(boolean execute)
+            throws SQLException;
 }
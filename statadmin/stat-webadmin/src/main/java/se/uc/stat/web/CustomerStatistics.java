@@ -41,6 +41,9 @@ public class CustomerStatistics extends BaseContainer {
         // Add sort parameters
         addSortParameterInfo(4, new SortParameterInfo(ColumnInfo.DATE));
         addSortParameterInfo(6, new SortParameterInfo(ColumnInfo.CUSTOMER));
+        addSortParameterInfo(5, new SortParameterInfo(ColumnInfo.WEEK));
+        addSortParameterInfo(6, new SortParameterInfo(ColumnInfo.MONTH));
+        addSortParameterInfo(7, new SortParameterInfo(ColumnInfo.QUARTER));
     }
 
     /**
@@ -58,10 +61,20 @@ public class CustomerStatistics extends BaseContainer {
      * {@inheritDoc}.
      */
     @Override
-    public StatisticsResult getStatisticsResult() throws SQLException {
+    public synchronized StatisticsResult getStatisticsResult()
+            throws SQLException {
         if (statisticsResult == null) {
             statisticsResult = new CustomerStatisticsResult(this);
         }
         return statisticsResult;
     }
+
+    /**
+     * {@inheritDoc}.
+     */
+    @Override
+    public StatisticsResult createStatisticsResult(boolean execute)
+            throws SQLException {
+        return new CustomerStatisticsResult(this, execute);
+    }
 }
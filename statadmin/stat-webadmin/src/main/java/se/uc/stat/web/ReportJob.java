@@ -0,0 +1,243 @@
+package se.uc.stat.web;
+
+import java.util.concurrent.Future;
+
+import se.uc.stat.web.statistics.QueryMonitor;
+
+/**
+ * A search running in the background. The job is created by
+ * {@link ReportJobs} and can be polled for its progress until it is done.
+ * <p/>
+ * This class is thread safe.
+ */
+public class ReportJob {
+    /** The state of a job. */
+    public enum State {
+        /** The job is waiting for a thread. */
+        QUEUED,
+        /** The job is running. */
+        RUNNING,
+        /** The job is done and the result is available. */
+        DONE,
+        /** The job has failed. */
+        FAILED,
+        /** The job has been cancelled. */
+        CANCELLED;
+
+        /**
+         * Check if the state is a final state.
+         *
+         * @return <code>true</code> if the job will not change state again.
+         */
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /** The id of the job. */
+    private final String id;
+    /** The user that started the job. */
+    private final String user;
+    /** The key identifying identical searches. */
+    private final String key;
+    /** The container holding the search. */
+    private final BaseContainer container;
+    /** The time the job was created in milliseconds. */
+    private final long created;
+    /** The state of the job. */
+    private volatile State state = State.QUEUED;
+    /** The time the job was finished or 0 if it is not finished. */
+    private volatile long finished = 0;
+    /** The error if the job has failed, otherwise <code>null</code>. */
+    private volatile Throwable error = null;
+    /** The future of the job or <code>null</code> if not submitted. */
+    private volatile Future<?> future = null;
+
+    /**
+     * Create this class.
+     *
+     * @param id        The id of the job. Must not be <code>null</code>.
+     * @param user      The user that started the job.
+     *                  Must not be <code>null</code>.
+     * @param key       The key identifying identical searches.
+     *                  Must not be <code>null</code>.
+     * @param container The container holding the search.
+     *                  Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ ReportJob(String id, String user, String key,
+            BaseContainer container) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("user must not be null");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+        if (container == null) {
+            throw new IllegalArgumentException("container must not be null");
+        }
+        this.id = id;
+        this.user = user;
+        this.key = key;
+        this.container = container;
+        created = System.currentTimeMillis();
+    }
+
+    /**
+     * Run the search. This is called by the executor of {@link ReportJobs}.
+     */
+    /* package */ void run() {
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return;
+            }
+            state = State.RUNNING;
+        }
+        try {
+            container.getStatisticsResult();
+            finish(State.DONE, null);
+        } catch (Throwable e) {
+            finish(getQueryMonitor().isCancelled() ?
+                    State.CANCELLED : State.FAILED, e);
+        }
+    }
+
+    /**
+     * Set the final state of the job.
+     *
+     * @param finalState The final state.
+     * @param cause      The error or <code>null</code> if there is no error.
+     */
+    private synchronized void finish(State finalState, Throwable cause) {
+        if (state.isFinished()) {
+            return;
+        }
+        error = cause;
+        finished = System.currentTimeMillis();
+        state = finalState;
+    }
+
+    /**
+     * Cancel the job. A running query is cancelled in the database.
+     */
+    public void cancel() {
+        getQueryMonitor().cancel();
+        final Future<?> f = future;
+        if (f != null) {
+            // Removes the job from the queue if it has not started.
+            f.cancel(false);
+        }
+        synchronized (this) {
+            if (state == State.QUEUED) {
+                finish(State.CANCELLED, null);
+            }
+        }
+    }
+
+    /**
+     * Set the future of the job.
+     *
+     * @param future The future. Must not be <code>null</code>.
+     */
+    /* package */ void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Get the id of the job.
+     *
+     * @return The id. This method never returns <code>null</code>.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the user that started the job.
+     *
+     * @return The user. This method never returns <code>null</code>.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Get the key identifying identical searches.
+     *
+     * @return The key. This method never returns <code>null</code>.
+     */
+    /* package */ String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the container holding the search. The search result must only be
+     * used when the job is in state {@link State#DONE}.
+     *
+     * @return The container. This method never returns <code>null</code>.
+     */
+    public BaseContainer getContainer() {
+        return container;
+    }
+
+    /**
+     * Get the monitor of the queries of the job.
+     *
+     * @return The query monitor. This method never returns <code>null</code>.
+     */
+    public QueryMonitor getQueryMonitor() {
+        return container.getQueryMonitor();
+    }
+
+    /**
+     * Get the state of the job.
+     *
+     * @return The state. This method never returns <code>null</code>.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the error of a failed job.
+     *
+     * @return The error or <code>null</code> if the job has not failed.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Get the time the job was created.
+     *
+     * @return The time the job was created in milliseconds.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Get the time the job was finished.
+     *
+     * @return The time the job was finished in milliseconds or 0 if it is
+     *         not finished.
+     */
+    public long getFinished() {
+        return finished;
+    }
+
+    /**
+     * Get the number of seconds the job has run (or ran if it is finished).
+     *
+     * @return The number of seconds.
+     */
+    public long getElapsedSeconds() {
+        final long end = finished == 0 ? System.currentTimeMillis() : finished;
+        return (end - created) / 1000;
+    }
+}
@@ -0,0 +1,307 @@
+package se.uc.stat.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import se.uc.stat.web.statistics.QueryMonitor;
+
+/**
+ * Registry of the searches running in the background.
+ * <p/>
+ * Identical searches of a user that are not finished are shared instead of
+ * being run again, the number of unfinished searches per user is limited,
+ * searches get a query timeout and the total
+ * number of searches running concurrently is bounded by a thread pool.
+ * Finished searches are kept for a while so that the result can be fetched
+ * and are then removed.
+ * <p/>
+ * This class is thread safe.
+ */
+public class ReportJobs {
+    /** The max number of searches running concurrently. */
+    private final static int MAX_RUNNING = 4;
+    /** The max number of searches waiting for a thread. */
+    private final static int MAX_QUEUED = 16;
+    /** The max number of unfinished searches per user. */
+    private final static int MAX_PER_USER = 2;
+    /** The max time a search may run before it is cancelled. */
+    private final static long MAX_RUN_TIME = 15 * 60 * 1000;
+    /** The time a finished search is kept. */
+    private final static long KEEP_FINISHED = 10 * 60 * 1000;
+    /** The time between the purges of the jobs. */
+    private final static long PURGE_INTERVAL = 60 * 1000;
+    /**
+     * The user name used if the user is unknown. The address of the client
+     * is added to it so that unknown users do not share the limit.
+     */
+    private final static String UNKNOWN_USER = "(ok&auml;nd)";
+    /** The parameters not part of the search itself. */
+    private final static List<String> IGNORED_PARAMETERS =
+            Arrays.asList(new String[] {"async"});
+
+    /** The executor running the searches. */
+    private final static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_RUNNING, MAX_RUNNING, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactory() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "stat-report");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The timer purging the jobs, so that a search is cancelled after
+     * <code>MAX_RUN_TIME</code> also when nobody asks for it.
+     */
+    private final static ScheduledThreadPoolExecutor purger =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable,
+                            "stat-report-purge");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        purger.scheduleWithFixedDelay(new Runnable() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                synchronized (jobs) {
+                    purge();
+                }
+            }
+        }, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The jobs by id. Must only be accessed when holding a lock on
+     * <code>jobs</code>.
+     */
+    private final static Map<String, ReportJob> jobs =
+            new HashMap<String, ReportJob>();
+
+    /**
+     * Hidden constructor.
+     */
+    private ReportJobs() {
+        // Nothing to do.
+    }
+
+    /**
+     * Start a search in the background. If the user is already running an
+     * identical search, that search is returned instead. The queries of the
+     * search get the timeout
+     * {@link QueryMonitor#BACKGROUND_TIMEOUT_SECONDS}.
+     *
+     * @param container The container holding the search.
+     *                  Must not be <code>null</code>.
+     * @param user      The user starting the search.
+     *                  <code>null</code> if unknown.
+     * @param address   The address of the client starting the search.
+     *                  Used to tell unknown users apart.
+     *                  <code>null</code> if unknown.
+     *
+     * @return The job running the search.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws IllegalStateException if the user already has the max number
+     *         of unfinished searches or if too many searches are running.
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static ReportJob submit(BaseContainer container, String user,
+            String address) {
+        if (container == null) {
+            throw new IllegalArgumentException("container must not be null");
+        }
+        final String userName = getUserName(user, address);
+        final String key = getKey(container);
+        // Initialize the form in this thread.
+        container.getGUIForm();
+        container.getQueryMonitor().setTimeoutSeconds(
+                QueryMonitor.BACKGROUND_TIMEOUT_SECONDS);
+        synchronized (jobs) {
+            purge();
+            int numUnfinished = 0;
+            for (ReportJob job : jobs.values()) {
+                if (!job.getState().isFinished() &&
+                        job.getUser().equals(userName)) {
+                    if (job.getKey().equals(key)) {
+                        return job;
+                    }
+                    numUnfinished++;
+                }
+            }
+            if (numUnfinished >= MAX_PER_USER) {
+                throw new IllegalStateException("Max " + MAX_PER_USER +
+                        " p&aring;g&aring;ende s&ouml;kningar per " +
+                        "anv&auml;ndare");
+            }
+            final ReportJob job = new ReportJob(UUID.randomUUID().toString(),
+                    userName, key, container);
+            try {
+                job.setFuture(executor.submit(new Runnable() {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void run() {
+                        job.run();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("F&ouml;r m&aring;nga " +
+                        "p&aring;g&aring;ende s&ouml;kningar");
+            }
+            jobs.put(job.getId(), job);
+            return job;
+        }
+    }
+
+    /**
+     * Get a job.
+     *
+     * @param id The id of the job. <code>null</code> is allowed.
+     *
+     * @return The job or <code>null</code> if there is no such job.
+     */
+    public static ReportJob getJob(String id) {
+        if (id == null) {
+            return null;
+        }
+        synchronized (jobs) {
+            purge();
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * Check if a job was started by a user. Only the user that started a
+     * job may cancel it.
+     *
+     * @param job     The job. Must not be <code>null</code>.
+     * @param user    The user. <code>null</code> if unknown.
+     * @param address The address of the client. <code>null</code> if
+     *                unknown.
+     *
+     * @return <code>true</code> if the job was started by the user.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public static boolean isStartedBy(ReportJob job, String user,
+            String address) {
+        if (job == null) {
+            throw new IllegalArgumentException("job must not be null");
+        }
+        return job.getUser().equals(getUserName(user, address));
+    }
+
+    /**
+     * Get the jobs of a user.
+     *
+     * @param user    The user. <code>null</code> if unknown.
+     * @param address The address of the client. <code>null</code> if
+     *                unknown.
+     *
+     * @return The jobs of the user.
+     *         This method never returns <code>null</code>.
+     */
+    public static List<ReportJob> getJobs(String user, String address) {
+        final String userName = getUserName(user, address);
+        final List<ReportJob> result = new ArrayList<ReportJob>();
+        synchronized (jobs) {
+            purge();
+            for (ReportJob job : jobs.values()) {
+                if (job.getUser().equals(userName)) {
+                    result.add(job);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cancel jobs that have run too long and remove old finished jobs.
+     * Must only be called when holding a lock on <code>jobs</code>.
+     */
+    private static void purge() {
+        final long now = System.currentTimeMillis();
+        final Iterator<ReportJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            final ReportJob job = iterator.next();
+            if (job.getState().isFinished()) {
+                if (now - job.getFinished() > KEEP_FINISHED) {
+                    iterator.remove();
+                }
+            } else if (now - job.getCreated() > MAX_RUN_TIME) {
+                job.cancel();
+            }
+        }
+    }
+
+    /**
+     * Get the name a user's jobs are registered with.
+     *
+     * @param user    The user. <code>null</code> if unknown.
+     * @param address The address of the client. <code>null</code> if
+     *                unknown.
+     *
+     * @return The user name. This method never returns <code>null</code>.
+     */
+    private static String getUserName(String user, String address) {
+        if (user != null) {
+            return user;
+        }
+        return address == null ? UNKNOWN_USER : UNKNOWN_USER + " " + address;
+    }
+
+    /**
+     * Get the key identifying identical searches. The key is built from the
+     * type of statistics and the parameters of the request.
+     *
+     * @param container The container holding the search.
+     *                  Must not be <code>null</code>.
+     *
+     * @return The key. This method never returns <code>null</code>.
+     */
+    private static String getKey(BaseContainer container) {
+        final Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String[]> entry :
+                container.getRequestParameters().entrySet()) {
+            if (!IGNORED_PARAMETERS.contains(entry.getKey()) &&
+                    entry.getValue() != null) {
+                sorted.put(entry.getKey(),
+                        Arrays.asList(entry.getValue()).toString());
+            }
+        }
+        return container.getType() + ":" + sorted;
+    }
+}
@@ -54,7 +54,13 @@ public class TimeStatistics extends BaseContainer {
         // Add extra to sort parameters
         addSortParameterInfo(1, new SortParameterInfo(ColumnInfo.LAYER));
         addSortParameterInfo(5, new SortParameterInfo(ColumnInfo.DATE_HOUR));
-        addSortParameterInfo(6, new SortParameterInfo(ColumnInfo.HOUR_OF_DAY));
+        addSortParameterInfo(6, new SortParameterInfo(ColumnInfo.DATE_MINUTE));
+        addSortParameterInfo(7, new SortParameterInfo(ColumnInfo.TIME_WEEK));
+        addSortParameterInfo(8, new SortParameterInfo(ColumnInfo.TIME_MONTH));
+        addSortParameterInfo(9,
+                new SortParameterInfo(ColumnInfo.TIME_QUARTER));
+        addSortParameterInfo(10,
+                new SortParameterInfo(ColumnInfo.HOUR_OF_DAY));
     }
     
     /**
@@ -92,10 +98,20 @@ public class TimeStatistics extends BaseContainer {
      * {@inheritDoc}.
      */
     @Override
-    public StatisticsResult getStatisticsResult() throws SQLException {
+    public synchronized StatisticsResult getStatisticsResult()
+            throws SQLException {
         if (statisticsResult == null) {
             statisticsResult = new TimeStatisticsResult(this);
         }
         return statisticsResult;
     }
+
+    /**
+     * {@inheritDoc}.
+     */
+    @Override
+    public StatisticsResult createStatisticsResult(boolean execute)
+            throws SQLException {
+        return new TimeStatisticsResult(this, execute);
+    }
 }
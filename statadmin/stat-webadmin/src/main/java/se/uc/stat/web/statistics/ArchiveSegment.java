@@ -0,0 +1,622 @@
+package se.uc.stat.web.statistics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable file holding the rows of a statistics table for one month,
+ * stored column by column. The file is memory mapped when it is read.
+ * <p/>
+ * The file starts with a header holding the number of rows, the time
+ * interval of the rows and, per key column, the min and max value and a
+ * bitmap of the values that exist (a zone map). The header is enough to
+ * decide if a search can match any row of the segment, so segments that
+ * can not match are skipped without reading the columns.
+ * <p/>
+ * After the header come the dictionaries of the dictionary encoded key
+ * columns and then the columns. The rows are sorted on time and the time
+ * column is delta encoded. The key columns and the summed columns are run
+ * length encoded, which is efficient since the rows of one hour have few
+ * distinct values in the key columns and many counters are zero. All
+ * numbers in the columns are written as variable length integers.
+ */
+/* package */ class ArchiveSegment {
+    /** The first bytes of a segment file. */
+    private final static int MAGIC = 0x53545347;
+    /** The version of the file format. */
+    private final static int VERSION = 1;
+    /** The character encoding of the strings. */
+    private final static String ENCODING = "UTF-8";
+    /**
+     * The max difference between the min and max value of a key column
+     * for the values to be stored as a bitmap in the header.
+     */
+    private final static int MAX_BITMAP_RANGE = 1 << 16;
+
+    /** The file. */
+    private final File file;
+    /** The layout of the rows. */
+    private final ColumnLayout layout;
+    /** The mapped file. */
+    private final MappedByteBuffer buffer;
+    /** The number of rows. */
+    private final int numRows;
+    /** The earliest time of the rows. */
+    private final long minTime;
+    /** The latest time of the rows. */
+    private final long maxTime;
+    /** The min value of each key column. */
+    private final int minKeys[];
+    /** The max value of each key column. */
+    private final int maxKeys[];
+    /**
+     * The bitmap of the existing values of each key column, relative to
+     * the min value. <code>null</code> if the range is too large.
+     */
+    private final long bitmaps[][];
+    /**
+     * The dictionary of each key column or <code>null</code> if the
+     * column is not dictionary encoded.
+     */
+    private final String dictionaries[][];
+    /** The position of the first column in the buffer. */
+    private final int columnsPosition;
+    /** The length in bytes of each column. */
+    private final int columnLengths[];
+    /** The decoded table, released when memory is low. */
+    private SoftReference<ColumnTable> tableReference =
+            new SoftReference<ColumnTable>(null);
+
+    /**
+     * Open a segment file. The header is read, the columns are read when
+     * the table is requested.
+     *
+     * @param file The file. Must not be <code>null</code>.
+     *
+     * @throws IOException if the file could not be read or is not a valid
+     *         segment file.
+     */
+    /* package */ ArchiveSegment(File file) throws IOException {
+        this.file = file;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping is valid also after the channel is closed.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a segment file " + file);
+            }
+            layout = ColumnLayout.valueOf(readString(buffer));
+            numRows = buffer.getInt();
+            minTime = buffer.getLong();
+            maxTime = buffer.getLong();
+            final int numKeys = layout.getKeyColumns().size();
+            minKeys = new int[numKeys];
+            maxKeys = new int[numKeys];
+            bitmaps = new long[numKeys][];
+            for (int i = 0; i < numKeys; i++) {
+                minKeys[i] = buffer.getInt();
+                maxKeys[i] = buffer.getInt();
+                final int numWords = buffer.getInt();
+                if (numWords >= 0) {
+                    bitmaps[i] = new long[numWords];
+                    for (int j = 0; j < numWords; j++) {
+                        bitmaps[i][j] = buffer.getLong();
+                    }
+                }
+            }
+            dictionaries = new String[numKeys][];
+            for (int i = 0; i < numKeys; i++) {
+                final int size = buffer.getInt();
+                if (size >= 0) {
+                    dictionaries[i] = new String[size];
+                    for (int j = 0; j < size; j++) {
+                        dictionaries[i][j] = readString(buffer);
+                    }
+                }
+            }
+            columnLengths = new int[1 + numKeys +
+                    layout.getSumColumns().size()];
+            for (int i = 0; i < columnLengths.length; i++) {
+                columnLengths[i] = buffer.getInt();
+            }
+            columnsPosition = buffer.position();
+        } catch (RuntimeException e) {
+            // Buffer underflow or unknown layout.
+            throw new IOException("Invalid segment file " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Get the file of this segment.
+     *
+     * @return The file. This method never returns <code>null</code>.
+     */
+    /* package */ File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the layout of the rows.
+     *
+     * @return The layout. This method never returns <code>null</code>.
+     */
+    /* package */ ColumnLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The number of rows.
+     */
+    /* package */ int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Get the sum of all summed columns of all rows, to compare with
+     * {@link ColumnStore#readFingerprint}. The runs are summed without
+     * decoding the columns.
+     *
+     * @return The sum.
+     */
+    /* package */ long getSumOfSums() {
+        final int numKeys = minKeys.length;
+        final ByteBuffer columns = buffer.duplicate();
+        long result = 0;
+        for (int i = 0; i < layout.getSumColumns().size(); i++) {
+            columns.position(getColumnPosition(1 + numKeys + i));
+            int row = 0;
+            while (row < numRows) {
+                final long value = readSignedVarLong(columns);
+                final int run = (int)readVarLong(columns);
+                result += value * run;
+                row += run;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check, using the header only, if any row of this segment can match a
+     * search.
+     *
+     * @param fromTime   The from time (inclusive) of the search.
+     * @param toTime     The to time (exclusive) of the search.
+     * @param conditions The conditions of the search.
+     *                   Must not be <code>null</code>.
+     *
+     * @return <code>false</code> if no row can match.
+     *         <code>true</code> if some row may match.
+     */
+    /* package */ boolean mayMatch(long fromTime, long toTime,
+            List<ColumnQuery.Condition> conditions) {
+        if (numRows == 0 || maxTime < fromTime || minTime >= toTime) {
+            return false;
+        }
+        for (ColumnQuery.Condition condition : conditions) {
+            final int keyIndex =
+                    layout.getKeyColumns().indexOf(condition.getKeyColumn());
+            if (keyIndex < 0) {
+                continue;
+            }
+            if (condition.getValue() != null) {
+                if (dictionaries[keyIndex] != null && !Arrays.asList(
+                        dictionaries[keyIndex]).contains(condition.getValue())) {
+                    return false;
+                }
+            } else if (!mayContain(keyIndex, condition.getIds())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a key column may contain any of the given ids.
+     *
+     * @param keyIndex The index of the key column.
+     * @param ids      The ids. Must not be <code>null</code>.
+     *
+     * @return <code>false</code> if none of the ids exist in the column.
+     */
+    private boolean mayContain(int keyIndex, int ids[]) {
+        for (int id : ids) {
+            if (id < minKeys[keyIndex] || id > maxKeys[keyIndex]) {
+                continue;
+            }
+            final long bitmap[] = bitmaps[keyIndex];
+            if (bitmap == null) {
+                return true;
+            }
+            final int bit = id - minKeys[keyIndex];
+            if ((bitmap[bit >> 6] & (1L << (bit & 63))) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the rows of this segment as a table. The columns are decoded the
+     * first time and kept until memory is low.
+     *
+     * @param names The names of the dimensions by name column and id.
+     *              Must not be <code>null</code>.
+     *
+     * @return The table. This method never returns <code>null</code>.
+     */
+    /* package */ synchronized ColumnTable getTable(
+            Map<String, Map<Integer, String>> names) {
+        ColumnTable table = tableReference.get();
+        if (table == null || table.getNames() != names) {
+            table = decode(names);
+            tableReference = new SoftReference<ColumnTable>(table);
+        }
+        return table;
+    }
+
+    /**
+     * Decode the columns.
+     *
+     * @param names The names of the dimensions by name column and id.
+     *              Must not be <code>null</code>.
+     *
+     * @return The table. This method never returns <code>null</code>.
+     */
+    private ColumnTable decode(Map<String, Map<Integer, String>> names) {
+        final ColumnTable.Builder builder =
+                new ColumnTable.Builder(layout, names);
+        final int numKeys = minKeys.length;
+        final int numSums = layout.getSumColumns().size();
+        for (int i = 0; i < numKeys; i++) {
+            if (dictionaries[i] != null) {
+                // Encoded in order, so the codes are the same as in the file.
+                for (String value : dictionaries[i]) {
+                    builder.encode(i, value);
+                }
+            }
+        }
+        // Each reader has its own position in the mapped buffer.
+        final ByteBuffer columns = buffer.duplicate();
+        columns.position(getColumnPosition(0));
+        final long times[] = new long[numRows];
+        long time = 0;
+        for (int row = 0; row < numRows; row++) {
+            time += readVarLong(columns);
+            times[row] = time;
+        }
+        final int keys[][] = new int[numKeys][numRows];
+        for (int i = 0; i < numKeys; i++) {
+            columns.position(getColumnPosition(1 + i));
+            int row = 0;
+            while (row < numRows) {
+                final int value = (int)readSignedVarLong(columns);
+                final int run = (int)readVarLong(columns);
+                Arrays.fill(keys[i], row, row + run, value);
+                row += run;
+            }
+        }
+        final long sums[][] = new long[numSums][numRows];
+        for (int i = 0; i < numSums; i++) {
+            columns.position(getColumnPosition(1 + numKeys + i));
+            int row = 0;
+            while (row < numRows) {
+                final long value = readSignedVarLong(columns);
+                final int run = (int)readVarLong(columns);
+                Arrays.fill(sums[i], row, row + run, value);
+                row += run;
+            }
+        }
+        final int rowKeys[] = new int[numKeys];
+        final long rowSums[] = new long[numSums];
+        for (int row = 0; row < numRows; row++) {
+            for (int i = 0; i < numKeys; i++) {
+                rowKeys[i] = keys[i][row];
+            }
+            for (int i = 0; i < numSums; i++) {
+                rowSums[i] = sums[i][row];
+            }
+            builder.addRow(times[row], rowKeys, rowSums);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get the position of a column in the buffer.
+     *
+     * @param column The index of the column: 0 for the time column, then
+     *               the key columns and then the summed columns.
+     *
+     * @return The position.
+     */
+    private int getColumnPosition(int column) {
+        int position = columnsPosition;
+        for (int i = 0; i < column; i++) {
+            position += columnLengths[i];
+        }
+        return position;
+    }
+
+    /**
+     * Write a table to a segment file. The file is first written with a
+     * temporary name and then renamed, so a segment file is never seen
+     * half written.
+     *
+     * @param table The table. Must not be <code>null</code>.
+     * @param file  The file to write. Must not be <code>null</code>.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    /* package */ static void write(ColumnTable table, File file)
+            throws IOException {
+        final ColumnLayout layout = table.getLayout();
+        final int numRows = table.getNumRows();
+        final int numKeys = layout.getKeyColumns().size();
+        final int numSums = layout.getSumColumns().size();
+        final int order[] = getTimeOrder(table);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, layout.name());
+        out.writeInt(numRows);
+        out.writeLong(table.getMinTime());
+        out.writeLong(table.getMaxTime());
+        for (int i = 0; i < numKeys; i++) {
+            writeZoneMap(out, table.getKeys(i), numRows);
+        }
+        for (int i = 0; i < numKeys; i++) {
+            final String dictionary[] = table.getDictionary(i);
+            if (dictionary == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(dictionary.length);
+                for (String value : dictionary) {
+                    writeString(out, value);
+                }
+            }
+        }
+        final ByteArrayOutputStream columns[] =
+                new ByteArrayOutputStream[1 + numKeys + numSums];
+        columns[0] = new ByteArrayOutputStream();
+        final long times[] = table.getTimes();
+        long previous = 0;
+        for (int row = 0; row < numRows; row++) {
+            writeVarLong(columns[0], times[order[row]] - previous);
+            previous = times[order[row]];
+        }
+        for (int i = 0; i < numKeys; i++) {
+            final long values[] = new long[numRows];
+            for (int row = 0; row < numRows; row++) {
+                values[row] = table.getKeys(i)[order[row]];
+            }
+            columns[1 + i] = encodeRuns(values);
+        }
+        for (int i = 0; i < numSums; i++) {
+            final long values[] = new long[numRows];
+            for (int row = 0; row < numRows; row++) {
+                values[row] = table.getSums(i)[order[row]];
+            }
+            columns[1 + numKeys + i] = encodeRuns(values);
+        }
+        for (ByteArrayOutputStream column : columns) {
+            out.writeInt(column.size());
+        }
+        out.flush();
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            bytes.writeTo(fileOut);
+            for (ByteArrayOutputStream column : columns) {
+                column.writeTo(fileOut);
+            }
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile);
+        }
+    }
+
+    /**
+     * Get the rows of a table sorted on time.
+     *
+     * @param table The table. Must not be <code>null</code>.
+     *
+     * @return The row numbers in time order.
+     *         This method never returns <code>null</code>.
+     */
+    private static int[] getTimeOrder(ColumnTable table) {
+        final long times[] = table.getTimes();
+        final Integer rows[] = new Integer[table.getNumRows()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = new Integer(row);
+        }
+        Arrays.sort(rows, new Comparator<Integer>() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                final long time1 = times[row1.intValue()];
+                final long time2 = times[row2.intValue()];
+                return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+            }
+        });
+        final int result[] = new int[rows.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = rows[i].intValue();
+        }
+        return result;
+    }
+
+    /**
+     * Write the zone map of a key column: the min and max value and, if the
+     * range is small enough, a bitmap of the existing values.
+     *
+     * @param out     The stream to write to. Must not be <code>null</code>.
+     * @param keys    The key column. Must not be <code>null</code>.
+     * @param numRows The number of rows.
+     *
+     * @throws IOException if the zone map could not be written.
+     */
+    private static void writeZoneMap(DataOutputStream out, int keys[],
+            int numRows) throws IOException {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < numRows; row++) {
+            min = Math.min(min, keys[row]);
+            max = Math.max(max, keys[row]);
+        }
+        out.writeInt(min);
+        out.writeInt(max);
+        if (numRows == 0 || (long)max - min >= MAX_BITMAP_RANGE) {
+            out.writeInt(-1);
+            return;
+        }
+        final long bitmap[] = new long[(max - min) / 64 + 1];
+        for (int row = 0; row < numRows; row++) {
+            final int bit = keys[row] - min;
+            bitmap[bit >> 6] |= 1L << (bit & 63);
+        }
+        out.writeInt(bitmap.length);
+        for (long word : bitmap) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Run length encode values as pairs of value and run length.
+     *
+     * @param values The values. Must not be <code>null</code>.
+     *
+     * @return The encoded values. This method never returns <code>null</code>.
+     */
+    private static ByteArrayOutputStream encodeRuns(long values[]) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int row = 0;
+        while (row < values.length) {
+            int end = row + 1;
+            while (end < values.length && values[end] == values[row]) {
+                end++;
+            }
+            writeSignedVarLong(result, values[row]);
+            writeVarLong(result, end - row);
+            row = end;
+        }
+        return result;
+    }
+
+    /**
+     * Write a non negative number as a variable length integer, seven bits
+     * per byte with the high bit set on all bytes but the last.
+     *
+     * @param out   The stream to write to. Must not be <code>null</code>.
+     * @param value The value.
+     */
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long rest = value;
+        while ((rest & ~0x7fL) != 0) {
+            out.write((int)(rest & 0x7f) | 0x80);
+            rest >>>= 7;
+        }
+        out.write((int)rest);
+    }
+
+    /**
+     * Write a number as a variable length integer. The sign is moved to
+     * the lowest bit so that small negative numbers are short.
+     *
+     * @param out   The stream to write to. Must not be <code>null</code>.
+     * @param value The value.
+     */
+    private static void writeSignedVarLong(ByteArrayOutputStream out,
+            long value) {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Read a number written with {@link #writeVarLong}.
+     *
+     * @param in The buffer to read from. Must not be <code>null</code>.
+     *
+     * @return The value.
+     */
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            result |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Read a number written with {@link #writeSignedVarLong}.
+     *
+     * @param in The buffer to read from. Must not be <code>null</code>.
+     *
+     * @return The value.
+     */
+    private static long readSignedVarLong(ByteBuffer in) {
+        final long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a string as its length followed by the UTF-8 bytes.
+     *
+     * @param out   The stream to write to. Must not be <code>null</code>.
+     * @param value The string. Must not be <code>null</code>.
+     *
+     * @throws IOException if the string could not be written.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        final byte data[] = value.getBytes(ENCODING);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Read a string written with {@link #writeString}.
+     *
+     * @param in The buffer to read from. Must not be <code>null</code>.
+     *
+     * @return The string. This method never returns <code>null</code>.
+     *
+     * @throws UnsupportedEncodingException if UTF-8 is not supported.
+     */
+    private static String readString(ByteBuffer in)
+            throws UnsupportedEncodingException {
+        final byte data[] = new byte[in.getInt()];
+        in.get(data);
+        return new String(data, ENCODING);
+    }
+}
@@ -0,0 +1,171 @@
+package se.uc.stat.web.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import se.uc.stat.web.types.ColumnInfo;
+
+/**
+ * The columns of a statistics table when it is held in memory column by
+ * column, see {@link ColumnTable}.
+ */
+/* package */ enum ColumnLayout {
+    /** The time statistics, one row per hour. */
+    TIME("TIME_STAT", "STATISTICS_TIME", 60L * 60 * 1000,
+            new String[] {"METHOD_ID", "ORIGIN_ID", "MEDIA_ID", "LAYER_ID",
+                    "PRODUCT", "DAY_OF_WEEK_ID", "HOUR_OF_DAY"},
+            new String[] {"NUM_CORRECT_CALLS", "NUM_INVALID_CALLS",
+                    "NUM_FAILED_CALLS", "TOTAL_TIME_CORRECT_CALLS",
+                    "TOTAL_TIME_INVALID_CALLS", "TOTAL_TIME_FAILED_CALLS",
+                    "NUM_10", "NUM_20", "NUM_50", "NUM_100", "NUM_200",
+                    "NUM_500", "NUM_1000", "NUM_2000", "NUM_5000",
+                    "NUM_10000", "NUM_20000", "NUM_OVER_20000"}),
+    /** The customer statistics, one row per day. */
+    CUSTOMER("CUSTOMER_STAT", "STATISTICS_DATE", 24L * 60 * 60 * 1000,
+            new String[] {"METHOD_ID", "ORIGIN_ID", "MEDIA_ID", "PRODUCT",
+                    "CUSTOMER", "DAY_OF_WEEK_ID"},
+            new String[] {"NUM_CORRECT_CALLS", "NUM_INVALID_CALLS",
+                    "NUM_FAILED_CALLS"});
+
+    /** The name of the statistics table. */
+    private final String tableName;
+    /** The name of the time column. */
+    private final String timeColumn;
+    /** The resolution of the time column in milliseconds. */
+    private final long timeUnit;
+    /** The key columns except the time column, stored as integers. */
+    private final List<String> keyColumns;
+    /** The summed columns, stored as longs. */
+    private final List<String> sumColumns;
+
+    /**
+     * Create this enum.
+     *
+     * @param tableName  The name of the statistics table.
+     *                   Must not be <code>null</code>.
+     * @param timeColumn The name of the time column.
+     *                   Must not be <code>null</code>.
+     * @param timeUnit   The resolution of the time column in milliseconds.
+     * @param keyColumns The key columns except the time column.
+     *                   Must not be <code>null</code>.
+     * @param sumColumns The summed columns. Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    private ColumnLayout(String tableName, String timeColumn, long timeUnit,
+            String keyColumns[], String sumColumns[]) {
+        if (tableName == null) {
+            throw new IllegalArgumentException("tableName must not be null");
+        }
+        this.tableName = tableName;
+        if (timeColumn == null) {
+            throw new IllegalArgumentException("timeColumn must not be null");
+        }
+        this.timeColumn = timeColumn;
+        this.timeUnit = timeUnit;
+        if (keyColumns == null) {
+            throw new IllegalArgumentException("keyColumns must not be null");
+        }
+        this.keyColumns = Collections.unmodifiableList(
+                Arrays.asList(keyColumns));
+        if (sumColumns == null) {
+            throw new IllegalArgumentException("sumColumns must not be null");
+        }
+        this.sumColumns = Collections.unmodifiableList(
+                Arrays.asList(sumColumns));
+    }
+
+    /**
+     * Get the name of the statistics table.
+     *
+     * @return The table name. This method never returns <code>null</code>.
+     */
+    /* package */ String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Get the name of the time column.
+     *
+     * @return The column name. This method never returns <code>null</code>.
+     */
+    /* package */ String getTimeColumn() {
+        return timeColumn;
+    }
+
+    /**
+     * Get the resolution of the time column.
+     *
+     * @return The resolution in milliseconds.
+     */
+    /* package */ long getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Get the key columns except the time column.
+     *
+     * @return The column names. This method never returns <code>null</code>.
+     */
+    /* package */ List<String> getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * Get the summed columns.
+     *
+     * @return The column names. This method never returns <code>null</code>.
+     */
+    /* package */ List<String> getSumColumns() {
+        return sumColumns;
+    }
+
+    /**
+     * Check if a key column is dictionary encoded, that is, if it holds
+     * strings in the database.
+     *
+     * @param keyColumn The name of the key column.
+     *
+     * @return <code>true</code> if the column holds strings.
+     */
+    /* package */ boolean isDictionaryColumn(String keyColumn) {
+        return ColumnInfo.PRODUCT.getColumnName().equals(keyColumn) ||
+                ColumnInfo.CUSTOMER.getColumnName().equals(keyColumn);
+    }
+
+    /**
+     * Get the columns that are read from the dimension tables by joining
+     * on the key columns of this layout.
+     *
+     * @return The columns. This method never returns <code>null</code>.
+     */
+    /* package */ List<ColumnInfo> getNameColumns() {
+        final List<ColumnInfo> result = new ArrayList<ColumnInfo>();
+        for (ColumnInfo columnInfo : ColumnInfo.values()) {
+            if (columnInfo.getJoin() != null && keyColumns.contains(
+                    columnInfo.getJoin().getForeignKeyColumn())) {
+                result.add(columnInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the layout of a statistics table.
+     *
+     * @param tableName The name of the statistics table.
+     *
+     * @return The layout or <code>null</code> if the table has no layout.
+     */
+    /* package */ static ColumnLayout getColumnLayout(String tableName) {
+        for (ColumnLayout layout : values()) {
+            if (layout.getTableName().equals(tableName)) {
+                return layout;
+            }
+        }
+        return null;
+    }
+}
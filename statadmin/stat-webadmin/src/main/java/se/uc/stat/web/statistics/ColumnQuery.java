@@ -0,0 +1,719 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import se.uc.stat.web.DBUtilities;
+import se.uc.stat.web.types.ColumnAggregation;
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.webtypes.GUIForm;
+import se.uc.stat.web.webtypes.GUIFormatter;
+import se.uc.stat.web.webtypes.GUIList;
+
+/**
+ * Runs the query of a statistics result against a {@link ColumnTable}
+ * instead of the database. The filters, groupings and sums are the same as
+ * in the SQL query of the result and the records are returned formatted in
+ * the same way as when they are read from the database, so they can be
+ * processed exactly like the records of a query, including sorting, group
+ * headlines and group sums.
+ * <p/>
+ * The conditions on the key columns are evaluated with the indexes of the
+ * table: the rows of the selected values of each column are united and the
+ * resulting row sets of the columns are intersected, so only the matching
+ * rows are read. The matching rows are divided in slices that are scanned
+ * concurrently on a bounded thread pool shared by all searches. Each slice
+ * is aggregated into its own hash table and the hash tables are merged when
+ * all slices are done.
+ * <p/>
+ * When the rows are not aggregated, only the first
+ * <code>maxRows + 1</code> records in the sort order of the search are
+ * returned, as the database does for the SQL query.
+ */
+/* package */ class ColumnQuery {
+    /** The max number of threads scanning slices. */
+    private final static int MAX_THREADS =
+            Math.min(8, Runtime.getRuntime().availableProcessors());
+    /** The max number of slices waiting for a thread. */
+    private final static int MAX_QUEUED = 64;
+    /** The time an idle thread is kept, in seconds. */
+    private final static long KEEP_ALIVE_SECONDS = 60;
+    /** The min number of rows in a slice. */
+    private final static int MIN_SLICE_ROWS = 64 * 1024;
+
+    /**
+     * The executor scanning the slices. If the queue is full, the slice is
+     * scanned in the thread of the search.
+     */
+    private final static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactory() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "stat-column-query");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** The statistics result to run the query for. */
+    private final StatisticsResult result;
+
+    /**
+     * Create this class.
+     *
+     * @param result The statistics result to run the query for.
+     *               Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ ColumnQuery(StatisticsResult result) {
+        if (result == null) {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        this.result = result;
+    }
+
+    /**
+     * Run the query against a table.
+     *
+     * @param table The table. Must not be <code>null</code>.
+     *
+     * @return The records in no particular order.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the search is cancelled.
+     */
+    /* package */ List<ResultSetCell[]> execute(ColumnTable table)
+            throws SQLException {
+        final GUIForm form = result.getParent().getGUIForm();
+        return execute(table, form.getFromDate(), form.getToDate());
+    }
+
+    /**
+     * Run the query against a table limited to the given time interval.
+     *
+     * @param table    The table. Must not be <code>null</code>.
+     * @param fromDate The from date (inclusive) or <code>null</code> if
+     *                 there is no lower limit.
+     * @param toDate   The to date (exclusive) or <code>null</code> if
+     *                 there is no upper limit.
+     *
+     * @return The records in no particular order. Without aggregation
+     *         only the first <code>maxRows + 1</code> records in the sort
+     *         order. This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the search is cancelled.
+     */
+    /* package */ List<ResultSetCell[]> execute(ColumnTable table,
+            Date fromDate, Date toDate) throws SQLException {
+        final Scan scan = new Scan(table, fromDate, toDate);
+        if (scan.isEmpty()) {
+            return new ArrayList<ResultSetCell[]>();
+        }
+        final int numRows = scan.getNumRows();
+        final int numSlices = Math.max(1,
+                Math.min(MAX_THREADS, numRows / MIN_SLICE_ROWS));
+        final QueryMonitor monitor = result.getMonitor();
+        monitor.setNumParts(numSlices);
+        final List<Future<Map<GroupKey, long[]>>> futures =
+                new ArrayList<Future<Map<GroupKey, long[]>>>();
+        try {
+            for (int i = 0; i < numSlices; i++) {
+                final int fromRow = (int)((long)numRows * i / numSlices);
+                final int toRow = (int)((long)numRows * (i + 1) / numSlices);
+                futures.add(executor.submit(
+                        new Callable<Map<GroupKey, long[]>>() {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public Map<GroupKey, long[]> call() throws SQLException {
+                        monitor.checkCancelled();
+                        final Map<GroupKey, long[]> groups =
+                                scan.aggregate(fromRow, toRow);
+                        monitor.partDone();
+                        return groups;
+                    }
+                }));
+            }
+            Map<GroupKey, long[]> merged = null;
+            for (Future<Map<GroupKey, long[]>> future : futures) {
+                final Map<GroupKey, long[]> groups = future.get();
+                if (merged == null) {
+                    merged = groups;
+                } else {
+                    merge(merged, groups);
+                }
+            }
+            monitor.checkCancelled();
+            return scan.toRecords(merged);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException)e.getCause();
+            }
+            final SQLException exception =
+                    new SQLException("Column query failed");
+            exception.initCause(e.getCause());
+            throw exception;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final SQLException exception =
+                    new SQLException("Column query interrupted");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            // Does nothing for slices that are already done.
+            for (Future<Map<GroupKey, long[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get the conditions on the key columns given in the form. The
+     * conditions are the same as in the where clause of the SQL query,
+     * except for the time interval.
+     *
+     * @return The conditions. This method never returns <code>null</code>.
+     */
+    /* package */ List<Condition> getConditions() {
+        final GUIForm form = result.getParent().getGUIForm();
+        final List<Condition> conditions = new ArrayList<Condition>();
+        if (form.getCustomer() != null) {
+            conditions.add(new Condition(ColumnInfo.CUSTOMER.getColumnName(),
+                    DBUtilities.pad(form.getCustomer(), 50)));
+        }
+        if (form.getProduct() != null) {
+            conditions.add(new Condition(ColumnInfo.PRODUCT.getColumnName(),
+                    DBUtilities.pad(form.getProduct(), 20)));
+        }
+        for (GUIList guiList : result.getParent().getGUIListList()) {
+            if (guiList.getSelected() == null) {
+                continue;
+            }
+            final ColumnInfo column = guiList.getColumnInfo();
+            final String keyColumn = column.getJoin() == null ?
+                    column.getColumnName() :
+                    column.getJoin().getForeignKeyColumn();
+            // A service is selected as all its method ids separated
+            // with ';', the other lists select one id.
+            final String values[] = guiList.getSelected().split(";");
+            final int ids[] = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                ids[i] = Integer.parseInt(values[i].trim());
+            }
+            Arrays.sort(ids);
+            conditions.add(new Condition(keyColumn, ids));
+        }
+        return conditions;
+    }
+
+    /**
+     * Add the sums of one hash table to another.
+     *
+     * @param target The hash table to add to. Must not be <code>null</code>.
+     * @param source The hash table to add. Must not be <code>null</code>.
+     */
+    private static void merge(Map<GroupKey, long[]> target,
+            Map<GroupKey, long[]> source) {
+        for (Map.Entry<GroupKey, long[]> entry : source.entrySet()) {
+            final long sums[] = target.get(entry.getKey());
+            if (sums == null) {
+                target.put(entry.getKey(), entry.getValue());
+            } else {
+                final long add[] = entry.getValue();
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += add[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * The query compiled against the columns of a table.
+     */
+    private class Scan {
+        /** The table to scan. */
+        private final ColumnTable table;
+        /** The from time (inclusive) of the search. */
+        private final long fromTime;
+        /** The to time (exclusive) of the search. */
+        private final long toTime;
+        /**
+         * The rows matching the conditions, ascending, or <code>null</code>
+         * if there are no conditions and all rows should be scanned.
+         */
+        private final int rows[];
+        /**
+         * The key column of each grouped query attribute or
+         * <code>null</code> if the time is grouped.
+         */
+        private final int groupKeys[][];
+        /**
+         * The code of each id for grouped query attributes that are names
+         * read from a dimension table, otherwise <code>null</code>. Ids
+         * with the same name have the same code.
+         */
+        private final int groupCodes[][];
+        /** The values of each code of the grouped name attributes. */
+        private final String groupNames[][];
+        /** The index of each grouped attribute among the query attributes. */
+        private final int groupIndexes[];
+        /** The summed column of each summed query attribute. */
+        private final long sumColumns[][];
+        /** The index of each summed attribute among the query attributes. */
+        private final int sumIndexes[];
+
+        /**
+         * Create this class.
+         *
+         * @param table    The table to scan. Must not be <code>null</code>.
+         * @param fromDate The from date (inclusive) or <code>null</code> if
+         *                 there is no lower limit.
+         * @param toDate   The to date (exclusive) or <code>null</code> if
+         *                 there is no upper limit.
+         */
+        /* package */ Scan(ColumnTable table, Date fromDate, Date toDate) {
+            this.table = table;
+            fromTime = fromDate == null ? Long.MIN_VALUE : fromDate.getTime();
+            toTime = toDate == null ? Long.MAX_VALUE : toDate.getTime();
+            rows = getMatchingRows(getConditions());
+            final List<ColumnInfo> attributes = result.getQueryAttributes();
+            final List<Integer> groups = new ArrayList<Integer>();
+            final List<Integer> sums = new ArrayList<Integer>();
+            for (int i = 0; i < attributes.size(); i++) {
+                if (ColumnAggregation.SUM.equals(
+                        attributes.get(i).getColumnAggregation())) {
+                    sums.add(new Integer(i));
+                } else {
+                    groups.add(new Integer(i));
+                }
+            }
+            groupKeys = new int[groups.size()][];
+            groupCodes = new int[groups.size()][];
+            groupNames = new String[groups.size()][];
+            groupIndexes = new int[groups.size()];
+            for (int i = 0; i < groupIndexes.length; i++) {
+                groupIndexes[i] = groups.get(i).intValue();
+                initGroup(i, attributes.get(groupIndexes[i]));
+            }
+            sumColumns = new long[sums.size()][];
+            sumIndexes = new int[sums.size()];
+            for (int i = 0; i < sumIndexes.length; i++) {
+                sumIndexes[i] = sums.get(i).intValue();
+                sumColumns[i] = table.getSums(getSumIndex(
+                        attributes.get(sumIndexes[i]).getColumnName()));
+            }
+        }
+
+        /**
+         * Check if no row can match the search.
+         *
+         * @return <code>true</code> if the result is empty.
+         */
+        /* package */ boolean isEmpty() {
+            return getNumRows() == 0;
+        }
+
+        /**
+         * Get the number of rows to scan.
+         *
+         * @return The number of rows.
+         */
+        /* package */ int getNumRows() {
+            return rows == null ? table.getNumRows() : rows.length;
+        }
+
+        /**
+         * Get the rows matching the conditions using the indexes of the
+         * table.
+         *
+         * @param conditions The conditions. Must not be <code>null</code>.
+         *
+         * @return The rows ascending or <code>null</code> if there are no
+         *         conditions.
+         */
+        private int[] getMatchingRows(List<Condition> conditions) {
+            if (conditions.isEmpty()) {
+                return null;
+            }
+            RowBitmap matching = null;
+            for (Condition condition : conditions) {
+                final int keyIndex = getKeyIndex(condition.getKeyColumn());
+                final int ids[];
+                if (condition.getValue() == null) {
+                    ids = condition.getIds();
+                } else {
+                    final int code =
+                            table.getCode(keyIndex, condition.getValue());
+                    ids = code < 0 ? new int[0] : new int[] {code};
+                }
+                final Map<Integer, RowBitmap> index = table.getIndex(keyIndex);
+                RowBitmap columnRows = RowBitmap.EMPTY;
+                for (int id : ids) {
+                    final RowBitmap idRows = index.get(new Integer(id));
+                    if (idRows != null) {
+                        columnRows = columnRows.or(idRows);
+                    }
+                }
+                matching = matching == null ? columnRows :
+                        matching.and(columnRows);
+            }
+            return matching.toArray();
+        }
+
+        /**
+         * Initialize the arrays of a grouped attribute.
+         *
+         * @param group      The index of the group.
+         * @param columnInfo The grouped attribute.
+         *                   Must not be <code>null</code>.
+         */
+        private void initGroup(int group, ColumnInfo columnInfo) {
+            if (columnInfo.getColumnName().equals(
+                    table.getLayout().getTimeColumn())) {
+                return;
+            }
+            if (columnInfo.getJoin() == null) {
+                groupKeys[group] = table.getKeys(getKeyIndex(
+                        columnInfo.getColumnName()));
+                return;
+            }
+            groupKeys[group] = table.getKeys(getKeyIndex(
+                    columnInfo.getJoin().getForeignKeyColumn()));
+            // The database groups on the name, so different ids with the
+            // same name (for example the methods of one service) are
+            // given the same code.
+            final Map<Integer, String> names =
+                    table.getNames(columnInfo.getColumnName());
+            int maxId = -1;
+            for (Integer id : names.keySet()) {
+                maxId = Math.max(maxId, id.intValue());
+            }
+            final int codes[] = new int[maxId + 1];
+            Arrays.fill(codes, -1);
+            final Map<String, Integer> codeByName =
+                    new HashMap<String, Integer>();
+            final List<String> values = new ArrayList<String>();
+            for (Map.Entry<Integer, String> entry : names.entrySet()) {
+                if (entry.getKey().intValue() < 0) {
+                    continue;
+                }
+                Integer code = codeByName.get(entry.getValue());
+                if (code == null) {
+                    code = new Integer(values.size());
+                    codeByName.put(entry.getValue(), code);
+                    values.add(entry.getValue());
+                }
+                codes[entry.getKey().intValue()] = code.intValue();
+            }
+            groupCodes[group] = codes;
+            groupNames[group] = values.toArray(new String[values.size()]);
+        }
+
+        /**
+         * Aggregate the matching rows of a slice.
+         *
+         * @param from The position of the first row of the slice among the
+         *             rows to scan.
+         * @param to   The position after the last row of the slice.
+         *
+         * @return The sums by group. This method never returns
+         *         <code>null</code>.
+         */
+        /* package */ Map<GroupKey, long[]> aggregate(int from, int to) {
+            final Map<GroupKey, long[]> groups =
+                    new HashMap<GroupKey, long[]>();
+            final long times[] = table.getTimes();
+            // The key is reused until it is added as a new group.
+            long values[] = new long[groupKeys.length];
+            for (int pos = from; pos < to; pos++) {
+                final int row = rows == null ? pos : rows[pos];
+                if (times[row] < fromTime || times[row] >= toTime) {
+                    continue;
+                }
+                for (int g = 0; g < values.length; g++) {
+                    if (groupKeys[g] == null) {
+                        values[g] = times[row];
+                    } else if (groupCodes[g] == null) {
+                        values[g] = groupKeys[g][row];
+                    } else {
+                        final int id = groupKeys[g][row];
+                        values[g] = id >= 0 && id < groupCodes[g].length ?
+                                groupCodes[g][id] : -1;
+                    }
+                }
+                final GroupKey key = new GroupKey(values);
+                long sums[] = groups.get(key);
+                if (sums == null) {
+                    sums = new long[sumColumns.length];
+                    groups.put(key, sums);
+                    values = new long[groupKeys.length];
+                }
+                for (int s = 0; s < sums.length; s++) {
+                    sums[s] += sumColumns[s][row];
+                }
+            }
+            return groups;
+        }
+
+        /**
+         * Convert the aggregated groups to records. Without aggregation
+         * only the first <code>maxRows + 1</code> records in the sort order
+         * are kept, in a bounded heap.
+         *
+         * @param groups The sums by group. Must not be <code>null</code>.
+         *
+         * @return The records in no particular order.
+         *         This method never returns <code>null</code>.
+         */
+        /* package */ List<ResultSetCell[]> toRecords(
+                Map<GroupKey, long[]> groups) {
+            final List<ColumnInfo> attributes = result.getQueryAttributes();
+            final SimpleDateFormat dateFormat =
+                    new SimpleDateFormat("yyyy-MM-dd");
+            final SimpleDateFormat dateHourFormat =
+                    new SimpleDateFormat("yyyy-MM-dd HH");
+            final int maxRecords = result.isAggregated() ? Integer.MAX_VALUE :
+                    result.getParent().getGUIForm().getMaxRows() + 1;
+            final Comparator<ResultSetCell[]> order =
+                    result.createRecordComparator();
+            // The head of the heap is the last record kept.
+            final PriorityQueue<ResultSetCell[]> records =
+                    new PriorityQueue<ResultSetCell[]>(
+                    Math.max(1, Math.min(groups.size(), maxRecords)),
+                    Collections.reverseOrder(order));
+            for (Map.Entry<GroupKey, long[]> entry : groups.entrySet()) {
+                final ResultSetCell record[] =
+                        new ResultSetCell[attributes.size()];
+                final long values[] = entry.getKey().getValues();
+                for (int g = 0; g < groupIndexes.length; g++) {
+                    final ColumnType columnType =
+                            attributes.get(groupIndexes[g]).getColumnType();
+                    final long value = values[g];
+                    if (groupKeys[g] == null) {
+                        final Date date = new Date(value);
+                        final String str = ColumnType.DATE.equals(columnType) ?
+                                dateFormat.format(date) :
+                                dateHourFormat.format(date);
+                        record[groupIndexes[g]] = new ResultSetCell(
+                                GUIFormatter.toStringNoBreak(str), 0, date);
+                    } else if (groupNames[g] != null) {
+                        record[groupIndexes[g]] = new ResultSetCell(
+                                value < 0 ? null : groupNames[g][(int)value],
+                                0, null);
+                    } else if (ColumnType.STRING.equals(columnType)) {
+                        final String dictionary[] =
+                                table.getDictionary(getKeyIndex(attributes.
+                                get(groupIndexes[g]).getColumnName()));
+                        record[groupIndexes[g]] = new ResultSetCell(
+                                dictionary[(int)value], 0, null);
+                    } else {
+                        record[groupIndexes[g]] = new ResultSetCell(
+                                Long.toString(value), value, null);
+                    }
+                }
+                final long sums[] = entry.getValue();
+                for (int s = 0; s < sumIndexes.length; s++) {
+                    String str = Long.toString(sums[s]);
+                    if (sums[s] == 0 && ColumnType.LONG_NO_ZEROES.equals(
+                            attributes.get(sumIndexes[s]).getColumnType())) {
+                        str = "";
+                    }
+                    record[sumIndexes[s]] =
+                            new ResultSetCell(str, sums[s], null);
+                }
+                if (records.size() < maxRecords) {
+                    records.add(record);
+                } else if (order.compare(record, records.peek()) < 0) {
+                    records.poll();
+                    records.add(record);
+                }
+            }
+            return new ArrayList<ResultSetCell[]>(records);
+        }
+
+        /**
+         * Get the index of a key column in the layout of the table.
+         *
+         * @param keyColumn The key column. Must not be <code>null</code>.
+         *
+         * @return The index.
+         *
+         * @throws IllegalStateException if the table has no such column.
+         */
+        private int getKeyIndex(String keyColumn) {
+            final int index =
+                    table.getLayout().getKeyColumns().indexOf(keyColumn);
+            if (index < 0) {
+                throw new IllegalStateException("Unknown column " + keyColumn);
+            }
+            return index;
+        }
+
+        /**
+         * Get the index of a summed column in the layout of the table.
+         *
+         * @param sumColumn The summed column. Must not be <code>null</code>.
+         *
+         * @return The index.
+         *
+         * @throws IllegalStateException if the table has no such column.
+         */
+        private int getSumIndex(String sumColumn) {
+            final int index =
+                    table.getLayout().getSumColumns().indexOf(sumColumn);
+            if (index < 0) {
+                throw new IllegalStateException("Unknown column " + sumColumn);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * A condition on a key column: either one of a set of ids or, for
+     * dictionary encoded columns, a given value.
+     */
+    /* package */ static class Condition {
+        /** The key column. */
+        private final String keyColumn;
+        /** The allowed ids, sorted, or <code>null</code>. */
+        private final int ids[];
+        /** The value of a dictionary encoded column or <code>null</code>. */
+        private final String value;
+
+        /**
+         * Create a condition on ids.
+         *
+         * @param keyColumn The key column. Must not be <code>null</code>.
+         * @param ids       The allowed ids, sorted.
+         *                  Must not be <code>null</code>.
+         */
+        /* package */ Condition(String keyColumn, int ids[]) {
+            this.keyColumn = keyColumn;
+            this.ids = ids;
+            this.value = null;
+        }
+
+        /**
+         * Create a condition on a dictionary encoded column.
+         *
+         * @param keyColumn The key column. Must not be <code>null</code>.
+         * @param value     The value. Must not be <code>null</code>.
+         */
+        /* package */ Condition(String keyColumn, String value) {
+            this.keyColumn = keyColumn;
+            this.ids = null;
+            this.value = value;
+        }
+
+        /**
+         * Get the key column.
+         *
+         * @return The key column. This method never returns
+         *         <code>null</code>.
+         */
+        /* package */ String getKeyColumn() {
+            return keyColumn;
+        }
+
+        /**
+         * Get the allowed ids.
+         *
+         * @return The ids sorted or <code>null</code> if this is a
+         *         condition on a dictionary encoded column.
+         */
+        /* package */ int[] getIds() {
+            return ids;
+        }
+
+        /**
+         * Get the value of a dictionary encoded column.
+         *
+         * @return The value or <code>null</code> if this is a condition on
+         *         ids.
+         */
+        /* package */ String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * The values of the grouped columns of a row, used as key in the hash
+     * tables.
+     */
+    private static class GroupKey {
+        /** The values. */
+        private final long values[];
+        /** The hash code of the values. */
+        private final int hash;
+
+        /**
+         * Create this class.
+         *
+         * @param values The values. The array is not copied.
+         *               Must not be <code>null</code>.
+         */
+        /* package */ GroupKey(long values[]) {
+            this.values = values;
+            hash = Arrays.hashCode(values);
+        }
+
+        /**
+         * Get the values.
+         *
+         * @return The values. This method never returns <code>null</code>.
+         */
+        /* package */ long[] getValues() {
+            return values;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GroupKey)) {
+                return false;
+            }
+            final GroupKey other = (GroupKey)obj;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+    }
+}
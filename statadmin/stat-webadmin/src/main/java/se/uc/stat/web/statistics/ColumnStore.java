@@ -0,0 +1,497 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.uc.stat.web.DBUtilities;
+import se.uc.stat.web.types.ColumnInfo;
+
+/**
+ * Holds the most recent rows of a statistics table in memory as a
+ * {@link ColumnTable} so that searches within the window can be answered
+ * without querying the database, see {@link ColumnQuery}.
+ * <p/>
+ * The first search loads the whole window. Later searches refresh the table
+ * if it is older than the refresh interval. A refresh only reads the rows
+ * from the day of the hour (or day) before the latest loaded one and
+ * onwards, and drops the rows that have left the window. Older rows are
+ * normally not updated, but a collector that has spilled its cache or
+ * written a journal while the database was down stores the rows later,
+ * however late. Therefore the number of rows and the sum of the summed
+ * columns of each older day is compared with the database every
+ * <code>VERIFY_INTERVAL</code>, and the days that differ are read again.
+ * <p/>
+ * The table is loaded with a {@link QueryMonitor} of its own, since it is
+ * shared by all searches. A search that is cancelled or times out does not
+ * make the load fail for the other searches waiting for it.
+ * <p/>
+ * This class is thread safe. A table is never changed once it has been
+ * loaded, a refresh builds a new table.
+ */
+/* package */ class ColumnStore {
+    /** The number of days held in memory. */
+    /* package */ final static int WINDOW_DAYS = 31;
+    /** The max age of the table before it is refreshed. */
+    private final static long REFRESH_INTERVAL = 60 * 1000;
+    /** The number of rows fetched from the database in each round trip. */
+    private final static int FETCH_SIZE = 1000;
+    /** The length of one day in milliseconds. */
+    private final static long DAY = 24L * 60 * 60 * 1000;
+    /** The time between the comparisons of the older days. */
+    private final static long VERIFY_INTERVAL = 10 * 60 * 1000;
+    /** The query timeout in seconds of the load of the table. */
+    private final static int LOAD_TIMEOUT_SECONDS = 300;
+
+    /** The stores by layout. */
+    private final static Map<ColumnLayout, ColumnStore> stores =
+            new EnumMap<ColumnLayout, ColumnStore>(ColumnLayout.class);
+
+    /** The layout of the table. */
+    private final ColumnLayout layout;
+    /** Lock held while the table is loaded. */
+    private final Object loadLock = new Object();
+    /** The latest table or <code>null</code> if not loaded yet. */
+    private volatile ColumnTable table = null;
+    /** The time the latest table was loaded. */
+    private volatile long loaded = 0;
+    /**
+     * The time the older days were last compared with the database.
+     * Must only be accessed when holding <code>loadLock</code>.
+     */
+    private long verified = 0;
+
+    /**
+     * Create this class.
+     *
+     * @param layout The layout of the table. Must not be <code>null</code>.
+     */
+    private ColumnStore(ColumnLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Get the store of a statistics table.
+     *
+     * @param tableName The name of the statistics table.
+     *
+     * @return The store or <code>null</code> if the table can not be held
+     *         in memory.
+     */
+    /* package */ static ColumnStore getStore(String tableName) {
+        final ColumnLayout layout = ColumnLayout.getColumnLayout(tableName);
+        if (layout == null) {
+            return null;
+        }
+        synchronized (stores) {
+            ColumnStore store = stores.get(layout);
+            if (store == null) {
+                store = new ColumnStore(layout);
+                stores.put(layout, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Check if the window held in memory covers a search.
+     *
+     * @param fromDate The from date of the search or <code>null</code> if
+     *                 there is no lower limit.
+     *
+     * @return <code>true</code> if all rows of the search are in memory.
+     */
+    /* package */ boolean covers(Date fromDate) {
+        return fromDate != null && fromDate.getTime() >=
+                getWindowStart(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the table, loading or refreshing it if needed.
+     *
+     * @return The table. This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the table could not be loaded.
+     */
+    /* package */ ColumnTable getTable() throws SQLException {
+        final ColumnTable current = table;
+        if (current != null &&
+                System.currentTimeMillis() - loaded < REFRESH_INTERVAL) {
+            return current;
+        }
+        synchronized (loadLock) {
+            final long now = System.currentTimeMillis();
+            if (table == null || now - loaded >= REFRESH_INTERVAL) {
+                // Not refreshed by another thread while waiting.
+                refresh(now);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Load the table or, if already loaded, the rows changed since the last
+     * load. Must only be called when holding <code>loadLock</code>.
+     *
+     * @param now The current time in milliseconds.
+     *
+     * @throws SQLException if the rows could not be read.
+     */
+    private void refresh(long now) throws SQLException {
+        final QueryMonitor monitor = new QueryMonitor(LOAD_TIMEOUT_SECONDS);
+        final long start = getWindowStart(now);
+        final ColumnTable previous = table;
+        final Map<String, Map<Integer, String>> names = readNames(layout);
+        final ColumnTable.Builder builder =
+                new ColumnTable.Builder(layout, names);
+        long readFrom = start;
+        if (previous != null && previous.getNumRows() > 0) {
+            // The latest days may have been updated since they were read,
+            // they are read again together with all newer rows.
+            readFrom = Math.max(start, getDayStart(
+                    previous.getMaxTime() - layout.getTimeUnit()));
+            final boolean verify = now - verified >= VERIFY_INTERVAL;
+            final Set<Long> changed = verify ?
+                    getChangedDays(previous, start, readFrom) :
+                    Collections.<Long>emptySet();
+            long from = start;
+            while (from < readFrom) {
+                // Copy the unchanged days and read the changed days, each
+                // run of days at once.
+                final boolean read = changed.contains(new Long(from));
+                long to = from;
+                do {
+                    to = getDayStart(to + DAY + DAY / 2);
+                } while (to < readFrom &&
+                        changed.contains(new Long(to)) == read);
+                if (read) {
+                    readRows(layout, builder, from, to, monitor);
+                } else {
+                    builder.addRows(previous, from, to);
+                }
+                from = to;
+            }
+            if (verify) {
+                verified = now;
+            }
+        } else {
+            verified = now;
+        }
+        readRows(layout, builder, readFrom, Long.MAX_VALUE, monitor);
+        table = builder.build();
+        loaded = now;
+    }
+
+    /**
+     * Get the days before a time whose rows in the database differ from
+     * the rows in a table, comparing the number of rows and the sum of the
+     * summed columns of each day.
+     *
+     * @param table    The table. Must not be <code>null</code>.
+     * @param fromTime The start of the first day to compare.
+     * @param toTime   The start of the day after the last day to compare.
+     *
+     * @return The start of each day that differs.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the rows could not be counted.
+     */
+    private Set<Long> getChangedDays(ColumnTable table, long fromTime,
+            long toTime) throws SQLException {
+        final Map<Long, long[]> inMemory = new HashMap<Long, long[]>();
+        final long times[] = table.getTimes();
+        Long day = null;
+        long dayEnd = Long.MIN_VALUE;
+        for (int row = 0; row < table.getNumRows(); row++) {
+            if (times[row] < fromTime || times[row] >= toTime) {
+                continue;
+            }
+            if (day == null || times[row] < day.longValue() ||
+                    times[row] >= dayEnd) {
+                day = new Long(getDayStart(times[row]));
+                dayEnd = getDayStart(day.longValue() + DAY + DAY / 2);
+            }
+            long fingerprint[] = inMemory.get(day);
+            if (fingerprint == null) {
+                fingerprint = new long[2];
+                inMemory.put(day, fingerprint);
+            }
+            fingerprint[0]++;
+            for (int i = 0; i < layout.getSumColumns().size(); i++) {
+                fingerprint[1] += table.getSums(i)[row];
+            }
+        }
+        final Map<Long, long[]> inDatabase =
+                readDayFingerprints(layout, fromTime, toTime);
+        final Set<Long> result = new HashSet<Long>();
+        for (Map.Entry<Long, long[]> entry : inDatabase.entrySet()) {
+            if (!Arrays.equals(entry.getValue(),
+                    inMemory.get(entry.getKey()))) {
+                result.add(entry.getKey());
+            }
+        }
+        // Days whose rows are deleted from the database are kept, rows are
+        // never deleted within the window.
+        return result;
+    }
+
+    /**
+     * Read the names of all dimensions used by a layout.
+     *
+     * @param layout The layout. Must not be <code>null</code>.
+     *
+     * @return The names by name column and id.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the names could not be read.
+     */
+    /* package */ static Map<String, Map<Integer, String>> readNames(
+            ColumnLayout layout) throws SQLException {
+        final Map<String, Map<Integer, String>> result =
+                new HashMap<String, Map<Integer, String>>();
+        Connection conn = null;
+        try {
+            conn = DBUtilities.createConnection();
+            for (ColumnInfo columnInfo : layout.getNameColumns()) {
+                final String sql = "select " +
+                        columnInfo.getJoin().getKeyColumn() + ", " +
+                        columnInfo.getColumnName() + " from " +
+                        columnInfo.getJoin().getTableName();
+                final Map<Integer, String> columnNames =
+                        new HashMap<Integer, String>();
+                PreparedStatement ps = null;
+                ResultSet rs = null;
+                try {
+                    ps = conn.prepareStatement(sql);
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        columnNames.put(new Integer(rs.getInt(1)),
+                                rs.getString(2));
+                    }
+                } finally {
+                    DBUtilities.close(null, ps, rs);
+                }
+                result.put(columnInfo.getColumnName(),
+                        Collections.unmodifiableMap(columnNames));
+            }
+        } finally {
+            DBUtilities.close(conn, null, null);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Read the number of rows within a time interval and the sum of all
+     * their summed columns. Rows inserted or updated in the interval, for
+     * example when spilled statistics are replayed, change the result.
+     *
+     * @param layout   The layout of the table. Must not be <code>null</code>.
+     * @param fromTime The from time (inclusive) in milliseconds.
+     * @param toTime   The to time (exclusive) in milliseconds.
+     *
+     * @return The number of rows followed by the sum.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the rows could not be counted.
+     */
+    /* package */ static long[] readFingerprint(ColumnLayout layout,
+            long fromTime, long toTime) throws SQLException {
+        final StringBuilder sql = new StringBuilder("select count(*), ");
+        sql.append(getSumOfSums(layout));
+        sql.append(" from ").append(layout.getTableName());
+        sql.append(" where ").append(layout.getTimeColumn()).append(" >= ?");
+        sql.append(" and ").append(layout.getTimeColumn()).append(" < ?");
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql.toString());
+            ps.setTimestamp(1, new Timestamp(fromTime));
+            ps.setTimestamp(2, new Timestamp(toTime));
+            rs = ps.executeQuery();
+            rs.next();
+            // The sum is null, read as 0, when there are no rows.
+            return new long[] {rs.getLong(1), rs.getLong(2)};
+        } finally {
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Read the number of rows and the sum of all their summed columns of
+     * each day within a time interval, see
+     * {@link #readFingerprint(ColumnLayout, long, long)}.
+     *
+     * @param layout   The layout of the table. Must not be <code>null</code>.
+     * @param fromTime The from time (inclusive) in milliseconds.
+     * @param toTime   The to time (exclusive) in milliseconds.
+     *
+     * @return The number of rows followed by the sum by the start of the
+     *         day. Days without rows are not in the map.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the rows could not be counted.
+     */
+    private static Map<Long, long[]> readDayFingerprints(ColumnLayout layout,
+            long fromTime, long toTime) throws SQLException {
+        final String day = "trunc(" + layout.getTimeColumn() + ")";
+        final StringBuilder sql = new StringBuilder("select ");
+        sql.append(day).append(", count(*), ").append(getSumOfSums(layout));
+        sql.append(" from ").append(layout.getTableName());
+        sql.append(" where ").append(layout.getTimeColumn()).append(" >= ?");
+        sql.append(" and ").append(layout.getTimeColumn()).append(" < ?");
+        sql.append(" group by ").append(day);
+        final Map<Long, long[]> result = new HashMap<Long, long[]>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql.toString());
+            ps.setQueryTimeout(LOAD_TIMEOUT_SECONDS);
+            ps.setTimestamp(1, new Timestamp(fromTime));
+            ps.setTimestamp(2, new Timestamp(toTime));
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                result.put(new Long(rs.getTimestamp(1).getTime()),
+                        new long[] {rs.getLong(2), rs.getLong(3)});
+            }
+        } finally {
+            DBUtilities.close(conn, ps, rs);
+        }
+        return result;
+    }
+
+    /**
+     * Get the SQL summing all summed columns of a layout.
+     *
+     * @param layout The layout of the table. Must not be <code>null</code>.
+     *
+     * @return The SQL. This method never returns <code>null</code>.
+     */
+    private static String getSumOfSums(ColumnLayout layout) {
+        final StringBuilder sql = new StringBuilder("sum(");
+        boolean first = true;
+        for (String column : layout.getSumColumns()) {
+            if (!first) {
+                sql.append(" + ");
+            }
+            sql.append(column);
+            first = false;
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Read the rows within a time interval and append them to the builder.
+     *
+     * @param layout   The layout of the table. Must not be <code>null</code>.
+     * @param builder  The builder to append the rows to.
+     *                 Must not be <code>null</code>.
+     * @param fromTime The from time (inclusive) in milliseconds.
+     * @param toTime   The to time (exclusive) in milliseconds or
+     *                 <code>Long.MAX_VALUE</code> if there is no upper limit.
+     * @param monitor  The monitor the statement is registered in or
+     *                 <code>null</code> if the read can not be cancelled.
+     *
+     * @throws SQLException if the rows could not be read.
+     */
+    /* package */ static void readRows(ColumnLayout layout,
+            ColumnTable.Builder builder, long fromTime, long toTime,
+            QueryMonitor monitor) throws SQLException {
+        final List<String> keyColumns = layout.getKeyColumns();
+        final List<String> sumColumns = layout.getSumColumns();
+        final StringBuilder sql = new StringBuilder("select ");
+        sql.append(layout.getTimeColumn());
+        for (String column : keyColumns) {
+            sql.append(", ").append(column);
+        }
+        for (String column : sumColumns) {
+            sql.append(", ").append(column);
+        }
+        sql.append(" from ").append(layout.getTableName());
+        sql.append(" where ").append(layout.getTimeColumn()).append(" >= ?");
+        if (toTime != Long.MAX_VALUE) {
+            sql.append(" and ").append(layout.getTimeColumn()).append(" < ?");
+        }
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql.toString());
+            if (monitor != null) {
+                monitor.register(ps);
+            }
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setTimestamp(1, new Timestamp(fromTime));
+            if (toTime != Long.MAX_VALUE) {
+                ps.setTimestamp(2, new Timestamp(toTime));
+            }
+            rs = ps.executeQuery();
+            final int rowKeys[] = new int[keyColumns.size()];
+            final long rowSums[] = new long[sumColumns.size()];
+            while (rs.next()) {
+                final long time = rs.getTimestamp(1).getTime();
+                for (int i = 0; i < rowKeys.length; i++) {
+                    if (layout.isDictionaryColumn(keyColumns.get(i))) {
+                        rowKeys[i] = builder.encode(i, rs.getString(i + 2));
+                    } else {
+                        rowKeys[i] = rs.getInt(i + 2);
+                    }
+                }
+                for (int i = 0; i < rowSums.length; i++) {
+                    rowSums[i] = rs.getLong(i + 2 + rowKeys.length);
+                }
+                builder.addRow(time, rowKeys, rowSums);
+            }
+        } finally {
+            if (monitor != null) {
+                monitor.unregister(ps);
+            }
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Get the start of the window held in memory. The start is at midnight
+     * (local time) <code>WINDOW_DAYS</code> days ago.
+     *
+     * @param now The current time in milliseconds.
+     *
+     * @return The start of the window in milliseconds.
+     */
+    private static long getWindowStart(long now) {
+        return getDayStart(now - WINDOW_DAYS * DAY);
+    }
+
+    /**
+     * Get the start of a day, at midnight local time.
+     *
+     * @param time A time within the day in milliseconds.
+     *
+     * @return The start of the day in milliseconds.
+     */
+    private static long getDayStart(long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,440 @@
+package se.uc.stat.web.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows of a statistics table held in memory column by column. Every column
+ * is a primitive array with one element per row: the time as milliseconds,
+ * the key columns as integers and the summed columns as longs. Key columns
+ * holding strings (product and customer) are dictionary encoded, that is,
+ * the integer is an index in the dictionary of the column.
+ * <p/>
+ * The names of the dimensions (services, methods, origins etc) are held
+ * per name column as a map from the id in the key column to the name.
+ * <p/>
+ * An index with the rows of each value of a key column is created the
+ * first time the column is filtered on, see {@link #getIndex(int)}.
+ * <p/>
+ * Instances are created with {@link Builder} and are immutable. The arrays
+ * returned by the get methods must not be modified.
+ */
+/* package */ class ColumnTable {
+    /** The initial capacity of a builder. */
+    private final static int INITIAL_CAPACITY = 1024;
+
+    /** The layout of the table. */
+    private final ColumnLayout layout;
+    /** The number of rows. */
+    private final int numRows;
+    /** The time of each row. */
+    private final long times[];
+    /** The key columns, indexed as the key columns of the layout. */
+    private final int keys[][];
+    /** The summed columns, indexed as the sum columns of the layout. */
+    private final long sums[][];
+    /**
+     * The dictionaries of the key columns. <code>null</code> for key
+     * columns that are not dictionary encoded.
+     */
+    private final String dictionaries[][];
+    /** The names of the dimensions by name column and id. */
+    private final Map<String, Map<Integer, String>> names;
+    /** The earliest time of the rows or <code>Long.MAX_VALUE</code>. */
+    private final long minTime;
+    /** The latest time of the rows or <code>Long.MIN_VALUE</code>. */
+    private final long maxTime;
+    /**
+     * The index of each key column or <code>null</code> if not created.
+     * Must only be accessed when holding a lock on this object.
+     */
+    private final List<Map<Integer, RowBitmap>> indexes;
+
+    /**
+     * Create this class. Only called from the builder.
+     *
+     * @param builder The builder with the rows. Must not be <code>null</code>.
+     */
+    private ColumnTable(Builder builder) {
+        layout = builder.layout;
+        numRows = builder.numRows;
+        times = Arrays.copyOf(builder.times, numRows);
+        keys = new int[builder.keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Arrays.copyOf(builder.keys[i], numRows);
+        }
+        sums = new long[builder.sums.length][];
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = Arrays.copyOf(builder.sums[i], numRows);
+        }
+        dictionaries = new String[keys.length][];
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (builder.dictionaries.get(i) != null) {
+                dictionaries[i] = builder.dictionaries.get(i).toArray(
+                        new String[builder.dictionaries.get(i).size()]);
+            }
+        }
+        names = builder.names;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < numRows; row++) {
+            min = Math.min(min, times[row]);
+            max = Math.max(max, times[row]);
+        }
+        minTime = min;
+        maxTime = max;
+        indexes = new ArrayList<Map<Integer, RowBitmap>>(Collections.
+                <Map<Integer, RowBitmap>>nCopies(keys.length, null));
+    }
+
+    /**
+     * Get the layout of this table.
+     *
+     * @return The layout. This method never returns <code>null</code>.
+     */
+    /* package */ ColumnLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The number of rows.
+     */
+    /* package */ int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Get the time of each row.
+     *
+     * @return The times in milliseconds.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * Get a key column.
+     *
+     * @param keyIndex The index of the column among the key columns of the
+     *                 layout.
+     *
+     * @return The values of the column.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ int[] getKeys(int keyIndex) {
+        return keys[keyIndex];
+    }
+
+    /**
+     * Get a summed column.
+     *
+     * @param sumIndex The index of the column among the sum columns of the
+     *                 layout.
+     *
+     * @return The values of the column.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ long[] getSums(int sumIndex) {
+        return sums[sumIndex];
+    }
+
+    /**
+     * Get the index of a key column, creating it if needed.
+     *
+     * @param keyIndex The index of the column among the key columns of the
+     *                 layout.
+     *
+     * @return The rows by value in the column. Values not in the column
+     *         are not in the map. This method never returns <code>null</code>.
+     */
+    /* package */ synchronized Map<Integer, RowBitmap> getIndex(
+            int keyIndex) {
+        Map<Integer, RowBitmap> index = indexes.get(keyIndex);
+        if (index == null) {
+            final int column[] = keys[keyIndex];
+            final Map<Integer, RowBitmap.Builder> builders =
+                    new HashMap<Integer, RowBitmap.Builder>();
+            for (int row = 0; row < numRows; row++) {
+                final Integer value = new Integer(column[row]);
+                RowBitmap.Builder builder = builders.get(value);
+                if (builder == null) {
+                    builder = new RowBitmap.Builder();
+                    builders.put(value, builder);
+                }
+                builder.add(row);
+            }
+            index = new HashMap<Integer, RowBitmap>();
+            for (Map.Entry<Integer, RowBitmap.Builder> entry :
+                    builders.entrySet()) {
+                index.put(entry.getKey(), entry.getValue().build());
+            }
+            indexes.set(keyIndex, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the dictionary of a key column.
+     *
+     * @param keyIndex The index of the column among the key columns of the
+     *                 layout.
+     *
+     * @return The values of the column by code or <code>null</code> if the
+     *         column is not dictionary encoded.
+     */
+    /* package */ String[] getDictionary(int keyIndex) {
+        return dictionaries[keyIndex];
+    }
+
+    /**
+     * Get the code of a value in a dictionary encoded key column.
+     *
+     * @param keyIndex The index of the column among the key columns of the
+     *                 layout.
+     * @param value    The value to look for. Must not be <code>null</code>.
+     *
+     * @return The code or a negative value if no row has the value.
+     */
+    /* package */ int getCode(int keyIndex, String value) {
+        final String dictionary[] = dictionaries[keyIndex];
+        if (dictionary != null) {
+            for (int code = 0; code < dictionary.length; code++) {
+                if (value.equals(dictionary[code])) {
+                    return code;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the names of a dimension.
+     *
+     * @param nameColumn The name column in the dimension table, for example
+     *                   <code>METHOD_NAME</code>.
+     *
+     * @return The names by id. The map is empty if the column is unknown.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ Map<Integer, String> getNames(String nameColumn) {
+        final Map<Integer, String> result = names.get(nameColumn);
+        if (result == null) {
+            return Collections.emptyMap();
+        }
+        return result;
+    }
+
+    /**
+     * Get the names of all dimensions.
+     *
+     * @return The names by name column and id.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ Map<String, Map<Integer, String>> getNames() {
+        return names;
+    }
+
+    /**
+     * Get the earliest time of the rows.
+     *
+     * @return The time in milliseconds or <code>Long.MAX_VALUE</code> if
+     *         there are no rows.
+     */
+    /* package */ long getMinTime() {
+        return minTime;
+    }
+
+    /**
+     * Get the latest time of the rows.
+     *
+     * @return The time in milliseconds or <code>Long.MIN_VALUE</code> if
+     *         there are no rows.
+     */
+    /* package */ long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Builder of column tables. The rows are appended one by one or copied
+     * from another table. This class is not thread safe.
+     */
+    /* package */ static class Builder {
+        /** The layout of the table. */
+        private final ColumnLayout layout;
+        /** The names of the dimensions by name column and id. */
+        private final Map<String, Map<Integer, String>> names;
+        /** The number of rows. */
+        private int numRows = 0;
+        /** The time of each row. */
+        private long times[] = new long[INITIAL_CAPACITY];
+        /** The key columns. */
+        private final int keys[][];
+        /** The summed columns. */
+        private final long sums[][];
+        /**
+         * The dictionaries of the key columns, <code>null</code> for key
+         * columns that are not dictionary encoded.
+         */
+        private final List<List<String>> dictionaries =
+                new ArrayList<List<String>>();
+        /** The codes of the dictionaries by value. */
+        private final List<Map<String, Integer>> codes =
+                new ArrayList<Map<String, Integer>>();
+
+        /**
+         * Create this class.
+         *
+         * @param layout The layout of the table.
+         *               Must not be <code>null</code>.
+         * @param names  The names of the dimensions by name column and id.
+         *               Must not be <code>null</code>.
+         *
+         * @throws IllegalArgumentException if any of the constraints
+         *         specified is not met.
+         */
+        /* package */ Builder(ColumnLayout layout,
+                Map<String, Map<Integer, String>> names) {
+            if (layout == null) {
+                throw new IllegalArgumentException("layout must not be null");
+            }
+            if (names == null) {
+                throw new IllegalArgumentException("names must not be null");
+            }
+            this.layout = layout;
+            this.names = names;
+            keys = new int[layout.getKeyColumns().size()][INITIAL_CAPACITY];
+            sums = new long[layout.getSumColumns().size()][INITIAL_CAPACITY];
+            for (String keyColumn : layout.getKeyColumns()) {
+                if (layout.isDictionaryColumn(keyColumn)) {
+                    dictionaries.add(new ArrayList<String>());
+                    codes.add(new HashMap<String, Integer>());
+                } else {
+                    dictionaries.add(null);
+                    codes.add(null);
+                }
+            }
+        }
+
+        /**
+         * Get the code of a value in a dictionary encoded key column. The
+         * value is added to the dictionary if it is not already there.
+         *
+         * @param keyIndex The index of the column among the key columns of
+         *                 the layout. The column must be dictionary encoded.
+         * @param value    The value. Must not be <code>null</code>.
+         *
+         * @return The code.
+         */
+        /* package */ int encode(int keyIndex, String value) {
+            final Map<String, Integer> columnCodes = codes.get(keyIndex);
+            final Integer code = columnCodes.get(value);
+            if (code != null) {
+                return code.intValue();
+            }
+            final List<String> dictionary = dictionaries.get(keyIndex);
+            dictionary.add(value);
+            columnCodes.put(value, new Integer(dictionary.size() - 1));
+            return dictionary.size() - 1;
+        }
+
+        /**
+         * Append a row.
+         *
+         * @param time    The time of the row in milliseconds.
+         * @param rowKeys The key columns of the row, dictionary encoded
+         *                columns already encoded with {@link #encode}.
+         *                Must not be <code>null</code>.
+         * @param rowSums The summed columns of the row.
+         *                Must not be <code>null</code>.
+         */
+        /* package */ void addRow(long time, int rowKeys[], long rowSums[]) {
+            ensureCapacity();
+            times[numRows] = time;
+            for (int i = 0; i < keys.length; i++) {
+                keys[i][numRows] = rowKeys[i];
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i][numRows] = rowSums[i];
+            }
+            numRows++;
+        }
+
+        /**
+         * Append the rows of another table within a time interval.
+         *
+         * @param table    The table to copy from. Must have the same layout.
+         *                 Must not be <code>null</code>.
+         * @param fromTime The from time (inclusive) in milliseconds.
+         * @param toTime   The to time (exclusive) in milliseconds.
+         */
+        /* package */ void addRows(ColumnTable table, long fromTime,
+                long toTime) {
+            final int remap[][] = new int[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                if (table.getDictionary(i) != null) {
+                    remap[i] = new int[table.getDictionary(i).length];
+                    Arrays.fill(remap[i], -1);
+                }
+            }
+            final int rowKeys[] = new int[keys.length];
+            final long rowSums[] = new long[sums.length];
+            final long tableTimes[] = table.getTimes();
+            for (int row = 0; row < table.getNumRows(); row++) {
+                if (tableTimes[row] < fromTime || tableTimes[row] >= toTime) {
+                    continue;
+                }
+                for (int i = 0; i < rowKeys.length; i++) {
+                    final int key = table.getKeys(i)[row];
+                    if (remap[i] == null) {
+                        rowKeys[i] = key;
+                    } else {
+                        // The dictionary is rebuilt so values no longer
+                        // used are dropped.
+                        if (remap[i][key] < 0) {
+                            remap[i][key] = encode(i,
+                                    table.getDictionary(i)[key]);
+                        }
+                        rowKeys[i] = remap[i][key];
+                    }
+                }
+                for (int i = 0; i < rowSums.length; i++) {
+                    rowSums[i] = table.getSums(i)[row];
+                }
+                addRow(tableTimes[row], rowKeys, rowSums);
+            }
+        }
+
+        /**
+         * Create the table.
+         *
+         * @return The table. This method never returns <code>null</code>.
+         */
+        /* package */ ColumnTable build() {
+            return new ColumnTable(this);
+        }
+
+        /**
+         * Make sure there is room for one more row.
+         */
+        private void ensureCapacity() {
+            if (numRows < times.length) {
+                return;
+            }
+            final int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = Arrays.copyOf(keys[i], capacity);
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = Arrays.copyOf(sums[i], capacity);
+            }
+        }
+    }
+}
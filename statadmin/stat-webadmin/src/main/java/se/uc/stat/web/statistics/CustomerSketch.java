@@ -0,0 +1,100 @@
+package se.uc.stat.web.statistics;
+
+/**
+ * HyperLogLog sketch of the distinct customers, read from the column
+ * <code>CUSTOMER_SKETCH.SKETCH</code>. The sketches are written by the
+ * statistics API (<code>se.uc.stat.utils.HyperLogLog</code>) and this
+ * class must read the same format: the first byte is the format, followed
+ * by the 1024 registers ({@link #DENSE}) or by an index of two bytes and a
+ * value for each register that is not zero ({@link #SPARSE}).
+ * <p/>
+ * Sketches are merged by taking the max of each register, which gives the
+ * sketch of the customers of all merged sketches.
+ */
+/* package */ class CustomerSketch {
+    /** The dense format. */
+    private final static byte DENSE = 1;
+    /** The sparse format. */
+    private final static byte SPARSE = 2;
+    /** The number of registers. */
+    private final static int NUM_REGISTERS = 1024;
+
+    /** The registers. */
+    private final byte registers[] = new byte[NUM_REGISTERS];
+
+    /**
+     * Merge a stored sketch into this sketch.
+     *
+     * @param bytes The stored sketch. Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if the format of the sketch is
+     *         invalid.
+     */
+    /* package */ void merge(byte bytes[]) {
+        if (bytes.length == NUM_REGISTERS + 1 && bytes[0] == DENSE) {
+            for (int index = 0; index < NUM_REGISTERS; index++) {
+                mergeRegister(index, bytes[index + 1]);
+            }
+        } else if (bytes.length % 3 == 1 && bytes[0] == SPARSE) {
+            for (int pos = 1; pos < bytes.length; pos += 3) {
+                final int index = ((bytes[pos] & 0xff) << 8) |
+                        (bytes[pos + 1] & 0xff);
+                if (index >= NUM_REGISTERS) {
+                    throw new IllegalArgumentException(
+                            "Invalid register index " + index);
+                }
+                mergeRegister(index, bytes[pos + 2]);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid sketch format");
+        }
+    }
+
+    /**
+     * Merge another sketch into this sketch.
+     *
+     * @param other The sketch. Must not be <code>null</code>.
+     */
+    /* package */ void merge(CustomerSketch other) {
+        for (int index = 0; index < NUM_REGISTERS; index++) {
+            mergeRegister(index, other.registers[index]);
+        }
+    }
+
+    /**
+     * Merge one register.
+     *
+     * @param index The index of the register.
+     * @param value The value to merge.
+     */
+    private void mergeRegister(int index, byte value) {
+        if (value > registers[index]) {
+            registers[index] = value;
+        }
+    }
+
+    /**
+     * Get the estimated number of distinct customers.
+     *
+     * @return The estimated number of distinct customers.
+     */
+    /* package */ long estimate() {
+        double sum = 0;
+        int numZeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                numZeros++;
+            }
+        }
+        final double alpha = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+        final double estimate =
+                alpha * NUM_REGISTERS * NUM_REGISTERS / sum;
+        if (estimate <= 2.5 * NUM_REGISTERS && numZeros > 0) {
+            // Linear counting is more exact for small numbers.
+            return Math.round(NUM_REGISTERS *
+                    Math.log((double)NUM_REGISTERS / numZeros));
+        }
+        return Math.round(estimate);
+    }
+}
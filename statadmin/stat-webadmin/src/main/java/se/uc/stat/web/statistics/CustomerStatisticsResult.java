@@ -26,6 +26,23 @@ public class CustomerStatisticsResult extends StatisticsResult {
     public CustomerStatisticsResult(BaseContainer parent) throws SQLException {
         super(parent, "CUSTOMER_STAT");
     }
+
+    /**
+     * Create this class.
+     * 
+     * @param parent  The parent container. Must not be <code>null</code>.
+     * @param execute <code>true</code> to run the query.
+     *                <code>false</code> if the result is only used to
+     *                build queries.
+     * 
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws SQLException if there is a problem accessing the database.
+     */
+    public CustomerStatisticsResult(BaseContainer parent, boolean execute)
+            throws SQLException {
+        super(parent, "CUSTOMER_STAT", execute);
+    }
     
     /**
      * {@inheritDoc}
@@ -40,6 +57,9 @@ public class CustomerStatisticsResult extends StatisticsResult {
         result.add(ColumnInfo.PRODUCT);
         result.add(ColumnInfo.CUSTOMER);
         result.add(ColumnInfo.DATE);
+        result.add(ColumnInfo.WEEK);
+        result.add(ColumnInfo.MONTH);
+        result.add(ColumnInfo.QUARTER);
         result.add(ColumnInfo.DAY_OF_WEEK);
         result.add(ColumnInfo.NUM_CORRECT_CALLS);
         result.add(ColumnInfo.NUM_INVALID_CALLS);
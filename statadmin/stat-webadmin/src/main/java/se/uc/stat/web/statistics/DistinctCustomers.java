@@ -0,0 +1,267 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.uc.stat.web.DBUtilities;
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.types.JoinInfo;
+
+/**
+ * The estimated number of distinct customers per group in a range of days.
+ * The sketches of the distinct customers per method, origin, media and day
+ * in the table <code>CUSTOMER_SKETCH</code> are read and merged per group.
+ * Since a customer calling on several days or several methods is only
+ * counted once, the numbers can not be summed from the customer statistics.
+ * The numbers are estimates with a standard error of about 3%.
+ */
+public class DistinctCustomers {
+    /** The columns the customers may be grouped by. */
+    private final static List<ColumnInfo> GROUP_COLUMNS =
+            Collections.unmodifiableList(Arrays.asList(ColumnInfo.SERVICE,
+                    ColumnInfo.METHOD, ColumnInfo.ORIGIN, ColumnInfo.MEDIA,
+                    ColumnInfo.DATE, ColumnInfo.WEEK, ColumnInfo.MONTH,
+                    ColumnInfo.QUARTER, ColumnInfo.DAY_OF_WEEK));
+    /** The name of the table with the sketches. */
+    private final static String TABLE_NAME = "CUSTOMER_SKETCH";
+    /** The format of the dates. */
+    private final static String DATE_FORMAT = "yyyy-MM-dd";
+
+    /** The columns the customers are grouped by. */
+    private final List<ColumnInfo> groupBy = new ArrayList<ColumnInfo>();
+    /** The groups with the values of the group columns as key. */
+    private final Map<List<String>, CustomerSketch> groups =
+            new LinkedHashMap<List<String>, CustomerSketch>();
+    /** The sketch of all customers. */
+    private final CustomerSketch total = new CustomerSketch();
+
+    /**
+     * Read the distinct customers.
+     *
+     * @param fromDate The first day (<code>yyyy-MM-dd</code>).
+     *                 Must not be <code>null</code>.
+     * @param toDate   The last day (<code>yyyy-MM-dd</code>).
+     *                 Must not be <code>null</code>.
+     * @param groupBy  The names of the columns to group by, see
+     *                 {@link #getGroupColumns()}. <code>null</code> to only
+     *                 get the total.
+     *
+     * @throws IllegalArgumentException if a date or a column is invalid.
+     *         The message is presentable to the user.
+     * @throws SQLException if the sketches could not be read.
+     */
+    public DistinctCustomers(String fromDate, String toDate, String groupBy[])
+            throws SQLException {
+        final Date from = parseDate(fromDate);
+        final Calendar to = Calendar.getInstance();
+        to.setTime(parseDate(toDate));
+        to.add(Calendar.DATE, 1);
+        if (!from.before(to.getTime())) {
+            throw new IllegalArgumentException(
+                    "Fr&aring;n-datum m&aring;ste vara f&ouml;re till-datum");
+        }
+        if (groupBy != null) {
+            final Set<String> names = new LinkedHashSet<String>(
+                    Arrays.asList(groupBy));
+            for (String name : names) {
+                this.groupBy.add(getGroupColumn(name));
+            }
+        }
+        read(from, to.getTime());
+    }
+
+    /**
+     * Get the columns the customers may be grouped by.
+     *
+     * @return The columns. This method never returns <code>null</code>.
+     */
+    public static List<ColumnInfo> getGroupColumns() {
+        return GROUP_COLUMNS;
+    }
+
+    /**
+     * Get the columns the customers are grouped by.
+     *
+     * @return The columns. This method never returns <code>null</code>.
+     */
+    public List<ColumnInfo> getGroupBy() {
+        return Collections.unmodifiableList(groupBy);
+    }
+
+    /**
+     * Get the groups in the order of the group columns.
+     *
+     * @return The values of the group columns of each group in the order of
+     *         {@link #getGroupBy()}. This method never returns
+     *         <code>null</code>.
+     */
+    public List<List<String>> getGroups() {
+        return new ArrayList<List<String>>(groups.keySet());
+    }
+
+    /**
+     * Get the estimated number of distinct customers of a group.
+     *
+     * @param group The values of the group columns, as returned by
+     *              {@link #getGroups()}.
+     *
+     * @return The estimated number of distinct customers or <code>0</code>
+     *         if the group does not exist.
+     */
+    public long getEstimate(List<String> group) {
+        final CustomerSketch sketch = groups.get(group);
+        return sketch == null ? 0 : sketch.estimate();
+    }
+
+    /**
+     * Get the estimated number of distinct customers of all groups.
+     *
+     * @return The estimated number of distinct customers.
+     */
+    public long getTotalEstimate() {
+        return total.estimate();
+    }
+
+    /**
+     * Read and merge the sketches.
+     *
+     * @param from The first date (inclusive). Must not be <code>null</code>.
+     * @param to   The last date (exclusive). Must not be <code>null</code>.
+     *
+     * @throws SQLException if the sketches could not be read.
+     */
+    private void read(Date from, Date to) throws SQLException {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(getSql());
+            ps.setTimestamp(1, new Timestamp(from.getTime()));
+            ps.setTimestamp(2, new Timestamp(to.getTime()));
+            rs = ps.executeQuery();
+            final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+            while (rs.next()) {
+                final List<String> group =
+                        new ArrayList<String>(groupBy.size());
+                for (int index = 0; index < groupBy.size(); index++) {
+                    if (ColumnType.DATE.equals(
+                            groupBy.get(index).getColumnType())) {
+                        group.add(format.format(rs.getTimestamp(index + 1)));
+                    } else {
+                        final String value = rs.getString(index + 1);
+                        group.add(value == null ? "" : value.trim());
+                    }
+                }
+                CustomerSketch sketch = groups.get(group);
+                if (sketch == null) {
+                    sketch = new CustomerSketch();
+                    groups.put(group, sketch);
+                }
+                sketch.merge(rs.getBytes(groupBy.size() + 1));
+            }
+            for (CustomerSketch sketch : groups.values()) {
+                total.merge(sketch);
+            }
+        } finally {
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Get the SQL reading the sketches ordered by the group columns.
+     *
+     * param 1: The first date (inclusive).
+     * param 2: The last date (exclusive).
+     *
+     * @return The SQL. This method never returns <code>null</code>.
+     */
+    private String getSql() {
+        final StringBuilder result = new StringBuilder("select ");
+        final Set<JoinInfo> joins = new LinkedHashSet<JoinInfo>();
+        for (ColumnInfo column : groupBy) {
+            result.append(column.getColumnName()).append(", ");
+            if (column.getJoin() != null) {
+                joins.add(column.getJoin());
+            }
+        }
+        result.append(TABLE_NAME).append(".SKETCH from ").append(TABLE_NAME);
+        for (JoinInfo join : joins) {
+            result.append(" left join ").append(join.getTableName())
+                    .append(" on ").append(TABLE_NAME).append('.')
+                    .append(join.getForeignKeyColumn()).append(" = ")
+                    .append(join.getTableName()).append('.')
+                    .append(join.getKeyColumn());
+        }
+        result.append(" where ").append(TABLE_NAME)
+                .append(".STATISTICS_DATE >= ? and ").append(TABLE_NAME)
+                .append(".STATISTICS_DATE < ?");
+        for (int index = 0; index < groupBy.size(); index++) {
+            result.append(index == 0 ? " order by " : ", ");
+            if (ColumnInfo.DAY_OF_WEEK.equals(groupBy.get(index))) {
+                result.append(TABLE_NAME).append(".DAY_OF_WEEK_ID");
+            } else {
+                result.append(index + 1);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get a column the customers may be grouped by.
+     *
+     * @param name The name of the column.
+     *
+     * @return The column. This method never returns <code>null</code>.
+     *
+     * @throws IllegalArgumentException if the customers may not be grouped
+     *         by the column.
+     */
+    private static ColumnInfo getGroupColumn(String name) {
+        for (ColumnInfo column : GROUP_COLUMNS) {
+            if (column.getName().equals(name)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Ok&auml;nd gruppering");
+    }
+
+    /**
+     * Parse a date.
+     *
+     * @param date The date (<code>yyyy-MM-dd</code>).
+     *
+     * @return The date. This method never returns <code>null</code>.
+     *
+     * @throws IllegalArgumentException if the date is invalid.
+     */
+    private static Date parseDate(String date) {
+        final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        format.setLenient(false);
+        try {
+            if (date != null) {
+                return format.parse(date.trim());
+            }
+        } catch (ParseException e) {
+            // Handled below.
+        }
+        throw new IllegalArgumentException(
+                "Ogiltigt datum (" + DATE_FORMAT + ")");
+    }
+}
@@ -0,0 +1,74 @@
+package se.uc.stat.web.statistics;
+
+/**
+ * The formats a statistics result can be exported in.
+ */
+public enum ExportFormat {
+    /** Semicolon separated values with one headline row. */
+    CSV("csv", "text/csv; charset=UTF-8"),
+    /** A JSON array with one object per row. */
+    JSON("json", "application/json; charset=UTF-8");
+
+    /** The (computer) name of the format, also used as file extension. */
+    private final String name;
+
+    /** The content type of the format. */
+    private final String contentType;
+
+    /**
+     * Create this enum.
+     *
+     * @param name        The name of the format.
+     *                    Must not be <code>null</code>.
+     * @param contentType The content type of the format.
+     *                    Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    private ExportFormat(String name, String contentType) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        this.name = name;
+        if (contentType == null) {
+            throw new IllegalArgumentException("contentType must not be null");
+        }
+        this.contentType = contentType;
+    }
+
+    /**
+     * Get the (computer) name of this format.
+     *
+     * @return The name. This method never returns <code>null</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the content type of this format.
+     *
+     * @return The content type. This method never returns <code>null</code>.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the format with the given name.
+     *
+     * @param name The name of the format. May be <code>null</code>.
+     *
+     * @return The format with the given name or <code>CSV</code> if there
+     *         is no such format. This method never returns <code>null</code>.
+     */
+    public static ExportFormat getExportFormat(String name) {
+        for (ExportFormat format : values()) {
+            if (format.getName().equals(name)) {
+                return format;
+            }
+        }
+        return CSV;
+    }
+}
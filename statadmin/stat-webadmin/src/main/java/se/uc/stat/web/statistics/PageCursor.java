@@ -0,0 +1,259 @@
+package se.uc.stat.web.statistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The position where a page of a statistics result ended. The next page
+ * continues after the key of the last row of the previous page (keyset
+ * pagination) so the rows before it are never read again.
+ * <p/>
+ * The cursor also holds the groups that were open when the page ended
+ * together with the sums calculated so far, so that the sums of a group
+ * spanning several pages include all rows of the group.
+ * <p/>
+ * The cursor is passed between the pages as a string, see
+ * {@link #encode()} and {@link #decode(String)}.
+ */
+/* package */ class PageCursor {
+    /** Type tag for string keys. */
+    private final static byte TYPE_STRING = 'S';
+    /** Type tag for date keys. */
+    private final static byte TYPE_DATE = 'D';
+    /** Type tag for long keys. */
+    private final static byte TYPE_LONG = 'L';
+    /** Type tag for integer keys. */
+    private final static byte TYPE_INTEGER = 'I';
+    /** The max number of sums per group in a valid cursor. */
+    private final static int MAX_SUMS = 1000;
+
+    /**
+     * The key values of the last row in the order of the key columns.
+     * The values are of type String, Date, Long or Integer.
+     */
+    private final List<Object> keys;
+    /** The names of the open groups, outermost first. */
+    private final List<String> groupNames;
+    /** The sums of the open groups, in the same order as the names. */
+    private final List<long[]> groupSums;
+
+    /**
+     * Create this class.
+     *
+     * @param keys       The key values of the last row. The values must be of
+     *                   type String, Date, Long or Integer.
+     *                   Must not be <code>null</code>.
+     * @param groupNames The names of the open groups.
+     *                   Must not be <code>null</code>.
+     * @param groupSums  The sums of the open groups.
+     *                   Must not be <code>null</code> and must have the
+     *                   same size as <code>groupNames</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ PageCursor(List<Object> keys, List<String> groupNames,
+            List<long[]> groupSums) {
+        if (keys == null) {
+            throw new IllegalArgumentException("keys must not be null");
+        }
+        if (groupNames == null) {
+            throw new IllegalArgumentException("groupNames must not be null");
+        }
+        if (groupSums == null || groupSums.size() != groupNames.size()) {
+            throw new IllegalArgumentException(
+                    "groupSums must match groupNames");
+        }
+        this.keys = Collections.unmodifiableList(keys);
+        this.groupNames = Collections.unmodifiableList(groupNames);
+        this.groupSums = Collections.unmodifiableList(groupSums);
+    }
+
+    /**
+     * Get the key values of the last row.
+     *
+     * @return The key values. This method never returns <code>null</code>.
+     */
+    /* package */ List<Object> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Get the number of open groups.
+     *
+     * @return The number of open groups.
+     */
+    /* package */ int getNumGroups() {
+        return groupNames.size();
+    }
+
+    /**
+     * Get the name of an open group.
+     *
+     * @param index The index of the group, 0 is the outermost group.
+     *
+     * @return The name. This method never returns <code>null</code>.
+     */
+    /* package */ String getGroupName(int index) {
+        return groupNames.get(index);
+    }
+
+    /**
+     * Get the sums of an open group.
+     *
+     * @param index The index of the group, 0 is the outermost group.
+     *
+     * @return The sums. This method never returns <code>null</code>.
+     */
+    /* package */ long[] getGroupSums(int index) {
+        return groupSums.get(index);
+    }
+
+    /**
+     * Encode this cursor as a string that can be used in a form.
+     *
+     * @return The encoded cursor. This method never returns <code>null</code>.
+     */
+    /* package */ String encode() {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(keys.size());
+            for (Object key : keys) {
+                if (key instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    out.writeUTF((String)key);
+                } else if (key instanceof Date) {
+                    out.writeByte(TYPE_DATE);
+                    out.writeLong(((Date)key).getTime());
+                } else if (key instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong(((Long)key).longValue());
+                } else if (key instanceof Integer) {
+                    out.writeByte(TYPE_INTEGER);
+                    out.writeInt(((Integer)key).intValue());
+                } else {
+                    throw new IllegalStateException("Unknown key type " + key);
+                }
+            }
+            out.writeInt(groupNames.size());
+            for (int i = 0; i < groupNames.size(); i++) {
+                out.writeUTF(groupNames.get(i));
+                final long sums[] = groupSums.get(i);
+                out.writeInt(sums.length);
+                for (long sum : sums) {
+                    out.writeLong(sum);
+                }
+            }
+            out.close();
+            return toHex(bytes.toByteArray());
+        } catch (IOException e) {
+            // Can not happen when writing to memory.
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decode a cursor encoded with {@link #encode()}.
+     *
+     * @param encoded The encoded cursor. Must not be <code>null</code>.
+     *
+     * @return The cursor. This method never returns <code>null</code>.
+     *
+     * @throws IllegalArgumentException if <code>encoded</code> is not a valid
+     *         cursor.
+     */
+    /* package */ static PageCursor decode(String encoded) {
+        if (encoded == null) {
+            throw new IllegalArgumentException("encoded must not be null");
+        }
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(fromHex(encoded)));
+            final int numKeys = in.readInt();
+            final List<Object> keys = new ArrayList<Object>();
+            for (int i = 0; i < numKeys; i++) {
+                final byte type = in.readByte();
+                if (type == TYPE_STRING) {
+                    keys.add(in.readUTF());
+                } else if (type == TYPE_DATE) {
+                    keys.add(new Date(in.readLong()));
+                } else if (type == TYPE_LONG) {
+                    keys.add(new Long(in.readLong()));
+                } else if (type == TYPE_INTEGER) {
+                    keys.add(new Integer(in.readInt()));
+                } else {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+            }
+            final int numGroups = in.readInt();
+            final List<String> groupNames = new ArrayList<String>();
+            final List<long[]> groupSums = new ArrayList<long[]>();
+            for (int i = 0; i < numGroups; i++) {
+                groupNames.add(in.readUTF());
+                final int numSums = in.readInt();
+                if (numSums < 0 || numSums > MAX_SUMS) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                final long sums[] = new long[numSums];
+                for (int j = 0; j < sums.length; j++) {
+                    sums[j] = in.readLong();
+                }
+                groupSums.add(sums);
+            }
+            return new PageCursor(keys, groupNames, groupSums);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    /**
+     * Encode bytes as a hexadecimal string.
+     *
+     * @param bytes The bytes. Must not be <code>null</code>.
+     *
+     * @return The hexadecimal string.
+     *         This method never returns <code>null</code>.
+     */
+    private static String toHex(byte bytes[]) {
+        final StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Decode a hexadecimal string.
+     *
+     * @param hex The hexadecimal string. Must not be <code>null</code>.
+     *
+     * @return The bytes. This method never returns <code>null</code>.
+     *
+     * @throws IllegalArgumentException if <code>hex</code> is not a valid
+     *         hexadecimal string.
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        final byte result[] = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            final int high = Character.digit(hex.charAt(2 * i), 16);
+            final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            result[i] = (byte)((high << 4) | low);
+        }
+        return result;
+    }
+}
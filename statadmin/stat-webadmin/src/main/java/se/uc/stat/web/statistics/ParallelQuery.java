@@ -0,0 +1,329 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import se.uc.stat.web.types.ColumnAggregation;
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.webtypes.GUIForm;
+
+/**
+ * Runs the query of a statistics result as several queries, each one
+ * covering a part of the searched date range. The parts are run
+ * concurrently on a bounded thread pool shared by all searches.
+ * <p/>
+ * The records of the parts are merged in Java: records with the same
+ * values in all grouped columns are added together (the database would have
+ * aggregated them if the query had not been divided) and the merged records
+ * are sorted in the same way as the <code>order by</code> clause of the
+ * query. The result can therefore be processed exactly like the records of
+ * a single query, including group headlines and group sums.
+ */
+/* package */ class ParallelQuery {
+    /** The max number of threads running queries. */
+    private final static int MAX_THREADS = 8;
+    /** The max number of queries waiting for a thread. */
+    private final static int MAX_QUEUED = 32;
+    /** The time an idle thread is kept, in seconds. */
+    private final static long KEEP_ALIVE_SECONDS = 60;
+    /** The length of one hour in milliseconds. */
+    private final static long HOUR = 60L * 60 * 1000;
+    /** The length of one day in milliseconds. */
+    private final static long DAY = 24 * HOUR;
+    /** The separator between the values in the merge key. */
+    private final static char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * The executor running the queries. If the queue is full, the query is
+     * run in the thread of the search, which throttles the searches.
+     */
+    private final static ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactory() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "stat-parallel-query");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** The statistics result to run the query for. */
+    private final StatisticsResult result;
+    /** The number of parts to divide the date range in. */
+    private final int numParts;
+
+    /**
+     * Create this class.
+     *
+     * @param result   The statistics result to run the query for.
+     *                 Must not be <code>null</code>.
+     * @param numParts The number of parts to divide the date range in.
+     *                 Must be at least 1.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ ParallelQuery(StatisticsResult result, int numParts) {
+        if (result == null) {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        if (numParts < 1) {
+            throw new IllegalArgumentException("numParts must be at least 1");
+        }
+        this.result = result;
+        this.numParts = numParts;
+    }
+
+    /**
+     * Check if the search given in the form should be divided in several
+     * queries. This requires that both dates are given and that more than
+     * one query is requested.
+     *
+     * @param form The form with the search. Must not be <code>null</code>.
+     *
+     * @return <code>true</code> if the search should be run with this class.
+     *         <code>false</code> if it should be run as one query.
+     */
+    /* package */ static boolean isApplicable(GUIForm form) {
+        return form.getParallelism() > 1 && form.getFromDate() != null &&
+                form.getToDate() != null &&
+                form.getFromDate().before(form.getToDate());
+    }
+
+    /**
+     * Run the query and return the merged and sorted records.
+     *
+     * @return The records in the order they should be presented.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if any of the queries fails.
+     */
+    /* package */ List<ResultSetCell[]> execute() throws SQLException {
+        final GUIForm form = result.getParent().getGUIForm();
+        final List<Date> limits = getLimits(form.getFromDate(),
+                form.getToDate());
+        // If the rows are not aggregated by the database, the rows of the
+        // parts never need to be merged and the first rows of each part are
+        // enough to get the first rows of the result.
+        final boolean aggregated = result.isAggregated();
+        final int maxRecords =
+                aggregated ? Integer.MAX_VALUE : form.getMaxRows() + 1;
+        final List<Future<List<ResultSetCell[]>>> futures =
+                new ArrayList<Future<List<ResultSetCell[]>>>();
+        result.getMonitor().setNumParts(limits.size() - 1);
+        try {
+            for (int i = 0; i < limits.size() - 1; i++) {
+                final List<Object> parameters = new ArrayList<Object>();
+                final String sql = result.getSql(limits.get(i),
+                        limits.get(i + 1), parameters);
+                futures.add(executor.submit(
+                        new Callable<List<ResultSetCell[]>>() {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public List<ResultSetCell[]> call() throws SQLException {
+                        final List<ResultSetCell[]> records =
+                                result.readRecords(sql, parameters,
+                                maxRecords);
+                        result.getMonitor().partDone();
+                        return records;
+                    }
+                }));
+            }
+            final List<ResultSetCell[]> records;
+            if (aggregated) {
+                records = merge(futures);
+            } else {
+                records = new ArrayList<ResultSetCell[]>();
+                for (Future<List<ResultSetCell[]>> future : futures) {
+                    records.addAll(future.get());
+                }
+            }
+            Collections.sort(records, result.createRecordComparator());
+            return records;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException)e.getCause();
+            }
+            final SQLException exception =
+                    new SQLException("Parallel query failed");
+            exception.initCause(e.getCause());
+            throw exception;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final SQLException exception =
+                    new SQLException("Parallel query interrupted");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            // Does nothing for queries that are already done.
+            for (Future<List<ResultSetCell[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Divide the date range in parts. The limits are aligned to the
+     * resolution of the statistics table.
+     *
+     * @param fromDate The from date (inclusive). Must not be <code>null</code>.
+     * @param toDate   The to date (exclusive). Must not be <code>null</code>
+     *                 and must be after <code>fromDate</code>.
+     *
+     * @return The limits of the parts starting with <code>fromDate</code>
+     *         and ending with <code>toDate</code>. Part i is from limit i
+     *         (inclusive) to limit i + 1 (exclusive).
+     *         This method never returns <code>null</code>.
+     */
+    private List<Date> getLimits(Date fromDate, Date toDate) {
+        // The time statistics are stored per hour or part of an hour, the
+        // customer statistics per day.
+        final long unit = result.getStatisticsTableName().startsWith(
+                "TIME_STAT") ? HOUR : DAY;
+        final long from = fromDate.getTime();
+        final long to = toDate.getTime();
+        final long numUnits = (to - from + unit - 1) / unit;
+        final long parts = Math.min(numParts, numUnits);
+        final List<Date> limits = new ArrayList<Date>();
+        limits.add(fromDate);
+        for (long i = 1; i < parts; i++) {
+            final long limit = from + (numUnits * i / parts) * unit;
+            if (limit > limits.get(limits.size() - 1).getTime() &&
+                    limit < to) {
+                limits.add(new Date(limit));
+            }
+        }
+        limits.add(toDate);
+        return limits;
+    }
+
+    /**
+     * Merge the records of all parts. Records with the same values in all
+     * grouped columns are added together.
+     *
+     * @param futures The records of the parts. Must not be <code>null</code>.
+     *
+     * @return The merged records in no particular order.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws ExecutionException if any of the parts failed.
+     * @throws InterruptedException if the thread is interrupted while
+     *         waiting for a part.
+     */
+    private List<ResultSetCell[]> merge(
+            List<Future<List<ResultSetCell[]>>> futures)
+            throws ExecutionException, InterruptedException {
+        final List<List<ResultSetCell[]>> parts =
+                new ArrayList<List<ResultSetCell[]>>();
+        for (Future<List<ResultSetCell[]>> future : futures) {
+            parts.add(future.get());
+        }
+        return merge(result.getQueryAttributes(), parts);
+    }
+
+    /**
+     * Merge the records of several parts of a search. Records with the same
+     * values in all grouped columns are added together.
+     *
+     * @param attributes The attributes of the records.
+     *                   Must not be <code>null</code>.
+     * @param parts      The records of the parts.
+     *                   Must not be <code>null</code>.
+     *
+     * @return The merged records in no particular order.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ static List<ResultSetCell[]> merge(
+            List<ColumnInfo> attributes, List<List<ResultSetCell[]>> parts) {
+        final Map<String, ResultSetCell[]> merged =
+                new LinkedHashMap<String, ResultSetCell[]>();
+        for (List<ResultSetCell[]> part : parts) {
+            for (ResultSetCell[] record : part) {
+                final String key = getKey(attributes, record);
+                final ResultSetCell[] existing = merged.get(key);
+                if (existing == null) {
+                    merged.put(key, record);
+                } else {
+                    for (int i = 0; i < record.length; i++) {
+                        final ColumnInfo columnInfo = attributes.get(i);
+                        if (ColumnAggregation.SUM.equals(
+                                columnInfo.getColumnAggregation())) {
+                            existing[i] = sum(columnInfo, existing[i],
+                                    record[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<ResultSetCell[]>(merged.values());
+    }
+
+    /**
+     * Get the merge key of a record, built from the grouped columns.
+     *
+     * @param attributes The attributes of the record.
+     *                   Must not be <code>null</code>.
+     * @param record     The record. Must not be <code>null</code>.
+     *
+     * @return The merge key. This method never returns <code>null</code>.
+     */
+    private static String getKey(List<ColumnInfo> attributes,
+            ResultSetCell[] record) {
+        final StringBuilder key = new StringBuilder();
+        for (int i = 0; i < record.length; i++) {
+            if (ColumnAggregation.GROUP.equals(
+                    attributes.get(i).getColumnAggregation())) {
+                key.append(record[i].getString()).append(KEY_SEPARATOR);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Add two summed cells together.
+     *
+     * @param columnInfo The column of the cells.
+     *                   Must not be <code>null</code>.
+     * @param cell1      One of the cells. Must not be <code>null</code>.
+     * @param cell2      The other cell. Must not be <code>null</code>.
+     *
+     * @return A cell with the sum, formatted in the same way as when it is
+     *         read from the database.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ static ResultSetCell sum(ColumnInfo columnInfo,
+            ResultSetCell cell1, ResultSetCell cell2) {
+        final long value = cell1.getLong() + cell2.getLong();
+        String str = Long.toString(value);
+        if (value == 0 && ColumnType.LONG_NO_ZEROES.equals(
+                columnInfo.getColumnType())) {
+            str = "";
+        }
+        return new ResultSetCell(str, value, null);
+    }
+}
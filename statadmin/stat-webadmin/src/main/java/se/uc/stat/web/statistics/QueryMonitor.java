@@ -0,0 +1,215 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class following the execution of the queries of one statistics result.
+ * It holds the progress of the search, the query timeout and makes it
+ * possible to cancel the queries that are running from another thread.
+ * <p/>
+ * This class is thread safe.
+ */
+public class QueryMonitor {
+    /** The query timeout in seconds of searches run in the background. */
+    public final static int BACKGROUND_TIMEOUT_SECONDS = 300;
+
+    /** The lock guarding the statements and the cancelled flag. */
+    private final Object lock = new Object();
+    /**
+     * The statements that are currently running.
+     * Must only be accessed when holding <code>lock</code>.
+     */
+    private final Set<Statement> statements = new HashSet<Statement>();
+    /**
+     * <code>true</code> if the search has been cancelled.
+     * Must only be accessed when holding <code>lock</code>.
+     */
+    private boolean cancelled = false;
+    /** The query timeout in seconds. 0 means no timeout. */
+    private volatile int timeoutSeconds;
+    /**
+     * The number of records read so far. Updated by the threads reading
+     * the records without any lock.
+     */
+    private final AtomicLong numRecords = new AtomicLong();
+    /** The number of queries the search is divided in. */
+    private volatile int numParts = 1;
+    /** The number of queries that are done. */
+    private final AtomicInteger numPartsDone = new AtomicInteger();
+
+    /**
+     * Create this class without any query timeout.
+     */
+    public QueryMonitor() {
+        this(0);
+    }
+
+    /**
+     * Create this class.
+     *
+     * @param timeoutSeconds The query timeout in seconds. 0 means no timeout.
+     *                       Must not be negative.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public QueryMonitor(int timeoutSeconds) {
+        if (timeoutSeconds < 0) {
+            throw new IllegalArgumentException(
+                    "timeoutSeconds must not be negative");
+        }
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Prepare a statement to be run and register it so that it can be
+     * cancelled. The statement has to be unregistered with
+     * {@link #unregister(Statement)} when it is done.
+     *
+     * @param statement The statement. Must not be <code>null</code>.
+     *
+     * @throws SQLException if the search has been cancelled or if the query
+     *         timeout could not be set.
+     */
+    /* package */ void register(Statement statement) throws SQLException {
+        synchronized (lock) {
+            checkCancelled();
+            statements.add(statement);
+        }
+        statement.setQueryTimeout(timeoutSeconds);
+    }
+
+    /**
+     * Unregister a statement registered with {@link #register(Statement)}.
+     *
+     * @param statement The statement. <code>null</code> is ignored.
+     */
+    /* package */ void unregister(Statement statement) {
+        synchronized (lock) {
+            statements.remove(statement);
+        }
+    }
+
+    /**
+     * Throw an exception if the search has been cancelled.
+     *
+     * @throws SQLException if the search has been cancelled.
+     */
+    /* package */ void checkCancelled() throws SQLException {
+        if (isCancelled()) {
+            throw new SQLException("The search has been cancelled");
+        }
+    }
+
+    /**
+     * Cancel the search. The statements that are running are cancelled
+     * and no new statements may be run.
+     */
+    public void cancel() {
+        final Statement running[];
+        synchronized (lock) {
+            cancelled = true;
+            running = statements.toArray(new Statement[statements.size()]);
+        }
+        for (Statement statement : running) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // The statement is probably already done. Nothing to do.
+            }
+        }
+    }
+
+    /**
+     * Check if the search has been cancelled.
+     *
+     * @return <code>true</code> if the search has been cancelled.
+     */
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Get the query timeout.
+     *
+     * @return The query timeout in seconds. 0 means no timeout.
+     */
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /**
+     * Set the query timeout. The timeout is used by the queries registered
+     * after this call.
+     *
+     * @param timeoutSeconds The query timeout in seconds. 0 means no timeout.
+     *                       Must not be negative.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        if (timeoutSeconds < 0) {
+            throw new IllegalArgumentException(
+                    "timeoutSeconds must not be negative");
+        }
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Increase the number of records read by one.
+     */
+    /* package */ void addRecord() {
+        numRecords.incrementAndGet();
+    }
+
+    /**
+     * Get the number of records read so far.
+     *
+     * @return The number of records read.
+     */
+    public long getNumRecords() {
+        return numRecords.get();
+    }
+
+    /**
+     * Set the number of queries the search is divided in.
+     *
+     * @param numParts The number of queries.
+     */
+    /* package */ void setNumParts(int numParts) {
+        this.numParts = numParts;
+    }
+
+    /**
+     * Get the number of queries the search is divided in.
+     *
+     * @return The number of queries.
+     */
+    public int getNumParts() {
+        return numParts;
+    }
+
+    /**
+     * Increase the number of queries that are done by one.
+     */
+    /* package */ void partDone() {
+        numPartsDone.incrementAndGet();
+    }
+
+    /**
+     * Get the number of queries that are done.
+     *
+     * @return The number of queries that are done.
+     */
+    public int getNumPartsDone() {
+        return numPartsDone.get();
+    }
+}
@@ -0,0 +1,172 @@
+package se.uc.stat.web.statistics;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+
+/**
+ * Comparator ordering records read from the statistics tables in the same
+ * way as the <code>order by</code> clause of the statistics query does.
+ * This is used when the records from several queries are merged in Java.
+ */
+/* package */ class RecordComparator implements Comparator<ResultSetCell[]> {
+    /** The attributes in the records. */
+    private final List<ColumnInfo> queryAttributes;
+    /** The indexes in the record to sort on in the order to sort on. */
+    private final int indexes[];
+    /** <code>true</code> for each index that is sorted descending. */
+    private final boolean descending[];
+    /** The order of the days of the week, by name. */
+    private final Map<String, Integer> dayOfWeekOrder;
+
+    /**
+     * Create this class.
+     * 
+     * @param queryAttributes The attributes in the records.
+     *                        Must not be <code>null</code>.
+     * @param indexes         The indexes in the record to sort on. Indexes
+     *                        below zero are ignored.
+     *                        Must not be <code>null</code>.
+     * @param descending      <code>true</code> for each index in
+     *                        <code>indexes</code> that is sorted descending.
+     *                        Must not be <code>null</code> and must have
+     *                        the same length as <code>indexes</code>.
+     * @param dayOfWeekOrder  The order (id) of the days of the week by name.
+     *                        Must not be <code>null</code>.
+     *                        
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ RecordComparator(List<ColumnInfo> queryAttributes,
+            int indexes[], boolean descending[],
+            Map<String, Integer> dayOfWeekOrder) {
+        if (queryAttributes == null) {
+            throw new IllegalArgumentException(
+                    "queryAttributes must not be null");
+        }
+        if (indexes == null) {
+            throw new IllegalArgumentException("indexes must not be null");
+        }
+        if (descending == null || descending.length != indexes.length) {
+            throw new IllegalArgumentException(
+                    "descending must match indexes");
+        }
+        if (dayOfWeekOrder == null) {
+            throw new IllegalArgumentException(
+                    "dayOfWeekOrder must not be null");
+        }
+        this.queryAttributes = queryAttributes;
+        this.indexes = indexes;
+        this.descending = descending;
+        this.dayOfWeekOrder = dayOfWeekOrder;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int compare(ResultSetCell[] record1, ResultSetCell[] record2) {
+        for (int i = 0; i < indexes.length; i++) {
+            final int index = indexes[i];
+            if (index < 0) {
+                continue;
+            }
+            int result = compareCell(queryAttributes.get(index),
+                    record1[index], record2[index]);
+            if (result != 0) {
+                return descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two cells of the same column.
+     * 
+     * @param columnInfo The column of the cells. Must not be <code>null</code>.
+     * @param cell1      The first cell. Must not be <code>null</code>.
+     * @param cell2      The second cell. Must not be <code>null</code>.
+     * 
+     * @return Below zero if <code>cell1</code> is sorted before
+     *         <code>cell2</code>, above zero if it is sorted after and zero
+     *         if they are equal.
+     */
+    private int compareCell(ColumnInfo columnInfo, ResultSetCell cell1,
+            ResultSetCell cell2) {
+        final ColumnType columnType = columnInfo.getColumnType();
+        if (ColumnType.DATE.equals(columnType) ||
+                ColumnType.DATE_HOUR.equals(columnType) ||
+                ColumnType.DATE_MINUTE.equals(columnType)) {
+            return compareDates(cell1.getDate(), cell2.getDate());
+        }
+        if (ColumnType.LONG.equals(columnType) ||
+                ColumnType.LONG_NO_ZEROES.equals(columnType)) {
+            return compareLongs(cell1.getLong(), cell2.getLong());
+        }
+        if (ColumnInfo.DAY_OF_WEEK.equals(columnInfo)) {
+            final Integer day1 = dayOfWeekOrder.get(cell1.getString());
+            final Integer day2 = dayOfWeekOrder.get(cell2.getString());
+            if (day1 != null && day2 != null) {
+                return day1.compareTo(day2);
+            }
+        }
+        return compareStrings(cell1.getString(), cell2.getString());
+    }
+
+    /**
+     * Compare two dates. <code>null</code> is sorted last as in the
+     * database.
+     * 
+     * @param date1 The first date. May be <code>null</code>.
+     * @param date2 The second date. May be <code>null</code>.
+     * 
+     * @return The result of the comparison.
+     */
+    private static int compareDates(Date date1, Date date2) {
+        if (date1 == null) {
+            return date2 == null ? 0 : 1;
+        }
+        if (date2 == null) {
+            return -1;
+        }
+        return date1.compareTo(date2);
+    }
+
+    /**
+     * Compare two long values.
+     * 
+     * @param value1 The first value.
+     * @param value2 The second value.
+     * 
+     * @return The result of the comparison.
+     */
+    private static int compareLongs(long value1, long value2) {
+        if (value1 < value2) {
+            return -1;
+        }
+        return value1 == value2 ? 0 : 1;
+    }
+
+    /**
+     * Compare two strings. <code>null</code> is sorted last as in the
+     * database.
+     * 
+     * @param string1 The first string. May be <code>null</code>.
+     * @param string2 The second string. May be <code>null</code>.
+     * 
+     * @return The result of the comparison.
+     */
+    private static int compareStrings(String string1, String string2) {
+        if (string1 == null) {
+            return string2 == null ? 0 : 1;
+        }
+        if (string2 == null) {
+            return -1;
+        }
+        return string1.compareTo(string2);
+    }
+}
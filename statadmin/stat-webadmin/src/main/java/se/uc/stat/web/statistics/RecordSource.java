@@ -0,0 +1,19 @@
+package se.uc.stat.web.statistics;
+
+import java.sql.SQLException;
+
+/**
+ * A source of the records used to build a statistics result. The records
+ * are returned in the order they should be presented.
+ */
+/* package */ interface RecordSource {
+    /**
+     * Get the next record.
+     * 
+     * @return The cells of the next record in the order of the query
+     *         attributes or <code>null</code> if there are no more records.
+     *         
+     * @throws SQLException if there is a problem retrieving the record.
+     */
+    ResultSetCell[] next() throws SQLException;
+}
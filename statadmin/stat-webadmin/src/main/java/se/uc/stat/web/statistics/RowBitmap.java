@@ -0,0 +1,417 @@
+package se.uc.stat.web.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed set of row numbers, used as index of the rows having a value
+ * in a key column of a {@link ColumnTable}.
+ * <p/>
+ * The row numbers are divided in chunks of 65536 rows on the 16 high bits.
+ * A chunk with few rows is stored as a sorted array of the 16 low bits and
+ * a chunk with many rows as a bitmap of 65536 bits, whichever is smaller
+ * (the same layout as Roaring bitmaps). Intersections and unions are
+ * calculated chunk by chunk, so chunks missing in one of the sets are never
+ * looked at.
+ * <p/>
+ * Instances are created with {@link Builder} or as the result of
+ * {@link #and} and {@link #or} and are immutable.
+ */
+/* package */ class RowBitmap {
+    /** The max number of rows in a chunk stored as an array. */
+    private final static int MAX_ARRAY_SIZE = 4096;
+    /** The number of longs in a chunk stored as a bitmap. */
+    private final static int BITMAP_WORDS = 1024;
+    /** The empty set. */
+    /* package */ final static RowBitmap EMPTY =
+            new RowBitmap(new int[0], new Chunk[0]);
+
+    /** The high 16 bits of the rows of each chunk, ascending. */
+    private final int keys[];
+    /** The chunks in the same order as the keys. */
+    private final Chunk chunks[];
+
+    /**
+     * Create this class.
+     *
+     * @param keys   The high 16 bits of each chunk, ascending.
+     *               Must not be <code>null</code>.
+     * @param chunks The chunks. Must not be <code>null</code>.
+     */
+    private RowBitmap(int keys[], Chunk chunks[]) {
+        this.keys = keys;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Get the number of rows in this set.
+     *
+     * @return The number of rows.
+     */
+    /* package */ int getCardinality() {
+        int result = 0;
+        for (Chunk chunk : chunks) {
+            result += chunk.cardinality;
+        }
+        return result;
+    }
+
+    /**
+     * Get the rows in this set.
+     *
+     * @return The rows in ascending order.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ int[] toArray() {
+        final int result[] = new int[getCardinality()];
+        int pos = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            final int high = keys[i] << 16;
+            final Chunk chunk = chunks[i];
+            if (chunk.array != null) {
+                for (int j = 0; j < chunk.cardinality; j++) {
+                    result[pos++] = high | chunk.array[j];
+                }
+            } else {
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = chunk.bitmap[word];
+                    while (bits != 0) {
+                        final int bit = Long.numberOfTrailingZeros(bits);
+                        result[pos++] = high | (word << 6) | bit;
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the intersection of this set and another set.
+     *
+     * @param other The other set. Must not be <code>null</code>.
+     *
+     * @return The rows in both sets. This method never returns
+     *         <code>null</code>.
+     */
+    /* package */ RowBitmap and(RowBitmap other) {
+        final List<Integer> resultKeys = new ArrayList<Integer>();
+        final List<Chunk> resultChunks = new ArrayList<Chunk>();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Chunk chunk = and(chunks[i], other.chunks[j]);
+                if (chunk.cardinality > 0) {
+                    resultKeys.add(new Integer(keys[i]));
+                    resultChunks.add(chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return create(resultKeys, resultChunks);
+    }
+
+    /**
+     * Get the union of this set and another set.
+     *
+     * @param other The other set. Must not be <code>null</code>.
+     *
+     * @return The rows in any of the sets. This method never returns
+     *         <code>null</code>.
+     */
+    /* package */ RowBitmap or(RowBitmap other) {
+        final List<Integer> resultKeys = new ArrayList<Integer>();
+        final List<Chunk> resultChunks = new ArrayList<Chunk>();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j >= other.keys.length ||
+                    (i < keys.length && keys[i] < other.keys[j])) {
+                resultKeys.add(new Integer(keys[i]));
+                resultChunks.add(chunks[i]);
+                i++;
+            } else if (i >= keys.length || keys[i] > other.keys[j]) {
+                resultKeys.add(new Integer(other.keys[j]));
+                resultChunks.add(other.chunks[j]);
+                j++;
+            } else {
+                resultKeys.add(new Integer(keys[i]));
+                resultChunks.add(or(chunks[i], other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return create(resultKeys, resultChunks);
+    }
+
+    /**
+     * Create a set from lists of keys and chunks.
+     *
+     * @param keyList   The keys. Must not be <code>null</code>.
+     * @param chunkList The chunks. Must not be <code>null</code>.
+     *
+     * @return The set. This method never returns <code>null</code>.
+     */
+    private static RowBitmap create(List<Integer> keyList,
+            List<Chunk> chunkList) {
+        final int resultKeys[] = new int[keyList.size()];
+        for (int i = 0; i < resultKeys.length; i++) {
+            resultKeys[i] = keyList.get(i).intValue();
+        }
+        return new RowBitmap(resultKeys,
+                chunkList.toArray(new Chunk[chunkList.size()]));
+    }
+
+    /**
+     * Get the intersection of two chunks.
+     *
+     * @param chunk1 One of the chunks. Must not be <code>null</code>.
+     * @param chunk2 The other chunk. Must not be <code>null</code>.
+     *
+     * @return The intersection. This method never returns <code>null</code>.
+     */
+    private static Chunk and(Chunk chunk1, Chunk chunk2) {
+        if (chunk1.array != null && chunk2.array != null) {
+            final char result[] =
+                    new char[Math.min(chunk1.cardinality, chunk2.cardinality)];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < chunk1.cardinality && j < chunk2.cardinality) {
+                if (chunk1.array[i] < chunk2.array[j]) {
+                    i++;
+                } else if (chunk1.array[i] > chunk2.array[j]) {
+                    j++;
+                } else {
+                    result[size++] = chunk1.array[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new Chunk(result, null, size);
+        }
+        if (chunk1.array != null || chunk2.array != null) {
+            final Chunk array = chunk1.array != null ? chunk1 : chunk2;
+            final Chunk bitmap = chunk1.array != null ? chunk2 : chunk1;
+            final char result[] = new char[array.cardinality];
+            int size = 0;
+            for (int i = 0; i < array.cardinality; i++) {
+                final int value = array.array[i];
+                if ((bitmap.bitmap[value >>> 6] & (1L << value)) != 0) {
+                    result[size++] = array.array[i];
+                }
+            }
+            return new Chunk(result, null, size);
+        }
+        final long result[] = new long[BITMAP_WORDS];
+        int cardinality = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            result[word] = chunk1.bitmap[word] & chunk2.bitmap[word];
+            cardinality += Long.bitCount(result[word]);
+        }
+        return toSmallest(result, cardinality);
+    }
+
+    /**
+     * Get the union of two chunks.
+     *
+     * @param chunk1 One of the chunks. Must not be <code>null</code>.
+     * @param chunk2 The other chunk. Must not be <code>null</code>.
+     *
+     * @return The union. This method never returns <code>null</code>.
+     */
+    private static Chunk or(Chunk chunk1, Chunk chunk2) {
+        if (chunk1.array != null && chunk2.array != null &&
+                chunk1.cardinality + chunk2.cardinality <= MAX_ARRAY_SIZE) {
+            final char result[] =
+                    new char[chunk1.cardinality + chunk2.cardinality];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < chunk1.cardinality || j < chunk2.cardinality) {
+                if (j >= chunk2.cardinality || (i < chunk1.cardinality &&
+                        chunk1.array[i] < chunk2.array[j])) {
+                    result[size++] = chunk1.array[i++];
+                } else if (i >= chunk1.cardinality ||
+                        chunk1.array[i] > chunk2.array[j]) {
+                    result[size++] = chunk2.array[j++];
+                } else {
+                    result[size++] = chunk1.array[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new Chunk(result, null, size);
+        }
+        final long result[] = new long[BITMAP_WORDS];
+        setBits(result, chunk1);
+        setBits(result, chunk2);
+        int cardinality = 0;
+        for (long word : result) {
+            cardinality += Long.bitCount(word);
+        }
+        return toSmallest(result, cardinality);
+    }
+
+    /**
+     * Set the bits of the rows of a chunk in a bitmap.
+     *
+     * @param bitmap The bitmap. Must not be <code>null</code>.
+     * @param chunk  The chunk. Must not be <code>null</code>.
+     */
+    private static void setBits(long bitmap[], Chunk chunk) {
+        if (chunk.array == null) {
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                bitmap[word] |= chunk.bitmap[word];
+            }
+        } else {
+            for (int i = 0; i < chunk.cardinality; i++) {
+                final int value = chunk.array[i];
+                bitmap[value >>> 6] |= 1L << value;
+            }
+        }
+    }
+
+    /**
+     * Create a chunk from a bitmap, stored as an array if that is smaller.
+     *
+     * @param bitmap      The bitmap. Must not be <code>null</code>.
+     * @param cardinality The number of bits set in the bitmap.
+     *
+     * @return The chunk. This method never returns <code>null</code>.
+     */
+    private static Chunk toSmallest(long bitmap[], int cardinality) {
+        if (cardinality > MAX_ARRAY_SIZE) {
+            return new Chunk(null, bitmap, cardinality);
+        }
+        final char array[] = new char[cardinality];
+        int pos = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                array[pos++] = (char)((word << 6) |
+                        Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return new Chunk(array, null, cardinality);
+    }
+
+    /**
+     * The rows of one chunk, stored either as a sorted array or as a
+     * bitmap.
+     */
+    private static class Chunk {
+        /** The low 16 bits of the rows or <code>null</code>. */
+        private final char array[];
+        /** The bitmap of the rows or <code>null</code>. */
+        private final long bitmap[];
+        /** The number of rows. */
+        private final int cardinality;
+
+        /**
+         * Create this class.
+         *
+         * @param array       The sorted low 16 bits of the rows, only the
+         *                    first <code>cardinality</code> elements are
+         *                    used. <code>null</code> if a bitmap is given.
+         * @param bitmap      The bitmap of the rows or <code>null</code> if
+         *                    an array is given.
+         * @param cardinality The number of rows.
+         */
+        /* package */ Chunk(char array[], long bitmap[], int cardinality) {
+            this.array = array;
+            this.bitmap = bitmap;
+            this.cardinality = cardinality;
+        }
+    }
+
+    /**
+     * Builder of row sets. The rows have to be added in ascending order.
+     * This class is not thread safe.
+     */
+    /* package */ static class Builder {
+        /** The keys of the completed chunks. */
+        private final List<Integer> keyList = new ArrayList<Integer>();
+        /** The completed chunks. */
+        private final List<Chunk> chunkList = new ArrayList<Chunk>();
+        /** The key of the current chunk or -1 if there is none. */
+        private int currentKey = -1;
+        /** The rows of the current chunk while stored as an array. */
+        private char currentArray[] = new char[16];
+        /** The rows of the current chunk when stored as a bitmap. */
+        private long currentBitmap[] = null;
+        /** The number of rows in the current chunk. */
+        private int currentSize = 0;
+
+        /**
+         * Add a row.
+         *
+         * @param row The row. Must be greater than the rows already added
+         *            and not negative.
+         */
+        /* package */ void add(int row) {
+            final int key = row >>> 16;
+            if (key != currentKey) {
+                finishChunk();
+                currentKey = key;
+            }
+            final char low = (char)row;
+            if (currentBitmap != null) {
+                currentBitmap[low >>> 6] |= 1L << low;
+            } else if (currentSize < MAX_ARRAY_SIZE) {
+                if (currentSize == currentArray.length) {
+                    currentArray = Arrays.copyOf(currentArray,
+                            Math.min(MAX_ARRAY_SIZE, currentSize * 2));
+                }
+                currentArray[currentSize] = low;
+            } else {
+                currentBitmap = new long[BITMAP_WORDS];
+                for (int i = 0; i < currentSize; i++) {
+                    currentBitmap[currentArray[i] >>> 6] |=
+                            1L << currentArray[i];
+                }
+                currentBitmap[low >>> 6] |= 1L << low;
+            }
+            currentSize++;
+        }
+
+        /**
+         * Create the set.
+         *
+         * @return The set. This method never returns <code>null</code>.
+         */
+        /* package */ RowBitmap build() {
+            finishChunk();
+            currentKey = -1;
+            return create(keyList, chunkList);
+        }
+
+        /**
+         * Complete the current chunk, if any.
+         */
+        private void finishChunk() {
+            if (currentKey < 0 || currentSize == 0) {
+                return;
+            }
+            keyList.add(new Integer(currentKey));
+            if (currentBitmap != null) {
+                chunkList.add(new Chunk(null, currentBitmap, currentSize));
+            } else {
+                chunkList.add(new Chunk(
+                        Arrays.copyOf(currentArray, currentSize), null,
+                        currentSize));
+            }
+            currentArray = new char[16];
+            currentBitmap = null;
+            currentSize = 0;
+        }
+    }
+}
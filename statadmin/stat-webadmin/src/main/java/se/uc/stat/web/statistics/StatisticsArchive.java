@@ -0,0 +1,490 @@
+package se.uc.stat.web.statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import se.uc.stat.web.BaseContainer;
+
+/**
+ * Archive of statistics for whole months, stored as one
+ * {@link ArchiveSegment} file per table and month. Old rows never change,
+ * so a month that has been archived can be searched in the archive instead
+ * of in the database. The rows are not removed from the database.
+ * <p/>
+ * Statistics spilled by a collector while the database was unreachable may
+ * be stored after their month was archived. A month is therefore compared
+ * with the database, by the number of rows and the sum of the summed
+ * columns, at most once per <code>STALE_CHECK_INTERVAL</code>. A month
+ * that differs is stale and is searched in the database until it is
+ * archived again.
+ * <p/>
+ * The archive is stored in the directory given by the environment entry
+ * <code>java:comp/env/statArchiveDirectory</code>. If the entry is not
+ * set, there is no archive.
+ * <p/>
+ * This class is thread safe.
+ */
+public class StatisticsArchive {
+    /** The name of the environment entry with the archive directory. */
+    private final static String DIRECTORY_ENTRY = "statArchiveDirectory";
+    /** The suffix of the segment files. */
+    private final static String SUFFIX = ".seg";
+    /** The format of the months in the file names. */
+    private final static String FILE_MONTH_FORMAT = "yyyyMM";
+    /** The format of the months presented and given by the user. */
+    private final static String MONTH_FORMAT = "yyyy-MM";
+    /** The pattern a month must match, see <code>MONTH_FORMAT</code>. */
+    private final static Pattern MONTH_PATTERN =
+            Pattern.compile("[0-9]{4}-[0-9]{2}");
+    /** The max age of the dimension names before they are read again. */
+    private final static long NAMES_REFRESH_INTERVAL = 60 * 1000;
+    /** The time between the comparisons of a month with the database. */
+    private final static long STALE_CHECK_INTERVAL = 60 * 60 * 1000;
+
+    /** The archives by layout. */
+    private final static Map<ColumnLayout, StatisticsArchive> archives =
+            new EnumMap<ColumnLayout, StatisticsArchive>(ColumnLayout.class);
+
+    /** The layout of the archived table. */
+    private final ColumnLayout layout;
+    /** The directory of the segment files. */
+    private final File directory;
+    /**
+     * The opened segments by file name. Must only be accessed when holding
+     * a lock on this object.
+     */
+    private final Map<String, ArchiveSegment> segments =
+            new HashMap<String, ArchiveSegment>();
+    /**
+     * The last modification time of the opened segment files. Must only be
+     * accessed when holding a lock on this object.
+     */
+    private final Map<String, Long> modified = new HashMap<String, Long>();
+    /**
+     * The names of the dimensions or <code>null</code> if not read. Must
+     * only be accessed when holding a lock on this object.
+     */
+    private Map<String, Map<Integer, String>> names = null;
+    /** The time the names were read. */
+    private long namesRead = 0;
+    /**
+     * The time each segment file was last compared with the database. Must
+     * only be accessed when holding a lock on this object.
+     */
+    private final Map<String, Long> checked = new HashMap<String, Long>();
+    /**
+     * The segment files that differ from the database. Must only be
+     * accessed when holding a lock on this object.
+     */
+    private final Set<String> stale = new HashSet<String>();
+
+    /**
+     * Create this class.
+     *
+     * @param layout    The layout of the archived table.
+     *                  Must not be <code>null</code>.
+     * @param directory The directory of the segment files.
+     *                  Must not be <code>null</code>.
+     */
+    private StatisticsArchive(ColumnLayout layout, File directory) {
+        this.layout = layout;
+        this.directory = directory;
+    }
+
+    /**
+     * Get the archive of a type of statistics.
+     *
+     * @param type The type of statistics. Must not be <code>null</code>.
+     *
+     * @return The archive or <code>null</code> if there is no archive.
+     */
+    public static StatisticsArchive getArchive(BaseContainer.Type type) {
+        if (BaseContainer.Type.CUSTOMER.equals(type)) {
+            return getArchive(ColumnLayout.CUSTOMER);
+        }
+        return getArchive(ColumnLayout.TIME);
+    }
+
+    /**
+     * Get the archive of a statistics table.
+     *
+     * @param tableName The name of the statistics table.
+     *
+     * @return The archive or <code>null</code> if there is no archive.
+     */
+    /* package */ static StatisticsArchive getArchive(String tableName) {
+        final ColumnLayout layout = ColumnLayout.getColumnLayout(tableName);
+        if (layout == null) {
+            return null;
+        }
+        return getArchive(layout);
+    }
+
+    /**
+     * Get the archive of a layout.
+     *
+     * @param layout The layout. Must not be <code>null</code>.
+     *
+     * @return The archive or <code>null</code> if there is no archive.
+     */
+    private static StatisticsArchive getArchive(ColumnLayout layout) {
+        final File directory = getDirectory();
+        if (directory == null) {
+            return null;
+        }
+        synchronized (archives) {
+            StatisticsArchive archive = archives.get(layout);
+            if (archive == null || !archive.directory.equals(directory)) {
+                archive = new StatisticsArchive(layout, directory);
+                archives.put(layout, archive);
+            }
+            return archive;
+        }
+    }
+
+    /**
+     * Get the directory of the archive.
+     *
+     * @return The directory or <code>null</code> if there is no archive.
+     */
+    private static File getDirectory() {
+        try {
+            final Context initContext = new InitialContext();
+            final Context envContext =
+                    (Context)initContext.lookup("java:/comp/env");
+            final Object value = envContext.lookup(DIRECTORY_ENTRY);
+            if (value == null || value.toString().trim().length() == 0) {
+                return null;
+            }
+            final File directory = new File(value.toString().trim());
+            return directory.isDirectory() ? directory : null;
+        } catch (NamingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the archived months.
+     *
+     * @return The months as <code>yyyy-MM</code> in ascending order.
+     *         This method never returns <code>null</code>.
+     */
+    public List<String> getMonths() {
+        final List<String> result = new ArrayList<String>();
+        final SimpleDateFormat format = new SimpleDateFormat(MONTH_FORMAT);
+        for (Date month : getMonthDates()) {
+            result.add(format.format(month));
+        }
+        return result;
+    }
+
+    /**
+     * Archive a month. The rows of the month are read from the database and
+     * written to a segment file. An already archived month is replaced.
+     *
+     * @param month The month as <code>yyyy-MM</code>. The month must have
+     *              ended. Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if the month is invalid or has not
+     *         ended.
+     * @throws SQLException if the rows could not be read.
+     * @throws IOException if the segment file could not be written.
+     */
+    public void archiveMonth(String month) throws SQLException, IOException {
+        if (month == null) {
+            throw new IllegalArgumentException("month must not be null");
+        }
+        // The month is part of the messages shown to the user, so it is
+        // validated before it is used in any message. The date format
+        // alone accepts trailing characters.
+        if (!MONTH_PATTERN.matcher(month).matches()) {
+            throw new IllegalArgumentException("Ogiltig m&aring;nad, " +
+                    "ange yyyy-MM");
+        }
+        final Date start;
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat(MONTH_FORMAT);
+            format.setLenient(false);
+            start = format.parse(month);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Ogiltig m&aring;nad " + month);
+        }
+        final long end = getNextMonth(start.getTime());
+        if (end > System.currentTimeMillis()) {
+            throw new IllegalArgumentException(
+                    "M&aring;naden " + month + " &auml;r inte slut");
+        }
+        final ColumnTable.Builder builder =
+                new ColumnTable.Builder(layout, getNames());
+        ColumnStore.readRows(layout, builder, start.getTime(), end,
+                null);
+        final File file = getFile(start);
+        ArchiveSegment.write(builder.build(), file);
+        synchronized (this) {
+            segments.remove(file.getName());
+            checked.remove(file.getName());
+            stale.remove(file.getName());
+        }
+    }
+
+    /**
+     * Get the end of the archived months that follow each other starting
+     * with the month of the given date. A stale month ends the archived
+     * months.
+     *
+     * @param fromDate The from date of a search or <code>null</code> if
+     *                 there is no lower limit.
+     *
+     * @return The end of the last archived month or <code>null</code> if
+     *         the month of <code>fromDate</code> is not archived.
+     *
+     * @throws SQLException if a month could not be compared with the
+     *         database.
+     * @throws IOException if a segment file could not be read.
+     */
+    /* package */ Date getArchivedUntil(Date fromDate)
+            throws SQLException, IOException {
+        if (fromDate == null) {
+            return null;
+        }
+        final List<Date> months = getMonthDates();
+        long month = getMonthStart(fromDate.getTime());
+        Date result = null;
+        while (months.contains(new Date(month)) &&
+                !isStale(new Date(month))) {
+            month = getNextMonth(month);
+            result = new Date(month);
+        }
+        return result;
+    }
+
+    /**
+     * Run a query against the archived months within a time interval.
+     * Months that can not match the search are skipped without reading
+     * their rows.
+     *
+     * @param query    The query. Must not be <code>null</code>.
+     * @param fromDate The from date (inclusive). Must not be
+     *                 <code>null</code>.
+     * @param toDate   The to date (exclusive). Must not be
+     *                 <code>null</code>.
+     *
+     * @return The records of each month that may match. Without
+     *         aggregation at most <code>maxRows + 1</code> records per
+     *         month, see {@link ColumnQuery}.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the search is cancelled or the names of the
+     *         dimensions could not be read.
+     * @throws IOException if a segment file could not be read.
+     */
+    /* package */ List<List<ResultSetCell[]>> query(ColumnQuery query,
+            Date fromDate, Date toDate) throws SQLException, IOException {
+        final List<ColumnQuery.Condition> conditions = query.getConditions();
+        final Map<String, Map<Integer, String>> currentNames = getNames();
+        final List<List<ResultSetCell[]>> result =
+                new ArrayList<List<ResultSetCell[]>>();
+        for (Date month : getMonthDates()) {
+            if (getNextMonth(month.getTime()) <= fromDate.getTime() ||
+                    month.getTime() >= toDate.getTime()) {
+                continue;
+            }
+            final ArchiveSegment segment = getSegment(month);
+            if (segment.mayMatch(fromDate.getTime(), toDate.getTime(),
+                    conditions)) {
+                result.add(query.execute(segment.getTable(currentNames),
+                        fromDate, toDate));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the archived months.
+     *
+     * @return The first moment of each month in ascending order.
+     *         This method never returns <code>null</code>.
+     */
+    private List<Date> getMonthDates() {
+        final List<Date> result = new ArrayList<Date>();
+        final String prefix = layout.getTableName() + "-";
+        final String fileNames[] = directory.list();
+        if (fileNames == null) {
+            return result;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(FILE_MONTH_FORMAT);
+        format.setLenient(false);
+        for (String fileName : fileNames) {
+            if (fileName.startsWith(prefix) && fileName.endsWith(SUFFIX)) {
+                try {
+                    result.add(format.parse(fileName.substring(
+                            prefix.length(),
+                            fileName.length() - SUFFIX.length())));
+                } catch (ParseException e) {
+                    // Not a segment file, ignore.
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Get the segment of a month, opening it if needed.
+     *
+     * @param month The first moment of the month.
+     *              Must not be <code>null</code>.
+     *
+     * @return The segment. This method never returns <code>null</code>.
+     *
+     * @throws IOException if the segment file could not be read.
+     */
+    private synchronized ArchiveSegment getSegment(Date month)
+            throws IOException {
+        final File file = getFile(month);
+        final Long lastModified = new Long(file.lastModified());
+        ArchiveSegment segment = segments.get(file.getName());
+        if (segment == null || !lastModified.equals(
+                modified.get(file.getName()))) {
+            segment = new ArchiveSegment(file);
+            if (!layout.equals(segment.getLayout())) {
+                throw new IOException("Wrong layout in " + file);
+            }
+            segments.put(file.getName(), segment);
+            modified.put(file.getName(), lastModified);
+        }
+        return segment;
+    }
+
+    /**
+     * Check if an archived month differs from the database. The month is
+     * compared with the database at most once per
+     * <code>STALE_CHECK_INTERVAL</code>.
+     *
+     * @param month The first moment of the month.
+     *              Must not be <code>null</code>.
+     *
+     * @return <code>true</code> if the month is stale.
+     *
+     * @throws SQLException if the month could not be compared with the
+     *         database.
+     * @throws IOException if the segment file could not be read.
+     */
+    private boolean isStale(Date month) throws SQLException, IOException {
+        final ArchiveSegment segment = getSegment(month);
+        final String fileName = segment.getFile().getName();
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (stale.contains(fileName)) {
+                return true;
+            }
+            final Long lastChecked = checked.get(fileName);
+            if (lastChecked != null &&
+                    now - lastChecked.longValue() < STALE_CHECK_INTERVAL) {
+                return false;
+            }
+            // Other searches use the segment while it is compared.
+            checked.put(fileName, new Long(now));
+        }
+        final long fingerprint[];
+        try {
+            fingerprint = ColumnStore.readFingerprint(layout, month.getTime(),
+                    getNextMonth(month.getTime()));
+        } catch (SQLException e) {
+            synchronized (this) {
+                checked.remove(fileName);
+            }
+            throw e;
+        }
+        if (fingerprint[0] == segment.getNumRows() &&
+                fingerprint[1] == segment.getSumOfSums()) {
+            return false;
+        }
+        synchronized (this) {
+            stale.add(fileName);
+        }
+        return true;
+    }
+
+    /**
+     * Get the names of the dimensions, reading them if they are too old.
+     *
+     * @return The names by name column and id.
+     *         This method never returns <code>null</code>.
+     *
+     * @throws SQLException if the names could not be read.
+     */
+    private synchronized Map<String, Map<Integer, String>> getNames()
+            throws SQLException {
+        final long now = System.currentTimeMillis();
+        if (names == null || now - namesRead >= NAMES_REFRESH_INTERVAL) {
+            names = ColumnStore.readNames(layout);
+            namesRead = now;
+        }
+        return names;
+    }
+
+    /**
+     * Get the segment file of a month.
+     *
+     * @param month The first moment of the month.
+     *              Must not be <code>null</code>.
+     *
+     * @return The file. This method never returns <code>null</code>.
+     */
+    private File getFile(Date month) {
+        final SimpleDateFormat format = new SimpleDateFormat(FILE_MONTH_FORMAT);
+        return new File(directory, layout.getTableName() + "-" +
+                format.format(month) + SUFFIX);
+    }
+
+    /**
+     * Get the first moment of the month of a time.
+     *
+     * @param time The time in milliseconds.
+     *
+     * @return The first moment of the month in milliseconds.
+     */
+    private static long getMonthStart(long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Get the first moment of the month after a month.
+     *
+     * @param monthStart The first moment of a month in milliseconds.
+     *
+     * @return The first moment of the next month in milliseconds.
+     */
+    private static long getNextMonth(long monthStart) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(monthStart);
+        calendar.add(Calendar.MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,305 @@
+package se.uc.stat.web.statistics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import se.uc.stat.web.DBUtilities;
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.webtypes.GUIForm;
+
+/**
+ * Class exporting the rows of a statistics search. The rows are written
+ * directly from the result set to the stream, so the memory used does not
+ * depend on the number of rows. There is no limit of the number of rows.
+ * <p/>
+ * The values are exported without formatting for the web page. Dates are
+ * written as <code>yyyy-MM-dd</code> or <code>yyyy-MM-dd HH:mm</code> and
+ * averages are calculated in the same way as in the web page.
+ */
+/* package */ class StatisticsExport {
+    /** The number of rows fetched from the database in each round trip. */
+    private final static int FETCH_SIZE = 1000;
+    /** The size of the write buffer in characters. */
+    private final static int BUFFER_SIZE = 64 * 1024;
+    /** The separator between the values in CSV. */
+    private final static char CSV_SEPARATOR = ';';
+    /** The character encoding of the export. */
+    private final static String ENCODING = "UTF-8";
+
+    /** The statistics result holding the search. */
+    private final StatisticsResult result;
+    /** The format of the export. */
+    private final ExportFormat format;
+    /** The format of dates. */
+    private final SimpleDateFormat dateFormat =
+            new SimpleDateFormat("yyyy-MM-dd");
+    /** The format of dates with hour. */
+    private final SimpleDateFormat dateHourFormat =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+    /**
+     * Create this class.
+     *
+     * @param result The statistics result holding the search.
+     *               Must not be <code>null</code>.
+     * @param format The format of the export. Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ StatisticsExport(StatisticsResult result,
+            ExportFormat format) {
+        if (result == null) {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format must not be null");
+        }
+        this.result = result;
+        this.format = format;
+    }
+
+    /**
+     * Run the query and write all rows to the stream.
+     *
+     * @param out  The stream to write to. It is not closed.
+     *             Must not be <code>null</code>.
+     * @param gzip <code>true</code> to compress the export with gzip.
+     *
+     * @throws SQLException if there is a problem retrieving the information.
+     * @throws IOException if there is a problem writing the export.
+     */
+    /* package */ void write(OutputStream out, boolean gzip)
+            throws SQLException, IOException {
+        final GZIPOutputStream gzipStream =
+                gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                gzip ? gzipStream : out, ENCODING), BUFFER_SIZE);
+        final QueryMonitor monitor = result.getMonitor();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            final GUIForm form = result.getParent().getGUIForm();
+            final List<Object> parameters = new ArrayList<Object>();
+            final String sql = result.getSql(form.getFromDate(),
+                    form.getToDate(), parameters);
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            ps.setFetchSize(FETCH_SIZE);
+            result.setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            writeStart(writer);
+            boolean first = true;
+            while (rs.next()) {
+                monitor.addRecord();
+                writeRow(writer, rs, first);
+                first = false;
+            }
+            writeEnd(writer);
+            monitor.partDone();
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+        writer.flush();
+        if (gzipStream != null) {
+            gzipStream.finish();
+        }
+    }
+
+    /**
+     * Write the start of the export.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     *
+     * @throws IOException if there is a problem writing the export.
+     */
+    private void writeStart(Writer writer) throws IOException {
+        if (ExportFormat.JSON.equals(format)) {
+            writer.write('[');
+            return;
+        }
+        boolean first = true;
+        for (ColumnInfo columnInfo : result.getQueryAttributes()) {
+            if (!first) {
+                writer.write(CSV_SEPARATOR);
+            }
+            writer.write(columnInfo.getName());
+            first = false;
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write the end of the export.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     *
+     * @throws IOException if there is a problem writing the export.
+     */
+    private void writeEnd(Writer writer) throws IOException {
+        if (ExportFormat.JSON.equals(format)) {
+            writer.write("]\n");
+        }
+    }
+
+    /**
+     * Write the current row of the result set.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     * @param rs     The result set positioned on the row.
+     *               Must not be <code>null</code>.
+     * @param first  <code>true</code> if this is the first row.
+     *
+     * @throws SQLException if there is a problem reading the row.
+     * @throws IOException if there is a problem writing the export.
+     */
+    private void writeRow(Writer writer, ResultSet rs, boolean first)
+            throws SQLException, IOException {
+        final List<ColumnInfo> attributes = result.getQueryAttributes();
+        final boolean json = ExportFormat.JSON.equals(format);
+        if (json) {
+            writer.write(first ? "\n{" : ",\n{");
+        }
+        for (int index = 0; index < attributes.size(); index++) {
+            final ColumnInfo columnInfo = attributes.get(index);
+            if (index > 0) {
+                writer.write(json ? ',' : CSV_SEPARATOR);
+            }
+            if (json) {
+                writeJsonString(writer, columnInfo.getName());
+                writer.write(':');
+            }
+            final ColumnType columnType = columnInfo.getColumnType();
+            if (ColumnType.LONG.equals(columnType) ||
+                    ColumnType.LONG_NO_ZEROES.equals(columnType)) {
+                long value = rs.getLong(index + 1);
+                final int denominatorIndex = result.getDenominator(index);
+                if (denominatorIndex >= 0) {
+                    final long denominator = rs.getLong(denominatorIndex + 1);
+                    if (denominator > 0) {
+                        writer.write(Long.toString(value / denominator));
+                    } else if (json) {
+                        writer.write("null");
+                    }
+                } else {
+                    writer.write(Long.toString(value));
+                }
+            } else {
+                final String value = getString(rs, index + 1, columnType);
+                if (json) {
+                    writeJsonString(writer, value);
+                } else {
+                    writeCsvString(writer, value);
+                }
+            }
+        }
+        if (json) {
+            writer.write('}');
+        } else {
+            writer.write("\r\n");
+        }
+    }
+
+    /**
+     * Read a column that is not numeric as a string.
+     *
+     * @param rs         The result set. Must not be <code>null</code>.
+     * @param column     The column index starting with 1.
+     * @param columnType The type of the column.
+     *                   Must not be <code>null</code>.
+     *
+     * @return The value or <code>null</code> if the value is
+     *         <code>null</code>.
+     *
+     * @throws SQLException if there is a problem reading the value.
+     */
+    private String getString(ResultSet rs, int column, ColumnType columnType)
+            throws SQLException {
+        if (ColumnType.DATE.equals(columnType)) {
+            final Timestamp timestamp = rs.getTimestamp(column);
+            return timestamp == null ? null : dateFormat.format(timestamp);
+        }
+        if (ColumnType.DATE_HOUR.equals(columnType) ||
+                ColumnType.DATE_MINUTE.equals(columnType)) {
+            final Timestamp timestamp = rs.getTimestamp(column);
+            return timestamp == null ? null : dateHourFormat.format(timestamp);
+        }
+        final String value = rs.getString(column);
+        // CHAR columns are padded with spaces in the database.
+        return value == null ? null : value.trim();
+    }
+
+    /**
+     * Write a CSV value. The value is quoted if needed.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     * @param value  The value. <code>null</code> is written as an empty value.
+     *
+     * @throws IOException if there is a problem writing the export.
+     */
+    private static void writeCsvString(Writer writer, String value)
+            throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(CSV_SEPARATOR) < 0 && value.indexOf('"') < 0 &&
+                value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Write a JSON string.
+     *
+     * @param writer The writer to write to. Must not be <code>null</code>.
+     * @param value  The value. <code>null</code> is written as
+     *               <code>null</code>.
+     *
+     * @throws IOException if there is a problem writing the export.
+     */
+    private static void writeJsonString(Writer writer, String value)
+            throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int pos = 0; pos < value.length(); pos++) {
+            final char c = value.charAt(pos);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < ' ') {
+                final String hex = Integer.toHexString(c);
+                writer.write("\\u");
+                for (int i = hex.length(); i < 4; i++) {
+                    writer.write('0');
+                }
+                writer.write(hex);
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -1,5 +1,7 @@
 package se.uc.stat.web.statistics;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -7,17 +9,28 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import se.uc.stat.web.BaseContainer;
 import se.uc.stat.web.DBUtilities;
 import se.uc.stat.web.types.ColumnAggregation;
 import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.types.DayOfWeek;
 import se.uc.stat.web.types.JoinInfo;
 import se.uc.stat.web.types.SortType;
 import se.uc.stat.web.webtypes.GUIForm;
+import se.uc.stat.web.webtypes.GUIFormatter;
 import se.uc.stat.web.webtypes.GUIList;
 import se.uc.stat.web.webtypes.GUISortOrderListRow;
 import se.uc.stat.web.webtypes.GUISortParameterListRow;
@@ -29,6 +42,25 @@ import se.uc.stat.web.webtypes.GUISortRow;
  * @author Anders Persson (konx40).
  */
 public abstract class StatisticsResult {
+    /** The locale used to format the relative differences of periods. */
+    private final static Locale COMPARISON_LOCALE = new Locale("sv", "SE");
+    /**
+     * The calendar buckets. The dates are truncated by the database, so
+     * these columns can not be read from the archive or the in-memory
+     * store.
+     */
+    private final static Set<ColumnInfo> TIME_BUCKETS = EnumSet.of(
+            ColumnInfo.WEEK, ColumnInfo.MONTH, ColumnInfo.QUARTER,
+            ColumnInfo.TIME_WEEK, ColumnInfo.TIME_MONTH,
+            ColumnInfo.TIME_QUARTER);
+    /**
+     * The time columns finer than the calendar buckets. They are ignored
+     * when a bucket is chosen, so that the rows are summed per bucket.
+     */
+    private final static Set<ColumnInfo> FINER_TIME_COLUMNS = EnumSet.of(
+            ColumnInfo.DATE, ColumnInfo.DATE_HOUR, ColumnInfo.DATE_MINUTE,
+            ColumnInfo.HOUR_OF_DAY);
+
     /** The columns to group by in the order they should be grouped. */
     private final ArrayList<ColumnInfo> groupBys = new ArrayList<ColumnInfo>();
     /** The columns to render in the order they should be rendered. */
@@ -52,6 +84,14 @@ public abstract class StatisticsResult {
      * If there is no denominator, denominators[i] < 0;
      */
     private final int denominators[];
+    /**
+     * The number of cells in a record. When periods are compared, the
+     * query attributes are followed by the attributes of the period to
+     * compare with, so that the value of queryAttributes[i] in the other
+     * period is located in cell <code>queryAttributes.size() + i</code>.
+     * Only the cells of sum attributes are set in the other period.
+     */
+    private final int recordLength;
     /** The headlines of the result. */
     private final Headlines headlines = new Headlines();
     /** The parent container. */
@@ -63,6 +103,18 @@ public abstract class StatisticsResult {
             new ArrayList<Object>();
     /** The search result. */
     private final List<ResultRow> resultRows = new ArrayList<ResultRow>();
+    /** The monitor following the execution of the queries. */
+    private final QueryMonitor monitor;
+    /**
+     * The position where the previous page ended or <code>null</code> if
+     * this is the first page.
+     */
+    private PageCursor pageCursor = null;
+    /**
+     * The encoded position where this page ended or <code>null</code> if
+     * there is no next page.
+     */
+    private String nextPageCursor = null;
     
     /**
      * Create this class.
@@ -79,6 +131,29 @@ public abstract class StatisticsResult {
      */
     public StatisticsResult(BaseContainer parent, String statisticsTableName) 
             throws SQLException {
+        this(parent, statisticsTableName, true);
+    }
+
+    /**
+     * Create this class.
+     * 
+     * @param parent              The parent container.
+     *                            Must not be <code>null</code>.
+     * @param statisticsTableName The name of the statistics table.
+     *                            Must not be <code>null</code>.
+     * @param execute             <code>true</code> to run the query and
+     *                            populate the result rows.
+     *                            <code>false</code> if the result is only
+     *                            used to build queries, for example when
+     *                            exporting.
+     * 
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     *         
+     * @throws SQLException if there is a problem accessing the database.
+     */
+    protected StatisticsResult(BaseContainer parent,
+            String statisticsTableName, boolean execute) throws SQLException {
         if (parent == null) {
             throw new IllegalArgumentException("parent must not be null");
         }
@@ -88,6 +163,8 @@ public abstract class StatisticsResult {
                     "statisticsTableName must not be null");
         }
         this.statisticsTableName = statisticsTableName;
+        monitor = parent.getQueryMonitor();
+        final GUIForm form = parent.getGUIForm();
         processColumnInfos();
         populateHeadlines();
         // Calculate query attributes.
@@ -111,7 +188,15 @@ public abstract class StatisticsResult {
             }
             index++;
         }
-        runQuery();
+        recordLength = form.isComparison() ?
+                2 * queryAttributes.size() : queryAttributes.size();
+        if (form.getPageCursor() != null && !form.isComparison() &&
+                !form.isTopN()) {
+            pageCursor = decodePageCursor(form.getPageCursor());
+        }
+        if (execute) {
+            runQuery();
+        }
     }
 
     /**
@@ -121,16 +206,77 @@ public abstract class StatisticsResult {
      */
     private void processColumnInfos() {
         List<ColumnInfo> unhandled = getColumnInfos();
+        if (getParent().getGUIForm().isComparison()) {
+            // The dates of two periods never match, so the periods are
+            // compared without the date columns.
+            final Iterator<ColumnInfo> iterator = unhandled.iterator();
+            while (iterator.hasNext()) {
+                final ColumnInfo columnInfo = iterator.next();
+                if (ColumnType.DATE.equals(columnInfo.getColumnType()) ||
+                        ColumnType.DATE_HOUR.equals(
+                        columnInfo.getColumnType()) ||
+                        ColumnType.DATE_MINUTE.equals(
+                        columnInfo.getColumnType())) {
+                    ignores.add(columnInfo);
+                    iterator.remove();
+                }
+            }
+        }
         for (GUISortRow guiSortRow :
                 getParent().getGUIForm().getSort().getSortRows()) {
             handleGuiSortRow(unhandled, guiSortRow);
         }
-        // Add the remaining columns
-        for (ColumnInfo columnInfo : unhandled) {
-            attributes.add(columnInfo);
+        final Set<ColumnInfo> sorted = EnumSet.noneOf(ColumnInfo.class);
+        for (SortAttribute sortAttribute : sortAttributes) {
+            sorted.add(sortAttribute.getColumnInfo());
         }
+        attributes.addAll(selectAttributes(unhandled, sorted, ignores));
     }
-    
+
+    /**
+     * Select the attributes among the columns not grouped or ignored by
+     * the sort rows. A chosen calendar bucket is always selected, so that
+     * it is grouped by whatever its sort order is. The rows are then summed
+     * per bucket, so the finer time columns are ignored unless they are
+     * sorted or grouped. The buckets not chosen only repeat the date and
+     * are left out.
+     * 
+     * @param columnInfos The columns not grouped or ignored by the sort
+     *                    rows in the base order. The ignored columns are
+     *                    removed. Must not be <code>null</code>.
+     * @param sorted      The columns sorted or grouped.
+     *                    Must not be <code>null</code>.
+     * @param ignores     The list to add the ignored columns to.
+     *                    Must not be <code>null</code>.
+     * 
+     * @return The attributes in the base order.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ static List<ColumnInfo> selectAttributes(
+            List<ColumnInfo> columnInfos, Set<ColumnInfo> sorted,
+            List<ColumnInfo> ignores) {
+        boolean bucketChosen = false;
+        for (ColumnInfo columnInfo : sorted) {
+            if (TIME_BUCKETS.contains(columnInfo)) {
+                bucketChosen = true;
+            }
+        }
+        final List<ColumnInfo> result = new ArrayList<ColumnInfo>();
+        final Iterator<ColumnInfo> iterator = columnInfos.iterator();
+        while (iterator.hasNext()) {
+            final ColumnInfo columnInfo = iterator.next();
+            if (bucketChosen && FINER_TIME_COLUMNS.contains(columnInfo) &&
+                    !sorted.contains(columnInfo)) {
+                ignores.add(columnInfo);
+                iterator.remove();
+            } else if (!TIME_BUCKETS.contains(columnInfo) ||
+                    sorted.contains(columnInfo)) {
+                result.add(columnInfo);
+            }
+        }
+        return result;
+    }
+
     /**
      * Get the columns in this result in the expected base order.
      * 
@@ -186,265 +332,1622 @@ public abstract class StatisticsResult {
             // Nothing to do.
             return;
         }
-        int index = columnInfos.indexOf(columnInfo);
-        if (index < 0) {
-            // Nothing to do.
-            return;
+        int index = columnInfos.indexOf(columnInfo);
+        if (index < 0) {
+            // Nothing to do.
+            return;
+        }
+        if (sortType.isGrouping()) {
+            groupBys.add(columnInfo);
+            sortAttributes.add(new SortAttribute(columnInfo, sortType));
+            columnInfos.remove(index);
+        } else if (sortType.isIgnored()) {
+            ignores.add(columnInfo);
+            columnInfos.remove(index);
+        } else {
+            sortAttributes.add(new SortAttribute(columnInfo, sortType));
+        }
+    }
+    
+    /**
+     * Add a grouped headline for the statistics result. The headlines should
+     * be added in the view order.
+     * 
+     * @param columnInfo The headline to add. Must not be <code>null</code>.
+     */
+    private void addGroupedHeadline(ColumnInfo columnInfo) {
+        headlines.addGroupedHeadline(new Headline(columnInfo));
+    }
+    
+    /**
+     * Add a not grouped headline for the statistics result. The headlines
+     * should be added in the view order.
+     * 
+     * @param columnInfo The headline to add. Must not be <code>null</code>.
+     */
+    private void addHeadline(ColumnInfo columnInfo) {
+        headlines.addHeadline(new Headline(columnInfo));
+    }
+    
+    /**
+     * Get the headlines for the statistics.
+     * 
+     * @return The headlines for the statistics.
+     *         This method never returns <code>null</code>.
+     */
+    public Headlines getHeadlines() {
+        return headlines;
+    }
+    
+    /**
+     * Get the result rows.
+     * 
+     * @return The result rows. This method never returns <code>null</code>.
+     */
+    public List<ResultRow> getResultRows() {
+        return resultRows;
+    }
+    
+    /**
+     * Get the base container for this result.
+     * 
+     * @return The parent base container for this result.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ BaseContainer getParent() {
+        return parent;
+    }
+    
+    /**
+     * Get the attributes in the query in the order they are returned.
+     * 
+     * @return The attributes in the query.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ List<ColumnInfo> getQueryAttributes() {
+        return queryAttributes;
+    }
+
+    /**
+     * Get the index of the denominator of an attribute in the query.
+     * 
+     * @param index The index of the attribute in the query.
+     * 
+     * @return The index of the denominator attribute or a negative value
+     *         if the attribute has no denominator.
+     */
+    /* package */ int getDenominator(int index) {
+        return denominators[index];
+    }
+
+    /**
+     * Export all rows of the search to the given stream. The rows are
+     * streamed from the database without being held in memory and without
+     * any limit of the number of rows.
+     * 
+     * @param out    The stream to write to. It is not closed.
+     *               Must not be <code>null</code>.
+     * @param format The format of the export. Must not be <code>null</code>.
+     * @param gzip   <code>true</code> to compress the export with gzip.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     * @throws IOException if there is a problem writing the export.
+     */
+    public void export(OutputStream out, ExportFormat format, boolean gzip)
+            throws SQLException, IOException {
+        new StatisticsExport(this, format).write(out, gzip);
+    }
+
+    /**
+     * Write time series of the search as JSON to a stream, summed by the
+     * database and downsampled to at most <code>numPoints</code> points
+     * per series. See {@link TimeSeries} for the series and the format.
+     * 
+     * @param out       The stream to write to. It is not closed.
+     *                  Must not be <code>null</code>.
+     * @param series    The names of the series. <code>null</code> or empty
+     *                  to get the number of correct calls.
+     * @param numPoints The max number of points of each series or
+     *                  <code>0</code> for the default.
+     * 
+     * @throws IllegalArgumentException if a series or the number of points
+     *         is invalid or if the search has no period. The message is
+     *         presentable to the user.
+     * @throws SQLException if there is a problem retrieving the information.
+     * @throws IOException if there is a problem writing the JSON.
+     */
+    public void writeTimeSeries(OutputStream out, String series[],
+            int numPoints) throws SQLException, IOException {
+        new TimeSeries(this, series, numPoints == 0 ?
+                TimeSeries.DEFAULT_POINTS : numPoints).write(out);
+    }
+
+    /**
+     * Get the name of the statistics table.
+     * 
+     * @return The name of the statistics table.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ String getStatisticsTableName() {
+        return statisticsTableName;
+    }
+
+    /**
+     * Create a comparator ordering records read by the query in the same
+     * way as the <code>order by</code> clause of the query does.
+     * 
+     * @return A comparator for records.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ Comparator<ResultSetCell[]> createRecordComparator() {
+        final int indexes[] = new int[sortAttributes.size()];
+        final boolean descending[] = new boolean[sortAttributes.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            final SortAttribute sort = sortAttributes.get(i);
+            indexes[i] = queryAttributes.indexOf(sort.getColumnInfo());
+            descending[i] = sort.getSortType().isDescending();
+        }
+        final Map<String, Integer> dayOfWeekOrder =
+                new HashMap<String, Integer>();
+        for (DayOfWeek dayOfWeek : parent.getDayOfWeekList()) {
+            dayOfWeekOrder.put(dayOfWeek.getName(),
+                    new Integer(dayOfWeek.getId()));
+        }
+        return new RecordComparator(queryAttributes, indexes, descending,
+                dayOfWeekOrder);
+    }
+
+    /**
+     * Get the monitor following the execution of the queries.
+     * 
+     * @return The query monitor. This method never returns <code>null</code>.
+     */
+    /* package */ QueryMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Check if any calendar bucket (week, month or quarter) is queried.
+     * 
+     * @return <code>true</code> if the dates must be truncated by the
+     *         database.
+     */
+    private boolean isTimeBucketed() {
+        for (ColumnInfo columnInfo : queryAttributes) {
+            if (TIME_BUCKETS.contains(columnInfo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the query and populate the <code>resultRows</code>.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void runQuery() throws SQLException {
+        final GUIForm form = parent.getGUIForm();
+        if (form.isComparison()) {
+            runComparisonQuery();
+            return;
+        }
+        if (isRollup() && !isTopN()) {
+            runRollupQuery();
+            return;
+        }
+        final StatisticsArchive archive =
+                StatisticsArchive.getArchive(statisticsTableName);
+        if (pageCursor == null && form.isArchive() && archive != null &&
+                !isTimeBucketed()) {
+            final Date archivedUntil;
+            try {
+                archivedUntil = archive.getArchivedUntil(form.getFromDate());
+            } catch (IOException e) {
+                final SQLException exception =
+                        new SQLException("Could not read archive");
+                exception.initCause(e);
+                throw exception;
+            }
+            if (archivedUntil != null &&
+                    runArchiveQuery(archive, archivedUntil)) {
+                return;
+            }
+        }
+        final ColumnStore store = ColumnStore.getStore(statisticsTableName);
+        if (pageCursor == null && form.isInMemory() && store != null &&
+                store.covers(form.getFromDate()) && !isTimeBucketed() &&
+                buildFirstPage(
+                        new ColumnQuery(this).execute(store.getTable()))) {
+            return;
+        }
+        if (pageCursor == null && ParallelQuery.isApplicable(form) &&
+                buildFirstPage(new ParallelQuery(this,
+                        form.getParallelism()).execute())) {
+            return;
+        }
+        if (isTopN()) {
+            runTopQuery();
+            return;
+        }
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            final List<Object> parameters = new ArrayList<Object>();
+            final String sql = getSql(form.getFromDate(), form.getToDate(),
+                    pageCursor, parameters);
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            final ResultSet resultSet = rs;
+            buildResultRows(new RecordSource() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public ResultSetCell[] next() throws SQLException {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    monitor.addRecord();
+                    return readRecord(resultSet);
+                }
+            }, true);
+            monitor.partDone();
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Run the query comparing the period of the search with the period to
+     * compare with and populate the <code>resultRows</code>. Both periods
+     * are summed in the same query, so the statistics table is only read
+     * once.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void runComparisonQuery() throws SQLException {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            final List<Object> parameters = new ArrayList<Object>();
+            final String sql = getComparisonSql(parameters);
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            final ResultSet resultSet = rs;
+            buildResultRows(new RecordSource() {
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public ResultSetCell[] next() throws SQLException {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    monitor.addRecord();
+                    return readComparisonRecord(resultSet);
+                }
+            }, false);
+            monitor.partDone();
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Populate the <code>resultRows</code> from the records of a search
+     * read from the archive, from memory or by parallel queries, if they
+     * fit on one page. The cursor for the next page is only created by the
+     * query sorted by the database, since the keyset condition of the next
+     * page has to follow the order of the database.
+     * 
+     * @param records The records in any order. Must not be <code>null</code>.
+     * 
+     * @return <code>true</code> if the <code>resultRows</code> are
+     *         populated, <code>false</code> if there are more records than
+     *         fit on one page and the search has to be run by the database
+     *         to get the cursor for the next page.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private boolean buildFirstPage(List<ResultSetCell[]> records)
+            throws SQLException {
+        if (!isTopN() &&
+                records.size() > parent.getGUIForm().getMaxRows()) {
+            return false;
+        }
+        buildSortedResultRows(records);
+        return true;
+    }
+
+    /**
+     * Run the query with the archived part of the search read from the
+     * archive and the rest from memory or the database, and populate the
+     * <code>resultRows</code> if the result fits on one page, see
+     * {@link #buildFirstPage(List)}.
+     * 
+     * @param archive       The archive. Must not be <code>null</code>.
+     * @param archivedUntil The end of the archived part of the search.
+     *                      Must not be <code>null</code>.
+     * 
+     * @return <code>true</code> if the <code>resultRows</code> are
+     *         populated.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private boolean runArchiveQuery(StatisticsArchive archive,
+            Date archivedUntil) throws SQLException {
+        final GUIForm form = parent.getGUIForm();
+        final Date toDate = form.getToDate();
+        final Date archiveTo = toDate != null && toDate.before(archivedUntil) ?
+                toDate : archivedUntil;
+        final List<List<ResultSetCell[]>> parts;
+        try {
+            parts = archive.query(new ColumnQuery(this), form.getFromDate(),
+                    archiveTo);
+        } catch (IOException e) {
+            final SQLException exception =
+                    new SQLException("Could not read archive");
+            exception.initCause(e);
+            throw exception;
+        }
+        if (toDate == null || toDate.after(archivedUntil)) {
+            final ColumnStore store = ColumnStore.getStore(statisticsTableName);
+            if (form.isInMemory() && store != null &&
+                    store.covers(archivedUntil)) {
+                parts.add(new ColumnQuery(this).execute(store.getTable(),
+                        archivedUntil, toDate));
+            } else {
+                // Without aggregation the first rows of the part are enough.
+                final List<Object> parameters = new ArrayList<Object>();
+                final String sql = getSql(archivedUntil, toDate, parameters);
+                parts.add(readRecords(sql, parameters, isAggregated() ?
+                        Integer.MAX_VALUE : form.getMaxRows() + 1));
+            }
+        }
+        return buildFirstPage(ParallelQuery.merge(queryAttributes, parts));
+    }
+
+    /**
+     * Run the query ranking the rows in the database and populate the
+     * <code>resultRows</code> with the top rows followed by a row with the
+     * sums of the other rows.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void runTopQuery() throws SQLException {
+        final int topN = parent.getGUIForm().getTopN();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            final List<Object> parameters = new ArrayList<Object>();
+            final String sql = getTopSql(parameters);
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            final List<ResultSetCell[]> records =
+                    new ArrayList<ResultSetCell[]>();
+            ResultSetCell others[] = null;
+            while (rs.next()) {
+                monitor.addRecord();
+                final ResultSetCell record[] = readRecord(rs);
+                if (rs.getInt(queryAttributes.size() + 1) <= topN) {
+                    records.add(record);
+                    continue;
+                }
+                for (int index = 0; index < record.length; index++) {
+                    if (ColumnAggregation.GROUP.equals(queryAttributes.
+                            get(index).getColumnAggregation())) {
+                        record[index] =
+                                new ResultSetCell(TopRecords.OTHERS, 0, null);
+                    }
+                }
+                others = record;
+            }
+            monitor.partDone();
+            Collections.sort(records, createRecordComparator());
+            if (others != null) {
+                records.add(others);
+            }
+            buildResultRows(records);
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Run the given query and read at most <code>maxRecords</code> records
+     * from it. This is used when the query is divided in several parts.
+     * 
+     * @param sql        The SQL query to run. Must not be <code>null</code>.
+     * @param parameters The parameters of the query.
+     *                   Must not be <code>null</code>.
+     * @param maxRecords The maximum number of records to read.
+     * 
+     * @return The records read. This method never returns <code>null</code>.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    /* package */ List<ResultSetCell[]> readRecords(String sql,
+            List<Object> parameters, int maxRecords) throws SQLException {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            final List<ResultSetCell[]> result = new ArrayList<ResultSetCell[]>();
+            while (result.size() < maxRecords && rs.next()) {
+                monitor.addRecord();
+                result.add(readRecord(rs));
+            }
+            return result;
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Set the query parameters in the prepared statement.
+     * 
+     * @param ps         The prepared statement. Must not be <code>null</code>.
+     * @param parameters The parameters to set in the order they appear in
+     *                   the query. Must not be <code>null</code>.
+     *                   
+     * @throws SQLException if a parameter could not be set.
+     */
+    /* package */ void setParameters(PreparedStatement ps,
+            List<Object> parameters)
+            throws SQLException {
+        int parameterIndex = 1;
+        for (Object param : parameters) {
+            if (param instanceof String) {
+                ps.setString(parameterIndex, (String)param);
+            } else if (param instanceof Long) {
+                ps.setLong(parameterIndex, ((Long)param).longValue());
+            } else if (param instanceof Integer) {
+                ps.setInt(parameterIndex, ((Integer)param).intValue());
+            } else if (param instanceof Date) {
+                final Timestamp ts = new Timestamp(((Date)param).getTime());
+                ps.setTimestamp(parameterIndex, ts);
+            }
+            parameterIndex++;
+        }
+    }
+
+    /**
+     * Read all query attributes of the current row in the result set.
+     * 
+     * @param rs The result set positioned on the row to read.
+     *           Must not be <code>null</code>.
+     *           
+     * @return The cells of the row in the order of the query attributes.
+     *         This method never returns <code>null</code>.
+     *         
+     * @throws SQLException if there is an error reading from the result set.
+     */
+    private ResultSetCell[] readRecord(ResultSet rs) throws SQLException {
+        final ResultSetCell record[] = new ResultSetCell[queryAttributes.size()];
+        for (int rsIndex = 0; rsIndex < record.length; rsIndex++) {
+            record[rsIndex] = queryAttributes.get(rsIndex).getColumnType().
+                    getRead().read(rs, rsIndex + 1);
+        }
+        return record;
+    }
+
+    /**
+     * Read all query attributes of the current row in the result set of the
+     * comparison query, followed by the sums of the period to compare with.
+     * 
+     * @param rs The result set positioned on the row to read.
+     *           Must not be <code>null</code>.
+     *           
+     * @return The cells of the row. This method never returns
+     *         <code>null</code>.
+     *         
+     * @throws SQLException if there is an error reading from the result set.
+     */
+    private ResultSetCell[] readComparisonRecord(ResultSet rs)
+            throws SQLException {
+        final int numAttributes = queryAttributes.size();
+        final ResultSetCell record[] = new ResultSetCell[recordLength];
+        System.arraycopy(readRecord(rs), 0, record, 0, numAttributes);
+        int rsIndex = numAttributes + 1;
+        for (int index = 0; index < numAttributes; index++) {
+            final ColumnInfo columnInfo = queryAttributes.get(index);
+            if (ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation())) {
+                record[numAttributes + index] = columnInfo.getColumnType().
+                        getRead().read(rs, rsIndex);
+                rsIndex++;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Populate the <code>resultRows</code> from the given records in any
+     * order. The records are sorted according to the sort attributes. For
+     * a top list, only the top records are kept, in a bounded heap, and
+     * the other records are summed in a last record.
+     * 
+     * @param records The records. Must not be <code>null</code>.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void buildSortedResultRows(List<ResultSetCell[]> records)
+            throws SQLException {
+        final Comparator<ResultSetCell[]> comparator =
+                createRecordComparator();
+        if (!isTopN()) {
+            Collections.sort(records, comparator);
+            buildResultRows(records);
+            return;
+        }
+        final TopRecords top = new TopRecords(queryAttributes,
+                getTopIndex(), parent.getGUIForm().getTopN());
+        for (ResultSetCell[] record : records) {
+            top.add(record);
+        }
+        buildResultRows(top.getRecords(comparator));
+    }
+
+    /**
+     * Populate the <code>resultRows</code> from the given records. The
+     * records have to be sorted according to the sort attributes.
+     * 
+     * @param records The records. Must not be <code>null</code>.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void buildResultRows(List<ResultSetCell[]> records)
+            throws SQLException {
+        final Iterator<ResultSetCell[]> iterator = records.iterator();
+        buildResultRows(new RecordSource() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public ResultSetCell[] next() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        }, false);
+    }
+
+    /**
+     * Populate the <code>resultRows</code> from the records in the given
+     * source. The records have to be sorted according to the sort
+     * attributes.
+     * 
+     * @param source The source of the records. Must not be <code>null</code>.
+     * @param paging <code>true</code> if the records are sorted on the key
+     *               columns so that a cursor for the next page can be
+     *               created.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void buildResultRows(RecordSource source, boolean paging)
+            throws SQLException {
+        final int firstSumColumn = getFirstSumColumn();
+        final int maxRows = parent.getGUIForm().getMaxRows();
+        int rowNum = 0;
+        final Group groups[] = new Group[groupBys.size()];
+        ResultSetCell record[] = source.next();
+        ResultSetCell lastRecord[] = null;
+        if (record != null && pageCursor != null) {
+            continueGroups(record, groups, firstSumColumn);
+        }
+        while (record != null && rowNum < maxRows) {
+            openGroups(record, groups, groups.length, firstSumColumn);
+            addRow(record, groups);
+            rowNum++;
+            lastRecord = record;
+            record = source.next();
+        }
+        if (record != null) {
+            if (paging) {
+                nextPageCursor = createPageCursor(lastRecord, groups);
+            }
+            addBrokenRow(maxRows);
+        } else {
+            closeGroups(groups, 0, firstSumColumn);
+        }
+    }
+
+    /**
+     * Create the groups that continue from the previous page. The groups
+     * start with the sums calculated on the previous pages.
+     * 
+     * @param record         The first record of the page.
+     *                       Must not be <code>null</code>.
+     * @param groups         The current groups. Must not be
+     *                       <code>null</code>.
+     * @param firstSumColumn The first column of sum type.
+     */
+    private void continueGroups(ResultSetCell record[], Group groups[],
+            int firstSumColumn) {
+        final int numGroups = Math.min(groups.length,
+                pageCursor.getNumGroups());
+        for (int rsIndex = 0; rsIndex < numGroups; rsIndex++) {
+            final String name = record[rsIndex].getString();
+            final long sums[] = pageCursor.getGroupSums(rsIndex);
+            if (!pageCursor.getGroupName(rsIndex).equals(name) ||
+                    sums.length != queryAttributes.size()) {
+                return;
+            }
+            final ResultRow row = new ResultRow(rsIndex);
+            resultRows.add(row);
+            groups[rsIndex] = new Group(name, recordLength, row);
+            for (int index = 0; index < sums.length; index++) {
+                groups[rsIndex].addAttribute(index, sums[index]);
+            }
+            row.addResultCell(new ResultCell(firstSumColumn - rsIndex,
+                    queryAttributes.get(rsIndex).getHeadlineLabel() + ": " +
+                    name + " (forts.)", true, false));
+        }
+    }
+
+    /**
+     * Run the query using <code>group by rollup</code> and populate the
+     * <code>resultRows</code>. The sums of the groups are read from the
+     * database instead of being calculated from the rows.
+     * 
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private void runRollupQuery() throws SQLException {
+        final GUIForm form = parent.getGUIForm();
+        final boolean onlySubtotals =
+                form.getSubtotalType().isOnlySubtotals();
+        final int numAttributes = queryAttributes.size();
+        final int numGroups = groupBys.size();
+        final boolean hasRest = !onlySubtotals && getRestColumns().size() > 0;
+        final int firstSumColumn = getFirstSumColumn();
+        final int maxRows = form.getMaxRows();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            final List<Object> parameters = new ArrayList<Object>();
+            final String sql = getRollupSql(form.getFromDate(),
+                    form.getToDate(), parameters);
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql);
+            monitor.register(ps);
+            setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            int rowNum = 0;
+            final Group groups[] = new Group[numGroups];
+            boolean more = rs.next();
+            while (more && rowNum < maxRows) {
+                monitor.addRecord();
+                // The grouping flags follow the attributes. The first
+                // flag belongs to the second group.
+                int level = numGroups;
+                for (int i = 1; i < numGroups; i++) {
+                    if (rs.getInt(numAttributes + i) == 1) {
+                        level = i;
+                        break;
+                    }
+                }
+                boolean detail = !onlySubtotals && level == numGroups;
+                if (detail && hasRest) {
+                    detail = rs.getInt(numAttributes + numGroups) == 0;
+                }
+                final ResultSetCell record[] =
+                        new ResultSetCell[numAttributes];
+                for (int rsIndex = 0; rsIndex < numAttributes; rsIndex++) {
+                    final ColumnInfo columnInfo = queryAttributes.get(rsIndex);
+                    if (rsIndex < level || detail ||
+                            ColumnAggregation.SUM.equals(
+                            columnInfo.getColumnAggregation())) {
+                        record[rsIndex] = columnInfo.getColumnType().
+                                getRead().read(rs, rsIndex + 1);
+                    }
+                }
+                openGroups(record, groups, level, firstSumColumn);
+                if (detail) {
+                    addRow(record, groups);
+                } else {
+                    groups[level - 1].setAttributes(record, firstSumColumn);
+                }
+                rowNum++;
+                more = rs.next();
+            }
+            if (more) {
+                addBrokenRow(maxRows);
+            } else {
+                closeGroups(groups, 0, firstSumColumn);
+            }
+            monitor.partDone();
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Get the index of the first attribute in the query that is not grouped.
+     * 
+     * @return The index of the first column of sum type.
+     */
+    private int getFirstSumColumn() {
+        int index = 0;
+        for (ColumnInfo attribute : queryAttributes) {
+            if (!ColumnAggregation.GROUP.equals(
+                    attribute.getColumnAggregation())) {
+                return index;
+            }
+            index++;
+        }
+        return 0;
+    }
+
+    /**
+     * Create new groups (and their headline rows) for the group values of
+     * the record that differ from the current groups. When a group is
+     * changed, the groups below it are closed.
+     * 
+     * @param record         The record. Must not be <code>null</code>.
+     * @param groups         The current groups. Must not be
+     *                       <code>null</code>.
+     * @param numLevels      The number of group levels in the record.
+     * @param firstSumColumn The first column of sum type.
+     */
+    private void openGroups(ResultSetCell record[], Group groups[],
+            int numLevels, int firstSumColumn) {
+        for (int rsIndex = 0; rsIndex < numLevels; rsIndex++) {
+            final ColumnInfo columnInfo = queryAttributes.get(rsIndex);
+            final ResultSetCell resultSetCell = record[rsIndex];
+            if (groups[rsIndex] == null || !groups[rsIndex].getName().
+                    equals(resultSetCell.getString())) {
+                closeGroups(groups, rsIndex, firstSumColumn);
+                // Create new row.
+                final ResultRow row = new ResultRow(rsIndex);
+                resultRows.add(row);
+                groups[rsIndex] = new Group(resultSetCell.getString(),
+                        recordLength, row);
+                final ResultCell cell = new ResultCell(
+                        firstSumColumn - rsIndex, 
+                        columnInfo.getHeadlineLabel() + ": " +
+                        resultSetCell.getString(), true, false);
+                row.addResultCell(cell);
+            }
+        }
+    }
+
+    /**
+     * Set the result in the given group and the groups below it and
+     * remove them from the current groups.
+     * 
+     * @param groups         The current groups. Must not be
+     *                       <code>null</code>.
+     * @param fromIndex      The index of the first group to close.
+     * @param firstSumColumn The first column of sum type.
+     */
+    private void closeGroups(Group groups[], int fromIndex,
+            int firstSumColumn) {
+        for (int groupIndex = fromIndex; groupIndex < groups.length;
+                groupIndex++) {
+            setResultInGroup(groups[groupIndex], firstSumColumn);
+            groups[groupIndex] = null;
+        }
+    }
+
+    /**
+     * Add a row with the attributes that are not grouped and add the sums
+     * to the groups.
+     * 
+     * @param record The record. Must not be <code>null</code>.
+     * @param groups The current groups. Must not be <code>null</code> and
+     *               all groups must be open.
+     */
+    private void addRow(ResultSetCell record[], Group groups[]) {
+        final ResultRow row = new ResultRow(groupBys.size());
+        final int numAttributes = queryAttributes.size();
+        final boolean comparison = recordLength > numAttributes;
+        final long numericValues[] = new long[recordLength];
+        for (int rsIndex = groupBys.size();
+                rsIndex < numAttributes; rsIndex++) {
+            final ColumnInfo columnInfo = queryAttributes.get(rsIndex);
+            final ResultSetCell resultSetCell = record[rsIndex];
+            numericValues[rsIndex] = resultSetCell.getLong();
+            final boolean sum = ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation());
+            if (sum) {
+                for (Group group : groups) {
+                    group.addAttribute(rsIndex,
+                            resultSetCell.getLong());
+                }
+            }
+            if (sum && comparison) {
+                final long other = record[numAttributes + rsIndex].getLong();
+                numericValues[numAttributes + rsIndex] = other;
+                for (Group group : groups) {
+                    group.addAttribute(numAttributes + rsIndex, other);
+                }
+            }
+            String str;
+            if (denominators[rsIndex] >= 0) {
+                final long denominator =
+                        numericValues[denominators[rsIndex]];
+                if (denominator > 0) {
+                    str = Long.toString(
+                            resultSetCell.getLong() / denominator);
+                } else {
+                    str = "";
+                }
+            } else {
+                str = resultSetCell.getString();
+            }
+            if (sum && comparison) {
+                str += getDifference(rsIndex, numericValues);
+            }
+            final ResultCell cell = new ResultCell(1, str, false,
+                    ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation()));
+            row.addResultCell(cell);
+        }
+        resultRows.add(row);
+    }
+
+    /**
+     * Add the row telling that the result has been broken.
+     * 
+     * @param maxRows The max number of rows.
+     */
+    private void addBrokenRow(int maxRows) {
+        final ResultRow row = new ResultRow(0);
+        resultRows.add(row);
+        row.addResultCell(new ResultCell(queryAttributes.size(),
+                "Resultatet &auml;r brutet vid " + maxRows + " rader",
+                false, false));
+    }
+
+    /**
+     * Set the remaining cells in the groups row.
+     * 
+     * @param group          The group. If <code>null</code>, nothing happens.
+     * @param firstSumColumn The first column of sum type.
+     */
+    private void setResultInGroup(Group group, int firstSumColumn) {
+        if (group == null) {
+            return;
+        }
+    
+        for (int index = firstSumColumn; index < queryAttributes.size();
+            index++) {
+            long value = group.getAttribute(index);
+            String str;
+            if (denominators[index] >= 0) {
+                final long denominator = group.getAttribute(
+                        denominators[index]);
+                if (denominator > 0) {
+                    value = value / denominator;
+                    str = Long.toString(value);
+                } else {
+                    str = "";
+                }
+            } else {
+                if (value == 0) {
+                    str = "";
+                } else {
+                    str = Long.toString(value);
+                }
+            }
+            if (recordLength > queryAttributes.size()) {
+                str += getDifference(index, group.getAttributes());
+            }
+            group.getRow().addResultCell(
+                    new ResultCell(1, str, true, true));
+        }
+    }
+    
+    /**
+     * Get the difference of an attribute between the period of the search
+     * and the period to compare with, formatted to be shown below the
+     * value. For averages, the difference of the averages is calculated.
+     * 
+     * @param index  The index of the attribute in the query.
+     * @param values The values of the record or group, followed by the
+     *               values of the period to compare with.
+     *               Must not be <code>null</code>.
+     * 
+     * @return The absolute and relative difference or an empty string if
+     *         there is nothing to compare. This method never returns
+     *         <code>null</code>.
+     */
+    private String getDifference(int index, long values[]) {
+        final int numAttributes = queryAttributes.size();
+        long value = values[index];
+        long other = values[numAttributes + index];
+        if (denominators[index] >= 0) {
+            final long denominator = values[denominators[index]];
+            final long otherDenominator =
+                    values[numAttributes + denominators[index]];
+            if (denominator <= 0 || otherDenominator <= 0) {
+                return "";
+            }
+            value = value / denominator;
+            other = other / otherDenominator;
+        } else if (value == 0 && other == 0) {
+            return "";
+        }
+        final long difference = value - other;
+        final StringBuilder result = new StringBuilder();
+        if (difference > 0) {
+            result.append('+');
+        }
+        result.append(difference);
+        if (other != 0) {
+            result.append(String.format(COMPARISON_LOCALE, " (%+.1f %%)",
+                    new Double(100.0 * difference / other)));
+        }
+        return "<br/>" + GUIFormatter.toStringNoBreak(result.toString());
+    }
+
+    /**
+     * Get the SQL query for the search query.
+     * 
+     * @return The SQL query for the search query.
+     */
+    public String getSql() {
+        final GUIForm form = parent.getGUIForm();
+        return getSql(form.getFromDate(), form.getToDate(), queryParameters);
+    }
+
+    /**
+     * Get the next page cursor.
+     * 
+     * @return The encoded position where this page ended or
+     *         <code>null</code> if there is no next page.
+     */
+    public String getNextPageCursor() {
+        return nextPageCursor;
+    }
+
+    /**
+     * Get the key columns of the query. These are the sort attributes
+     * followed by the remaining grouped attributes, which together
+     * identify a row uniquely.
+     * 
+     * @return The key columns in the order they are sorted.
+     *         This method never returns <code>null</code>.
+     */
+    private List<SortAttribute> getKeyColumns() {
+        final List<SortAttribute> result =
+                new ArrayList<SortAttribute>(sortAttributes);
+        final List<ColumnInfo> sorted = new ArrayList<ColumnInfo>();
+        for (SortAttribute sort : sortAttributes) {
+            sorted.add(sort.getColumnInfo());
+        }
+        for (ColumnInfo attribute : queryAttributes) {
+            if (ColumnAggregation.GROUP.equals(
+                    attribute.getColumnAggregation()) &&
+                    !sorted.contains(attribute)) {
+                result.add(new SortAttribute(attribute, SortType.ASCENDING));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode the cursor of the previous page.
+     * 
+     * @param encoded The encoded cursor. Must not be <code>null</code>.
+     * 
+     * @return The cursor or <code>null</code> if it is invalid or does not
+     *         match the current search.
+     */
+    private PageCursor decodePageCursor(String encoded) {
+        try {
+            final PageCursor cursor = PageCursor.decode(encoded);
+            if (cursor.getKeys().size() != getKeyColumns().size()) {
+                return null;
+            }
+            return cursor;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create the encoded cursor for the next page.
+     * 
+     * @param lastRecord The last record on this page.
+     *                   Must not be <code>null</code>.
+     * @param groups     The groups that are open.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The encoded cursor or <code>null</code> if no cursor could
+     *         be created.
+     */
+    private String createPageCursor(ResultSetCell lastRecord[],
+            Group groups[]) {
+        final Map<String, Integer> dayOfWeekIds =
+                new HashMap<String, Integer>();
+        for (DayOfWeek dayOfWeek : parent.getDayOfWeekList()) {
+            dayOfWeekIds.put(dayOfWeek.getName(),
+                    new Integer(dayOfWeek.getId()));
+        }
+        final List<Object> keys = new ArrayList<Object>();
+        for (SortAttribute key : getKeyColumns()) {
+            final ColumnInfo columnInfo = key.getColumnInfo();
+            final ResultSetCell cell =
+                    lastRecord[queryAttributes.indexOf(columnInfo)];
+            final ColumnType columnType = columnInfo.getColumnType();
+            Object value;
+            if (ColumnType.DATE.equals(columnType) ||
+                    ColumnType.DATE_HOUR.equals(columnType) ||
+                    ColumnType.DATE_MINUTE.equals(columnType)) {
+                value = cell.getDate();
+            } else if (ColumnType.LONG.equals(columnType) ||
+                    ColumnType.LONG_NO_ZEROES.equals(columnType)) {
+                value = new Long(cell.getLong());
+            } else if (ColumnInfo.DAY_OF_WEEK.equals(columnInfo)) {
+                value = dayOfWeekIds.get(cell.getString());
+            } else {
+                value = cell.getString();
+            }
+            if (value == null) {
+                // Null can not be compared in the database.
+                return null;
+            }
+            keys.add(value);
+        }
+        final List<String> groupNames = new ArrayList<String>();
+        final List<long[]> groupSums = new ArrayList<long[]>();
+        for (Group group : groups) {
+            if (group == null) {
+                break;
+            }
+            groupNames.add(group.getName());
+            final long sums[] = new long[queryAttributes.size()];
+            for (int index = 0; index < sums.length; index++) {
+                sums[index] = group.getAttribute(index);
+            }
+            groupSums.add(sums);
+        }
+        return new PageCursor(keys, groupNames, groupSums).encode();
+    }
+
+    /**
+     * Get the condition selecting the rows after the cursor. The condition
+     * is <code>k1 &gt; ? or (k1 = ? and k2 &gt; ?) or ...</code> where
+     * <code>&lt;</code> is used for descending keys.
+     * 
+     * @param cursor     The cursor. Must not be <code>null</code>.
+     * @param group      <code>true</code> if grouping is used.
+     * @param parameters The list to add the parameters of the condition to.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The condition. This method never returns <code>null</code>.
+     */
+    private String getKeysetCondition(PageCursor cursor, boolean group,
+            List<Object> parameters) {
+        final List<SortAttribute> keyColumns = getKeyColumns();
+        final StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            if (i > 0) {
+                condition.append(" or ");
+            }
+            condition.append('(');
+            for (int j = 0; j < i; j++) {
+                condition.append(getSortExpression(
+                        keyColumns.get(j).getColumnInfo(), group));
+                condition.append(" = ? and ");
+                parameters.add(cursor.getKeys().get(j));
+            }
+            final SortAttribute key = keyColumns.get(i);
+            condition.append(getSortExpression(key.getColumnInfo(), group));
+            condition.append(key.getSortType().isDescending() ?
+                    " < ?" : " > ?");
+            parameters.add(cursor.getKeys().get(i));
+            condition.append(')');
+        }
+        return condition.toString();
+    }
+
+    /**
+     * Get the SQL query for the search query limited to the given time
+     * interval.
+     * 
+     * @param fromDate   The from date (inclusive) or <code>null</code> if
+     *                   there is no lower limit.
+     * @param toDate     The to date (exclusive) or <code>null</code> if
+     *                   there is no upper limit.
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The SQL query for the search query.
+     */
+    /* package */ String getSql(Date fromDate, Date toDate,
+            List<Object> parameters) {
+        return getSql(fromDate, toDate, null, parameters);
+    }
+
+    /**
+     * Get the SQL query for the search query limited to the given time
+     * interval and starting after the given page cursor.
+     * 
+     * @param fromDate   The from date (inclusive) or <code>null</code> if
+     *                   there is no lower limit.
+     * @param toDate     The to date (exclusive) or <code>null</code> if
+     *                   there is no upper limit.
+     * @param cursor     The cursor of the previous page or
+     *                   <code>null</code> to start from the beginning.
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The SQL query for the search query.
+     */
+    private String getSql(Date fromDate, Date toDate, PageCursor cursor,
+            List<Object> parameters) {
+        StringBuilder result = new StringBuilder(100);     
+        HashSet<JoinInfo> joins = new HashSet<JoinInfo>();
+        final boolean group = isAggregated();
+        result.append("select ");
+        // Add attributes
+        boolean firstAttribute = true;
+        for (ColumnInfo attribute : queryAttributes) {
+            if (!firstAttribute) {
+                result.append(", ");
+            }
+            if (group && attribute.getColumnAggregation().equals(
+                    ColumnAggregation.SUM)) {
+                result.append("sum(");
+                result.append(attribute.getColumnName());
+                result.append(')');
+            } else {
+                result.append(attribute.getColumnName());
+            }
+            if (attribute.getJoin() != null) {
+                joins.add(attribute.getJoin());
+            }
+            firstAttribute = false;
+        }
+        // Add from and joins
+        result.append(" from ").append(statisticsTableName);
+        for (JoinInfo join : joins) {
+            result.append(" left join ").append(join.getTableName())
+                    .append(" on ").append(statisticsTableName).append('.')
+                    .append(join.getForeignKeyColumn()).append(" = ")
+                    .append(join.getTableName()).append('.')
+                    .append(join.getKeyColumn());
+        }
+        final String whereClause = getWhereClause(fromDate, toDate,
+                parameters);
+        if (whereClause.length() > 0) {
+            result.append(" where ");
+            result.append(whereClause);
+        }
+        if (cursor != null && !group) {
+            result.append(whereClause.length() > 0 ? " and (" : " where (");
+            result.append(getKeysetCondition(cursor, group, parameters));
+            result.append(')');
+        }
+        // Add group by
+        if (group) {
+            firstAttribute = true;
+            for (ColumnInfo attribute : queryAttributes) {
+                if (attribute.getColumnAggregation().equals(
+                        ColumnAggregation.GROUP)) {
+                    if (firstAttribute) {
+                        result.append(" group by ");
+                    } else {
+                        result.append(", ");
+                    }
+                    result.append(getGroupByExpression(attribute));
+                    firstAttribute = false;
+                }
+            }
+            if (cursor != null) {
+                // Sums can only be compared after the grouping.
+                result.append(" having ");
+                result.append(getKeysetCondition(cursor, group, parameters));
+            }
+        }
+        final String orderByClause = getOrderByClause(group);
+        if (orderByClause.length() > 0) {
+            result.append(" order by ");
+            result.append(orderByClause);
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Get the SQL query comparing the period of the search with the period
+     * to compare with. The rows of both periods are read in one pass and
+     * the sum attributes are summed per period with <code>case</code>
+     * expressions. The query attributes, with the sums of the period of
+     * the search, are followed by the sums of the period to compare with.
+     * 
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The SQL query for the comparison.
+     */
+    /* package */ String getComparisonSql(List<Object> parameters) {
+        final GUIForm form = parent.getGUIForm();
+        final List<Object> periodParameters = new ArrayList<Object>();
+        final String period = getTimeCondition(form.getFromDate(),
+                form.getToDate(), periodParameters);
+        final List<Object> otherParameters = new ArrayList<Object>();
+        final String otherPeriod = getTimeCondition(
+                form.getCompareFromDate(), form.getCompareToDate(),
+                otherParameters);
+        final StringBuilder result = new StringBuilder(200);
+        final HashSet<JoinInfo> joins = new HashSet<JoinInfo>();
+        parameters.clear();
+        result.append("select ");
+        boolean firstAttribute = true;
+        for (ColumnInfo attribute : queryAttributes) {
+            if (!firstAttribute) {
+                result.append(", ");
+            }
+            firstAttribute = false;
+            if (attribute.getColumnAggregation().equals(
+                    ColumnAggregation.SUM)) {
+                appendPeriodSum(result, attribute, period);
+                parameters.addAll(periodParameters);
+            } else {
+                result.append(attribute.getColumnName());
+            }
+            if (attribute.getJoin() != null) {
+                joins.add(attribute.getJoin());
+            }
+        }
+        for (ColumnInfo attribute : queryAttributes) {
+            if (attribute.getColumnAggregation().equals(
+                    ColumnAggregation.SUM)) {
+                result.append(", ");
+                appendPeriodSum(result, attribute, otherPeriod);
+                parameters.addAll(otherParameters);
+            }
+        }
+        result.append(" from ").append(statisticsTableName);
+        for (JoinInfo join : joins) {
+            result.append(" left join ").append(join.getTableName())
+                    .append(" on ").append(statisticsTableName).append('.')
+                    .append(join.getForeignKeyColumn()).append(" = ")
+                    .append(join.getTableName()).append('.')
+                    .append(join.getKeyColumn());
+        }
+        final List<Object> whereParameters = new ArrayList<Object>();
+        final String whereClause = getWhereClause(null, null,
+                whereParameters);
+        result.append(" where ");
+        if (whereClause.length() > 0) {
+            result.append(whereClause);
+            result.append(" and ");
+        }
+        result.append("((").append(period).append(") or (")
+                .append(otherPeriod).append("))");
+        parameters.addAll(whereParameters);
+        parameters.addAll(periodParameters);
+        parameters.addAll(otherParameters);
+        firstAttribute = true;
+        for (ColumnInfo attribute : queryAttributes) {
+            if (attribute.getColumnAggregation().equals(
+                    ColumnAggregation.GROUP)) {
+                result.append(firstAttribute ? " group by " : ", ");
+                result.append(getGroupByExpression(attribute));
+                firstAttribute = false;
+            }
+        }
+        // The sums are sorted on the period of the search, which is
+        // referred to by the position of the column.
+        firstAttribute = true;
+        for (SortAttribute sort : getKeyColumns()) {
+            result.append(firstAttribute ? " order by " : ", ");
+            firstAttribute = false;
+            final ColumnInfo columnInfo = sort.getColumnInfo();
+            if (columnInfo.getColumnAggregation().equals(
+                    ColumnAggregation.SUM)) {
+                result.append(queryAttributes.indexOf(columnInfo) + 1);
+                if (sort.getSortType().isDescending()) {
+                    result.append(" desc");
+                }
+            } else {
+                result.append(getOrderByExpression(sort, true));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Append the sum of an attribute over the rows of one period.
+     * 
+     * @param result    The query to append to. Must not be <code>null</code>.
+     * @param attribute The attribute to sum. Must not be <code>null</code>.
+     * @param period    The condition selecting the rows of the period.
+     *                  Must not be <code>null</code>.
+     */
+    private void appendPeriodSum(StringBuilder result, ColumnInfo attribute,
+            String period) {
+        result.append("sum(case when ");
+        result.append(period);
+        result.append(" then ");
+        result.append(attribute.getColumnName());
+        result.append(" else 0 end)");
+    }
+
+    /**
+     * Get the condition selecting the rows of a time interval.
+     * 
+     * @param fromDate   The from date (inclusive) or <code>null</code> if
+     *                   there is no lower limit.
+     * @param toDate     The to date (exclusive) or <code>null</code> if
+     *                   there is no upper limit.
+     * @param parameters The list to add the parameters of the condition to.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The condition. This method never returns <code>null</code>.
+     */
+    private String getTimeCondition(Date fromDate, Date toDate,
+            List<Object> parameters) {
+        final String timeColumn =
+                BaseContainer.Type.CUSTOMER.equals(parent.getType()) ?
+                "STATISTICS_DATE" : "STATISTICS_TIME";
+        final StringBuilder condition = new StringBuilder();
+        if (fromDate != null) {
+            condition.append(timeColumn).append(" >= ?");
+            parameters.add(fromDate);
+        }
+        if (toDate != null) {
+            if (condition.length() > 0) {
+                condition.append(" and ");
+            }
+            condition.append(timeColumn).append(" < ?");
+            parameters.add(toDate);
         }
-        if (sortType.isGrouping()) {
-            groupBys.add(columnInfo);
-            sortAttributes.add(new SortAttribute(columnInfo, sortType));
-            columnInfos.remove(index);
-        } else if (sortType.isIgnored()) {
-            ignores.add(columnInfo);
-            columnInfos.remove(index);
-        } else {
-            sortAttributes.add(new SortAttribute(columnInfo, sortType));
+        if (condition.length() == 0) {
+            condition.append("1 = 1");
         }
+        return condition.toString();
     }
-    
+
     /**
-     * Add a grouped headline for the statistics result. The headlines should
-     * be added in the view order.
+     * Get the SQL query for a top list. The grouped rows are ranked on the
+     * column of the top list in an inline view, and all rows ranked below
+     * the top are summed into one row by the outer query. The query
+     * attributes are followed by the rank, which is one more than the
+     * number of top rows for the row with the other rows.
      * 
-     * @param columnInfo The headline to add. Must not be <code>null</code>.
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
+     * 
+     * @return The SQL query for the top list.
      */
-    private void addGroupedHeadline(ColumnInfo columnInfo) {
-        headlines.addGroupedHeadline(new Headline(columnInfo));
+    /* package */ String getTopSql(List<Object> parameters) {
+        final GUIForm form = parent.getGUIForm();
+        final StringBuilder inner = new StringBuilder(200);
+        final StringBuilder result = new StringBuilder(400);
+        final HashSet<JoinInfo> joins = new HashSet<JoinInfo>();
+        inner.append("select ");
+        result.append("select ");
+        for (int index = 0; index < queryAttributes.size(); index++) {
+            final ColumnInfo attribute = queryAttributes.get(index);
+            if (index > 0) {
+                inner.append(", ");
+                result.append(", ");
+            }
+            if (attribute.getColumnAggregation().equals(
+                    ColumnAggregation.SUM)) {
+                inner.append("sum(").append(attribute.getColumnName())
+                        .append(')');
+                result.append("sum(TOP_").append(index).append(')');
+            } else {
+                inner.append(attribute.getColumnName());
+                // All rows of a top rank have the same values.
+                result.append("max(TOP_").append(index).append(')');
+            }
+            inner.append(" TOP_").append(index);
+            if (attribute.getJoin() != null) {
+                joins.add(attribute.getJoin());
+            }
+        }
+        inner.append(", least(row_number() over (order by sum(");
+        inner.append(queryAttributes.get(getTopIndex()).getColumnName());
+        inner.append(") desc), ").append(form.getTopN() + 1);
+        inner.append(") TOP_RANK");
+        inner.append(" from ").append(statisticsTableName);
+        for (JoinInfo join : joins) {
+            inner.append(" left join ").append(join.getTableName())
+                    .append(" on ").append(statisticsTableName).append('.')
+                    .append(join.getForeignKeyColumn()).append(" = ")
+                    .append(join.getTableName()).append('.')
+                    .append(join.getKeyColumn());
+        }
+        final String whereClause = getWhereClause(form.getFromDate(),
+                form.getToDate(), parameters);
+        if (whereClause.length() > 0) {
+            inner.append(" where ");
+            inner.append(whereClause);
+        }
+        boolean firstAttribute = true;
+        for (ColumnInfo attribute : queryAttributes) {
+            if (attribute.getColumnAggregation().equals(
+                    ColumnAggregation.GROUP)) {
+                inner.append(firstAttribute ? " group by " : ", ");
+                inner.append(getGroupByExpression(attribute));
+                firstAttribute = false;
+            }
+        }
+        result.append(", TOP_RANK from (").append(inner);
+        result.append(") group by TOP_RANK order by TOP_RANK");
+        return result.toString();
     }
-    
+
     /**
-     * Add a not grouped headline for the statistics result. The headlines
-     * should be added in the view order.
+     * Check if the search is a top list. A comparison of periods is never
+     * a top list.
      * 
-     * @param columnInfo The headline to add. Must not be <code>null</code>.
+     * @return <code>true</code> if only the top rows should be shown.
      */
-    private void addHeadline(ColumnInfo columnInfo) {
-        headlines.addHeadline(new Headline(columnInfo));
+    /* package */ boolean isTopN() {
+        final GUIForm form = parent.getGUIForm();
+        return form.isTopN() && !form.isComparison() && getTopIndex() >= 0;
     }
-    
+
     /**
-     * Get the headlines for the statistics.
+     * Get the index of the column the top list is ranked on.
      * 
-     * @return The headlines for the statistics.
-     *         This method never returns <code>null</code>.
+     * @return The index of the column in the query or a negative value if
+     *         the column is not a summed column in the query.
      */
-    public Headlines getHeadlines() {
-        return headlines;
+    private int getTopIndex() {
+        final String topColumn = parent.getGUIForm().getTopColumn();
+        for (int index = 0; index < queryAttributes.size(); index++) {
+            final ColumnInfo attribute = queryAttributes.get(index);
+            if (attribute.getName().equals(topColumn) &&
+                    ColumnAggregation.SUM.equals(
+                    attribute.getColumnAggregation())) {
+                return index;
+            }
+        }
+        return -1;
     }
-    
+
     /**
-     * Get the result rows.
+     * Check if the query aggregates the rows in the database, which is the
+     * case when at least one column is ignored or the search is a top list.
+     * A chosen calendar bucket ignores the finer time columns, see
+     * {@link #processColumnInfos()}.
      * 
-     * @return The result rows. This method never returns <code>null</code>.
+     * @return <code>true</code> if the rows are aggregated with
+     *         <code>group by</code>. <code>false</code> if every row in
+     *         the statistics table is returned.
      */
-    public List<ResultRow> getResultRows() {
-        return resultRows;
+    /* package */ boolean isAggregated() {
+        return ignores.size() > 0 || isTopN();
     }
-    
+
     /**
-     * Get the base container for this result.
+     * Check if the sums of the groups are calculated by the database with
+     * <code>group by rollup</code>. This requires at least one grouped
+     * column.
      * 
-     * @return The parent base container for this result.
-     *         This method never returns <code>null</code>.
+     * @return <code>true</code> if rollup is used.
      */
-    /* package */ BaseContainer getParent() {
-        return parent;
+    private boolean isRollup() {
+        return groupBys.size() > 0 &&
+                parent.getGUIForm().getSubtotalType().isRollup();
     }
-    
+
     /**
-     * Run the query and populate the <code>resultRows</code>.
+     * Get the columns that are neither grouped in the presentation nor
+     * summed. These are the columns of the detail rows.
      * 
-     * @throws SQLException if there is a problem retrieving the information.
+     * @return The columns. This method never returns <code>null</code>.
      */
-    private void runQuery() throws SQLException {
-        Connection conn = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        try {
-            int index = 0;
-            int firstSumColumn = 0;
-            
-            for (ColumnInfo attribute : queryAttributes) {
-                if (!ColumnAggregation.GROUP.equals(
-                        attribute.getColumnAggregation())) {
-                    if (firstSumColumn == 0) {
-                        firstSumColumn = index;
-                    }
-                }
-                index++;
-            }
-            String sql = getSql();
-            conn = DBUtilities.createConnection();
-            ps = conn.prepareStatement(sql);
-            int parameterIndex = 1;
-            for (Object param : queryParameters) {
-                if (param instanceof String) {
-                    ps.setString(parameterIndex, (String)param);
-                } else if (param instanceof Long) {
-                    ps.setLong(parameterIndex, ((Long)param).longValue());
-                } else if (param instanceof Integer) {
-                    ps.setInt(parameterIndex, ((Integer)param).intValue());
-                } else if (param instanceof Date) {
-                    final Timestamp ts = new Timestamp(((Date)param).getTime());
-                    ps.setTimestamp(parameterIndex, ts);
-                }
-                parameterIndex++;
-            }
-            rs = ps.executeQuery();
-            final int maxRows = parent.getGUIForm().getMaxRows();
-            int rowNum = 0;
-            final Group groups[] = new Group[groupBys.size()];
-            while (rs.next() && rowNum < maxRows) {
-                // Grouped attributes
-                for (int rsIndex = 0; rsIndex < groupBys.size(); rsIndex++) {
-                    final ColumnInfo columnInfo = queryAttributes.get(rsIndex);
-                    ResultSetCell resultSetCell = columnInfo.getColumnType().
-                            getRead().read(rs, rsIndex + 1);
-                    if (groups[rsIndex] == null || !groups[rsIndex].getName().
-                            equals(resultSetCell.getString())) {
-                        for (int groupIndex = rsIndex;
-                                groupIndex < groups.length; groupIndex++) {
-                            setResultInGroup(groups[groupIndex],
-                                    firstSumColumn);
-                            groups[groupIndex] = null;
-                        }
-                        // Create new row.
-                        final ResultRow row = new ResultRow(rsIndex);
-                        resultRows.add(row);
-                        groups[rsIndex] = new Group(resultSetCell.getString(),
-                                queryAttributes.size(), row);
-                        final ResultCell cell = new ResultCell(
-                                firstSumColumn - rsIndex, 
-                                columnInfo.getHeadlineLabel() + ": " +
-                                resultSetCell.getString(), true, false);
-                        row.addResultCell(cell);
-                    }
-                }
-                // Not grouped attributes
-                final ResultRow row = new ResultRow(groupBys.size());
-                final long numericValues[] = new long[queryAttributes.size()];
-                for (int rsIndex = groupBys.size();
-                        rsIndex < queryAttributes.size(); rsIndex++) {
-                    final ColumnInfo columnInfo = queryAttributes.get(rsIndex);
-                    ResultSetCell resultSetCell = columnInfo.getColumnType().
-                            getRead().read(rs, rsIndex + 1);
-                    numericValues[rsIndex] = resultSetCell.getLong();
-                    if (ColumnAggregation.SUM.equals(
-                            columnInfo.getColumnAggregation())) {
-                        for (Group group : groups) {
-                            group.addAttribute(rsIndex,
-                                    resultSetCell.getLong());
-                        }
-                    }
-                    String str;
-                    if (denominators[rsIndex] >= 0) {
-                        final long denominator =
-                                numericValues[denominators[rsIndex]];
-                        if (denominator > 0) {
-                            str = Long.toString(
-                                    resultSetCell.getLong() / denominator);
-                        } else {
-                            str = "";
-                        }
-                    } else {
-                        str = resultSetCell.getString();
-                    }
-                    final ResultCell cell = new ResultCell(1, str, false,
-                            ColumnAggregation.SUM.equals(
-                            columnInfo.getColumnAggregation()));
-                    row.addResultCell(cell);
-                }
-                resultRows.add(row);
-                rowNum++;
-            }
-            if (rs.next()) {
-                final ResultRow row = new ResultRow(0);
-                resultRows.add(row);
-                row.addResultCell(new ResultCell(queryAttributes.size(),
-                        "Resultatet &auml;r brutet vid " + maxRows + " rader",
-                        false, false));
-            } else {
-                for (int groupIndex = 0; groupIndex < groups.length;
-                        groupIndex++) {
-                    setResultInGroup(groups[groupIndex],
-                            firstSumColumn);
-                }
+    private List<ColumnInfo> getRestColumns() {
+        final List<ColumnInfo> result = new ArrayList<ColumnInfo>();
+        for (ColumnInfo attribute : attributes) {
+            if (ColumnAggregation.GROUP.equals(
+                    attribute.getColumnAggregation())) {
+                result.add(attribute);
             }
-        } finally {
-            DBUtilities.close(conn, ps, rs);
         }
+        return result;
     }
 
     /**
-     * Set the remaining cells in the groups row.
+     * Get the expression to use for a column in the group by clause.
      * 
-     * @param group          The group. If <code>null</code>, nothing happens.
-     * @param firstSumColumn The first column of sum type.
+     * @param columnInfo The column. Must not be <code>null</code>.
+     * 
+     * @return The group by expression. The expression may consist of more
+     *         than one column separated with comma.
+     *         This method never returns <code>null</code>.
      */
-    private void setResultInGroup(Group group, int firstSumColumn) {
-        if (group == null) {
-            return;
-        }
-    
-        for (int index = firstSumColumn; index < queryAttributes.size();
-            index++) {
-            long value = group.getAttribute(index);
-            String str;
-            if (denominators[index] >= 0) {
-                final long denominator = group.getAttribute(
-                        denominators[index]);
-                if (denominator > 0) {
-                    value = value / denominator;
-                    str = Long.toString(value);
-                } else {
-                    str = "";
-                }
-            } else {
-                if (value == 0) {
-                    str = "";
-                } else {
-                    str = Long.toString(value);
-                }
-            }
-            group.getRow().addResultCell(
-                    new ResultCell(1, str, true, true));
+    private String getGroupByExpression(ColumnInfo columnInfo) {
+        if (columnInfo.getColumnName().equals("DAY_OF_WEEK_NAME")) {
+            return statisticsTableName + ".DAY_OF_WEEK_ID, DAY_OF_WEEK_NAME";
         }
+        return columnInfo.getColumnName();
     }
-    
+
     /**
-     * Get the SQL query for the search query.
+     * Get the SQL query using <code>group by rollup</code> for the search
+     * query limited to the given time interval. The attributes are followed
+     * by the <code>grouping</code> flags of the second to the last grouped
+     * column and, if detail rows are read, the flag of the detail rows.
+     * The rows are ordered with the sums of a group before the rows of
+     * the group.
+     * 
+     * @param fromDate   The from date (inclusive) or <code>null</code> if
+     *                   there is no lower limit.
+     * @param toDate     The to date (exclusive) or <code>null</code> if
+     *                   there is no upper limit.
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
      * 
      * @return The SQL query for the search query.
      */
-    public String getSql() {
-        StringBuilder result = new StringBuilder(100);     
-        HashSet<JoinInfo> joins = new HashSet<JoinInfo>();
-        boolean group = false;
-        if (ignores.size() > 0) {
-            group = true;
-        }
+    /* package */ String getRollupSql(Date fromDate, Date toDate,
+            List<Object> parameters) {
+        final boolean onlySubtotals =
+                parent.getGUIForm().getSubtotalType().isOnlySubtotals();
+        final List<ColumnInfo> restColumns =
+                onlySubtotals ? new ArrayList<ColumnInfo>() : getRestColumns();
+        final StringBuilder result = new StringBuilder(200);
+        final HashSet<JoinInfo> joins = new HashSet<JoinInfo>();
         result.append("select ");
-        // Add attributes
         boolean firstAttribute = true;
         for (ColumnInfo attribute : queryAttributes) {
             if (!firstAttribute) {
                 result.append(", ");
             }
-            if (group && attribute.getColumnAggregation().equals(
+            firstAttribute = false;
+            if (attribute.getColumnAggregation().equals(
                     ColumnAggregation.SUM)) {
                 result.append("sum(");
                 result.append(attribute.getColumnName());
                 result.append(')');
-            } else {
+            } else if (groupBys.contains(attribute) ||
+                    restColumns.contains(attribute)) {
                 result.append(attribute.getColumnName());
+            } else {
+                result.append("null");
+                continue;
             }
             if (attribute.getJoin() != null) {
                 joins.add(attribute.getJoin());
             }
-            firstAttribute = false;
         }
-        // Add from and joins
+        for (int i = 1; i < groupBys.size(); i++) {
+            result.append(", grouping(");
+            result.append(groupBys.get(i).getColumnName());
+            result.append(')');
+        }
+        if (restColumns.size() > 0) {
+            result.append(", grouping(");
+            result.append(restColumns.get(0).getColumnName());
+            result.append(')');
+        }
         result.append(" from ").append(statisticsTableName);
         for (JoinInfo join : joins) {
             result.append(" left join ").append(join.getTableName())
@@ -453,50 +1956,109 @@ public abstract class StatisticsResult {
                     .append(join.getTableName()).append('.')
                     .append(join.getKeyColumn());
         }
-        final String whereClause = getWhereClause();
+        final String whereClause = getWhereClause(fromDate, toDate,
+                parameters);
         if (whereClause.length() > 0) {
             result.append(" where ");
             result.append(whereClause);
         }
-        // Add group by
-        if (group) {
-            firstAttribute = true;
-            for (ColumnInfo attribute : queryAttributes) {
-                if (attribute.getColumnAggregation().equals(
-                        ColumnAggregation.GROUP)) {
-                    if (firstAttribute) {
-                        result.append(" group by ");
-                    } else {
-                        result.append(", ");
-                    }
-                    if (attribute.getColumnName().equals("DAY_OF_WEEK_NAME")) {
-                        result.append(statisticsTableName);
-                        result.append(".DAY_OF_WEEK_ID, DAY_OF_WEEK_NAME");
-                    } else {
-                        result.append(attribute.getColumnName());
-                    }
-                    firstAttribute = false;
+        // The first group is never rolled up since there are no sums
+        // for all groups together in the presentation.
+        result.append(" group by ");
+        result.append(getGroupByExpression(groupBys.get(0)));
+        final List<String> rollups = new ArrayList<String>();
+        for (int i = 1; i < groupBys.size(); i++) {
+            rollups.add('(' + getGroupByExpression(groupBys.get(i)) + ')');
+        }
+        if (restColumns.size() > 0) {
+            final StringBuilder rest = new StringBuilder("(");
+            for (ColumnInfo restColumn : restColumns) {
+                if (rest.length() > 1) {
+                    rest.append(", ");
                 }
+                rest.append(getGroupByExpression(restColumn));
             }
-            
+            rollups.add(rest.append(')').toString());
         }
-        final String orderByClause = getOrderByClause(group);
-        if (orderByClause.length() > 0) {
-            result.append(" order by ");
-            result.append(orderByClause);
+        if (rollups.size() > 0) {
+            result.append(", rollup(");
+            for (int i = 0; i < rollups.size(); i++) {
+                if (i > 0) {
+                    result.append(", ");
+                }
+                result.append(rollups.get(i));
+            }
+            result.append(')');
         }
+        result.append(" order by ");
+        result.append(getRollupOrderByClause(restColumns));
         return result.toString();
     }
-    
+
+    /**
+     * Get the order by clause of the rollup query. The grouped columns are
+     * sorted first with the sums of each group before the rows in the
+     * group. The other sort attributes follow.
+     * 
+     * @param restColumns The columns of the detail rows.
+     *                    Empty if only the sums are read.
+     *                    Must not be <code>null</code>.
+     * 
+     * @return The order by clause. This method never returns
+     *         <code>null</code>.
+     */
+    private String getRollupOrderByClause(List<ColumnInfo> restColumns) {
+        final StringBuilder orderBy = new StringBuilder();
+        for (int i = 0; i < groupBys.size(); i++) {
+            final ColumnInfo groupBy = groupBys.get(i);
+            if (i > 0) {
+                orderBy.append(", grouping(");
+                orderBy.append(groupBy.getColumnName());
+                orderBy.append(") desc, ");
+            }
+            for (SortAttribute sort : sortAttributes) {
+                if (sort.getColumnInfo().equals(groupBy)) {
+                    orderBy.append(getOrderByExpression(sort, true));
+                }
+            }
+        }
+        if (restColumns.size() > 0) {
+            orderBy.append(", grouping(");
+            orderBy.append(restColumns.get(0).getColumnName());
+            orderBy.append(") desc");
+        }
+        for (SortAttribute sort : sortAttributes) {
+            final ColumnInfo columnInfo = sort.getColumnInfo();
+            if (!groupBys.contains(columnInfo) &&
+                    (restColumns.contains(columnInfo) ||
+                    ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation()))) {
+                orderBy.append(", ");
+                orderBy.append(getOrderByExpression(sort, true));
+            }
+        }
+        return orderBy.toString();
+    }
+
     /**
      * Get the where clause of the SQL query.
      * 
+     * @param fromDate   The from date (inclusive) or <code>null</code> if
+     *                   there is no lower limit.
+     * @param toDate     The to date (exclusive) or <code>null</code> if
+     *                   there is no upper limit.
+     * @param parameters The list to populate with the parameters of the query
+     *                   in the order they appear in the query.
+     *                   Must not be <code>null</code>.
+     * 
      * @return The where clause of the SQL query. Empty string if no
      *         search criteria has been given.
      */
-    private String getWhereClause() {
+    /* package */ String getWhereClause(Date fromDate, Date toDate,
+            List<Object> parameters) {
         final StringBuilder where = new StringBuilder();
         final GUIForm form = parent.getGUIForm();
+        final List<Object> queryParameters = parameters;
         queryParameters.clear();
         if (form.getCustomer() != null) {
             if (where.length() > 0) {
@@ -512,7 +2074,7 @@ public abstract class StatisticsResult {
             where.append("PRODUCT = ?");
             queryParameters.add(DBUtilities.pad(form.getProduct(), 20));
         }
-        if (form.getFromDate() != null) {
+        if (fromDate != null) {
             if (where.length() > 0) {
                 where.append(" and ");
             }
@@ -521,9 +2083,9 @@ public abstract class StatisticsResult {
             } else {
                 where.append("STATISTICS_TIME >= ?");
             }
-            queryParameters.add(form.getFromDate());
+            queryParameters.add(fromDate);
         }
-        if (form.getToDate() != null) {
+        if (toDate != null) {
             if (where.length() > 0) {
                 where.append(" and ");
             }
@@ -532,7 +2094,7 @@ public abstract class StatisticsResult {
             } else {
                 where.append("STATISTICS_TIME < ?");
             }
-            queryParameters.add(form.getToDate());
+            queryParameters.add(toDate);
         }
         for (GUIList guiList : parent.getGUIListList()) {
             if (guiList.getSelected() != null) {
@@ -620,28 +2182,54 @@ public abstract class StatisticsResult {
      */
     private String getOrderByClause(boolean group) {
         final StringBuilder orderBy = new StringBuilder();
-        for (SortAttribute sort : sortAttributes) {
+        for (SortAttribute sort : getKeyColumns()) {
             if (orderBy.length() > 0) {
                 orderBy.append(", ");
             }
-            if (group && sort.getColumnInfo().getColumnAggregation().equals(
-                    ColumnAggregation.SUM)) {
-                orderBy.append("sum(");
-                orderBy.append(sort.getColumnInfo().getColumnName());
-                orderBy.append(')');
-            } else if (sort.getColumnInfo().getColumnName().equals(
-                "DAY_OF_WEEK_NAME")){
-                orderBy.append(statisticsTableName);
-                orderBy.append(".DAY_OF_WEEK_ID");
-            } else {
-                orderBy.append(sort.getColumnInfo().getColumnName());
-            }
-            if (sort.getSortType().isDescending()) {
-                orderBy.append(" desc");
-            }
+            orderBy.append(getOrderByExpression(sort, group));
+        }
+        return orderBy.toString();
+    }
+
+    /**
+     * Get the order by expression of one sort attribute.
+     * 
+     * @param sort  The sort attribute. Must not be <code>null</code>.
+     * @param group <code>true</code> if grouping is used.
+     *              <code>false</code> if there is no grouping in the query
+     * 
+     * @return The order by expression including the direction.
+     *         This method never returns <code>null</code>.
+     */
+    private String getOrderByExpression(SortAttribute sort, boolean group) {
+        final StringBuilder orderBy = new StringBuilder();
+        orderBy.append(getSortExpression(sort.getColumnInfo(), group));
+        if (sort.getSortType().isDescending()) {
+            orderBy.append(" desc");
         }
         return orderBy.toString();
     }
+
+    /**
+     * Get the expression a column is sorted on.
+     * 
+     * @param columnInfo The column. Must not be <code>null</code>.
+     * @param group      <code>true</code> if grouping is used.
+     *                   <code>false</code> if there is no grouping in the
+     *                   query
+     * 
+     * @return The sort expression. This method never returns
+     *         <code>null</code>.
+     */
+    private String getSortExpression(ColumnInfo columnInfo, boolean group) {
+        if (group && columnInfo.getColumnAggregation().equals(
+                ColumnAggregation.SUM)) {
+            return "sum(" + columnInfo.getColumnName() + ')';
+        } else if (columnInfo.getColumnName().equals("DAY_OF_WEEK_NAME")) {
+            return statisticsTableName + ".DAY_OF_WEEK_ID";
+        }
+        return columnInfo.getColumnName();
+    }
     
     /**
      * Class holding information of the sort orders for attributes.
@@ -711,6 +2299,12 @@ public abstract class StatisticsResult {
 
         /** The row. */
         private final ResultRow row;
+
+        /**
+         * <code>true</code> if the sums have been read from the database
+         * and should not be calculated from the rows.
+         */
+        private boolean fixed = false;
         
         /**
          * Create this class.
@@ -758,6 +2352,16 @@ public abstract class StatisticsResult {
             return attributes[index];
         }
         
+        /**
+         * Get the sums of all attributes.
+         * 
+         * @return The sums indexed as the attributes. The array must not
+         *         be modified. This method never returns <code>null</code>.
+         */
+        /* package */ long[] getAttributes() {
+            return attributes;
+        }
+        
         /**
          * Increase one attribute with the given index.
          * 
@@ -766,7 +2370,28 @@ public abstract class StatisticsResult {
          * @param value The value to add to the attribute.
          */
         /* package */ void addAttribute(int index, long value) {
-            attributes[index] += value;
+            if (!fixed) {
+                attributes[index] += value;
+            }
+        }
+
+        /**
+         * Set the sums of the group from a record with the sums calculated
+         * by the database. The sums will not be changed after this.
+         * 
+         * @param record         The record with the sums.
+         *                       Must not be <code>null</code>.
+         * @param firstSumColumn The first column of sum type.
+         */
+        /* package */ void setAttributes(ResultSetCell record[],
+                int firstSumColumn) {
+            for (int index = firstSumColumn; index < attributes.length;
+                    index++) {
+                if (record[index] != null) {
+                    attributes[index] = record[index].getLong();
+                }
+            }
+            fixed = true;
         }
 
         /**
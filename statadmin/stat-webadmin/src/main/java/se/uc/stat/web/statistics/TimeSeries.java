@@ -0,0 +1,489 @@
+package se.uc.stat.web.statistics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import se.uc.stat.web.DBUtilities;
+import se.uc.stat.web.types.ColumnAggregation;
+import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.ColumnType;
+import se.uc.stat.web.webtypes.GUIForm;
+
+/**
+ * Class writing time series of a statistics search as JSON, to be drawn as
+ * charts. The search period is divided into buckets of equal length and
+ * the database sums the rows of each bucket, so the number of rows read
+ * depends on the number of points requested and not on the length of the
+ * period. Each series is then downsampled to the requested number of
+ * points with the Largest-Triangle-Three-Buckets algorithm, which keeps
+ * the peaks and the shape of the curve.
+ * <p/>
+ * A series is either a column summed in the search (for example
+ * <code>numCorrectCalls</code>), an average (for example
+ * <code>averageTimeCorrect</code>) or a percentile of the call times
+ * (<code>p50</code>, <code>p90</code>, <code>p95</code> or
+ * <code>p99</code>). The percentiles are interpolated within the time
+ * intervals of the time statistics and are only available there. Calls
+ * slower than the last interval are given its lower limit.
+ * <p/>
+ * The JSON is an object with <code>from</code>, <code>to</code>,
+ * <code>bucketMinutes</code> and <code>series</code>, the latter an array
+ * of objects with <code>name</code> and <code>points</code>. Each point is
+ * an array of the start of the bucket (milliseconds since 1970) and the
+ * value. Buckets without any row and averages without calls have no point.
+ */
+/* package */ class TimeSeries {
+    /** The max number of points of a series. */
+    /* package */ final static int MAX_POINTS = 5000;
+    /** The number of points of a series if not given. */
+    /* package */ final static int DEFAULT_POINTS = 500;
+    /**
+     * The number of buckets read from the database per point, giving the
+     * downsampling points to choose from.
+     */
+    private final static int OVERSAMPLING = 4;
+    /** The number of milliseconds of a minute. */
+    private final static long MINUTE = 60L * 1000;
+    /** The number of milliseconds of an hour. */
+    private final static long HOUR = 60 * MINUTE;
+    /** The number of milliseconds of a day. */
+    private final static long DAY = 24 * HOUR;
+    /** The percentiles, named <code>p</code> followed by the percentile. */
+    private final static int PERCENTILES[] = {50, 90, 95, 99};
+    /** The columns of the time intervals in ascending order. */
+    private final static List<ColumnInfo> INTERVALS = Arrays.asList(
+            ColumnInfo.NUM_CALLS_10, ColumnInfo.NUM_CALLS_20,
+            ColumnInfo.NUM_CALLS_50, ColumnInfo.NUM_CALLS_100,
+            ColumnInfo.NUM_CALLS_200, ColumnInfo.NUM_CALLS_500,
+            ColumnInfo.NUM_CALLS_1000, ColumnInfo.NUM_CALLS_2000,
+            ColumnInfo.NUM_CALLS_5000, ColumnInfo.NUM_CALLS_10000,
+            ColumnInfo.NUM_CALLS_20000, ColumnInfo.NUM_CALLS_OVER_20000);
+    /**
+     * The upper limits in milliseconds of the time intervals, except the
+     * last that has no upper limit.
+     */
+    private final static long INTERVAL_LIMITS[] =
+            {10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+    /** The character encoding of the JSON. */
+    private final static String ENCODING = "UTF-8";
+
+    /** The statistics result holding the search. */
+    private final StatisticsResult result;
+    /** The names of the series. */
+    private final List<String> series = new ArrayList<String>();
+    /** The number of points of each series. */
+    private final int numPoints;
+    /** The summed columns of the search in the order they are read. */
+    private final List<ColumnInfo> sumColumns = new ArrayList<ColumnInfo>();
+    /** The time column of the statistics table. */
+    private final String timeColumn;
+    /** The resolution of the time column in milliseconds. */
+    private final long timeUnit;
+
+    /**
+     * Create this class.
+     *
+     * @param result    The statistics result holding the search.
+     *                  Must not be <code>null</code>.
+     * @param series    The names of the series. <code>null</code> or empty
+     *                  to get the number of correct calls.
+     * @param numPoints The max number of points of each series, at least
+     *                  3 and at most {@link #MAX_POINTS}.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met. The message is presentable to the user.
+     */
+    /* package */ TimeSeries(StatisticsResult result, String series[],
+            int numPoints) {
+        if (result == null) {
+            throw new IllegalArgumentException("result must not be null");
+        }
+        if (numPoints < 3 || numPoints > MAX_POINTS) {
+            throw new IllegalArgumentException(
+                    "Antalet punkter m&aring;ste vara 3-" + MAX_POINTS);
+        }
+        this.result = result;
+        this.numPoints = numPoints;
+        String column = null;
+        long unit = 0;
+        for (ColumnInfo columnInfo : result.getColumnInfos()) {
+            final ColumnType columnType = columnInfo.getColumnType();
+            if (ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation())) {
+                sumColumns.add(columnInfo);
+            } else if (ColumnType.DATE.equals(columnType) && column == null) {
+                column = columnInfo.getColumnName();
+                unit = DAY;
+            } else if (ColumnType.DATE_HOUR.equals(columnType)) {
+                column = columnInfo.getColumnName();
+                unit = HOUR;
+            } else if (ColumnType.DATE_MINUTE.equals(columnType)) {
+                column = columnInfo.getColumnName();
+                unit = MINUTE;
+            }
+        }
+        timeColumn = column;
+        timeUnit = unit;
+        final Set<String> names = new LinkedHashSet<String>();
+        if (series != null) {
+            names.addAll(Arrays.asList(series));
+        }
+        if (names.isEmpty()) {
+            names.add(ColumnInfo.NUM_CORRECT_CALLS.getName());
+        }
+        for (String name : names) {
+            if (getSumIndex(name) < 0 && getPercentile(name) < 0) {
+                throw new IllegalArgumentException("Ok&auml;nd serie");
+            }
+            this.series.add(name);
+        }
+    }
+
+    /**
+     * Read the series and write them as JSON to the stream.
+     *
+     * @param out The stream to write to. It is not closed.
+     *            Must not be <code>null</code>.
+     *
+     * @throws IllegalArgumentException if the search has no period.
+     *         The message is presentable to the user.
+     * @throws SQLException if there is a problem retrieving the information.
+     * @throws IOException if there is a problem writing the JSON.
+     */
+    /* package */ void write(OutputStream out)
+            throws SQLException, IOException {
+        final GUIForm form = result.getParent().getGUIForm();
+        final Date from = form.getFromDate();
+        final Date to = form.getToDate();
+        if (from == null || to == null || !from.before(to)) {
+            throw new IllegalArgumentException(
+                    "Serier kr&auml;ver b&aring;de fr&aring;n- och till-datum");
+        }
+        final long bucketLength = getBucketLength(to.getTime() -
+                from.getTime());
+        final List<long[]> buckets = readBuckets(from, to, bucketLength);
+        final Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, ENCODING));
+        final SimpleDateFormat format =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        writer.write("{\"from\":\"");
+        writer.write(format.format(from));
+        writer.write("\",\"to\":\"");
+        writer.write(format.format(to));
+        writer.write("\",\"bucketMinutes\":");
+        writer.write(Long.toString(bucketLength / MINUTE));
+        writer.write(",\"series\":[");
+        for (int s = 0; s < series.size(); s++) {
+            if (s > 0) {
+                writer.write(',');
+            }
+            writeSeries(writer, series.get(s), buckets,
+                    from.getTime(), bucketLength);
+        }
+        writer.write("]}\n");
+        writer.flush();
+    }
+
+    /**
+     * Get the length of the buckets summed by the database. The length is
+     * a multiple of the resolution of the time column.
+     *
+     * @param period The length of the period in milliseconds.
+     *
+     * @return The length of the buckets in milliseconds.
+     */
+    private long getBucketLength(long period) {
+        final long numBuckets = (long)numPoints * OVERSAMPLING;
+        final long units = (period / timeUnit + numBuckets - 1) / numBuckets;
+        return Math.max(units, 1) * timeUnit;
+    }
+
+    /**
+     * Read the sums of each bucket.
+     *
+     * @param from         The start of the period (inclusive).
+     *                     Must not be <code>null</code>.
+     * @param to           The end of the period (exclusive).
+     *                     Must not be <code>null</code>.
+     * @param bucketLength The length of the buckets in milliseconds.
+     *
+     * @return The buckets with rows in ascending order. The first value of
+     *         a bucket is its number, followed by the sums in the order of
+     *         <code>sumColumns</code>. This method never returns
+     *         <code>null</code>.
+     *
+     * @throws SQLException if there is a problem retrieving the information.
+     */
+    private List<long[]> readBuckets(Date from, Date to, long bucketLength)
+            throws SQLException {
+        final List<Object> whereParameters = new ArrayList<Object>();
+        final String where = result.getWhereClause(from, to, whereParameters);
+        // The bucket is computed in an inline view and grouped by its
+        // alias, an expression with bind variables repeated in the group by
+        // is not the same expression to the database.
+        final StringBuilder sql = new StringBuilder("select BUCKET");
+        for (ColumnInfo columnInfo : sumColumns) {
+            sql.append(", sum(").append(columnInfo.getColumnName())
+                    .append(')');
+        }
+        sql.append(" from (select floor((")
+                .append(result.getStatisticsTableName()).append('.')
+                .append(timeColumn)
+                .append(" - cast(? as date)) * 86400 / ?) BUCKET");
+        for (ColumnInfo columnInfo : sumColumns) {
+            sql.append(", ").append(result.getStatisticsTableName())
+                    .append('.').append(columnInfo.getColumnName());
+        }
+        sql.append(" from ").append(result.getStatisticsTableName());
+        if (where.length() > 0) {
+            sql.append(" where ").append(where);
+        }
+        sql.append(") group by BUCKET order by BUCKET");
+        final List<Object> parameters = new ArrayList<Object>();
+        parameters.add(from);
+        parameters.add(new Long(bucketLength / 1000));
+        parameters.addAll(whereParameters);
+        final QueryMonitor monitor = result.getMonitor();
+        final List<long[]> buckets = new ArrayList<long[]>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = DBUtilities.createConnection();
+            ps = conn.prepareStatement(sql.toString());
+            monitor.register(ps);
+            result.setParameters(ps, parameters);
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                monitor.addRecord();
+                final long values[] = new long[sumColumns.size() + 1];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = rs.getLong(i + 1);
+                }
+                buckets.add(values);
+            }
+            monitor.partDone();
+        } finally {
+            monitor.unregister(ps);
+            DBUtilities.close(conn, ps, rs);
+        }
+        return buckets;
+    }
+
+    /**
+     * Calculate, downsample and write one series.
+     *
+     * @param writer       The writer to write to.
+     *                     Must not be <code>null</code>.
+     * @param name         The name of the series.
+     *                     Must not be <code>null</code>.
+     * @param buckets      The buckets as returned by
+     *                     {@link #readBuckets(Date, Date, long)}.
+     *                     Must not be <code>null</code>.
+     * @param from         The start of the first bucket.
+     * @param bucketLength The length of the buckets in milliseconds.
+     *
+     * @throws IOException if there is a problem writing the JSON.
+     */
+    private void writeSeries(Writer writer, String name, List<long[]> buckets,
+            long from, long bucketLength) throws IOException {
+        final long times[] = new long[buckets.size()];
+        final long values[] = new long[buckets.size()];
+        int numValues = 0;
+        for (long bucket[] : buckets) {
+            final Long value = getValue(name, bucket);
+            if (value != null) {
+                times[numValues] = from + bucket[0] * bucketLength;
+                values[numValues] = value.longValue();
+                numValues++;
+            }
+        }
+        writer.write("{\"name\":\"");
+        writer.write(name);
+        writer.write("\",\"points\":[");
+        final int indexes[] = downsample(times, values, numValues, numPoints);
+        for (int i = 0; i < indexes.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write('[');
+            writer.write(Long.toString(times[indexes[i]]));
+            writer.write(',');
+            writer.write(Long.toString(values[indexes[i]]));
+            writer.write(']');
+        }
+        writer.write("]}");
+    }
+
+    /**
+     * Get the value of a series in a bucket.
+     *
+     * @param name   The name of the series. Must not be <code>null</code>.
+     * @param bucket The bucket. Must not be <code>null</code>.
+     *
+     * @return The value or <code>null</code> if there is no value, for
+     *         example an average without calls.
+     */
+    private Long getValue(String name, long bucket[]) {
+        final int percentile = getPercentile(name);
+        if (percentile >= 0) {
+            return getPercentileValue(percentile, bucket);
+        }
+        final int index = getSumIndex(name);
+        final ColumnInfo denominator = sumColumns.get(index).getDenominator();
+        if (denominator == null) {
+            return new Long(bucket[index + 1]);
+        }
+        final long count = bucket[sumColumns.indexOf(denominator) + 1];
+        return count > 0 ? new Long(bucket[index + 1] / count) : null;
+    }
+
+    /**
+     * Get a percentile of the call times in a bucket, interpolated within
+     * the time interval holding it.
+     *
+     * @param percentile The percentile (0-100).
+     * @param bucket     The bucket. Must not be <code>null</code>.
+     *
+     * @return The percentile in milliseconds or <code>null</code> if there
+     *         are no calls.
+     */
+    private Long getPercentileValue(int percentile, long bucket[]) {
+        final long counts[] = new long[INTERVALS.size()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bucket[sumColumns.indexOf(INTERVALS.get(i)) + 1];
+            total += counts[i];
+        }
+        if (total == 0) {
+            return null;
+        }
+        final double rank = total * percentile / 100.0;
+        long below = 0;
+        for (int i = 0; i < INTERVAL_LIMITS.length; i++) {
+            if (counts[i] > 0 && below + counts[i] >= rank) {
+                final long lower = i == 0 ? 0 : INTERVAL_LIMITS[i - 1];
+                final double share = (rank - below) / counts[i];
+                return new Long(Math.round(lower +
+                        share * (INTERVAL_LIMITS[i] - lower)));
+            }
+            below += counts[i];
+        }
+        return new Long(INTERVAL_LIMITS[INTERVAL_LIMITS.length - 1]);
+    }
+
+    /**
+     * Get the index in <code>sumColumns</code> of a series.
+     *
+     * @param name The name of the series. Must not be <code>null</code>.
+     *
+     * @return The index or <code>-1</code> if the series is not a summed
+     *         column of the search.
+     */
+    private int getSumIndex(String name) {
+        for (int i = 0; i < sumColumns.size(); i++) {
+            if (sumColumns.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the percentile of a series.
+     *
+     * @param name The name of the series. Must not be <code>null</code>.
+     *
+     * @return The percentile or <code>-1</code> if the series is not a
+     *         percentile of the search.
+     */
+    private int getPercentile(String name) {
+        if (!sumColumns.containsAll(INTERVALS)) {
+            return -1;
+        }
+        for (int percentile : PERCENTILES) {
+            if (name.equals("p" + percentile)) {
+                return percentile;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Downsample a series with the Largest-Triangle-Three-Buckets
+     * algorithm. The first and the last point are always kept. The other
+     * points are divided into buckets and from each bucket the point
+     * forming the largest triangle with the previously chosen point and
+     * the average of the next bucket is chosen.
+     *
+     * @param x         The x values in ascending order.
+     *                  Must not be <code>null</code>.
+     * @param y         The y values. Must not be <code>null</code>.
+     * @param length    The number of points in <code>x</code> and
+     *                  <code>y</code>.
+     * @param threshold The max number of points to keep, at least 3.
+     *
+     * @return The indexes of the points to keep in ascending order.
+     *         This method never returns <code>null</code>.
+     */
+    /* package */ static int[] downsample(long x[], long y[], int length,
+            int threshold) {
+        if (length <= threshold) {
+            final int indexes[] = new int[length];
+            for (int i = 0; i < length; i++) {
+                indexes[i] = i;
+            }
+            return indexes;
+        }
+        final int indexes[] = new int[threshold];
+        final double every = (double)(length - 2) / (threshold - 2);
+        int chosen = 0;
+        indexes[0] = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            // The average of the next bucket.
+            final int nextStart = (int)Math.floor((i + 1) * every) + 1;
+            final int nextEnd = Math.min(
+                    (int)Math.floor((i + 2) * every) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                averageX += x[j];
+                averageY += y[j];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+            // The point of this bucket forming the largest triangle.
+            final int start = (int)Math.floor(i * every) + 1;
+            final int end = (int)Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int j = start; j < end; j++) {
+                final double area = Math.abs(
+                        (x[chosen] - averageX) * (y[j] - y[chosen]) -
+                        (x[chosen] - x[j]) * (averageY - y[chosen]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = j;
+                }
+            }
+            indexes[i + 1] = maxIndex;
+            chosen = maxIndex;
+        }
+        indexes[threshold - 1] = length - 1;
+        return indexes;
+    }
+}
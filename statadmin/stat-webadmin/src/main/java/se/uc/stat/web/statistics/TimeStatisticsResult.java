@@ -14,6 +14,11 @@ import se.uc.stat.web.types.ColumnInfo;
  * @author Anders Persson (konx40)
  */
 public class TimeStatisticsResult extends StatisticsResult {
+    /** The name of the table with the statistics per hour. */
+    private final static String TABLE_NAME = "TIME_STAT";
+    /** The name of the table with the statistics per bucket of minutes. */
+    private final static String MINUTE_TABLE_NAME = "TIME_STAT_MINUTE";
+
     /**
      * Create this class.
      * 
@@ -24,7 +29,40 @@ public class TimeStatisticsResult extends StatisticsResult {
      * @throws SQLException if there is a problem accessing the database.
      */
     public TimeStatisticsResult(BaseContainer parent) throws SQLException {
-        super(parent, "TIME_STAT");
+        super(parent, getTableName(parent));
+    }
+
+    /**
+     * Create this class.
+     * 
+     * @param parent  The parent container. Must not be <code>null</code>.
+     * @param execute <code>true</code> to run the query.
+     *                <code>false</code> if the result is only used to
+     *                build queries.
+     * 
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     * @throws SQLException if there is a problem accessing the database.
+     */
+    public TimeStatisticsResult(BaseContainer parent, boolean execute)
+            throws SQLException {
+        super(parent, getTableName(parent), execute);
+    }
+
+    /**
+     * Get the name of the table to search.
+     * 
+     * @param parent The parent container. May be <code>null</code>.
+     * 
+     * @return The name of the table with the statistics per bucket of
+     *         minutes if requested in the form, otherwise the name of the
+     *         table with the statistics per hour.
+     */
+    private static String getTableName(BaseContainer parent) {
+        if (parent != null && parent.getGUIForm().isMinuteGrain()) {
+            return MINUTE_TABLE_NAME;
+        }
+        return TABLE_NAME;
     }
     
     /**
@@ -39,7 +77,14 @@ public class TimeStatisticsResult extends StatisticsResult {
         result.add(ColumnInfo.MEDIA);
         result.add(ColumnInfo.LAYER);
         result.add(ColumnInfo.PRODUCT);
-        result.add(ColumnInfo.DATE_HOUR);
+        if (MINUTE_TABLE_NAME.equals(getStatisticsTableName())) {
+            result.add(ColumnInfo.DATE_MINUTE);
+        } else {
+            result.add(ColumnInfo.DATE_HOUR);
+        }
+        result.add(ColumnInfo.TIME_WEEK);
+        result.add(ColumnInfo.TIME_MONTH);
+        result.add(ColumnInfo.TIME_QUARTER);
         result.add(ColumnInfo.DAY_OF_WEEK);
         result.add(ColumnInfo.HOUR_OF_DAY);
         result.add(ColumnInfo.NUM_CORRECT_CALLS);
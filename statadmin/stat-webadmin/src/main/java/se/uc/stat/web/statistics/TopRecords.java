@@ -0,0 +1,139 @@
+package se.uc.stat.web.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import se.uc.stat.web.types.ColumnAggregation;
+import se.uc.stat.web.types.ColumnInfo;
+
+/**
+ * Selection of the records with the highest values in one summed column.
+ * The records are added one at a time and only the current top records are
+ * held, in a heap with the lowest of them first. A record that falls out of
+ * the top is added to the remainder record, which holds the sums of all
+ * records outside the top.
+ */
+/* package */ class TopRecords {
+    /** The value of the grouped columns in the remainder record. */
+    /* package */ final static String OTHERS = "(&ouml;vriga)";
+
+    /** The attributes of the records. */
+    private final List<ColumnInfo> attributes;
+    /** The index of the column the records are ranked on. */
+    private final int rankIndex;
+    /** The max number of top records. */
+    private final int maxRecords;
+    /** The top records with the lowest ranked record first. */
+    private final PriorityQueue<ResultSetCell[]> top;
+    /**
+     * The sums of the records outside the top or <code>null</code> if all
+     * records are in the top.
+     */
+    private ResultSetCell others[] = null;
+
+    /**
+     * Create this class.
+     *
+     * @param attributes The attributes of the records.
+     *                   Must not be <code>null</code>.
+     * @param rankIndex  The index of the summed column the records are
+     *                   ranked on.
+     * @param maxRecords The max number of top records. Must be at least 1.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    /* package */ TopRecords(List<ColumnInfo> attributes, final int rankIndex,
+            int maxRecords) {
+        if (attributes == null) {
+            throw new IllegalArgumentException("attributes must not be null");
+        }
+        if (maxRecords < 1) {
+            throw new IllegalArgumentException(
+                    "maxRecords must be at least 1");
+        }
+        this.attributes = attributes;
+        this.rankIndex = rankIndex;
+        this.maxRecords = maxRecords;
+        top = new PriorityQueue<ResultSetCell[]>(maxRecords + 1,
+                new Comparator<ResultSetCell[]>() {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int compare(ResultSetCell[] record1,
+                    ResultSetCell[] record2) {
+                final long value1 = record1[rankIndex].getLong();
+                final long value2 = record2[rankIndex].getLong();
+                return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param record The record. Must not be <code>null</code>.
+     */
+    /* package */ void add(ResultSetCell record[]) {
+        if (top.size() < maxRecords) {
+            top.add(record);
+        } else if (record[rankIndex].getLong() >
+                top.peek()[rankIndex].getLong()) {
+            addToOthers(top.poll());
+            top.add(record);
+        } else {
+            addToOthers(record);
+        }
+    }
+
+    /**
+     * Add a record to the remainder record.
+     *
+     * @param record The record. Must not be <code>null</code>.
+     */
+    private void addToOthers(ResultSetCell record[]) {
+        if (others == null) {
+            others = new ResultSetCell[record.length];
+            for (int i = 0; i < record.length; i++) {
+                if (ColumnAggregation.SUM.equals(
+                        attributes.get(i).getColumnAggregation())) {
+                    others[i] = record[i];
+                } else {
+                    others[i] = new ResultSetCell(OTHERS, 0, null);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < record.length; i++) {
+            final ColumnInfo columnInfo = attributes.get(i);
+            if (ColumnAggregation.SUM.equals(
+                    columnInfo.getColumnAggregation())) {
+                others[i] = ParallelQuery.sum(columnInfo, others[i],
+                        record[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the top records followed by the remainder record, if any.
+     *
+     * @param comparator The order of the top records.
+     *                   Must not be <code>null</code>.
+     *
+     * @return The records. This method never returns <code>null</code>.
+     */
+    /* package */ List<ResultSetCell[]> getRecords(
+            Comparator<ResultSetCell[]> comparator) {
+        final List<ResultSetCell[]> records =
+                new ArrayList<ResultSetCell[]>(top);
+        Collections.sort(records, comparator);
+        if (others != null) {
+            records.add(others);
+        }
+        return records;
+    }
+}
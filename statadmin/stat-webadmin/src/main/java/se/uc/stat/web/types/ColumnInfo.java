@@ -42,6 +42,34 @@ public enum ColumnInfo {
     DATE_HOUR("dateHour", "Datum", "Datum", true, ColumnGroup.TIME,
             "STATISTICS_TIME", null, ColumnType.DATE_HOUR,
             ColumnAggregation.GROUP, null),
+    /** The date and minute column of the fine grained time statistics. */
+    DATE_MINUTE("dateMinute", "Datum och minut", "Tid", true,
+            ColumnGroup.TIME, "STATISTICS_TIME", null, ColumnType.DATE_MINUTE,
+            ColumnAggregation.GROUP, null),
+    /** The week column, the date of the monday of the week. */
+    WEEK("week", "Vecka", "Vecka", true, ColumnGroup.TIME,
+            "trunc(STATISTICS_DATE, 'IW')", null, ColumnType.DATE,
+            ColumnAggregation.GROUP, null),
+    /** The month column, the first date of the month. */
+    MONTH("month", "M&aring;nad", "M&aring;nad", true, ColumnGroup.TIME,
+            "trunc(STATISTICS_DATE, 'MM')", null, ColumnType.DATE,
+            ColumnAggregation.GROUP, null),
+    /** The quarter column, the first date of the quarter. */
+    QUARTER("quarter", "Kvartal", "Kvartal", true, ColumnGroup.TIME,
+            "trunc(STATISTICS_DATE, 'Q')", null, ColumnType.DATE,
+            ColumnAggregation.GROUP, null),
+    /** The week column of the time statistics. */
+    TIME_WEEK("timeWeek", "Vecka", "Vecka", true, ColumnGroup.TIME,
+            "trunc(STATISTICS_TIME, 'IW')", null, ColumnType.DATE,
+            ColumnAggregation.GROUP, null),
+    /** The month column of the time statistics. */
+    TIME_MONTH("timeMonth", "M&aring;nad", "M&aring;nad", true,
+            ColumnGroup.TIME, "trunc(STATISTICS_TIME, 'MM')", null,
+            ColumnType.DATE, ColumnAggregation.GROUP, null),
+    /** The quarter column of the time statistics. */
+    TIME_QUARTER("timeQuarter", "Kvartal", "Kvartal", true,
+            ColumnGroup.TIME, "trunc(STATISTICS_TIME, 'Q')", null,
+            ColumnType.DATE, ColumnAggregation.GROUP, null),
     /** The day of week column. */
     DAY_OF_WEEK("dayOfWeek", "Veckodag", "Dag", true, ColumnGroup.TIME,
             "DAY_OF_WEEK_NAME", JoinInfo.DAY_OF_WEEK, ColumnType.STRING,
@@ -259,6 +287,9 @@ public enum ColumnInfo {
 
     /**
      * Get the name of the database column to reach this information.
+     * For the calendar buckets (weeks, months and quarters) this is the
+     * expression truncating the date, used both in the select list and in
+     * the group by clause.
      * 
      * @return The name of the database column.
      *         This method never returns <code>null</code>.
@@ -71,6 +71,29 @@ public enum ColumnType {
             return new ResultSetCell(str, 0, date);
         }
     }),
+    /** Date and minute column. */
+    DATE_MINUTE(new Read() {
+        /**
+         * Formatter. Must only be used if a lock on <code>format</code>
+         * is held.
+         */
+        private final SimpleDateFormat format =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        
+        /**
+         * {@inheritDoc}.
+         */
+        @Override
+        public ResultSetCell read(ResultSet rs, int index) throws SQLException {
+            final Date date = new Date(rs.getTimestamp(index).getTime());
+            String str;
+            synchronized(format) {
+                str = format.format(date);
+            }
+            str = GUIFormatter.toStringNoBreak(str);
+            return new ResultSetCell(str, 0, date);
+        }
+    }),
     /** Long column. */
     LONG(new Read() {
         /**
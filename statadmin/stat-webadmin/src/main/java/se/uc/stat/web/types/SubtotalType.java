@@ -0,0 +1,121 @@
+package se.uc.stat.web.types;
+
+/**
+ * Enum representing how the sums of the groups are calculated.
+ */
+public enum SubtotalType {
+    /** The sums are calculated from the rows when they are read. */
+    CALCULATED("calculated", "Ber&auml;knas av applikationen", false, false),
+    /** The sums are calculated by the database with rollup. */
+    DATABASE("database", "Ber&auml;knas av databasen", true, false),
+    /**
+     * The sums are calculated by the database with rollup and only the
+     * sums are read.
+     */
+    ONLY_SUBTOTALS("onlysubtotals", "Endast delsummor", true, true);
+
+    /** The (computer) name of the subtotal type. */
+    private final String name;
+
+    /** The label of the subtotal type. */
+    private final String label;
+
+    /**
+     * <code>true</code> if the database calculates the sums.
+     * <code>false</code> if they are calculated by the application.
+     */
+    private final boolean rollup;
+
+    /**
+     * <code>true</code> if only the sums are read.
+     * <code>false</code> if all rows are read.
+     */
+    private final boolean onlySubtotals;
+
+    /**
+     * Create this enum.
+     *
+     * @param name          The name of the subtotal type.
+     *                      Must not be <code>null</code>.
+     * @param label         The label of the subtotal type.
+     *                      Must not be <code>null</code>.
+     * @param rollup        <code>true</code> if the database calculates the
+     *                      sums.
+     * @param onlySubtotals <code>true</code> if only the sums are read.
+     *
+     * @throws IllegalArgumentException if any of the constraints specified
+     *         is not met.
+     */
+    private SubtotalType(String name, String label, boolean rollup,
+            boolean onlySubtotals) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        this.name = name;
+        if (label == null) {
+            throw new IllegalArgumentException("label must not be null");
+        }
+        this.label = label;
+        this.rollup = rollup;
+        this.onlySubtotals = onlySubtotals;
+    }
+
+    /**
+     * Get the (computer) name of this subtotal type.
+     *
+     * @return The (computer) name of this subtotal type.
+     *         This method never returns <code>null</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the label of this subtotal type.
+     *
+     * @return The label of this subtotal type.
+     *         This method never returns <code>null</code>.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Check if the database calculates the sums.
+     *
+     * @return <code>true</code> if the database calculates the sums with
+     *         <code>group by rollup</code>.
+     *         <code>false</code> if they are calculated by the application.
+     */
+    public boolean isRollup() {
+        return rollup;
+    }
+
+    /**
+     * Check if only the sums are read.
+     *
+     * @return <code>true</code> if only the sums are read.
+     *         <code>false</code> if all rows are read.
+     */
+    public boolean isOnlySubtotals() {
+        return onlySubtotals;
+    }
+
+    /**
+     * Get the subtotal type with the given name.
+     *
+     * @param name The name of the subtotal type. May be <code>null</code>.
+     *
+     * @return The subtotal type with the given name or
+     *         <code>CALCULATED</code> if there is no such subtotal type.
+     *         This method never returns <code>null</code>.
+     */
+    public static SubtotalType getSubtotalType(String name) {
+        for (SubtotalType subtotalType : values()) {
+            if (subtotalType.getName().equals(name)) {
+                return subtotalType;
+            }
+        }
+        return CALCULATED;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Map;
 
 import se.uc.stat.web.BaseContainer;
 import se.uc.stat.web.types.ColumnInfo;
+import se.uc.stat.web.types.SubtotalType;
 
 /**
  * Represents the full form with all its attributes.
@@ -19,6 +20,10 @@ public class GUIForm implements GUIRequestParameters {
     private final static int MAX_ROWS_DEFAULT = 100;
     /** The max number of max rows. */
     private final static int MAX_ROWS_MAX = 50000;
+    /** The default number of parallel queries. */
+    private final static int PARALLELISM_DEFAULT = 1;
+    /** The max number of parallel queries. */
+    private final static int PARALLELISM_MAX = 8;
     
     /** The container with the information this form is built on. */
     private final BaseContainer container;
@@ -29,6 +34,25 @@ public class GUIForm implements GUIRequestParameters {
     private final GUISort sort;
     /** The max number of rows. */
     private final int maxRows;
+    /** The number of parallel queries to divide the date range in. */
+    private final int parallelism;
+    /** The number of rows in a top list or <code>0</code> for no top list. */
+    private final int topN;
+    /** The column the top list is ranked on or <code>null</code>. */
+    private final String topColumn;
+    /** How the sums of the groups are calculated. */
+    private final SubtotalType subtotalType;
+    /** <code>true</code> if the search should use the rows in memory. */
+    private final boolean inMemory;
+    /** <code>true</code> if the search should use the archive. */
+    private final boolean archive;
+    /**
+     * <code>true</code> if the search should use the time statistics per
+     * bucket of minutes.
+     */
+    private final boolean minuteGrain;
+    /** The cursor of the previous page or <code>null</code>. */
+    private final String pageCursor;
     /** The customer to search for. */
     private final String customer;
     /** The product to search for. */
@@ -37,6 +61,10 @@ public class GUIForm implements GUIRequestParameters {
     private final Date fromDate;
     /** The to date. */
     private final Date toDate;
+    /** The from date of the period to compare with. */
+    private final Date compareFromDate;
+    /** The to date of the period to compare with. */
+    private final Date compareToDate;
     
     /**
      * Create this class.
@@ -62,10 +90,27 @@ public class GUIForm implements GUIRequestParameters {
         preprocessParameters(requestParameters);
         sort = new GUISort(this, container.getSortParameterInfoList().size());
         maxRows = parseMaxRows();
+        parallelism = parseParallelism();
+        topN = parseTopN();
+        topColumn = parameters.get("topColumn");
+        subtotalType = SubtotalType.getSubtotalType(
+                parameters.get("subtotals"));
+        inMemory = parameters.get("inMemory") != null;
+        archive = parameters.get("archive") != null;
+        minuteGrain = parameters.get("minuteGrain") != null;
+        // The cursor is only used when the next page is requested, a new
+        // search starts from the first page.
+        if (parameters.get("nextPage") != null) {
+            pageCursor = parameters.get("nextPageCursor");
+        } else {
+            pageCursor = null;
+        }
         customer = parameters.get(ColumnInfo.CUSTOMER.getName());
         product = parameters.get(ColumnInfo.PRODUCT.getName());
         fromDate = parseDate(parameters.get("fromDate"));
         toDate = parseDate(parameters.get("toDate"));
+        compareFromDate = parseDate(parameters.get("compareFromDate"));
+        compareToDate = parseDate(parameters.get("compareToDate"));
         // Post process GUI lists
         for (GUIList list : container.getGUIListList()) {
             list.setRequestParameters(this);
@@ -164,6 +209,143 @@ public class GUIForm implements GUIRequestParameters {
         return maxRows;
     }
     
+    /**
+     * Parse the number of parallel queries.
+     * 
+     * @return The given number of parallel queries.
+     */
+    private int parseParallelism() {
+        final String param = parameters.get("parallelism");
+        if (param == null) {
+            return PARALLELISM_DEFAULT;
+        }
+        try {
+            final int value = Integer.parseInt(param);
+            if (value < 1) {
+                return PARALLELISM_DEFAULT;
+            }
+            if (value > PARALLELISM_MAX) {
+                return PARALLELISM_MAX;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return PARALLELISM_DEFAULT;
+        }
+    }
+    
+    /**
+     * Get the number of parallel queries the date range of the search
+     * should be divided in. 1 means that the search is run as one query.
+     * 
+     * @return The number of parallel queries.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Parse the number of rows in the top list.
+     * 
+     * @return The given number of rows or <code>0</code> if no top list
+     *         is requested.
+     */
+    private int parseTopN() {
+        final String param = parameters.get("topN");
+        if (param == null) {
+            return 0;
+        }
+        try {
+            final int value = Integer.parseInt(param);
+            if (value < 1) {
+                return 0;
+            }
+            if (value > MAX_ROWS_MAX) {
+                return MAX_ROWS_MAX;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Check if the search is a top list, which is the case when both the
+     * number of rows and the column to rank on are given.
+     * 
+     * @return <code>true</code> if only the top rows should be shown.
+     */
+    public boolean isTopN() {
+        return topN > 0 && topColumn != null;
+    }
+    
+    /**
+     * Get the number of rows in the top list.
+     * 
+     * @return The number of rows or <code>0</code> if not specified.
+     */
+    public int getTopN() {
+        return topN;
+    }
+    
+    /**
+     * Get the name of the column the top list is ranked on.
+     * 
+     * @return The name of the column or <code>null</code> if not specified.
+     */
+    public String getTopColumn() {
+        return topColumn;
+    }
+    
+    /**
+     * Get how the sums of the groups are calculated.
+     * 
+     * @return The subtotal type. This method never returns <code>null</code>.
+     */
+    public SubtotalType getSubtotalType() {
+        return subtotalType;
+    }
+    
+    /**
+     * Check if the search should use the recent rows held in memory instead
+     * of querying the database, when the rows of the search are in memory.
+     * 
+     * @return <code>true</code> if the rows in memory should be used.
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+    
+    /**
+     * Check if the search should use the archived months instead of
+     * querying the database, for the part of the search that is archived.
+     * 
+     * @return <code>true</code> if the archive should be used.
+     */
+    public boolean isArchive() {
+        return archive;
+    }
+    
+    /**
+     * Check if the search should use the time statistics per bucket of
+     * minutes instead of the statistics per hour. The statistics per
+     * bucket are only kept for a few days.
+     * 
+     * @return <code>true</code> if the statistics per bucket should be used.
+     */
+    public boolean isMinuteGrain() {
+        return minuteGrain;
+    }
+    
+    /**
+     * Get the cursor telling where the previous page ended.
+     * 
+     * @return The encoded cursor or <code>null</code> if the first page
+     *         is requested.
+     */
+    public String getPageCursor() {
+        return pageCursor;
+    }
+    
     /**
      * Get the customer.
      * 
@@ -218,6 +400,53 @@ public class GUIForm implements GUIRequestParameters {
         return toString(toDate);
     }
     
+    /**
+     * Check if the search compares the period of the search with another
+     * period, which is the case when both dates of the period to compare
+     * with are given.
+     * 
+     * @return <code>true</code> if the periods should be compared.
+     */
+    public boolean isComparison() {
+        return compareFromDate != null && compareToDate != null;
+    }
+    
+    /**
+     * Get the from date of the period to compare with.
+     * 
+     * @return The from date or <code>null</code> if not specified.
+     */
+    public Date getCompareFromDate() {
+        return compareFromDate;
+    }
+    
+    /**
+     * Get the from date of the period to compare with as a string.
+     * 
+     * @return The from date as a string or empty string if not specified.
+     */
+    public String getCompareFromDateString() {
+        return toString(compareFromDate);
+    }
+    
+    /**
+     * Get the to date of the period to compare with.
+     * 
+     * @return The to date or <code>null</code> if not specified.
+     */
+    public Date getCompareToDate() {
+        return compareToDate;
+    }
+
+    /**
+     * Get the to date of the period to compare with as a string.
+     * 
+     * @return The to date as a string or empty string if not specified.
+     */
+    public String getCompareToDateString() {
+        return toString(compareToDate);
+    }
+    
     /**
      * Convert the date to a string.
      * yyyyMMdd or yyyyMMdd HHmm or empty string.
@@ -34,4 +34,42 @@ public class GUIFormatter {
         }
         return sb.toString();
     }
+
+    /**
+     * Escape the characters of a text that have a meaning in HTML, so that
+     * the text can be written to a page as it is.
+     * 
+     * @param s The text to escape.
+     * 
+     * @return The escaped text or an empty string if s is
+     *         <code>null</code>.
+     */
+    public static String escapeHtml(String s) {
+        if (s == null) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (int pos = 0; pos < s.length(); pos++) {
+            final char c = s.charAt(pos);
+            if (c == '<') {
+                sb.append("&lt;");
+            }
+            else if (c == '>') {
+                sb.append("&gt;");
+            }
+            else if (c == '&') {
+                sb.append("&amp;");
+            }
+            else if (c == '"') {
+                sb.append("&quot;");
+            }
+            else if (c == '\'') {
+                sb.append("&#39;");
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 }
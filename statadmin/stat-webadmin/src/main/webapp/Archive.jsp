@@ -0,0 +1,67 @@
+<%@ page language="java" contentType="text/html; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%>
+<%@ page import="se.uc.stat.web.BaseContainer" %>
+<%@ page import="se.uc.stat.web.statistics.StatisticsArchive" %>
+<%@ page import="se.uc.stat.web.webtypes.GUIFormatter" %>
+<%
+// Lists the archived months and archives a month when month and
+// statistics (time or customer) are given.
+final BaseContainer.Type[] types = BaseContainer.Type.values();
+String message = null;
+if (request.getParameter("month") != null) {
+    final BaseContainer.Type type = "customer".equals(request.getParameter("statistics")) ?
+            BaseContainer.Type.CUSTOMER : BaseContainer.Type.TIME;
+    final StatisticsArchive archive = StatisticsArchive.getArchive(type);
+    if (archive != null) {
+        // The month is validated by archiveMonth before it is part of any
+        // message. The messages of the archive are HTML.
+        final String month = request.getParameter("month").trim();
+        try {
+            archive.archiveMonth(month);
+            message = "Mnaden " + GUIFormatter.escapeHtml(month) + " r arkiverad";
+        } catch (IllegalArgumentException e) {
+            message = e.getMessage();
+        }
+    }
+}
+%>
+<!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN" "http://www.w3.org/TR/html4/loose.dtd">
+<html>
+<head>
+<meta http-equiv="Content-Type" content="text/html; charset=ISO-8859-1">
+<title>Arkiv</title>
+<link rel="stylesheet" href="css/style.css" type="text/css"/>
+</head>
+<body>
+<h1>Arkiv</h1>
+<a href="index.jsp">Index</a>
+<p/>
+<% if (StatisticsArchive.getArchive(BaseContainer.Type.TIME) == null) { %>
+Inget arkiv r konfigurerat (<code>statArchiveDirectory</code>).
+<% } else { %>
+<% if (message != null) { %>
+<p><%=message %></p>
+<% } %>
+<table>
+<% for (BaseContainer.Type type : types) { %>
+<tr><td valign="top"><%=BaseContainer.Type.CUSTOMER.equals(type) ? "Kundstatistik" : "Tidsstatistik" %></td>
+<td><%
+for (String month : StatisticsArchive.getArchive(type).getMonths()) {
+%><%=month %><br/><%
+}
+%></td></tr>
+<% } %>
+</table>
+<form action="Archive.jsp" method="post">
+<select name="statistics">
+<option value="time">Tidsstatistik</option>
+<option value="customer">Kundstatistik</option>
+</select>
+<input type="text" name="month" value=""/> (<code>yyyy-MM</code>)
+<input type="submit" value="Arkivera"/>
+</form>
+Raderna i en avslutad mnad lses frn databasen och sparas i arkivet.
+Raderna tas inte bort frn databasen.
+<% } %>
+</body>
+</html>
@@ -0,0 +1,76 @@
+<%@ page language="java" contentType="text/html; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%>
+<%@ page import="java.util.List" %>
+<%@ page import="se.uc.stat.web.statistics.DistinctCustomers" %>
+<%@ page import="se.uc.stat.web.types.ColumnInfo" %>
+<%
+// Shows the estimated number of distinct customers per group when from
+// and to dates are given.
+final String fromDate = request.getParameter("fromDate");
+final String toDate = request.getParameter("toDate");
+final String[] groupBy = request.getParameterValues("groupBy");
+DistinctCustomers customers = null;
+String message = null;
+if (fromDate != null && toDate != null) {
+    try {
+        customers = new DistinctCustomers(fromDate, toDate, groupBy);
+    } catch (IllegalArgumentException e) {
+        message = e.getMessage();
+    }
+}
+%>
+<!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN" "http://www.w3.org/TR/html4/loose.dtd">
+<html>
+<head>
+<meta http-equiv="Content-Type" content="text/html; charset=ISO-8859-1">
+<title>Unika kunder</title>
+<link rel="stylesheet" href="css/style.css" type="text/css"/>
+</head>
+<body>
+<h1>Unika kunder</h1>
+<a href="index.jsp">Index</a>
+<p/>
+<form action="DistinctCustomers.jsp" method="get">
+<table>
+<tr><td>Frn datum</td><td><input type="text" name="fromDate" value=""/> (<code>yyyy-MM-dd</code>)</td></tr>
+<tr><td>Till datum</td><td><input type="text" name="toDate" value=""/> (<code>yyyy-MM-dd</code>, inklusive)</td></tr>
+<tr><td valign="top">Gruppera p</td><td>
+<% for (ColumnInfo column : DistinctCustomers.getGroupColumns()) { %>
+<input type="checkbox" name="groupBy" value="<%=column.getName() %>"/><%=column.getLabel() %><br/>
+<% } %>
+</td></tr>
+</table>
+<input type="submit" value="Sk"/>
+</form>
+Antalet unika kunder r en uppskattning med ett medelfel p ungefr 3 %.
+En kund som anropar flera dagar eller flera metoder rknas en gng.
+<% if (message != null) { %>
+<p><%=message %></p>
+<% } %>
+<% if (customers != null) { %>
+<p/>
+<table>
+<tr>
+<% for (ColumnInfo column : customers.getGroupBy()) { %>
+<th><%=column.getHeadlineLabel() %></th>
+<% } %>
+<th>Unika kunder</th>
+</tr>
+<% for (List<String> group : customers.getGroups()) { %>
+<tr>
+<% for (String value : group) { %>
+<td><%=value %></td>
+<% } %>
+<td align="right"><%=customers.getEstimate(group) %></td>
+</tr>
+<% } %>
+<tr>
+<% for (int index = 0; index < customers.getGroupBy().size(); index++) { %>
+<td><b><%=index == 0 ? "Totalt" : "" %></b></td>
+<% } %>
+<td align="right"><b><%=customers.getTotalEstimate() %></b></td>
+</tr>
+</table>
+<% } %>
+</body>
+</html>
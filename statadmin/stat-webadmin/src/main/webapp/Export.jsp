@@ -0,0 +1,34 @@
+<%@ page language="java" contentType="text/plain; charset=UTF-8"
+    pageEncoding="ISO-8859-1"%><%@ page
+    import="java.io.OutputStream" %><%@ page
+    import="se.uc.stat.web.BaseContainer" %><%@ page
+    import="se.uc.stat.web.Services" %><%@ page
+    import="se.uc.stat.web.statistics.ExportFormat" %><%
+// Exports all rows of a search as CSV or JSON. Takes the same parameters as
+// the search pages and also statistics (time or customer), format (csv or
+// json) and gzip (true to compress if the client accepts it).
+final Services services = new Services();
+final BaseContainer statistics;
+if ("customer".equals(request.getParameter("statistics"))) {
+    statistics = services.getCustomerStatistics(request.getParameterMap());
+} else {
+    statistics = services.getTimeStatistics(request.getParameterMap());
+}
+final ExportFormat format =
+        ExportFormat.getExportFormat(request.getParameter("format"));
+final String acceptEncoding = request.getHeader("Accept-Encoding");
+final boolean gzip = request.getParameter("gzip") != null &&
+        acceptEncoding != null && acceptEncoding.indexOf("gzip") >= 0;
+response.setContentType(format.getContentType());
+response.setHeader("Content-Disposition",
+        "attachment; filename=\"statistik." + format.getName() + "\"");
+if (gzip) {
+    response.setHeader("Content-Encoding", "gzip");
+}
+out.clear();
+final OutputStream stream = response.getOutputStream();
+statistics.createStatisticsResult(false).export(stream, format, gzip);
+stream.flush();
+// The response is written to the stream, not to the JSP writer.
+out = pageContext.pushBody();
+%>
\ No newline at end of file
@@ -0,0 +1,63 @@
+<%@ page language="java" contentType="text/html; charset=ISO-8859-1"
+    pageEncoding="ISO-8859-1"%>
+<%@ page import="se.uc.stat.web.BaseContainer" %>
+<%@ page import="se.uc.stat.web.ReportJob" %>
+<%@ page import="se.uc.stat.web.ReportJobs" %>
+<%@ page import="se.uc.stat.web.statistics.QueryMonitor" %>
+<%
+final ReportJob job = ReportJobs.getJob(request.getParameter("id"));
+final boolean startedBy = (job != null && ReportJobs.isStartedBy(job,
+        request.getRemoteUser(), request.getRemoteAddr()));
+if (startedBy && request.getParameter("cancel") != null) {
+    job.cancel();
+}
+final boolean finished = (job == null || job.getState().isFinished());
+%>
+<!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN" "http://www.w3.org/TR/html4/loose.dtd">
+<html>
+<head>
+<meta http-equiv="Content-Type" content="text/html; charset=ISO-8859-1">
+<% if (!finished) { %>
+<meta http-equiv="refresh" content="2;url=ReportJob.jsp?id=<%=job.getId() %>">
+<% } %>
+<title>Skning i bakgrunden</title>
+<link rel="stylesheet" href="css/style.css" type="text/css"/>
+</head>
+<body>
+<h1>Skning i bakgrunden</h1>
+<a href="index.jsp">Index</a>
+<p/>
+<% if (job == null) { %>
+Skningen finns inte. Avslutade skningar sparas i tio minuter.
+<% } else {
+final QueryMonitor monitor = job.getQueryMonitor();
+%>
+<table>
+<tr><td>Status</td><td><%=job.getState() %></td></tr>
+<tr><td>Tid</td><td><%=job.getElapsedSeconds() %> s</td></tr>
+<tr><td>Lsta rader</td><td><%=monitor.getNumRecords() %></td></tr>
+<tr><td>Klara delfrgor</td><td><%=monitor.getNumPartsDone() %> av <%=monitor.getNumParts() %></td></tr>
+<% if (job.getError() != null) { %>
+<tr><td>Fel</td><td><%=job.getError().toString() %></td></tr>
+<% } %>
+</table>
+<% if (!finished && startedBy) { %>
+<a href="ReportJob.jsp?id=<%=job.getId() %>&amp;cancel=true">Avbryt</a>
+<% } %>
+<% if (job.getState().equals(ReportJob.State.DONE)) {
+final BaseContainer statistics = job.getContainer();
+%>
+<p/>
+<table border="1" cellspacing="0">
+<% { %>
+<%@ include file="includes/searchResultHeader.jspf" %>
+<% } %>
+<% { %>
+<%@ include file="includes/searchResultBody.jspf" %>
+<% } %>
+</table>
+Det gr bra att kopiera tabellen och klistra in den i Excel om s nskas.
+<% } // End done %>
+<% } // End job %>
+</body>
+</html>
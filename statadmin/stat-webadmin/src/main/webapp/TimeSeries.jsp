@@ -0,0 +1,36 @@
+<%@ page language="java" contentType="application/json; charset=UTF-8"
+    pageEncoding="ISO-8859-1"%><%@ page
+    import="java.io.OutputStream" %><%@ page
+    import="se.uc.stat.web.BaseContainer" %><%@ page
+    import="se.uc.stat.web.Services" %><%
+// Writes time series of a search as JSON for charts. Takes the same
+// parameters as the search pages and also statistics (time or customer),
+// series (one or more, for example numCorrectCalls, averageTimeCorrect or
+// p90) and points (the max number of points of each series).
+final Services services = new Services();
+final BaseContainer statistics;
+if ("customer".equals(request.getParameter("statistics"))) {
+    statistics = services.getCustomerStatistics(request.getParameterMap());
+} else {
+    statistics = services.getTimeStatistics(request.getParameterMap());
+}
+int points = 0;
+if (request.getParameter("points") != null) {
+    try {
+        points = Integer.parseInt(request.getParameter("points").trim());
+    } catch (NumberFormatException e) {
+        points = -1;
+    }
+}
+out.clear();
+try {
+    final OutputStream stream = response.getOutputStream();
+    statistics.createStatisticsResult(false).writeTimeSeries(stream,
+            request.getParameterValues("series"), points);
+    stream.flush();
+} catch (IllegalArgumentException e) {
+    response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+}
+// The response is written to the stream, not to the JSP writer.
+out = pageContext.pushBody();
+%>
\ No newline at end of file
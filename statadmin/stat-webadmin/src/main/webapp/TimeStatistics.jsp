@@ -12,13 +12,34 @@
 <a href="index.jsp">Index</a>
 <a href="TimeStatistics.jsp">Tomt skformulr</a>
 <p/>
+<%@ page import="se.uc.stat.web.ReportJob" %>
+<%@ page import="se.uc.stat.web.ReportJobs" %>
 <%@ page import="se.uc.stat.web.Services" %>
 <%@ page import="se.uc.stat.web.TimeStatistics" %>
 <%
 final Services services = new Services();
 final TimeStatistics statistics = services.getTimeStatistics(
         request.getParameterMap());
+if (request.getParameter("export") != null) {
+    request.getRequestDispatcher("Export.jsp?statistics=time&format=" +
+            request.getParameter("export")).forward(request, response);
+    return;
+}
+String message = null;
+if (request.getParameter("async") != null) {
+    try {
+        final ReportJob job = ReportJobs.submit(statistics,
+                request.getRemoteUser(), request.getRemoteAddr());
+        response.sendRedirect("ReportJob.jsp?id=" + job.getId());
+        return;
+    } catch (IllegalStateException e) {
+        message = e.getMessage();
+    }
+}
 %>
+<% if (message != null) { %>
+<p><%=message %></p>
+<% } %>
 <%@ include file="includes/searchForm.jspf" %>
 </body>
 </html>
@@ -12,6 +12,8 @@
 <ul>
 <li><a href="CustomerStatistics.jsp">Statistik ver kundernas tjnsteanvndning</a></li>
 <li><a href="TimeStatistics.jsp">Statistik ver tjnstebelastning och tider</a></li>
+<li><a href="DistinctCustomers.jsp">Unika kunder per metod och period</a></li>
+<li><a href="Archive.jsp">Arkiv</a></li>
 </ul>
 </body>
 </html>
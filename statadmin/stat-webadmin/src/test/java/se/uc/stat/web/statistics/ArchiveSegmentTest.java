@@ -0,0 +1,250 @@
+package se.uc.stat.web.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test writing and reading the segment files of the ArchiveSegment class.
+ */
+public class ArchiveSegmentTest {
+    /** The index of METHOD_ID in the customer layout. */
+    private final static int METHOD = 0;
+    /** The index of ORIGIN_ID in the customer layout. */
+    private final static int ORIGIN = 1;
+    /** The index of PRODUCT in the customer layout. */
+    private final static int PRODUCT = 3;
+    /** The index of CUSTOMER in the customer layout. */
+    private final static int CUSTOMER = 4;
+    /** The number of rows in the long runs. */
+    private final static int RUN_LENGTH = 1000;
+
+    /** The names of the dimensions, none are needed. */
+    private final Map<String, Map<Integer, String>> names =
+            new HashMap<String, Map<Integer, String>>();
+    /** The segment file. */
+    private File file;
+
+    /**
+     * Create the name of the file.
+     */
+    @Before
+    public void setUp() {
+        file = new File(System.getProperty("java.io.tmpdir"),
+                "stat-segment-test-" + System.nanoTime());
+    }
+
+    /**
+     * Delete the file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test that the rows read are the rows written, with zero, negative
+     * and extreme values and long runs of equal values.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final ColumnTable.Builder builder =
+                new ColumnTable.Builder(ColumnLayout.CUSTOMER, names);
+        final int numKeys = ColumnLayout.CUSTOMER.getKeyColumns().size();
+        final int numSums = ColumnLayout.CUSTOMER.getSumColumns().size();
+        // Not in time order, the rows are sorted when written.
+        addRow(builder, 7200000, new int[] {0, 0, 0, 0, 0, 0},
+                new long[] {0, 0, 0}, "", "");
+        addRow(builder, 0, new int[] {-1, -2, Integer.MIN_VALUE, 0, 0,
+                Integer.MAX_VALUE}, new long[] {-1, Long.MIN_VALUE,
+                Long.MAX_VALUE}, "p1", "\u00e5\u00e4\u00f6");
+        addRow(builder, -3600000, new int[] {5, 5, 5, 0, 0, 5},
+                new long[] {-300, 300, 1}, "p1", "c1");
+        // Long runs in all columns.
+        for (int i = 0; i < RUN_LENGTH; i++) {
+            addRow(builder, 3600000, new int[] {12, 13, 14, 0, 0, 1},
+                    new long[] {1, 0, -1}, "p2", "c2");
+        }
+        final ColumnTable table = builder.build();
+        ArchiveSegment.write(table, file);
+
+        final ArchiveSegment segment = new ArchiveSegment(file);
+        assertEquals("Invalid layout", ColumnLayout.CUSTOMER,
+                segment.getLayout());
+        assertEquals("Invalid number of rows", RUN_LENGTH + 3,
+                segment.getNumRows());
+        final ColumnTable read = segment.getTable(names);
+        assertEquals("Invalid number of rows read", RUN_LENGTH + 3,
+                read.getNumRows());
+        assertEquals("Invalid min time", -3600000, read.getMinTime());
+        assertEquals("Invalid max time", 7200000, read.getMaxTime());
+        assertEquals("Invalid rows", getRows(table, numKeys, numSums),
+                getRows(read, numKeys, numSums));
+        long sumOfSums = 0;
+        for (int i = 0; i < numSums; i++) {
+            for (int row = 0; row < table.getNumRows(); row++) {
+                sumOfSums += table.getSums(i)[row];
+            }
+        }
+        assertEquals("Invalid sum of sums", sumOfSums,
+                segment.getSumOfSums());
+        final long times[] = read.getTimes();
+        for (int row = 1; row < read.getNumRows(); row++) {
+            assertTrue("Rows not in time order",
+                    times[row - 1] <= times[row]);
+        }
+    }
+
+    /**
+     * Test that an empty table is written and read and never matches.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        ArchiveSegment.write(new ColumnTable.Builder(ColumnLayout.TIME,
+                names).build(), file);
+        final ArchiveSegment segment = new ArchiveSegment(file);
+        assertEquals("Invalid layout", ColumnLayout.TIME,
+                segment.getLayout());
+        assertEquals("Invalid number of rows", 0, segment.getNumRows());
+        assertEquals("Invalid sum of sums", 0, segment.getSumOfSums());
+        assertEquals("Invalid number of rows read", 0,
+                segment.getTable(names).getNumRows());
+        assertFalse("Empty segment matches", segment.mayMatch(
+                Long.MIN_VALUE, Long.MAX_VALUE,
+                new ArrayList<ColumnQuery.Condition>()));
+    }
+
+    /**
+     * Test that the zone maps in the header skip the segments that can not
+     * match a search.
+     *
+     * @throws IOException if the test fails.
+     */
+    @Test
+    public void testZoneMaps() throws IOException {
+        final ColumnTable.Builder builder =
+                new ColumnTable.Builder(ColumnLayout.CUSTOMER, names);
+        addRow(builder, 1000, new int[] {-5, 0, 0, 0, 0, 0},
+                new long[] {1, 0, 0}, "p1", "c1");
+        addRow(builder, 2000, new int[] {70, 0, 0, 0, 0, 0},
+                new long[] {1, 0, 0}, "p1", "c2");
+        // Too large a range for a bitmap.
+        addRow(builder, 3000, new int[] {3, 1, 0, 0, 0, 0},
+                new long[] {1, 0, 0}, "p1", "c1");
+        addRow(builder, 3000, new int[] {3, 1 << 20, 0, 0, 0, 0},
+                new long[] {1, 0, 0}, "p1", "c1");
+        ArchiveSegment.write(builder.build(), file);
+        final ArchiveSegment segment = new ArchiveSegment(file);
+        final String method =
+                ColumnLayout.CUSTOMER.getKeyColumns().get(METHOD);
+        final String origin =
+                ColumnLayout.CUSTOMER.getKeyColumns().get(ORIGIN);
+        final String customer =
+                ColumnLayout.CUSTOMER.getKeyColumns().get(CUSTOMER);
+
+        assertTrue("All rows do not match",
+                mayMatch(segment, 0, 4000, null));
+        assertTrue("Last time does not match",
+                mayMatch(segment, 3000, 3001, null));
+        assertFalse("Time after the rows matches",
+                mayMatch(segment, 3001, 4000, null));
+        assertFalse("Time before the rows matches",
+                mayMatch(segment, 0, 1000, null));
+        assertTrue("Negative id does not match", mayMatch(segment, 0, 4000,
+                new ColumnQuery.Condition(method, new int[] {-5})));
+        assertTrue("Max id does not match", mayMatch(segment, 0, 4000,
+                new ColumnQuery.Condition(method, new int[] {70})));
+        assertFalse("Id within range but missing matches", mayMatch(segment,
+                0, 4000, new ColumnQuery.Condition(method, new int[] {4})));
+        assertFalse("Id out of range matches", mayMatch(segment, 0, 4000,
+                new ColumnQuery.Condition(method, new int[] {71})));
+        assertTrue("Id without bitmap does not match", mayMatch(segment, 0,
+                4000, new ColumnQuery.Condition(origin, new int[] {2})));
+        assertTrue("Value does not match", mayMatch(segment, 0, 4000,
+                new ColumnQuery.Condition(customer, "c2")));
+        assertFalse("Missing value matches", mayMatch(segment, 0, 4000,
+                new ColumnQuery.Condition(customer, "c3")));
+    }
+
+    /**
+     * Add a row to a customer table.
+     *
+     * @param builder  The builder of the table.
+     * @param time     The time of the row.
+     * @param keys     The key columns, the dictionary encoded columns are
+     *                 replaced.
+     * @param sums     The summed columns.
+     * @param product  The product.
+     * @param customer The customer.
+     */
+    private static void addRow(ColumnTable.Builder builder, long time,
+            int keys[], long sums[], String product, String customer) {
+        keys[PRODUCT] = builder.encode(PRODUCT, product);
+        keys[CUSTOMER] = builder.encode(CUSTOMER, customer);
+        builder.addRow(time, keys, sums);
+    }
+
+    /**
+     * Get the rows of a table as sorted strings, with the dictionary
+     * encoded columns decoded.
+     *
+     * @param table   The table.
+     * @param numKeys The number of key columns.
+     * @param numSums The number of summed columns.
+     *
+     * @return The rows.
+     */
+    private static List<String> getRows(ColumnTable table, int numKeys,
+            int numSums) {
+        final List<String> rows = new ArrayList<String>();
+        for (int row = 0; row < table.getNumRows(); row++) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(table.getTimes()[row]);
+            for (int i = 0; i < numKeys; i++) {
+                final int key = table.getKeys(i)[row];
+                sb.append(';').append(table.getDictionary(i) == null ?
+                        Integer.toString(key) : table.getDictionary(i)[key]);
+            }
+            for (int i = 0; i < numSums; i++) {
+                sb.append(';').append(table.getSums(i)[row]);
+            }
+            rows.add(sb.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Check if a segment may match a search.
+     *
+     * @param segment   The segment.
+     * @param fromTime  The from time (inclusive).
+     * @param toTime    The to time (exclusive).
+     * @param condition The condition or <code>null</code> if none.
+     *
+     * @return The result of mayMatch.
+     */
+    private static boolean mayMatch(ArchiveSegment segment, long fromTime,
+            long toTime, ColumnQuery.Condition condition) {
+        return segment.mayMatch(fromTime, toTime, condition == null ?
+                new ArrayList<ColumnQuery.Condition>() :
+                Arrays.asList(condition));
+    }
+}
@@ -0,0 +1,68 @@
+package se.uc.stat.web.statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.uc.stat.web.types.ColumnInfo;
+
+/**
+ * Test the selection of the attributes of the StatisticsResult class.
+ */
+public class StatisticsResultTest {
+    /**
+     * Test that a calendar bucket with a plain sort order is selected, so
+     * that it is grouped, and that the finer time columns are ignored.
+     */
+    @Test
+    public void testSortedBucket() {
+        final List<ColumnInfo> columnInfos = new ArrayList<ColumnInfo>(
+                Arrays.asList(ColumnInfo.SERVICE, ColumnInfo.DATE_HOUR,
+                ColumnInfo.TIME_WEEK, ColumnInfo.TIME_MONTH,
+                ColumnInfo.NUM_CORRECT_CALLS));
+        final List<ColumnInfo> ignores = new ArrayList<ColumnInfo>();
+        final List<ColumnInfo> attributes =
+                StatisticsResult.selectAttributes(columnInfos,
+                EnumSet.of(ColumnInfo.TIME_MONTH), ignores);
+        assertEquals("Invalid attributes", Arrays.asList(ColumnInfo.SERVICE,
+                ColumnInfo.TIME_MONTH, ColumnInfo.NUM_CORRECT_CALLS),
+                attributes);
+        assertEquals("Invalid ignores", Arrays.asList(ColumnInfo.DATE_HOUR),
+                ignores);
+    }
+
+    /**
+     * Test that the finer time columns are kept when they are sorted and
+     * when no bucket is chosen.
+     */
+    @Test
+    public void testFinerTimeColumns() {
+        List<ColumnInfo> ignores = new ArrayList<ColumnInfo>();
+        List<ColumnInfo> attributes = StatisticsResult.selectAttributes(
+                new ArrayList<ColumnInfo>(Arrays.asList(
+                ColumnInfo.DATE_HOUR, ColumnInfo.TIME_QUARTER,
+                ColumnInfo.NUM_CORRECT_CALLS)),
+                EnumSet.of(ColumnInfo.DATE_HOUR, ColumnInfo.TIME_QUARTER),
+                ignores);
+        assertEquals("Invalid attributes with sorted hour",
+                Arrays.asList(ColumnInfo.DATE_HOUR, ColumnInfo.TIME_QUARTER,
+                ColumnInfo.NUM_CORRECT_CALLS), attributes);
+        assertEquals("Sorted hour ignored", 0, ignores.size());
+
+        ignores = new ArrayList<ColumnInfo>();
+        attributes = StatisticsResult.selectAttributes(
+                new ArrayList<ColumnInfo>(Arrays.asList(
+                ColumnInfo.DATE_HOUR, ColumnInfo.TIME_WEEK,
+                ColumnInfo.NUM_CORRECT_CALLS)),
+                EnumSet.noneOf(ColumnInfo.class), ignores);
+        assertEquals("Invalid attributes without bucket",
+                Arrays.asList(ColumnInfo.DATE_HOUR,
+                ColumnInfo.NUM_CORRECT_CALLS), attributes);
+        assertEquals("Column ignored without bucket", 0, ignores.size());
+    }
+}